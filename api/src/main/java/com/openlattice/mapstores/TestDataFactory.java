@@ -38,6 +38,7 @@ import com.openlattice.codex.MessageRequest;
 import com.openlattice.collaborations.Collaboration;
 import com.openlattice.collaborations.ProjectedTableKey;
 import com.openlattice.collaborations.ProjectedTableMetadata;
+import com.openlattice.collaborations.ProjectionMode;
 import com.openlattice.collections.CollectionTemplateType;
 import com.openlattice.collections.EntitySetCollection;
 import com.openlattice.collections.EntityTypeCollection;
@@ -891,7 +892,10 @@ public final class TestDataFactory {
     }
 
     public static ProjectedTableMetadata projectedTableMetadata() {
-        return new ProjectedTableMetadata( UUID.randomUUID(), randomAlphanumeric( 10 ) );
+        return new ProjectedTableMetadata(
+                UUID.randomUUID(),
+                randomAlphanumeric( 10 ),
+                ProjectionMode.values()[ r.nextInt( ProjectionMode.values().length ) ] );
     }
 
     private static Map<String, Object> randomMetadataMap() {
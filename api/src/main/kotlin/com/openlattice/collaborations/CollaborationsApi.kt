@@ -27,6 +27,7 @@ interface CollaborationsApi {
         const val IDS_PARAM = "ids"
         const val ORGANIZATION_ID_PARAM = "organizationId"
         const val ORGANIZATION_ID_PATH = "/{$ORGANIZATION_ID_PARAM}"
+        const val PROJECTION_MODE_PARAM = "mode"
     }
 
     /**
@@ -139,12 +140,15 @@ interface CollaborationsApi {
      * @param collaborationId [Collaboration] id
      * @param organizationId [Organization] id
      * @param dataSetId data set id
+     * @param projectionMode how the data set is exposed in the collaboration database, defaults to
+     * [ProjectionMode.FOREIGN_TABLE]
      */
     @PATCH(BASE + COLLABORATION_ID_PATH + PROJECT_PATH + ORGANIZATION_ID_PATH + DATA_SET_ID_PATH)
     fun addDataSetToCollaboration(
         @Path(COLLABORATION_ID_PARAM) collaborationId: UUID,
         @Path(ORGANIZATION_ID_PARAM) organizationId: UUID,
-        @Path(DATA_SET_ID_PARAM) dataSetId: UUID
+        @Path(DATA_SET_ID_PARAM) dataSetId: UUID,
+        @Query(PROJECTION_MODE_PARAM) projectionMode: ProjectionMode? = null
     )
 
     /**
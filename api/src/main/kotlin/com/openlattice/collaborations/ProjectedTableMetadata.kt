@@ -4,5 +4,6 @@ import java.util.*
 
 data class ProjectedTableMetadata(
         val organizationId: UUID,
-        val tableName: String
+        val tableName: String,
+        val projectionMode: ProjectionMode = ProjectionMode.FOREIGN_TABLE
 )
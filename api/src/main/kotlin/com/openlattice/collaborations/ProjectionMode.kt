@@ -0,0 +1,18 @@
+package com.openlattice.collaborations
+
+/**
+ * How a table projected into a [Collaboration] is exposed in the collaboration database.
+ */
+enum class ProjectionMode {
+    /**
+     * The projection is a view over a foreign table, so every query reads through to the organization database.
+     */
+    FOREIGN_TABLE,
+
+    /**
+     * The projection is a view over a local copy of the table, which is seeded once and then kept up to date
+     * incrementally. Queries run entirely in the collaboration database, at the cost of lagging behind the source
+     * table by up to one synchronization interval.
+     */
+    LOCAL_REPLICA
+}
@@ -0,0 +1,132 @@
+package com.openlattice.benchmarks
+
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.mapstores.TestDataFactory
+import com.openlattice.postgres.JsonDeserializer
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import java.lang.reflect.Proxy
+import java.sql.ResultSet
+import java.time.LocalDate
+import java.time.LocalTime
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.util.*
+
+/**
+ * How many values, rows or entities a benchmark works through per invocation, so that it isn't dominated by the values
+ * it happens to start on.
+ */
+const val BATCH_SIZE = 1_024
+
+/**
+ * The datatypes of the properties of a typical integrated entity, such as a person or an incident: mostly short
+ * strings, a longer free text, dates and identifiers.
+ */
+val ENTITY_DATATYPES = listOf(
+        EdmPrimitiveTypeKind.String,
+        EdmPrimitiveTypeKind.String,
+        EdmPrimitiveTypeKind.String,
+        EdmPrimitiveTypeKind.String,
+        EdmPrimitiveTypeKind.Date,
+        EdmPrimitiveTypeKind.DateTimeOffset,
+        EdmPrimitiveTypeKind.TimeOfDay,
+        EdmPrimitiveTypeKind.Int64,
+        EdmPrimitiveTypeKind.Int32,
+        EdmPrimitiveTypeKind.Double,
+        EdmPrimitiveTypeKind.Boolean,
+        EdmPrimitiveTypeKind.Guid,
+        EdmPrimitiveTypeKind.GeographyPoint
+)
+
+private val WORDS = listOf(
+        "north", "county", "street", "avenue", "station", "report", "officer", "vehicle", "incident", "residence",
+        "contact", "services", "follow", "up", "with", "the", "at", "on", "of", "and"
+)
+
+/**
+ * Generates property values and entities for benchmarks. The generator is seeded, so that every run of a benchmark
+ * works on the same values.
+ */
+class BenchmarkFixtures(seed: Long = 42) {
+    private val random = Random(seed)
+
+    val propertyTypes: Map<UUID, PropertyType> = ENTITY_DATATYPES
+            .map { TestDataFactory.propertyType(it) }
+            .associateBy { it.id }
+
+    /**
+     * @return A value of [datatype] as integrations submit it, before it is normalized.
+     */
+    fun rawValue(datatype: EdmPrimitiveTypeKind): Any {
+        return when (datatype) {
+            EdmPrimitiveTypeKind.Date -> LocalDate.of(1940, 1, 1).plusDays(random.nextInt(30_000).toLong()).toString()
+            EdmPrimitiveTypeKind.DateTimeOffset -> OffsetDateTime
+                    .of(2015, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC)
+                    .plusSeconds(random.nextInt(200_000_000).toLong())
+                    .toString()
+            EdmPrimitiveTypeKind.TimeOfDay -> LocalTime.ofSecondOfDay(random.nextInt(86_400).toLong()).toString()
+            EdmPrimitiveTypeKind.Int64 -> random.nextLong().toString()
+            EdmPrimitiveTypeKind.Int32 -> random.nextInt(100_000).toString()
+            EdmPrimitiveTypeKind.Double -> (random.nextDouble() * 1_000).toString()
+            EdmPrimitiveTypeKind.Boolean -> random.nextBoolean().toString()
+            EdmPrimitiveTypeKind.Guid -> UUID(random.nextLong(), random.nextLong()).toString()
+            EdmPrimitiveTypeKind.GeographyPoint -> "${47 + random.nextDouble()}, ${-122 - random.nextDouble()}"
+            else -> text(1 + random.nextInt(if (random.nextInt(4) == 0) 30 else 3))
+        }
+    }
+
+    /**
+     * @return A value of [datatype] as it is stored, after it was normalized.
+     */
+    fun value(propertyType: PropertyType): Any {
+        return JsonDeserializer
+                .validateFormatAndNormalize(
+                        mapOf(propertyType.id to setOf(rawValue(propertyType.datatype))),
+                        mapOf(propertyType.id to propertyType)
+                )
+                .getValue(propertyType.id)
+                .first()
+    }
+
+    /**
+     * @return An entity with one or two values of every property, as integrations submit it.
+     */
+    fun rawEntity(): Map<UUID, Set<Any>> {
+        return propertyTypes.values.associate { propertyType ->
+            propertyType.id to (0..random.nextInt(2)).mapTo(mutableSetOf()) { rawValue(propertyType.datatype) }
+        }
+    }
+
+    fun rawEntities(count: Int): List<Map<UUID, Set<Any>>> = (1..count).map { rawEntity() }
+
+    /**
+     * @return Normalized entities, as they are stored and indexed.
+     */
+    fun entities(count: Int): List<Map<UUID, Set<Any>>> {
+        return rawEntities(count).map { JsonDeserializer.validateFormatAndNormalize(it, propertyTypes) }
+    }
+
+    private fun text(words: Int): String = (1..words).joinToString(" ") { WORDS[random.nextInt(WORDS.size)] }
+}
+
+/**
+ * @return A result set positioned on a single row with the string [columns], which fails on anything else.
+ */
+fun resultSetOf(columns: Map<String, String>): ResultSet {
+    return Proxy.newProxyInstance(ResultSet::class.java.classLoader, arrayOf(ResultSet::class.java)) { _, method, args ->
+        if (method.name == "getString" && args[0] is String) {
+            columns.getValue(args[0] as String)
+        } else {
+            throw UnsupportedOperationException(method.name)
+        }
+    } as ResultSet
+}
+
+/**
+ * @return An instance of [type] for collaborators a benchmark never calls, which fails on every call.
+ */
+fun <T> unsupported(type: Class<T>): T {
+    return type.cast(Proxy.newProxyInstance(type.classLoader, arrayOf(type)) { _, method, _ ->
+        throw UnsupportedOperationException(method.name)
+    })
+}
@@ -0,0 +1,56 @@
+package com.openlattice.data.storage.aws
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider
+import com.amazonaws.auth.BasicAWSCredentials
+import com.amazonaws.services.s3.AmazonS3
+import com.amazonaws.services.s3.AmazonS3ClientBuilder
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest
+import com.openlattice.benchmarks.BATCH_SIZE
+import com.openlattice.data.storage.ByteBlobDataManager
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.net.URL
+import java.util.*
+
+/**
+ * Compares presigning a batch of urls with [S3UrlPresigner] against presigning them one at a time with the sdk.
+ */
+@State(Scope.Benchmark)
+open class S3UrlPresignerBenchmark {
+    private val region = "us-west-2"
+    private val bucket = "openlattice-media"
+    private val credentials = BasicAWSCredentials("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY")
+
+    private lateinit var s3: AmazonS3
+    private lateinit var presigner: S3UrlPresigner
+    private lateinit var keys: Map<String, String?>
+    private lateinit var expiration: Date
+
+    @Setup
+    fun setup() {
+        s3 = AmazonS3ClientBuilder.standard()
+                .withRegion(region)
+                .withCredentials(AWSStaticCredentialsProvider(credentials))
+                .build()
+        presigner = S3UrlPresigner(credentials, region, s3.getUrl(bucket, ""))
+        keys = (1..BATCH_SIZE).associate {
+            ByteBlobDataManager.generateS3Key(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "0123abcd") to
+                    null as String?
+        }
+        expiration = Date(System.currentTimeMillis() + 3_600_000)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun presignAll(): Map<String, URL> {
+        return presigner.presignAll(keys, expiration)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun sdkGeneratePresignedUrl(blackhole: Blackhole) {
+        keys.keys.forEach {
+            blackhole.consume(s3.generatePresignedUrl(GeneratePresignedUrlRequest(bucket, it).withExpiration(expiration)))
+        }
+    }
+}
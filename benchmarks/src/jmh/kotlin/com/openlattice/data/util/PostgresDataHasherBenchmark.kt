@@ -0,0 +1,40 @@
+package com.openlattice.data.util
+
+import com.openlattice.benchmarks.BATCH_SIZE
+import com.openlattice.benchmarks.BenchmarkFixtures
+import com.openlattice.postgres.ValueCodec
+import com.openlattice.postgres.ValueCodecs
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+
+@State(Scope.Benchmark)
+open class PostgresDataHasherBenchmark {
+    @Param("String", "Date", "DateTimeOffset", "Int64", "Double", "Boolean", "Guid", "GeographyPoint")
+    lateinit var datatype: String
+
+    private lateinit var dataType: EdmPrimitiveTypeKind
+    private lateinit var codec: ValueCodec
+    private lateinit var values: List<Any>
+
+    @Setup
+    fun setup() {
+        val fixtures = BenchmarkFixtures()
+        dataType = EdmPrimitiveTypeKind.valueOf(datatype)
+        codec = ValueCodecs.of(dataType)
+        val propertyType = fixtures.propertyTypes.values.first { it.datatype == dataType }
+        values = (1..BATCH_SIZE).map { fixtures.value(propertyType) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun hashObject(blackhole: Blackhole) {
+        values.forEach { blackhole.consume(PostgresDataHasher.hashObject(it, dataType)) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun valueCodecHash(blackhole: Blackhole) {
+        values.forEach { blackhole.consume(codec.hash(it)) }
+    }
+}
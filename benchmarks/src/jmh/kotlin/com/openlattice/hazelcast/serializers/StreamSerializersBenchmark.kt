@@ -0,0 +1,67 @@
+package com.openlattice.hazelcast.serializers
+
+import com.hazelcast.internal.nio.BufferObjectDataInput
+import com.hazelcast.internal.nio.BufferObjectDataOutput
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder
+import com.hazelcast.nio.serialization.StreamSerializer
+import com.openlattice.data.DataEdgeKey
+import com.openlattice.mapstores.TestDataFactory
+import org.openjdk.jmh.annotations.*
+
+private const val BUFFER_SIZE = 4_096
+
+/**
+ * Serializers of the keys and values read on every authorization check, graph traversal and entity set lookup.
+ */
+@State(Scope.Benchmark)
+open class StreamSerializersBenchmark {
+    @Param(
+            "AclKey", "AceKey", "AceValue", "EntityDataKey", "DataEdgeKey", "PropertyType", "EntitySet",
+            "DelegatedUUIDSet"
+    )
+    lateinit var serializerType: String
+
+    private val serializationService = DefaultSerializationServiceBuilder().build()
+
+    private lateinit var serializer: StreamSerializer<Any>
+    private lateinit var value: Any
+    private lateinit var output: BufferObjectDataOutput
+    private lateinit var input: BufferObjectDataInput
+
+    @Setup
+    @Suppress("UNCHECKED_CAST")
+    fun setup() {
+        val (testSerializer, testValue) = when (serializerType) {
+            "AclKey" -> AclKeyStreamSerializer().let { it to it.generateTestValue() }
+            "AceKey" -> AceKeyStreamSerializer().let { it to it.generateTestValue() }
+            "AceValue" -> AceValueStreamSerializer().let { it to it.generateTestValue() }
+            "EntityDataKey" -> EntityDataKeyStreamSerializer() to TestDataFactory.entityDataKey()
+            "DataEdgeKey" -> DataEdgeKeyStreamSerializer() to DataEdgeKey(
+                    TestDataFactory.entityDataKey(), TestDataFactory.entityDataKey(), TestDataFactory.entityDataKey()
+            )
+            "PropertyType" -> PropertyTypeStreamSerializer() to TestDataFactory.propertyType()
+            "EntitySet" -> EntitySetStreamSerializer().let { it to it.generateTestValue() }
+            "DelegatedUUIDSet" -> DelegatedUUIDSetStreamSerializer().let { it to it.generateTestValue() }
+            else -> throw IllegalArgumentException("Unknown serializer type $serializerType")
+        }
+        serializer = testSerializer as StreamSerializer<Any>
+        value = testValue
+
+        output = serializationService.createObjectDataOutput(BUFFER_SIZE)
+        serializer.write(output, value)
+        input = serializationService.createObjectDataInput(output.toByteArray())
+    }
+
+    @Benchmark
+    fun write(): Int {
+        output.clear()
+        serializer.write(output, value)
+        return output.position()
+    }
+
+    @Benchmark
+    fun read(): Any {
+        input.position(0)
+        return serializer.read(input)
+    }
+}
@@ -0,0 +1,37 @@
+package com.openlattice.postgres
+
+import com.openlattice.benchmarks.BATCH_SIZE
+import com.openlattice.benchmarks.BenchmarkFixtures
+import com.openlattice.edm.type.PropertyType
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.util.*
+
+@State(Scope.Benchmark)
+open class JsonDeserializerBenchmark {
+    private lateinit var propertyTypes: Map<UUID, PropertyType>
+    private lateinit var codecs: Map<UUID, ValueCodec>
+    private lateinit var entities: List<Map<UUID, Set<Any>>>
+
+    @Setup
+    fun setup() {
+        val fixtures = BenchmarkFixtures()
+        propertyTypes = fixtures.propertyTypes
+        codecs = ValueCodecs.forPropertyTypes(propertyTypes)
+        entities = fixtures.rawEntities(BATCH_SIZE)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun validateFormatAndNormalize(blackhole: Blackhole) {
+        entities.forEach { blackhole.consume(JsonDeserializer.validateFormatAndNormalize(it, propertyTypes)) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun validateFormatAndNormalizeWithCodecs(blackhole: Blackhole) {
+        entities.forEach {
+            blackhole.consume(JsonDeserializer.validateFormatAndNormalize(it, propertyTypes, codecs) { "" })
+        }
+    }
+}
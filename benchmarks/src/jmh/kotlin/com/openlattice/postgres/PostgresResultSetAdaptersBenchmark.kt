@@ -0,0 +1,36 @@
+package com.openlattice.postgres
+
+import com.geekbeast.mappers.mappers.ObjectMappers
+import com.openlattice.benchmarks.BATCH_SIZE
+import com.openlattice.benchmarks.BenchmarkFixtures
+import com.openlattice.benchmarks.resultSetOf
+import com.openlattice.benchmarks.unsupported
+import com.openlattice.data.storage.ByteBlobDataManager
+import com.openlattice.data.storage.postgres.PROPERTIES
+import com.openlattice.edm.type.PropertyType
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.sql.ResultSet
+import java.util.*
+
+@State(Scope.Benchmark)
+open class PostgresResultSetAdaptersBenchmark {
+    private val byteBlobDataManager = unsupported(ByteBlobDataManager::class.java)
+
+    private lateinit var propertyTypes: Map<UUID, PropertyType>
+    private lateinit var rows: List<ResultSet>
+
+    @Setup
+    fun setup() {
+        val fixtures = BenchmarkFixtures()
+        val mapper = ObjectMappers.getJsonMapper()
+        propertyTypes = fixtures.propertyTypes
+        rows = fixtures.entities(BATCH_SIZE).map { resultSetOf(mapOf(PROPERTIES to mapper.writeValueAsString(it))) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun readJsonDataColumns(blackhole: Blackhole) {
+        rows.forEach { blackhole.consume(readJsonDataColumns(it, propertyTypes, byteBlobDataManager)) }
+    }
+}
@@ -0,0 +1,30 @@
+package com.openlattice.scrunchie.search
+
+import com.openlattice.benchmarks.BATCH_SIZE
+import com.openlattice.benchmarks.BenchmarkFixtures
+import org.elasticsearch.action.bulk.BulkRequest
+import org.openjdk.jmh.annotations.*
+import java.util.*
+
+/**
+ * Formats batches of entities into the bulk request that [ConductorElasticsearchImpl.createBulkEntityData] sends,
+ * without sending it, so that the benchmark needs no Elasticsearch and isn't skewed by the round trip to one.
+ */
+@State(Scope.Benchmark)
+open class ConductorElasticsearchImplBenchmark {
+    private val entityTypeId = UUID.randomUUID()
+    private val entitySetId = UUID.randomUUID()
+
+    private lateinit var entitiesById: Map<UUID, Map<UUID, Set<Any>>>
+
+    @Setup
+    fun setup() {
+        entitiesById = BenchmarkFixtures().entities(BATCH_SIZE).associateBy { UUID.randomUUID() }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun buildBulkEntityDataRequest(): BulkRequest {
+        return ConductorElasticsearchImpl.buildBulkEntityDataRequest(entityTypeId, entitySetId, entitiesById)
+    }
+}
@@ -0,0 +1,88 @@
+package com.openlattice.shuttle.transformations
+
+import com.openlattice.benchmarks.BATCH_SIZE
+import com.openlattice.benchmarks.BenchmarkFixtures
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import transforms.CaseTransform
+import transforms.ColumnTransform
+import transforms.ConcatCombineTransform
+import transforms.DateTimeTransform
+import transforms.ParseDoubleTransform
+import java.time.OffsetDateTime
+import java.time.format.DateTimeFormatter
+
+private const val NAME = "name"
+private const val ADDRESS = "address"
+private const val ISO_DATE_TIME = "isoDateTime"
+private const val LOCAL_DATE_TIME = "localDateTime"
+private const val AMOUNT = "amount"
+
+private const val LOCAL_DATE_TIME_PATTERN = "MM/dd/yyyy HH:mm:ss"
+
+/**
+ * Applies the transformations integrations most often run on every row they read to batches of generated rows.
+ */
+@State(Scope.Benchmark)
+open class TransformationBenchmark {
+    private val dateTime = DateTimeTransform(arrayOf(LOCAL_DATE_TIME_PATTERN), "America/Los_Angeles")
+    private val nameCase = CaseTransform(CaseTransform.CaseType.name)
+    private val parseDouble = ParseDoubleTransform()
+    private val concatCombine = ConcatCombineTransform(
+            listOf(ColumnTransform(NAME), ColumnTransform(ADDRESS), ColumnTransform(AMOUNT)),
+            " "
+    )
+
+    private lateinit var rows: List<Map<String, String>>
+
+    @Setup
+    fun setup() {
+        val fixtures = BenchmarkFixtures()
+        val localDateTime = DateTimeFormatter.ofPattern(LOCAL_DATE_TIME_PATTERN)
+
+        rows = (1..BATCH_SIZE).map {
+            val dateTime = fixtures.rawValue(EdmPrimitiveTypeKind.DateTimeOffset) as String
+            mapOf(
+                    NAME to fixtures.rawValue(EdmPrimitiveTypeKind.String) as String,
+                    ADDRESS to fixtures.rawValue(EdmPrimitiveTypeKind.String) as String,
+                    ISO_DATE_TIME to dateTime,
+                    LOCAL_DATE_TIME to OffsetDateTime.parse(dateTime).format(localDateTime),
+                    AMOUNT to fixtures.rawValue(EdmPrimitiveTypeKind.Double) as String
+            )
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun dateTimeTransformIso(blackhole: Blackhole) {
+        rows.forEach { blackhole.consume(dateTime.apply(it.getValue(ISO_DATE_TIME))) }
+    }
+
+    /**
+     * Dates that only match one of the given patterns, which are parsed after every ISO format has been tried.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun dateTimeTransformPattern(blackhole: Blackhole) {
+        rows.forEach { blackhole.consume(dateTime.apply(it.getValue(LOCAL_DATE_TIME))) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun caseTransform(blackhole: Blackhole) {
+        rows.forEach { blackhole.consume(nameCase.apply(it.getValue(NAME))) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun parseDoubleTransform(blackhole: Blackhole) {
+        rows.forEach { blackhole.consume(parseDouble.apply(it.getValue(AMOUNT))) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun concatCombineTransform(blackhole: Blackhole) {
+        rows.forEach { blackhole.consume(concatCombine.apply(it)) }
+    }
+}
@@ -37,11 +37,13 @@ import com.openlattice.search.requests.EntityDataKeySearchResult;
 import com.openlattice.search.requests.SearchConstraints;
 import com.openlattice.search.requests.SearchResult;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 public interface ConductorElasticsearchApi {
 
@@ -169,6 +171,15 @@ public interface ConductorElasticsearchApi {
 
     boolean deleteEntityDataBulk( UUID entityTypeId, Set<UUID> entityKeyIds );
 
+    /**
+     * Reads the last write recorded in the documents of entities, for comparing the index against postgres.
+     * @param entityTypeId The entity type of the entities.
+     * @param entityKeyIds The entity key ids of the entities to look up.
+     * @return The last write of each entity with a document, mapped by entity key id. Entities without a document are
+     * left out.
+     */
+    Map<UUID, OffsetDateTime> getIndexedLastWrites( UUID entityTypeId, Set<UUID> entityKeyIds );
+
     /* Update Mappings */
     boolean addPropertyTypesToEntityType( EntityType entityType, List<PropertyType> newPropertyTypes );
 
@@ -193,6 +204,24 @@ public interface ConductorElasticsearchApi {
             Map<UUID, DelegatedUUIDSet> linkingEntitySets
     );
 
+    /**
+     * Executes several entity data searches sharing the same authorizations, returning their results in the same
+     * order. Implementations should send the searches to elasticsearch together.
+     */
+    default List<EntityDataKeySearchResult> executeSearches(
+            List<SearchConstraints> searchConstraints,
+            Map<UUID, UUID> entityTypesByEntitySetId,
+            Map<UUID, DelegatedUUIDSet> authorizedPropertyTypesByEntitySet,
+            Map<UUID, DelegatedUUIDSet> linkingEntitySets ) {
+        return searchConstraints.stream()
+                .map( constraints -> executeSearch(
+                        constraints,
+                        entityTypesByEntitySetId,
+                        authorizedPropertyTypesByEntitySet,
+                        linkingEntitySets ) )
+                .collect( Collectors.toList() );
+    }
+
     /**
      * Performs a capped size search across all non-linked entity sets of a particular index.
      * NOTE: permissions are not enforced on this search, so it should not be exposed via the api.
@@ -14,6 +14,11 @@ const val TIME_TO_LIVE = "timeToLive"
 const val ACCESS_KEY_ID = "accessKeyId"
 const val SECRET_ACCESS_KEY = "secretAccessKey"
 const val SEARCH_CONFIGURATION = "searchConfiguration"
+const val BLOB_DIRECTORY = "blobDirectory"
+const val BLOB_BASE_URL = "blobBaseUrl"
+const val BLOB_SIGNING_SECRET = "blobSigningSecret"
+const val READ_REPLICA_MAX_STALENESS = "readReplicaMaxStaleness"
+const val SLOW_REQUEST_THRESHOLD = "slowRequestThreshold"
 
 @ReloadableConfiguration(uri = "datastore.yaml")
 data class DatastoreConfiguration(
@@ -24,7 +29,12 @@ data class DatastoreConfiguration(
         @JsonProperty(SECRET_ACCESS_KEY) val secretAccessKey: String,
         @JsonProperty("readOnlyReplica") val readOnlyReplica: Properties = Properties(),
         @JsonProperty("googleMapsApiKey") val googleMapsApiKey: String = "",
-        @JsonProperty(SEARCH_CONFIGURATION ) val searchConfiguration: SearchConfiguration
+        @JsonProperty(SEARCH_CONFIGURATION ) val searchConfiguration: SearchConfiguration,
+        @JsonProperty(BLOB_DIRECTORY) val blobDirectory: String = "",
+        @JsonProperty(BLOB_BASE_URL) val blobBaseUrl: String = "",
+        @JsonProperty(BLOB_SIGNING_SECRET) val blobSigningSecret: String = "",
+        @JsonProperty(READ_REPLICA_MAX_STALENESS) val readReplicaMaxStaleness: Long = 0,
+        @JsonProperty(SLOW_REQUEST_THRESHOLD) val slowRequestThreshold: Long = 1_000
 ) : Configuration {
 
     companion object {
@@ -3,6 +3,7 @@ package com.openlattice.datastore.constants;
 public final class DatastoreProfiles {
     public static final String MEDIA_LOCAL_PROFILE     = "medialocal";
     public static final String MEDIA_LOCAL_AWS_PROFILE = "medialocalaws";
+    public static final String MEDIA_FILESYSTEM_PROFILE = "mediafilesystem";
 
     private DatastoreProfiles() {
     }
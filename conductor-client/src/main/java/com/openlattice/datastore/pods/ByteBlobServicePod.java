@@ -25,6 +25,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.geekbeast.rhizome.configuration.ConfigurationConstants.Profiles;
 import com.geekbeast.rhizome.pods.ConfigurationLoader;
 import com.openlattice.data.storage.ByteBlobDataManager;
+import com.openlattice.data.storage.FilesystemBlobDataService;
 import com.openlattice.data.storage.LocalBlobDataService;
 import com.openlattice.data.storage.aws.AwsBlobDataService;
 import com.openlattice.datastore.configuration.DatastoreConfiguration;
@@ -36,6 +37,7 @@ import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Profile;
 
 import javax.inject.Inject;
+import java.nio.file.Paths;
 
 /**
  * @author Matthew Tamayo-Rios &lt;matthew@openlattice.com&gt;
@@ -63,6 +65,18 @@ public class ByteBlobServicePod {
         return new LocalBlobDataService( hikariDataSource );
     }
 
+    @Bean( name = "byteBlobDataManager" )
+    @DependsOn( "datastoreConfiguration" )
+    @Profile( { DatastoreProfiles.MEDIA_FILESYSTEM_PROFILE } )
+    public ByteBlobDataManager filesystemBlobDataManager() {
+        DatastoreConfiguration configuration = datastoreConfiguration();
+        return new FilesystemBlobDataService(
+                Paths.get( configuration.getBlobDirectory() ),
+                configuration.getBlobBaseUrl(),
+                configuration.getBlobSigningSecret(),
+                configuration.getTimeToLive() );
+    }
+
     @Bean( name = "byteBlobDataManager" )
     @DependsOn( "datastoreConfiguration" )
     @Profile( { DatastoreProfiles.MEDIA_LOCAL_AWS_PROFILE, Profiles.AWS_CONFIGURATION_PROFILE, Profiles.AWS_TESTING_PROFILE } )
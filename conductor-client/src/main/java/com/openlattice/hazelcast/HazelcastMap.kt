@@ -37,6 +37,7 @@ import com.openlattice.authorization.AclKeySet
 import com.openlattice.authorization.SecurablePrincipal
 import com.openlattice.authorization.securable.SecurableObjectType
 import com.openlattice.codex.Base64Media
+import com.openlattice.codex.MessageRequest
 import com.openlattice.collaborations.Collaboration
 import com.openlattice.collaborations.ProjectedTableKey
 import com.openlattice.collaborations.ProjectedTableMetadata
@@ -71,6 +72,8 @@ import com.openlattice.shuttle.Integration
 import com.openlattice.shuttle.IntegrationJob
 import com.openlattice.transporter.types.TransporterColumnSet
 import com.openlattice.organizations.JdbcConnectionParameters
+import com.openlattice.tracing.RequestTracing
+import com.openlattice.tracing.TraceCategory
 import java.util.*
 
 class HazelcastMap<K, V> internal constructor(val name: String) : TypedMapIdentifier<K, V> {
@@ -91,9 +94,20 @@ class HazelcastMap<K, V> internal constructor(val name: String) : TypedMapIdenti
         return name
     }
 
+    /**
+     * @return The map, with its operations traced as part of the request they are made by.
+     */
     fun getMap(hazelcast: HazelcastInstance): IMap<K, V> {
+        return getMap(hazelcast, TraceCategory.HAZELCAST)
+    }
+
+    /**
+     * @return The map, with its operations traced as [category] as part of the request they are made by.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun getMap(hazelcast: HazelcastInstance, category: TraceCategory): IMap<K, V> {
         this.checker.check()
-        return hazelcast.getMap(name)
+        return RequestTracing.traced(IMap::class.java as Class<IMap<K, V>>, hazelcast.getMap(name), category, name)
     }
 
     companion object {
@@ -115,6 +129,8 @@ class HazelcastMap<K, V> internal constructor(val name: String) : TypedMapIdenti
         @JvmField val AUDIT_RECORD_ENTITY_SETS = HazelcastMap<AclKey, AuditRecordEntitySetConfiguration>("AUDIT_RECORD_ENTITY_SETS")
         @JvmField val CODEX_LOCKS = HazelcastMap<SmsInformationKey, Long>("CODEX_LOCKS")
         @JvmField val CODEX_MEDIA = HazelcastMap<UUID, Base64Media>("CODEX_MEDIA")
+        @JvmField val CODEX_OUTGOING_MESSAGES = HazelcastMap<UUID, MessageRequest>("CODEX_OUTGOING_MESSAGES")
+        @JvmField val CODEX_SEND_SLOTS = HazelcastMap<String, Long>("CODEX_SEND_SLOTS")
         @JvmField val COLLABORATIONS = HazelcastMap<UUID, Collaboration>("COLLABORATIONS")
         @JvmField val DB_CREDS = HazelcastMap<AclKey, MaterializedViewAccount>("DB_CREDS")
         @JvmField val DELETED_ENTITY_SETS = HazelcastMap<UUID, DelegatedIntSet>("DELETED_ENTITY_SETS")
@@ -145,6 +161,8 @@ class HazelcastMap<K, V> internal constructor(val name: String) : TypedMapIdenti
         @JvmField val ORGANIZATION_DATABASES = HazelcastMap<UUID, OrganizationDatabase>("ORGANIZATION_DATABASES")
         @JvmField val ORGANIZATIONS = HazelcastMap<UUID, Organization>("ORGANIZATIONS")
         @JvmField val PERMISSIONS = HazelcastMap<AceKey, AceValue>("PERMISSIONS")
+        @JvmField val PRINCIPAL_CLOSURES = HazelcastMap<AclKey, AclKeySet>("PRINCIPAL_CLOSURES")
+        @JvmField val PRINCIPAL_MEMBERS = HazelcastMap<AclKey, AclKeySet>("PRINCIPAL_MEMBERS")
         @JvmField val PRINCIPAL_TREES = HazelcastMap<AclKey, AclKeySet>("PRINCIPAL_TREES")
         @JvmField val PRINCIPALS = HazelcastMap<AclKey, SecurablePrincipal>("PRINCIPALS")
         @JvmField val PROJECTED_TABLES = HazelcastMap<ProjectedTableKey, ProjectedTableMetadata>("PROJECTED_TABLES")
@@ -157,6 +175,8 @@ class HazelcastMap<K, V> internal constructor(val name: String) : TypedMapIdenti
         @JvmField val SECURABLE_OBJECT_TYPES = HazelcastMap<AclKey, SecurableObjectType>("SECURABLE_OBJECT_TYPES")
         @JvmField val SECURABLE_PRINCIPALS = HazelcastMap<String, SecurablePrincipal>("SECURABLE_PRINCIPALS")
         @JvmField val SMS_INFORMATION = HazelcastMap<SmsInformationKey, SmsEntitySetInformation>("SMS_INFORMATION")
+        @JvmField val SUBSCRIBED_ENTITY_SETS = HazelcastMap<UUID, Boolean>("SUBSCRIBED_ENTITY_SETS")
+        @JvmField val THREADS_AWAITING_CONNECTION = HazelcastMap<String, Int>("THREADS_AWAITING_CONNECTION")
         @JvmField val TRANSPORTER_DB_COLUMNS = HazelcastMap<UUID, TransporterColumnSet>("TRANSPORTER_DB_COLUMNS")
         @JvmField val USERS = HazelcastMap<String, User>("USERS")
         @JvmField val WAREHOUSES = HazelcastMap<UUID, JdbcConnectionParameters>("WAREHOUSES")
@@ -322,6 +322,7 @@ public enum StreamSerializerTypeIds {
     SECURABLE_OBJECT_METADATA,
     SECURABLE_OBJECT_METADATA_UPDATE,
     SECURABLE_OBJECT_METADATA_UPDATE_ENTRY_PROCESSOR,
-    JDBC_CONNECTION_PARAMETERS
+    JDBC_CONNECTION_PARAMETERS,
+    POSTGRES_ENTITY_SET_SIZES_RECONCILIATION_TASK
 
 }
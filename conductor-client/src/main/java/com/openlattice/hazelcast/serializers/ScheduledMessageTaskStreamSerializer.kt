@@ -1,6 +1,7 @@
 package com.openlattice.hazelcast.serializers
 
 import com.geekbeast.hazelcast.serializers.TestableSelfRegisteringStreamSerializer
+import com.geekbeast.rhizome.hazelcast.serializers.UUIDStreamSerializerUtils
 import com.hazelcast.nio.ObjectDataInput
 import com.hazelcast.nio.ObjectDataOutput
 import com.openlattice.codex.SendCodexMessageTask
@@ -25,10 +26,12 @@ class ScheduledMessageTaskStreamSerializer : TestableSelfRegisteringStreamSerial
 
     override fun write(out: ObjectDataOutput, `object`: SendCodexMessageTask) {
         MessageRequestStreamSerializer.serialize(out, `object`.message)
+        UUIDStreamSerializerUtils.serialize(out, `object`.outgoingMessageId)
     }
 
     override fun read(`in`: ObjectDataInput): SendCodexMessageTask {
         val messageRequest = MessageRequestStreamSerializer.deserialize(`in`)
-        return SendCodexMessageTask(messageRequest)
+        val outgoingMessageId = UUIDStreamSerializerUtils.deserialize(`in`)
+        return SendCodexMessageTask(messageRequest, outgoingMessageId)
     }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ package com.openlattice.postgres;
 import com.geekbeast.postgres.PostgresColumnDefinition;
 import com.geekbeast.postgres.PostgresDatatype;
 import com.openlattice.IdConstants;
+import com.openlattice.collaborations.ProjectionMode;
 import com.openlattice.edm.EntitySet;
 import com.openlattice.edm.type.Analyzer;
 
@@ -197,6 +198,8 @@ public final class PostgresColumn {
     public static final String                   EMAILS_FIELD                      = "emails";
     public static final PostgresColumnDefinition EMAILS                            =
             new PostgresColumnDefinition( EMAILS_FIELD, TEXT_ARRAY ).withDefault( "'{}'" ).notNull();
+    public static final PostgresColumnDefinition ENTITY_COUNT                      =
+            new PostgresColumnDefinition( COUNT, BIGINT ).notNull();
     public static final String                   ENTITY_ID_FIELD                   = "entity_id";
     public static final PostgresColumnDefinition ENTITY_ID                         =
             new PostgresColumnDefinition( ENTITY_ID_FIELD, TEXT );
@@ -255,6 +258,7 @@ public final class PostgresColumn {
     public static final String                   EXTERNAL_FIELD                    = "external";
     public static final PostgresColumnDefinition EXTERNAL                          =
             new PostgresColumnDefinition( EXTERNAL_FIELD, BOOLEAN );
+    public static final String                   FINGERPRINT_FIELD                 = "fingerprint";
     public static final String                   FLAGS_FIELD                       = "flags";
     public static final PostgresColumnDefinition FLAGS                             =
             new PostgresColumnDefinition( FLAGS_FIELD, BOOLEAN ).notNull();
@@ -452,6 +456,11 @@ public final class PostgresColumn {
     public static final String                   PRIVILEGE_TYPE_FIELD              = "privilege_type";
     public static final PostgresColumnDefinition PRIVILEGE_TYPE                    =
             new PostgresColumnDefinition( PRIVILEGE_TYPE_FIELD, TEXT );
+    public static final String                   PROJECTION_MODE_FIELD             = "projection_mode";
+    public static final PostgresColumnDefinition PROJECTION_MODE                   =
+            new PostgresColumnDefinition( PROJECTION_MODE_FIELD, TEXT )
+                    .withDefault( "'" + ProjectionMode.FOREIGN_TABLE.name() + "'" )
+                    .notNull();
     public static final String                   PROPERTIES_FIELD                  = "properties";
     public static final PostgresColumnDefinition PROPERTIES                        =
             new PostgresColumnDefinition( PROPERTIES_FIELD, UUID_ARRAY ).notNull();
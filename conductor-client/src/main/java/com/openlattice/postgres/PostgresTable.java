@@ -66,6 +66,7 @@ import static com.openlattice.postgres.PostgresColumn.DST_SELECTS;
 import static com.openlattice.postgres.PostgresColumn.EDGE_ENTITY_KEY_ID;
 import static com.openlattice.postgres.PostgresColumn.EDGE_ENTITY_SET_ID;
 import static com.openlattice.postgres.PostgresColumn.EMAILS;
+import static com.openlattice.postgres.PostgresColumn.ENTITY_COUNT;
 import static com.openlattice.postgres.PostgresColumn.ENTITY_ID;
 import static com.openlattice.postgres.PostgresColumn.ENTITY_SET_COLLECTION_ID;
 import static com.openlattice.postgres.PostgresColumn.ENTITY_SET_FLAGS;
@@ -116,6 +117,7 @@ import static com.openlattice.postgres.PostgresColumn.ORDINAL_POSITION;
 import static com.openlattice.postgres.PostgresColumn.ORGANIZATION;
 import static com.openlattice.postgres.PostgresColumn.ORGANIZATION_ID;
 import static com.openlattice.postgres.PostgresColumn.ORGANIZATION_IDS;
+import static com.openlattice.postgres.PostgresColumn.PARTITION;
 import static com.openlattice.postgres.PostgresColumn.PARTITIONS;
 import static com.openlattice.postgres.PostgresColumn.PARTITION_INDEX;
 import static com.openlattice.postgres.PostgresColumn.PHONE_NUMBER;
@@ -123,6 +125,7 @@ import static com.openlattice.postgres.PostgresColumn.PII;
 import static com.openlattice.postgres.PostgresColumn.PRINCIPAL_ID;
 import static com.openlattice.postgres.PostgresColumn.PRINCIPAL_OF_ACL_KEY;
 import static com.openlattice.postgres.PostgresColumn.PRINCIPAL_TYPE;
+import static com.openlattice.postgres.PostgresColumn.PROJECTION_MODE;
 import static com.openlattice.postgres.PostgresColumn.PROPERTIES;
 import static com.openlattice.postgres.PostgresColumn.PROPERTY_TAGS;
 import static com.openlattice.postgres.PostgresColumn.PROPERTY_TYPE_ID;
@@ -211,6 +214,18 @@ public final class PostgresTable {
             .distributionColumn( ID_VALUE );
     public static final PostgresTableDefinition DATA                        = PostgresDataTables
             .buildDataTableDefinition();
+    public static final PostgresTableDefinition DATA_EXPIRATIONS            =
+            new PostgresTableDefinition( "data_expirations" )
+                    .addColumns( ENTITY_SET_ID, ID, EXPIRATION_DATE )
+                    .primaryKey( ENTITY_SET_ID, ID );
+    public static final PostgresTableDefinition DATA_EXPIRATION_POLICIES    =
+            new PostgresTableDefinition( "data_expiration_policies" )
+                    .addColumns( ENTITY_SET_ID,
+                            TIME_TO_EXPIRATION,
+                            EXPIRATION_BASE_FLAG,
+                            EXPIRATION_DELETE_FLAG,
+                            EXPIRATION_START_ID )
+                    .primaryKey( ENTITY_SET_ID );
     public static final PostgresTableDefinition DB_CREDS                    =
             new PostgresTableDefinition( "db_creds" )
                     .addColumns( ACL_KEY, USERNAME, CREDENTIAL )
@@ -252,6 +267,10 @@ public final class PostgresTable {
                             EXPIRATION_BASE_FLAG,
                             EXPIRATION_DELETE_FLAG,
                             EXPIRATION_START_ID );
+    public static final PostgresTableDefinition ENTITY_SET_SIZES            =
+            new PostgresTableDefinition( "entity_set_sizes" )
+                    .addColumns( ENTITY_SET_ID, PARTITION, ENTITY_COUNT )
+                    .primaryKey( ENTITY_SET_ID, PARTITION );
     public static final PostgresTableDefinition ENTITY_SET_COLLECTIONS      =
             new PostgresTableDefinition( "entity_set_collections" )
                     .addColumns(
@@ -481,7 +500,7 @@ public final class PostgresTable {
             .primaryKey( ACL_KEY, PRINCIPAL_OF_ACL_KEY );
     public static final PostgresTableDefinition PROJECTED_TABLES    = new PostgresTableDefinition(
             "projected_tables" )
-            .addColumns( TABLE_ID, COLLABORATION_ID, ORGANIZATION_ID, NAME )
+            .addColumns( TABLE_ID, COLLABORATION_ID, ORGANIZATION_ID, NAME, PROJECTION_MODE )
             .primaryKey( TABLE_ID, COLLABORATION_ID );
     public static final PostgresTableDefinition PROPAGATION_GRAPH   = new PostgresTableDefinition(
             "propagation_graph" )
@@ -603,6 +622,11 @@ public final class PostgresTable {
                         .name( "edges_needing_transport_idx" )
                         .ifNotExists() );
 
+        DATA_EXPIRATIONS.addIndexes(
+                new PostgresColumnsIndexDefinition( DATA_EXPIRATIONS, ENTITY_SET_ID, EXPIRATION_DATE )
+                        .name( "data_expirations_entity_set_id_expiration_date_idx" )
+                        .ifNotExists() );
+
         IDS.addIndexes(
                 new PostgresColumnsIndexDefinition( IDS, ENTITY_SET_ID )
                         .name( "ids_entity_set_id_idx" )
@@ -43,6 +43,7 @@ import com.openlattice.authorization.securable.SecurableObjectType;
 import com.openlattice.collaborations.Collaboration;
 import com.openlattice.collaborations.ProjectedTableKey;
 import com.openlattice.collaborations.ProjectedTableMetadata;
+import com.openlattice.collaborations.ProjectionMode;
 import com.openlattice.collections.CollectionTemplateKey;
 import com.openlattice.collections.CollectionTemplateType;
 import com.openlattice.collections.EntitySetCollection;
@@ -203,6 +204,7 @@ import static com.openlattice.postgres.PostgresColumn.PII;
 import static com.openlattice.postgres.PostgresColumn.PRINCIPAL_ID_FIELD;
 import static com.openlattice.postgres.PostgresColumn.PRINCIPAL_OF_ACL_KEY;
 import static com.openlattice.postgres.PostgresColumn.PRINCIPAL_TYPE_FIELD;
+import static com.openlattice.postgres.PostgresColumn.PROJECTION_MODE_FIELD;
 import static com.openlattice.postgres.PostgresColumn.PRIVILEGE_TYPE;
 import static com.openlattice.postgres.PostgresColumn.PROPERTIES;
 import static com.openlattice.postgres.PostgresColumn.PROPERTY_TAGS_FIELD;
@@ -1254,7 +1256,10 @@ public final class ResultSetAdapters {
     }
 
     @NotNull public static ProjectedTableMetadata projectedTableMetadata( @NotNull ResultSet rs ) throws SQLException {
-        return new ProjectedTableMetadata( organizationId( rs ), name( rs ) );
+        return new ProjectedTableMetadata(
+                organizationId( rs ),
+                name( rs ),
+                ProjectionMode.valueOf( rs.getString( PROJECTION_MODE_FIELD ) ) );
     }
 
     @NotNull public static SecurableObjectMetadata securableObjectMetadata( @NotNull ResultSet rs )
@@ -61,10 +61,18 @@ import org.apache.lucene.search.join.ScoreMode;
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.MultiSearchRequest;
 import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.update.UpdateRequest;
@@ -83,9 +91,11 @@ import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.*;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryAction;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
 import org.elasticsearch.index.reindex.DeleteByQueryRequestBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.GeoDistanceSortBuilder;
 import org.elasticsearch.search.sort.NestedSortBuilder;
@@ -98,6 +108,7 @@ import org.springframework.scheduling.annotation.Scheduled;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -161,8 +172,9 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
 
     private       Client                              client;
     private       RestHighLevelClient                 restClient;
+    private       ElasticsearchAsyncClient            asyncClient;
     private       ElasticsearchTransportClientFactory factory;
-    private       boolean                             connected = true;
+    private       volatile boolean                    connected = true;
     private       String                              server;
     private       String                              cluster;
     private       int                                 port;
@@ -181,6 +193,7 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         init( config );
         client = someClient.orElseGet( factory::getClient );
         restClient = factory.getRestClient();
+        asyncClient = new ElasticsearchAsyncClient( restClient );
         initializeIndices();
     }
 
@@ -433,11 +446,11 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         return fieldMapping;
     }
 
-    private String getIndexName( UUID entityTypeId ) {
+    private static String getIndexName( UUID entityTypeId ) {
         return DATA_INDEX_PREFIX + entityTypeId;
     }
 
-    private String getTypeName( UUID entityTypeId ) {
+    private static String getTypeName( UUID entityTypeId ) {
         return DATA_TYPE_PREFIX + entityTypeId;
     }
 
@@ -614,7 +627,7 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         }
     }
 
-    private byte[] formatEntity( UUID entitySetId, Map<UUID, Set<Object>> entity ) {
+    private static byte[] formatEntity( UUID entitySetId, Map<UUID, Set<Object>> entity ) {
 
         Map<Object, Object> values = new HashMap<>( entity.size() + 1 );
         entity.forEach( values::put );
@@ -638,13 +651,46 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
 
         byte[] data = formatEntity( entitySetId, propertyValues );
 
-        if ( data != null ) {
-            client.prepareIndex( getIndexName( entityTypeId ), getTypeName( entityTypeId ), entityKeyId.toString() )
-                    .setSource( data, XContentType.JSON )
-                    .execute().actionGet();
+        if ( data == null ) {
+            return false;
+        }
+
+        BulkItemResponse resp = ElasticsearchAsyncClient.await( asyncClient.add(
+                new IndexRequest( getIndexName( entityTypeId ), getTypeName( entityTypeId ), entityKeyId.toString() )
+                        .source( data, XContentType.JSON ) ) );
+
+        if ( resp.isFailed() ) {
+            logger.info( "Unable to index entity {} of entity set {}", entityKeyId, entitySetId );
+            logger.debug( "Entity index failure details: {}", resp.getFailureMessage() );
+            return false;
         }
 
-        return data != null;
+        return true;
+    }
+
+    /**
+     * Builds the bulk request that {@link #createBulkEntityData} sends, without sending it. Entities that can't be
+     * formatted are left out.
+     */
+    public static BulkRequest buildBulkEntityDataRequest(
+            UUID entityTypeId,
+            UUID entitySetId,
+            Map<UUID, Map<UUID, Set<Object>>> entitiesById ) {
+        String indexName = getIndexName( entityTypeId );
+        String indexType = getTypeName( entityTypeId );
+
+        BulkRequest request = new BulkRequest();
+
+        entitiesById.forEach( ( entityKeyId, entityData ) -> {
+            byte[] data = formatEntity( entitySetId, entityData );
+
+            if ( data != null ) {
+                request.add( new IndexRequest( indexName, indexType, entityKeyId.toString() )
+                        .source( data, XContentType.JSON ) );
+            }
+        } );
+
+        return request;
     }
 
     @Override
@@ -655,22 +701,9 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         if ( !verifyElasticsearchConnection() ) { return false; }
 
         if ( !entitiesById.isEmpty() ) {
-            String indexName = getIndexName( entityTypeId );
-            String indexType = getTypeName( entityTypeId );
-
-            BulkRequestBuilder requestBuilder = client.prepareBulk();
+            BulkRequest request = buildBulkEntityDataRequest( entityTypeId, entitySetId, entitiesById );
 
-            entitiesById.forEach( ( entityKeyId, entityData ) -> {
-                byte[] data = formatEntity( entitySetId, entityData );
-
-                if ( data != null ) {
-                    requestBuilder.add(
-                            client.prepareIndex( indexName, indexType, entityKeyId.toString() )
-                                    .setSource( data, XContentType.JSON ) );
-                }
-            } );
-
-            BulkResponse resp = requestBuilder.execute().actionGet();
+            BulkResponse resp = ElasticsearchAsyncClient.await( asyncClient.bulk( request ) );
 
             if ( resp.hasFailures() ) {
                 logger.info( "At least one failure observed when attempting to index {} entities for entity set {}",
@@ -696,19 +729,18 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
             String indexName = getIndexName( entityTypeId );
             String indexType = getTypeName( entityTypeId );
 
-            BulkRequestBuilder requestBuilder = client.prepareBulk();
+            final var request = new BulkRequest();
 
             entitiesByLinkingId.forEach( ( linkingId, entityValues ) -> {
                         final byte[] data = formatLinkedEntity( entityValues );
 
                         if ( data != null ) {
-                            requestBuilder.add(
-                                    client.prepareIndex( indexName, indexType, linkingId.toString() )
-                                            .setSource( data, XContentType.JSON ) );
+                            request.add( new IndexRequest( indexName, indexType, linkingId.toString() )
+                                    .source( data, XContentType.JSON ) );
                         }
                     }
             );
-            final var resp = requestBuilder.execute().actionGet();
+            final var resp = ElasticsearchAsyncClient.await( asyncClient.bulk( request ) );
 
             if ( resp.hasFailures() ) {
                 logger.info(
@@ -730,25 +762,84 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         String index = getIndexName( entityTypeId );
         String type = getTypeName( entityTypeId );
 
-        BulkRequestBuilder request = client.prepareBulk();
-        entityKeyIds.forEach( entityKeyId ->
-                request.add( client.prepareDelete( index, type, entityKeyId.toString() ) )
-        );
+        if ( entityKeyIds.isEmpty() ) {
+            return true;
+        }
+
+        BulkRequest request = new BulkRequest();
+        entityKeyIds.forEach( entityKeyId -> request.add( new DeleteRequest( index, type, entityKeyId.toString() ) ) );
 
-        request.execute().actionGet();
+        BulkResponse resp = ElasticsearchAsyncClient.await( asyncClient.bulk( request ) );
+
+        if ( resp.hasFailures() ) {
+            logger.info( "At least one failure observed when attempting to delete {} entities of entity type {}",
+                    entityKeyIds.size(),
+                    entityTypeId
+            );
+            logger.debug( "Entity delete failure details: {}", resp.buildFailureMessage() );
+            return false;
+        }
 
         return true;
     }
 
+    @Override
+    public Map<UUID, OffsetDateTime> getIndexedLastWrites( UUID entityTypeId, Set<UUID> entityKeyIds ) {
+        if ( !verifyElasticsearchConnection() ) {
+            throw new IllegalStateException( "Unable to connect to elasticsearch." );
+        }
+
+        if ( entityKeyIds.isEmpty() ) {
+            return Map.of();
+        }
+
+        String index = getIndexName( entityTypeId );
+        String type = getTypeName( entityTypeId );
+        String lastWriteId = LAST_WRITE_ID.getId().toString();
+        FetchSourceContext lastWriteOnly = new FetchSourceContext( true,
+                new String[] { getFieldName( LAST_WRITE_ID.getId() ) },
+                null );
+
+        MultiGetRequest request = new MultiGetRequest();
+        entityKeyIds.forEach( entityKeyId -> request
+                .add( new MultiGetRequest.Item( index, type, entityKeyId.toString() ).fetchSourceContext( lastWriteOnly ) ) );
+
+        MultiGetResponse response = ElasticsearchAsyncClient.await( asyncClient.multiGet( request ) );
+
+        Map<UUID, OffsetDateTime> lastWrites = new HashMap<>( entityKeyIds.size() );
+        for ( MultiGetItemResponse item : response.getResponses() ) {
+            if ( item.isFailed() ) {
+                throw new IllegalStateException( "Unable to read document " + item.getId() + " of entity type "
+                        + entityTypeId + ": " + item.getFailure().getMessage() );
+            }
+
+            if ( !item.getResponse().isExists() ) {
+                continue;
+            }
+
+            OffsetDateTime lastWrite = null;
+            Object entity = item.getResponse().getSourceAsMap().get( ENTITY );
+            if ( entity instanceof Map ) {
+                Object values = ( (Map<?, ?>) entity ).get( lastWriteId );
+                if ( values instanceof List && !( (List<?>) values ).isEmpty() ) {
+                    lastWrite = OffsetDateTime.parse( ( (List<?>) values ).get( 0 ).toString() );
+                }
+            }
+            // documents indexed without a last write are older than any write that can be compared against them
+            lastWrites.put( UUID.fromString( item.getId() ),
+                    lastWrite == null ? OffsetDateTime.MIN : lastWrite );
+        }
+
+        return lastWrites;
+    }
+
     @Override
     public boolean clearEntitySetData( UUID entitySetId, UUID entityTypeId ) {
         if ( !verifyElasticsearchConnection() ) { return false; }
 
-        final var resp = new DeleteByQueryRequestBuilder( client, DeleteByQueryAction.INSTANCE )
-                .filter( QueryBuilders.termQuery( ENTITY_SET_ID_FIELD, entitySetId.toString() ) )
-                .source( getIndexName( entityTypeId ) )
-                .execute()
-                .actionGet();
+        final var request = new DeleteByQueryRequest( getIndexName( entityTypeId ) )
+                .setQuery( QueryBuilders.termQuery( ENTITY_SET_ID_FIELD, entitySetId.toString() ) );
+        final var resp = ElasticsearchAsyncClient.await( asyncClient.deleteByQuery( request ) );
 
         logger.info( "Deleted {} normal entity documents while deleting entity set data {}", resp.getDeleted(),
                 entitySetId );
@@ -758,10 +849,10 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
 
     /*** ENTITY DATA SEARCH HELPERS ***/
 
-    private EntityDataKeySearchResult getEntityDataKeySearchResult( MultiSearchResponse response ) {
+    private EntityDataKeySearchResult getEntityDataKeySearchResult( List<MultiSearchResponse.Item> items ) {
         List<EntityDataKey> entityDataKeys = Lists.newArrayList();
         var totalHits = 0;
-        for ( MultiSearchResponse.Item item : response.getResponses() ) {
+        for ( MultiSearchResponse.Item item : items ) {
             for ( SearchHit hit : item.getResponse().getHits() ) {
                 entityDataKeys.add( new EntityDataKey( getEntitySetIdFromHit( hit ),
                         UUID.fromString( hit.getId() ) ) );
@@ -1005,13 +1096,63 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
             Map<UUID, UUID> entityTypesByEntitySetId,
             Map<UUID, DelegatedUUIDSet> authorizedPropertyTypesByEntitySet,
             Map<UUID, DelegatedUUIDSet> linkingEntitySets ) {
+        return executeSearches(
+                List.of( searchConstraints ),
+                entityTypesByEntitySetId,
+                authorizedPropertyTypesByEntitySet,
+                linkingEntitySets
+        ).get( 0 );
+    }
+
+    @Override
+    public List<EntityDataKeySearchResult> executeSearches(
+            List<SearchConstraints> searchConstraints,
+            Map<UUID, UUID> entityTypesByEntitySetId,
+            Map<UUID, DelegatedUUIDSet> authorizedPropertyTypesByEntitySet,
+            Map<UUID, DelegatedUUIDSet> linkingEntitySets ) {
         if ( !verifyElasticsearchConnection() ) {
-            return new EntityDataKeySearchResult( 0, ImmutableList.of() );
+            return searchConstraints.stream()
+                    .map( constraints -> new EntityDataKeySearchResult( 0, ImmutableList.of() ) )
+                    .collect( Collectors.toList() );
+        }
+
+        MultiSearchRequest requests = new MultiSearchRequest().maxConcurrentSearchRequests( MAX_CONCURRENT_SEARCHES );
+        int[] numRequests = new int[ searchConstraints.size() ];
+
+        for ( int i = 0; i < searchConstraints.size(); i++ ) {
+            List<SearchRequest> searchRequests = buildSearchRequests(
+                    searchConstraints.get( i ),
+                    entityTypesByEntitySetId,
+                    authorizedPropertyTypesByEntitySet,
+                    linkingEntitySets
+            );
+            searchRequests.forEach( requests::add );
+            numRequests[ i ] = searchRequests.size();
         }
 
+        List<MultiSearchResponse.Item> items = requests.requests().isEmpty()
+                ? ImmutableList.of()
+                : Arrays.asList(
+                        ElasticsearchAsyncClient.await( asyncClient.multiSearch( requests ) ).getResponses() );
+
+        List<EntityDataKeySearchResult> results = Lists.newArrayListWithExpectedSize( searchConstraints.size() );
+        int offset = 0;
+        for ( int count : numRequests ) {
+            results.add( getEntityDataKeySearchResult( items.subList( offset, offset + count ) ) );
+            offset += count;
+        }
+
+        return results;
+    }
+
+    private List<SearchRequest> buildSearchRequests(
+            SearchConstraints searchConstraints,
+            Map<UUID, UUID> entityTypesByEntitySetId,
+            Map<UUID, DelegatedUUIDSet> authorizedPropertyTypesByEntitySet,
+            Map<UUID, DelegatedUUIDSet> linkingEntitySets ) {
         SortBuilder sort = buildSort( searchConstraints.getSortDefinition() );
 
-        MultiSearchRequest requests = new MultiSearchRequest().maxConcurrentSearchRequests( MAX_CONCURRENT_SEARCHES );
+        List<SearchRequest> requests = Lists.newArrayList();
 
         for ( int i = 0; i < searchConstraints.getEntitySetIds().length; i++ ) {
             UUID entitySetId = searchConstraints.getEntitySetIds()[ i ];
@@ -1046,16 +1187,11 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
                         .addSort( sort )
                         .setFetchSource( false );
 //                        .setAllowPartialSearchResults( true ); // Sometimes needed for local testing.
-                requests.add( request );
+                requests.add( request.request() );
             }
         }
 
-        if ( requests.requests().isEmpty() ) {
-            return new EntityDataKeySearchResult( 0, ImmutableList.of() );
-        }
-
-        MultiSearchResponse response = client.multiSearch( requests ).actionGet();
-        return getEntityDataKeySearchResult( response );
+        return requests;
     }
 
     @Override
@@ -1659,6 +1795,10 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         return organizationObject;
     }
 
+    /**
+     * Checks the transport client as before and combines it with the health of the rest client, which is refreshed in
+     * the background by {@link ElasticsearchAsyncClient}.
+     */
     public boolean verifyElasticsearchConnection() {
         if ( connected ) {
             if ( !factory.isConnected( client ) ) {
@@ -1670,7 +1810,7 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
                 connected = true;
             }
         }
-        return connected;
+        return connected && asyncClient.isHealthy();
     }
 
     @Scheduled( fixedRate = 1800000 )
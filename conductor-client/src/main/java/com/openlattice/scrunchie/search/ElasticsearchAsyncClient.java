@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.scrunchie.search;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Non-blocking access to elasticsearch on top of the async APIs of the REST high level client.
+ * <p>
+ * Single document writes are coalesced by a shared {@link BulkProcessor} which flushes on size or time, and each
+ * write is completed with its own item of the bulk response it was sent with. Bulk, delete by query and multi search
+ * requests are dispatched directly and completed through a {@link CompletableFuture}. The number of directly
+ * dispatched requests in flight is bounded, and requests or bulk items rejected by the cluster with a 429 are retried
+ * with exponential backoff.
+ * <p>
+ * Connection health is refreshed in the background so that callers can check it without probing the cluster.
+ */
+public class ElasticsearchAsyncClient implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger( ElasticsearchAsyncClient.class );
+
+    // @formatter:off
+    public static final int  BULK_ACTIONS                 = 5_000;
+    public static final long BULK_SIZE_MB                 = 10L;
+    public static final long FLUSH_INTERVAL_MILLIS        = 1_000L;
+    public static final int  CONCURRENT_BULK_REQUESTS     = 4;
+    public static final int  MAX_IN_FLIGHT_REQUESTS       = 16;
+    public static final long INITIAL_BACKOFF_MILLIS       = 100L;
+    public static final int  MAX_RETRIES                  = 8;
+    public static final long HEALTH_CHECK_INTERVAL_MILLIS = 30_000L;
+    // @formatter:on
+
+    private final RestHighLevelClient      restClient;
+    private final BulkProcessor            bulkProcessor;
+    private final Semaphore                inFlight = new Semaphore( MAX_IN_FLIGHT_REQUESTS );
+    private final Map<DocWriteRequest<?>, CompletableFuture<BulkItemResponse>> queued =
+            Collections.synchronizedMap( new IdentityHashMap<>() );
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "elasticsearch-async-%d" ).build()
+    );
+
+    private volatile boolean healthy = true;
+
+    public ElasticsearchAsyncClient( RestHighLevelClient restClient ) {
+        this.restClient = restClient;
+        this.bulkProcessor = BulkProcessor
+                .builder(
+                        ( request, listener ) -> restClient.bulkAsync( request, RequestOptions.DEFAULT, listener ),
+                        new QueuedWriteListener() )
+                .setBulkActions( BULK_ACTIONS )
+                .setBulkSize( new ByteSizeValue( BULK_SIZE_MB, ByteSizeUnit.MB ) )
+                .setFlushInterval( TimeValue.timeValueMillis( FLUSH_INTERVAL_MILLIS ) )
+                .setConcurrentRequests( CONCURRENT_BULK_REQUESTS )
+                .setBackoffPolicy( backoffPolicy() )
+                .build();
+
+        executor.scheduleWithFixedDelay(
+                this::refreshHealth,
+                HEALTH_CHECK_INTERVAL_MILLIS,
+                HEALTH_CHECK_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * @return The result of the most recent background health check.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Waits for {@code future} and rethrows its failure as the {@link ElasticsearchException} the transport client
+     * would have thrown, instead of the {@link CompletionException} wrapping it.
+     */
+    public static <T> T await( CompletableFuture<T> future ) {
+        try {
+            return future.join();
+        } catch ( CompletionException e ) {
+            final var cause = e.getCause();
+            if ( cause instanceof ElasticsearchException ) {
+                throw (ElasticsearchException) cause;
+            }
+            throw new ElasticsearchException( cause );
+        }
+    }
+
+    /**
+     * Queues a document write on the shared bulk processor. The write is sent once enough writes have been queued or
+     * the flush interval elapses, whichever comes first.
+     *
+     * @return The response item for the write, completed once the bulk request it was sent with has been answered.
+     */
+    public CompletableFuture<BulkItemResponse> add( DocWriteRequest<?> request ) {
+        final var result = new CompletableFuture<BulkItemResponse>();
+        queued.put( request, result );
+        try {
+            bulkProcessor.add( request );
+        } catch ( RuntimeException e ) {
+            queued.remove( request );
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Sends all writes currently queued on the shared bulk processor.
+     */
+    public void flush() {
+        bulkProcessor.flush();
+    }
+
+    public CompletableFuture<BulkResponse> bulk( BulkRequest request ) {
+        final var result = new CompletableFuture<BulkResponse>();
+        acquire();
+        result.whenComplete( ( response, e ) -> inFlight.release() );
+        final var items = new BulkItemResponse[ request.numberOfActions() ];
+        final var positions = IntStream.range( 0, items.length ).toArray();
+        bulkWithBackoff( request, positions, items, 0L, backoffPolicy().iterator(), result );
+        return result;
+    }
+
+    public CompletableFuture<BulkByScrollResponse> deleteByQuery( DeleteByQueryRequest request ) {
+        return execute( request,
+                ( r, listener ) -> restClient.deleteByQueryAsync( r, RequestOptions.DEFAULT, listener ) );
+    }
+
+    public CompletableFuture<MultiSearchResponse> multiSearch( MultiSearchRequest request ) {
+        return execute( request, ( r, listener ) -> restClient.msearchAsync( r, RequestOptions.DEFAULT, listener ) );
+    }
+
+    public CompletableFuture<MultiGetResponse> multiGet( MultiGetRequest request ) {
+        return execute( request, ( r, listener ) -> restClient.mgetAsync( r, RequestOptions.DEFAULT, listener ) );
+    }
+
+    private <Q, R> CompletableFuture<R> execute( Q request, BiConsumer<Q, ActionListener<R>> dispatch ) {
+        final var result = new CompletableFuture<R>();
+        acquire();
+        result.whenComplete( ( response, e ) -> inFlight.release() );
+        executeWithBackoff( request, dispatch, backoffPolicy().iterator(), result );
+        return result;
+    }
+
+    private <Q, R> void executeWithBackoff(
+            Q request,
+            BiConsumer<Q, ActionListener<R>> dispatch,
+            Iterator<TimeValue> backoff,
+            CompletableFuture<R> result ) {
+        dispatch.accept( request, ActionListener.wrap( result::complete, e -> {
+            if ( isRejected( e ) && backoff.hasNext() ) {
+                schedule( () -> executeWithBackoff( request, dispatch, backoff, result ), backoff.next() );
+            } else {
+                result.completeExceptionally( e );
+            }
+        } ) );
+    }
+
+    /**
+     * Retries the items of a bulk request that were rejected by the cluster until none are left or the backoff runs
+     * out. The response the caller gets has an item for every action of the original request, in its original order,
+     * holding the outcome of the last attempt at that action.
+     *
+     * @param positions The position in the original request of each action of {@code request}.
+     * @param items The items of the response to the original request, filled in as attempts are answered.
+     */
+    private void bulkWithBackoff(
+            BulkRequest request,
+            int[] positions,
+            BulkItemResponse[] items,
+            long tookMillis,
+            Iterator<TimeValue> backoff,
+            CompletableFuture<BulkResponse> result ) {
+        restClient.bulkAsync( request, RequestOptions.DEFAULT, ActionListener.wrap( response -> {
+            final var took = tookMillis + response.getTook().millis();
+            mergeItems( items, positions, response.getItems() );
+
+            final var rejected = getRejectedItems( response.getItems() );
+            if ( rejected.length == 0 || !backoff.hasNext() ) {
+                result.complete( new BulkResponse( items, took ) );
+                return;
+            }
+
+            final var retry = new BulkRequest();
+            final var retryPositions = new int[ rejected.length ];
+            for ( int i = 0; i < rejected.length; ++i ) {
+                retry.add( request.requests().get( rejected[ i ] ) );
+                retryPositions[ i ] = positions[ rejected[ i ] ];
+            }
+
+            schedule( () -> bulkWithBackoff( retry, retryPositions, items, took, backoff, result ), backoff.next() );
+        }, e -> {
+            if ( isRejected( e ) && backoff.hasNext() ) {
+                schedule( () -> bulkWithBackoff( request, positions, items, tookMillis, backoff, result ),
+                        backoff.next() );
+            } else {
+                result.completeExceptionally( e );
+            }
+        } ) );
+    }
+
+    /**
+     * Copies the items of the response to an attempt into the items of the response to the original request.
+     */
+    static void mergeItems( BulkItemResponse[] items, int[] positions, BulkItemResponse[] attemptItems ) {
+        for ( int i = 0; i < attemptItems.length; ++i ) {
+            items[ positions[ i ] ] = attemptItems[ i ];
+        }
+    }
+
+    /**
+     * @return The positions of the items that were rejected by the cluster and are worth retrying.
+     */
+    static int[] getRejectedItems( BulkItemResponse[] items ) {
+        return IntStream.range( 0, items.length )
+                .filter( i -> items[ i ].isFailed()
+                        && items[ i ].getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS )
+                .toArray();
+    }
+
+    /**
+     * Completes the writes of a flushed bulk request with their items of its response. Retries made by the bulk
+     * processor reorder the items of the response, so items are matched to writes by document id rather than by
+     * position.
+     */
+    static void completeQueued(
+            List<DocWriteRequest<?>> requests,
+            BulkItemResponse[] items,
+            Map<DocWriteRequest<?>, CompletableFuture<BulkItemResponse>> queued ) {
+        final var itemsById = new HashMap<String, BulkItemResponse>( items.length );
+        Arrays.stream( items ).forEach( item -> itemsById.put( item.getId(), item ) );
+
+        requests.forEach( request -> {
+            final var result = queued.remove( request );
+            if ( result == null ) {
+                return;
+            }
+
+            final var item = itemsById.get( request.id() );
+            if ( item == null ) {
+                result.completeExceptionally( new ElasticsearchException(
+                        "No response to queued write of document {} to index {}", request.id(), request.index() ) );
+            } else {
+                result.complete( item );
+            }
+        } );
+    }
+
+    static void failQueued(
+            List<DocWriteRequest<?>> requests,
+            Throwable failure,
+            Map<DocWriteRequest<?>, CompletableFuture<BulkItemResponse>> queued ) {
+        requests.forEach( request -> {
+            final var result = queued.remove( request );
+            if ( result != null ) {
+                result.completeExceptionally( failure );
+            }
+        } );
+    }
+
+    private void schedule( Runnable retry, TimeValue delay ) {
+        executor.schedule( retry, delay.millis(), TimeUnit.MILLISECONDS );
+    }
+
+    private void acquire() {
+        try {
+            inFlight.acquire();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while waiting to send request to elasticsearch.", e );
+        }
+    }
+
+    private void refreshHealth() {
+        try {
+            healthy = restClient.ping( RequestOptions.DEFAULT );
+        } catch ( IOException e ) {
+            healthy = false;
+        }
+
+        if ( !healthy ) {
+            logger.error( "Unable to reach elasticsearch." );
+        }
+    }
+
+    private static boolean isRejected( Exception e ) {
+        return ExceptionsHelper.status( e ) == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    private static BackoffPolicy backoffPolicy() {
+        return BackoffPolicy.exponentialBackoff( TimeValue.timeValueMillis( INITIAL_BACKOFF_MILLIS ), MAX_RETRIES );
+    }
+
+    @Override
+    public void close() {
+        try {
+            bulkProcessor.awaitClose( 30, TimeUnit.SECONDS );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private class QueuedWriteListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk( long executionId, BulkRequest request ) {
+        }
+
+        @Override
+        public void afterBulk( long executionId, BulkRequest request, BulkResponse response ) {
+            if ( response.hasFailures() ) {
+                logger.info( "At least one failure observed when flushing {} queued writes.",
+                        request.numberOfActions() );
+                logger.debug( "Queued write failure details: {}", response.buildFailureMessage() );
+            }
+            completeQueued( request.requests(), response.getItems(), queued );
+        }
+
+        @Override
+        public void afterBulk( long executionId, BulkRequest request, Throwable failure ) {
+            logger.error( "Unable to flush {} queued writes.", request.numberOfActions(), failure );
+            failQueued( request.requests(), failure, queued );
+        }
+    }
+}
@@ -27,6 +27,8 @@ import com.geekbeast.rhizome.configuration.ConfigurationKey;
 import com.geekbeast.rhizome.configuration.SimpleConfigurationKey;
 import com.geekbeast.rhizome.configuration.configuration.annotation.ReloadableConfiguration;
 
+import java.util.Optional;
+
 @ReloadableConfiguration( uri = "twilio.yaml" )
 public class TwilioConfiguration implements Configuration {
 
@@ -39,25 +41,65 @@ public class TwilioConfiguration implements Configuration {
     private static final String CALLBACK_BASE_URL   = "callbackBaseUrl";
     private static final String CODEX_ENABLED       = "codexEnabled";
 
-    private final String sid;
-    private final String token;
-    private final String shortCode;
-    private final String callbackBaseUrl;
+    private static final String MESSAGES_PER_SECOND_PER_NUMBER = "messagesPerSecondPerNumber";
+    private static final String SHORT_CODE_MESSAGES_PER_SECOND = "shortCodeMessagesPerSecond";
+    private static final String OUTBOUND_WORKERS               = "outboundWorkers";
+    private static final String LOCAL_OUTBOUND_PROVIDER        = "localOutboundProvider";
+
+    /*
+     * Twilio queues messages sent faster than these rates, which delays them and eventually fails them.
+     */
+    public static final double DEFAULT_MESSAGES_PER_SECOND_PER_NUMBER = 1.0;
+    public static final double DEFAULT_SHORT_CODE_MESSAGES_PER_SECOND = 100.0;
+    public static final int    DEFAULT_OUTBOUND_WORKERS               = 8;
+
+    private final String  sid;
+    private final String  token;
+    private final String  shortCode;
+    private final String  callbackBaseUrl;
     private final boolean codexEnabled;
+    private final double  messagesPerSecondPerNumber;
+    private final double  shortCodeMessagesPerSecond;
+    private final int     outboundWorkers;
+    private final boolean localOutboundProvider;
 
+    public TwilioConfiguration(
+            String sid,
+            String token,
+            String shortCode,
+            String callbackBaseUrl,
+            boolean codexEnabled ) {
+        this( sid, token, shortCode, callbackBaseUrl, codexEnabled, Optional.empty(), Optional.empty(),
+                Optional.empty(), Optional.empty() );
+    }
+
+    /**
+     * @param messagesPerSecondPerNumber The rate at which messages are sent from each organization phone number.
+     * @param shortCodeMessagesPerSecond The rate at which messages are sent from the short code.
+     * @param outboundWorkers The number of threads sending outgoing messages.
+     * @param localOutboundProvider Whether outgoing messages are recorded locally instead of being sent to twilio.
+     */
     @JsonCreator
     public TwilioConfiguration(
             @JsonProperty( SID_PROPERTY ) String sid,
             @JsonProperty( TOKEN_PROPERTY ) String token,
             @JsonProperty( SHORT_CODE_PROPERTY ) String shortCode,
             @JsonProperty( CALLBACK_BASE_URL ) String callbackBaseUrl,
-            @JsonProperty( CODEX_ENABLED ) boolean codexEnabled ) {
+            @JsonProperty( CODEX_ENABLED ) boolean codexEnabled,
+            @JsonProperty( MESSAGES_PER_SECOND_PER_NUMBER ) Optional<Double> messagesPerSecondPerNumber,
+            @JsonProperty( SHORT_CODE_MESSAGES_PER_SECOND ) Optional<Double> shortCodeMessagesPerSecond,
+            @JsonProperty( OUTBOUND_WORKERS ) Optional<Integer> outboundWorkers,
+            @JsonProperty( LOCAL_OUTBOUND_PROVIDER ) Optional<Boolean> localOutboundProvider ) {
 
         this.sid = sid;
         this.token = token;
         this.shortCode = shortCode;
         this.callbackBaseUrl = callbackBaseUrl;
         this.codexEnabled = codexEnabled;
+        this.messagesPerSecondPerNumber = messagesPerSecondPerNumber.orElse( DEFAULT_MESSAGES_PER_SECOND_PER_NUMBER );
+        this.shortCodeMessagesPerSecond = shortCodeMessagesPerSecond.orElse( DEFAULT_SHORT_CODE_MESSAGES_PER_SECOND );
+        this.outboundWorkers = outboundWorkers.orElse( DEFAULT_OUTBOUND_WORKERS );
+        this.localOutboundProvider = localOutboundProvider.orElse( false );
     }
 
     @JsonProperty( SID_PROPERTY )
@@ -85,6 +127,26 @@ public class TwilioConfiguration implements Configuration {
         return codexEnabled;
     }
 
+    @JsonProperty( MESSAGES_PER_SECOND_PER_NUMBER )
+    public double getMessagesPerSecondPerNumber() {
+        return messagesPerSecondPerNumber;
+    }
+
+    @JsonProperty( SHORT_CODE_MESSAGES_PER_SECOND )
+    public double getShortCodeMessagesPerSecond() {
+        return shortCodeMessagesPerSecond;
+    }
+
+    @JsonProperty( OUTBOUND_WORKERS )
+    public int getOutboundWorkers() {
+        return outboundWorkers;
+    }
+
+    @JsonProperty( LOCAL_OUTBOUND_PROVIDER )
+    public boolean isLocalOutboundProvider() {
+        return localOutboundProvider;
+    }
+
     @Override
     @JsonIgnore
     public ConfigurationKey getKey() {
@@ -27,6 +27,7 @@ import com.openlattice.authorization.securable.SecurableObjectType
 import com.openlattice.authorization.util.toAceKeys
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.organizations.PrincipalSet
+import com.openlattice.tracing.TraceCategory
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
 import java.time.OffsetDateTime
@@ -42,10 +43,13 @@ class HazelcastAuthorizationService(
         val principalsMapManager: PrincipalsMapManager
 ) : AuthorizationManager {
 
+    // traced as authorization, which is where authorization checks spend their time
     private val securableObjectTypes: IMap<AclKey, SecurableObjectType> = HazelcastMap.SECURABLE_OBJECT_TYPES.getMap(
-            hazelcastInstance
+            hazelcastInstance, TraceCategory.AUTHORIZATION
+    )
+    private val aces: IMap<AceKey, AceValue> = HazelcastMap.PERMISSIONS.getMap(
+            hazelcastInstance, TraceCategory.AUTHORIZATION
     )
-    private val aces: IMap<AceKey, AceValue> = HazelcastMap.PERMISSIONS.getMap(hazelcastInstance)
 
     companion object {
         private val logger = LoggerFactory.getLogger(HazelcastAuthorizationService::class.java)
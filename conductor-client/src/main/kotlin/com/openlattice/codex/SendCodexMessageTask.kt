@@ -1,25 +1,74 @@
 package com.openlattice.codex
 
 import com.fasterxml.jackson.annotation.JsonProperty
+import com.hazelcast.core.EntryEvent
 import com.hazelcast.core.HazelcastInstance
+import com.hazelcast.map.listener.EntryExpiredListener
+import com.hazelcast.map.listener.EntryRemovedListener
 import com.openlattice.client.serialization.SerializationConstants
+import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.hazelcast.HazelcastQueue
 import com.openlattice.scheduling.RunnableTask
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Queued outgoing messages expire this long after the task waiting on them stops keeping them alive, e.g. because its
+ * node went down. The task is then retried by the scheduler.
+ */
+const val OUTGOING_MESSAGE_TTL_MILLIS = 1_000L * 60 * 5 // 5 minutes
+private const val OUTGOING_MESSAGE_REFRESH_MILLIS = 1_000L * 60 // 1 minute
 
 data class SendCodexMessageTask(
-        @JsonProperty( SerializationConstants.MESSAGE ) val message: MessageRequest
+        @JsonProperty( SerializationConstants.MESSAGE ) val message: MessageRequest,
+        @JsonProperty( SerializationConstants.ID_FIELD ) val outgoingMessageId: UUID = UUID.randomUUID()
 ) : RunnableTask {
 
     override fun run(hazelcastInstance: HazelcastInstance) {
-        val twilioQueue = HazelcastQueue.TWILIO.getQueue(hazelcastInstance)
-        twilioQueue.add(message)
-
-        // The twilio queue is not persistent. This sleep call is intended to ensure the message has been processed and
-        // sent before the method returns and the scheduled task is deleted. Twilio rate limits us to 1 message / second
-        // so we check in increments of processing time for a batch of 5 messages to reduce the number of network calls.
-        while (twilioQueue.contains(message)) {
-            Thread.sleep(5_000)
+        val outgoingMessages = HazelcastMap.CODEX_OUTGOING_MESSAGES.getMap(hazelcastInstance)
+        val twilioQueue = HazelcastQueue.TWILIO_OUTGOING.getQueue(hazelcastInstance)
+
+        // The twilio queue is not persistent, so the message has to have been sent before this method returns and the
+        // scheduled task is deleted. Senders delete the outgoing message once it has been sent, which completes this.
+        // Waiting on a long queue can outlast the scheduler's lock on this task, in which case a second run just waits
+        // on the message the first run queued.
+        val id = outgoingMessageId
+        val sent = CompletableFuture<Unit>()
+        val listenerId = outgoingMessages.addEntryListener(OutgoingMessageListener(sent), id, false)
+
+        try {
+            if (outgoingMessages.putIfAbsent(id, message, OUTGOING_MESSAGE_TTL_MILLIS, TimeUnit.MILLISECONDS) == null) {
+                twilioQueue.add(id)
+            }
+            while (true) {
+                try {
+                    sent.get(OUTGOING_MESSAGE_REFRESH_MILLIS, TimeUnit.MILLISECONDS)
+                    break
+                } catch (e: TimeoutException) {
+                    // still queued behind other messages from the same number, which can take well over an hour
+                    outgoingMessages.setTtl(id, OUTGOING_MESSAGE_TTL_MILLIS, TimeUnit.MILLISECONDS)
+                }
+            }
+        } finally {
+            outgoingMessages.removeEntryListener(listenerId)
+        }
+    }
+
+    private class OutgoingMessageListener(
+            private val sent: CompletableFuture<Unit>
+    ) : EntryRemovedListener<UUID, MessageRequest>, EntryExpiredListener<UUID, MessageRequest> {
+        override fun entryRemoved(event: EntryEvent<UUID, MessageRequest>) {
+            sent.complete(Unit)
+        }
+
+        override fun entryExpired(event: EntryEvent<UUID, MessageRequest>) {
+            // failing the task keeps it scheduled, so that it is retried instead of being deleted as if it was sent
+            sent.completeExceptionally(
+                    IllegalStateException("Outgoing message ${event.key} expired before it was sent.")
+            )
         }
     }
 
-}
\ No newline at end of file
+}
@@ -34,4 +34,6 @@ interface CollaborationDatabaseManager {
     fun removeTableProjection(collaborationId: UUID, organizationId: UUID, tableId: UUID)
 
     fun refreshTableProjection(collaborationId: UUID, organizationId: UUID, tableId: UUID)
+
+    fun syncTableReplica(collaborationId: UUID, organizationId: UUID, tableId: UUID)
 }
\ No newline at end of file
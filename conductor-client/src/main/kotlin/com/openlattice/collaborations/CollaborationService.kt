@@ -11,6 +11,7 @@ import com.openlattice.collaborations.mapstores.ProjectedTablesMapstore
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.organizations.OrganizationDatabase
 import com.openlattice.organizations.roles.SecurePrincipalsManager
+import org.slf4j.LoggerFactory
 import java.util.*
 
 class CollaborationService(
@@ -27,6 +28,7 @@ class CollaborationService(
     private val externalTables = HazelcastMap.EXTERNAL_TABLES.getMap(hazelcast)
 
     companion object {
+        private val logger = LoggerFactory.getLogger(CollaborationService::class.java)
         private val READ_PERMISSIONS = EnumSet.of(Permission.READ)
     }
 
@@ -128,7 +130,12 @@ class CollaborationService(
         }
     }
 
-    fun projectTableToCollaboration(collaborationId: UUID, organizationId: UUID, tableId: UUID) {
+    fun projectTableToCollaboration(
+            collaborationId: UUID,
+            organizationId: UUID,
+            tableId: UUID,
+            projectionMode: ProjectionMode = ProjectionMode.FOREIGN_TABLE
+    ) {
         ensureTableBelongsToOrganization(tableId, organizationId)
 
         val tableName = externalTables.getValue(tableId).name
@@ -143,7 +150,7 @@ class CollaborationService(
         }
 
         val key = ProjectedTableKey(tableId, collaborationId)
-        val metadata = ProjectedTableMetadata(organizationId, tableName)
+        val metadata = ProjectedTableMetadata(organizationId, tableName, projectionMode)
 
         check(projectedTables.putIfAbsent(key, metadata) == null) {
             "Table $tableId is already projected in collaboration $collaborationId"
@@ -171,6 +178,19 @@ class CollaborationService(
         }
     }
 
+    /**
+     * Brings every [ProjectionMode.LOCAL_REPLICA] projection up to date with its source table.
+     */
+    fun syncTableReplicas() {
+        projectedTables.entrySet(projectionModePredicate(ProjectionMode.LOCAL_REPLICA)).forEach {
+            try {
+                collaborationDatabaseManager.syncTableReplica(it.key.collaborationId, it.value.organizationId, it.key.tableId)
+            } catch (e: Exception) {
+                logger.error("Unable to sync replica of table {} in collaboration {}", it.key.tableId, it.key.collaborationId, e)
+            }
+        }
+    }
+
     fun <T> getProjectedTableIdsInCollaborationsAndOrganizations(
             collaborationIds: Collection<UUID>,
             organizationIds: Collection<UUID>,
@@ -287,6 +307,10 @@ class CollaborationService(
         return Predicates.`in`(ProjectedTablesMapstore.TABLE_ID_INDEX, *tableIds.toTypedArray())
     }
 
+    private fun projectionModePredicate(projectionMode: ProjectionMode): Predicate<ProjectedTableKey, ProjectedTableMetadata> {
+        return Predicates.equal(ProjectedTablesMapstore.PROJECTION_MODE_INDEX, projectionMode)
+    }
+
     private fun tableNamePredicate(tableName: String): Predicate<ProjectedTableKey, ProjectedTableMetadata> {
         return Predicates.equal(ProjectedTablesMapstore.TABLE_NAME_INDEX, tableName)
     }
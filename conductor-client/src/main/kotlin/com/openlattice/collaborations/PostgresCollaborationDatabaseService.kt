@@ -17,8 +17,12 @@ import com.openlattice.postgres.external.DatabaseQueryManager
 import com.openlattice.postgres.external.ExternalDatabaseConnectionManager
 import com.openlattice.postgres.external.ExternalDatabasePermissioningService
 import com.openlattice.postgres.external.Schemas
+import com.zaxxer.hikari.HikariDataSource
+import org.slf4j.LoggerFactory
 import java.util.*
 
+private val logger = LoggerFactory.getLogger(PostgresCollaborationDatabaseService::class.java)
+
 class PostgresCollaborationDatabaseService(
         hazelcast: HazelcastInstance,
         private val dbQueryManager: DatabaseQueryManager,
@@ -153,30 +157,25 @@ class PostgresCollaborationDatabaseService(
         val collaborationHds = externalDbConnMan.connectToOrg(collaborationId)
         val table = externalTables.getValue(tableId)
 
-        val foreignSchema = table.schema
-        val foreignName = table.name
-
         val intermediateSchema = Schemas.PROJECTIONS_SCHEMA.label
         val intermediateName = tableId.toString()
 
-        val viewSchema = externalDbConnMan.getDatabaseName(organizationId)
-        val viewName = table.name
+        importForeignTable(collaborationHds, organizationId, table.schema, table.name, intermediateName)
 
-        PostgresProjectionService.importTableFromFdw(
-                hds = collaborationHds,
-                fdwName = getFdwName(organizationId),
-                sourceSchema = foreignSchema,
-                sourceTableName = foreignName,
-                destinationSchema = intermediateSchema,
-                destinationTableName = intermediateName
-        )
+        val viewSourceName = when (getProjectionMode(collaborationId, tableId)) {
+            ProjectionMode.FOREIGN_TABLE -> intermediateName
+            ProjectionMode.LOCAL_REPLICA -> {
+                initializeReplica(collaborationHds, organizationId, table.schema, table.name, tableId)
+                getReplicaName(tableId)
+            }
+        }
 
         PostgresProjectionService.createViewOverTable(
                 hds = collaborationHds,
                 sourceTableSchema = intermediateSchema,
-                sourceTableName = intermediateName,
-                viewSchema = viewSchema,
-                viewName = viewName
+                sourceTableName = viewSourceName,
+                viewSchema = externalDbConnMan.getDatabaseName(organizationId),
+                viewName = table.name
         )
     }
 
@@ -187,11 +186,164 @@ class PostgresCollaborationDatabaseService(
 
         PostgresProjectionService.destroyViewOverTable(collaborationHds, orgSchema, table.name)
         PostgresProjectionService.dropTableImportedFromFdw(collaborationHds, Schemas.PROJECTIONS_SCHEMA.label, table.id.toString())
+        PostgresProjectionService.dropReplicaTable(collaborationHds, Schemas.PROJECTIONS_SCHEMA.label, getReplicaName(tableId))
     }
 
     override fun refreshTableProjection(collaborationId: UUID, organizationId: UUID, tableId: UUID) {
-        removeTableProjection(collaborationId, organizationId, tableId)
-        initializeTableProjection(collaborationId, organizationId, tableId)
+        when (getProjectionMode(collaborationId, tableId)) {
+            ProjectionMode.FOREIGN_TABLE -> {
+                removeTableProjection(collaborationId, organizationId, tableId)
+                initializeTableProjection(collaborationId, organizationId, tableId)
+            }
+            ProjectionMode.LOCAL_REPLICA -> syncTableReplica(collaborationId, organizationId, tableId)
+        }
+    }
+
+    /**
+     * Brings a [ProjectionMode.LOCAL_REPLICA] projection up to date with its source table. Schema changes are applied
+     * to the replica in place and only force a full reseed when a column is added or retyped, or the primary key
+     * changes. Otherwise nothing is done if the source table wasn't modified since the previous sync, tables without a
+     * primary key are reseeded and the rows written since the previous sync are copied over for all others.
+     */
+    override fun syncTableReplica(collaborationId: UUID, organizationId: UUID, tableId: UUID) {
+        val collaborationHds = externalDbConnMan.connectToOrg(collaborationId)
+        val organizationHds = externalDbConnMan.connectToOrg(organizationId)
+        val table = externalTables.getValue(tableId)
+
+        val projectionsSchema = Schemas.PROJECTIONS_SCHEMA.label
+        val foreignName = tableId.toString()
+        val replicaName = getReplicaName(tableId)
+        val viewSchema = externalDbConnMan.getDatabaseName(organizationId)
+
+        // read before anything else, so that no modification made after it goes unnoticed by the next sync
+        val modifications = PostgresProjectionService.getModificationCount(organizationHds, table.schema, table.name)
+        val sourceColumns = PostgresProjectionService.getColumnTypes(organizationHds, table.schema, table.name)
+        val replicaColumns = PostgresProjectionService.getColumnTypes(collaborationHds, projectionsSchema, replicaName)
+        val sourcePrimaryKey = PostgresProjectionService.getPrimaryKeyColumns(organizationHds, table.schema, table.name)
+        val replicaPrimaryKey = PostgresProjectionService.getPrimaryKeyColumns(collaborationHds, projectionsSchema, replicaName)
+
+        if (sourcePrimaryKey != replicaPrimaryKey) {
+            logger.info("Primary key of table {} changed, rebuilding replica in collaboration {}", tableId, collaborationId)
+            PostgresProjectionService.destroyViewOverTable(collaborationHds, viewSchema, table.name)
+            PostgresProjectionService.dropReplicaTable(collaborationHds, projectionsSchema, replicaName)
+            PostgresProjectionService.dropTableImportedFromFdw(collaborationHds, projectionsSchema, foreignName)
+            initializeTableProjection(collaborationId, organizationId, tableId)
+            return
+        }
+
+        var reseed = false
+        if (sourceColumns != replicaColumns) {
+            logger.info("Columns of table {} changed, altering replica in collaboration {}", tableId, collaborationId)
+            PostgresProjectionService.destroyViewOverTable(collaborationHds, viewSchema, table.name)
+            PostgresProjectionService.dropTableImportedFromFdw(collaborationHds, projectionsSchema, foreignName)
+            importForeignTable(collaborationHds, organizationId, table.schema, table.name, foreignName)
+
+            reseed = PostgresProjectionService.alterReplicaColumns(
+                    collaborationHds,
+                    projectionsSchema,
+                    replicaName,
+                    replicaColumns,
+                    sourceColumns
+            )
+
+            PostgresProjectionService.createViewOverTable(
+                    hds = collaborationHds,
+                    sourceTableSchema = projectionsSchema,
+                    sourceTableName = replicaName,
+                    viewSchema = viewSchema,
+                    viewName = table.name
+            )
+        }
+
+        val state = PostgresProjectionService.getReplicaState(collaborationHds, projectionsSchema, replicaName)
+        if (!reseed && !PostgresProjectionService.isReplicaStale(state, modifications)) {
+            logger.debug("Table {} is unchanged, skipping sync of replica in collaboration {}", tableId, collaborationId)
+            return
+        }
+
+        val watermark = PostgresProjectionService.getReplicationWatermark(organizationHds)
+        if (reseed || !PostgresProjectionService.canUpdateReplica(state, sourcePrimaryKey, watermark)) {
+            PostgresProjectionService.seedReplicaTable(
+                    collaborationHds,
+                    projectionsSchema,
+                    foreignName,
+                    projectionsSchema,
+                    replicaName,
+                    sourceColumns.keys,
+                    watermark,
+                    modifications
+            )
+        } else {
+            val upserted = PostgresProjectionService.updateReplicaTable(
+                    sourceHds = organizationHds,
+                    sourceSchema = table.schema,
+                    sourceTableName = table.name,
+                    hds = collaborationHds,
+                    foreignSchema = projectionsSchema,
+                    foreignTableName = foreignName,
+                    replicaSchema = projectionsSchema,
+                    replicaTableName = replicaName,
+                    columns = sourceColumns,
+                    primaryKey = sourcePrimaryKey,
+                    modifications = modifications
+            )
+            logger.debug("Upserted {} rows of table {} into collaboration {}", upserted, tableId, collaborationId)
+        }
+    }
+
+    private fun initializeReplica(
+            collaborationHds: HikariDataSource,
+            organizationId: UUID,
+            sourceSchema: String,
+            sourceName: String,
+            tableId: UUID
+    ) {
+        val organizationHds = externalDbConnMan.connectToOrg(organizationId)
+        val projectionsSchema = Schemas.PROJECTIONS_SCHEMA.label
+        val replicaName = getReplicaName(tableId)
+        val modifications = PostgresProjectionService.getModificationCount(organizationHds, sourceSchema, sourceName)
+
+        PostgresProjectionService.createReplicaTable(
+                hds = collaborationHds,
+                foreignSchema = projectionsSchema,
+                foreignTableName = tableId.toString(),
+                replicaSchema = projectionsSchema,
+                replicaTableName = replicaName,
+                primaryKey = PostgresProjectionService.getPrimaryKeyColumns(organizationHds, sourceSchema, sourceName)
+        )
+
+        PostgresProjectionService.seedReplicaTable(
+                collaborationHds,
+                projectionsSchema,
+                tableId.toString(),
+                projectionsSchema,
+                replicaName,
+                PostgresProjectionService.getColumnTypes(organizationHds, sourceSchema, sourceName).keys,
+                PostgresProjectionService.getReplicationWatermark(organizationHds),
+                modifications
+        )
+    }
+
+    private fun importForeignTable(
+            collaborationHds: HikariDataSource,
+            organizationId: UUID,
+            sourceSchema: String,
+            sourceName: String,
+            destinationName: String
+    ) {
+        PostgresProjectionService.importTableFromFdw(
+                hds = collaborationHds,
+                fdwName = getFdwName(organizationId),
+                sourceSchema = sourceSchema,
+                sourceTableName = sourceName,
+                destinationSchema = Schemas.PROJECTIONS_SCHEMA.label,
+                destinationTableName = destinationName
+        )
+    }
+
+    private fun getProjectionMode(collaborationId: UUID, tableId: UUID): ProjectionMode {
+        return projectedTables[ProjectedTableKey(tableId, collaborationId)]?.projectionMode
+                ?: ProjectionMode.FOREIGN_TABLE
     }
 
     private fun createOrganizationFdw(collaborationId: UUID, organizationId: UUID) {
@@ -218,6 +370,10 @@ class PostgresCollaborationDatabaseService(
         )
     }
 
+    private fun getReplicaName(tableId: UUID): String {
+        return "${tableId}_replica"
+    }
+
     private fun getFdwName(organizationId: UUID): String {
         return "fdw_${organizationId.toString().replace("-", "")}"
     }
@@ -8,6 +8,7 @@ import com.openlattice.collaborations.ProjectedTableKey
 import com.openlattice.collaborations.ProjectedTableMetadata
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.mapstores.TestDataFactory
+import com.openlattice.postgres.PostgresColumn.PROJECTION_MODE
 import com.openlattice.postgres.PostgresTable.PROJECTED_TABLES
 import com.openlattice.postgres.ResultSetAdapters
 import com.geekbeast.postgres.mapstores.AbstractBasePostgresMapstore
@@ -24,6 +25,20 @@ open class ProjectedTablesMapstore(hds: HikariDataSource) : AbstractBasePostgres
         const val COLLABORATION_ID_INDEX = "__key.collaborationId"
         const val ORGANIZATION_ID_INDEX = "organizationId"
         const val TABLE_NAME_INDEX = "tableName"
+        const val PROJECTION_MODE_INDEX = "projectionMode"
+
+        /**
+         * Tables are only created when they don't exist yet, so deployments from before projection modes have to have
+         * the column added to their existing table.
+         */
+        private val ADD_PROJECTION_MODE_SQL =
+                "ALTER TABLE IF EXISTS ${PROJECTED_TABLES.name} ADD COLUMN IF NOT EXISTS ${PROJECTION_MODE.sql()}"
+    }
+
+    init {
+        hds.connection.use { conn ->
+            conn.createStatement().use { it.execute(ADD_PROJECTION_MODE_SQL) }
+        }
     }
 
     override fun generateTestKey(): ProjectedTableKey {
@@ -40,10 +55,12 @@ open class ProjectedTablesMapstore(hds: HikariDataSource) : AbstractBasePostgres
         // insert
         ps.setObject(index++, value.organizationId)
         ps.setString(index++, value.tableName)
+        ps.setString(index++, value.projectionMode.name)
 
         // update
         ps.setObject(index++, value.organizationId)
         ps.setString(index++, value.tableName)
+        ps.setString(index++, value.projectionMode.name)
     }
 
     override fun bind(ps: PreparedStatement, key: ProjectedTableKey, offset: Int): Int {
@@ -59,6 +76,7 @@ open class ProjectedTablesMapstore(hds: HikariDataSource) : AbstractBasePostgres
                 .addIndexConfig(IndexConfig(IndexType.HASH, COLLABORATION_ID_INDEX))
                 .addIndexConfig(IndexConfig(IndexType.HASH, ORGANIZATION_ID_INDEX))
                 .addIndexConfig(IndexConfig(IndexType.HASH, TABLE_NAME_INDEX))
+                .addIndexConfig(IndexConfig(IndexType.HASH, PROJECTION_MODE_INDEX))
                 .setInMemoryFormat(InMemoryFormat.OBJECT)
     }
 
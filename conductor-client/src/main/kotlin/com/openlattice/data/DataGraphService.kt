@@ -31,6 +31,7 @@ import com.openlattice.data.storage.MetadataOption
 import com.openlattice.edm.type.PropertyType
 import com.openlattice.graph.core.GraphService
 import com.openlattice.graph.core.NeighborSets
+import com.openlattice.subscriptions.SubscriptionEventPublisher
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import org.apache.commons.lang3.NotImplementedException
 import org.apache.commons.lang3.tuple.Pair
@@ -53,7 +54,8 @@ class DataGraphService(
         private val graphService: GraphService,
         private val idService: EntityKeyIdService,
         private val eds: EntityDatastore,
-        private val jobService: HazelcastJobService
+        private val jobService: HazelcastJobService,
+        private val subscriptionEvents: SubscriptionEventPublisher?
 ) : DataGraphManager {
     override fun getEntitiesWithMetadata(
             entityKeyIds: Map<UUID, Optional<Set<UUID>>>, authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
@@ -149,6 +151,7 @@ class DataGraphService(
                 authorizedPropertyTypes,
                 PropertyUpdateType.Versioned
         )
+        subscriptionEvents?.entitiesWritten(entitySetId, ids)
 
         return Pair.of(ids, writeEvent)
     }
@@ -159,7 +162,9 @@ class DataGraphService(
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType
     ): WriteEvent {
-        return eds.createOrUpdateEntities(entitySetId, entities, authorizedPropertyTypes, propertyUpdateType)
+        val writeEvent = eds.createOrUpdateEntities(entitySetId, entities, authorizedPropertyTypes, propertyUpdateType)
+        subscriptionEvents?.entitiesWritten(entitySetId, entities.keys)
+        return writeEvent
     }
 
     override fun replaceEntities(
@@ -168,7 +173,9 @@ class DataGraphService(
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType
     ): WriteEvent {
-        return eds.replaceEntities(entitySetId, entities, authorizedPropertyTypes, propertyUpdateType)
+        val writeEvent = eds.replaceEntities(entitySetId, entities, authorizedPropertyTypes, propertyUpdateType)
+        subscriptionEvents?.entitiesWritten(entitySetId, entities.keys)
+        return writeEvent
     }
 
     override fun partialReplaceEntities(
@@ -177,7 +184,9 @@ class DataGraphService(
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType
     ): WriteEvent {
-        return eds.partialReplaceEntities(entitySetId, entities, authorizedPropertyTypes, propertyUpdateType)
+        val writeEvent = eds.partialReplaceEntities(entitySetId, entities, authorizedPropertyTypes, propertyUpdateType)
+        subscriptionEvents?.entitiesWritten(entitySetId, entities.keys)
+        return writeEvent
     }
 
     override fun replacePropertiesInEntities(
@@ -186,16 +195,20 @@ class DataGraphService(
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType
     ): WriteEvent {
-        return eds.replacePropertiesInEntities(
+        val writeEvent = eds.replacePropertiesInEntities(
                 entitySetId,
                 replacementProperties,
                 authorizedPropertyTypes,
                 propertyUpdateType
         )
+        subscriptionEvents?.entitiesWritten(entitySetId, replacementProperties.keys)
+        return writeEvent
     }
 
     override fun createAssociations(associations: Set<DataEdgeKey>): WriteEvent {
-        return graphService.createEdges(associations)
+        val writeEvent = graphService.createEdges(associations)
+        subscriptionEvents?.edgesChanged(associations)
+        return writeEvent
     }
 
     override fun createAssociations(
@@ -222,6 +235,7 @@ class DataGraphService(
                     }.toSet()
                     val sw = Stopwatch.createStarted()
                     val edgeWrite = graphService.createEdges(edgeKeys)
+                    subscriptionEvents?.edgesChanged(edgeKeys)
                     logger.info(
                             "graphService.createEdges (for {} edgeKeys) took {}", edgeKeys.size,
                             sw.elapsed(TimeUnit.MILLISECONDS)
@@ -235,7 +249,9 @@ class DataGraphService(
 
     @Timed
     override fun deleteAssociations(associations: Set<DataEdgeKey>, deleteType: DeleteType): WriteEvent {
-        return graphService.deleteEdges(associations, deleteType)
+        val writeEvent = graphService.deleteEdges(associations, deleteType)
+        subscriptionEvents?.edgesChanged(associations)
+        return writeEvent
     }
 
     override fun getExpiringEntitiesFromEntitySet(
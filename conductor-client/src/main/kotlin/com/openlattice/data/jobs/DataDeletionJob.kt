@@ -3,6 +3,7 @@ package com.openlattice.data.jobs
 import com.fasterxml.jackson.annotation.JsonCreator
 import com.fasterxml.jackson.annotation.JsonIgnore
 import com.geekbeast.rhizome.jobs.AbstractDistributedJob
+import com.geekbeast.rhizome.jobs.HazelcastJobService
 import com.geekbeast.rhizome.jobs.JobStatus
 import com.hazelcast.core.HazelcastInstance
 import com.hazelcast.map.IMap
@@ -10,10 +11,15 @@ import com.openlattice.data.DataEdgeKey
 import com.openlattice.data.DeleteType
 import com.openlattice.data.EntityDataKey
 import com.openlattice.data.WriteEvent
+import com.openlattice.data.storage.BatchedBlobDeleter
 import com.openlattice.data.storage.FETCH_SIZE
-import com.openlattice.data.storage.PostgresEntitySetSizesInitializationTask
+import com.openlattice.data.storage.Workload
+import com.openlattice.data.storage.addEntitySetSizeDeltas
+import com.openlattice.data.storage.getLiveEntityDelta
+import com.openlattice.data.storage.lockEntityVersions
 import com.openlattice.data.storage.postgres.getMergedDataColumnName
 import com.openlattice.data.storage.postgres.selectEntitiesTextProperties
+import com.openlattice.data.storage.selectEntitySetSizeSql
 import com.openlattice.data.storage.postgres.updateVersionsForEntitiesInEntitySet
 import com.openlattice.data.storage.postgres.zeroVersionsForEntitiesInEntitySet
 import com.openlattice.edm.EntitySet
@@ -27,7 +33,6 @@ import com.openlattice.ioc.providers.LateInitProvider
 import com.openlattice.linking.graph.PostgresLinkingQueryService
 import com.openlattice.postgres.DataTables.LAST_WRITE
 import com.geekbeast.postgres.PostgresArrays
-import com.openlattice.postgres.PostgresColumn.COUNT
 import com.openlattice.postgres.PostgresColumn.DST_ENTITY_KEY_ID
 import com.openlattice.postgres.PostgresColumn.DST_ENTITY_SET_ID
 import com.openlattice.postgres.PostgresColumn.EDGE_ENTITY_KEY_ID
@@ -75,6 +80,26 @@ class DataDeletionJob(
     companion object {
         private const val BATCH_SIZE = 10_000
         private val ALL_PARTITIONS = (0..257)
+
+        /**
+         * Entity set deletions are split into id range shards of roughly this many entities.
+         */
+        private const val ENTITIES_PER_SHARD = 1_000_000L
+        private const val MAX_SHARDS = 32
+        private const val SHARD_POLL_INTERVAL_MILLIS = 5_000L
+        private val TERMINAL_JOB_STATUSES = EnumSet.of(JobStatus.FINISHED, JobStatus.CANCELED)
+
+        /**
+         * Splits the entity key id space into [shardCount] contiguous ranges of equal width. Ranges are ordered the
+         * same way postgres orders uuids, i.e. by their unsigned big endian bytes. The lower bound of each range is
+         * inclusive, the upper bound is exclusive, and null bounds are unbounded.
+         */
+        @JvmStatic
+        internal fun getIdRanges(shardCount: Int): List<Pair<UUID?, UUID?>> {
+            val step = java.lang.Long.divideUnsigned(-1L, shardCount.toLong())
+            val bounds = (1 until shardCount).map { UUID(step * it, 0L) }
+            return (0 until shardCount).map { bounds.getOrNull(it - 1) to bounds.getOrNull(it) }
+        }
     }
 
     @Transient
@@ -89,31 +114,76 @@ class DataDeletionJob(
     @Transient
     private lateinit var propertyTypes: IMap<UUID, PropertyType>
 
+    @Transient
+    private lateinit var jobService: HazelcastJobService
+
+    @Transient
+    private lateinit var blobDeleter: BatchedBlobDeleter
+
     override fun initializeHazelcastRelatedObjects() {
         this.entitySets = HazelcastMap.ENTITY_SETS.getMap(hazelcastInstance)
         this.entityTypes = HazelcastMap.ENTITY_TYPES.getMap(hazelcastInstance)
         this.propertyTypes = HazelcastMap.PROPERTY_TYPES.getMap(hazelcastInstance)
+        this.jobService = HazelcastJobService(hazelcastInstance)
     }
 
     override fun initialize() {
+        if (state.parentJobId != null) {
+            logger.info(
+                    "Shard of job {} will delete ids in range [{}, {}) of entity set {}",
+                    state.parentJobId,
+                    state.lowerBound,
+                    state.upperBound,
+                    state.entitySetId
+            )
+            return
+        }
+
         state.totalToDelete = getTotalToDelete()
         logger.info("${state.totalToDelete} entities to be deleted")
+
+        if (isShardable()) {
+            submitShards()
+        }
     }
 
     override fun processNextBatch() {
-        val entityDataKeys = getBatchOfEntityDataKeys()
+        if (isParentCanceled()) {
+            logger.info(
+                    "Canceling shard {} of deletion from entity set {}, since job {} was canceled.",
+                    id,
+                    state.entitySetId,
+                    state.parentJobId
+            )
+            jobService.updateJob(id!!, JobStatus.CANCELED)
+            return
+        }
 
-        if (entityDataKeys.isEmpty()) {
+        val rangeDeleted = lateInitProvider.resolver.admit(Workload.BACKGROUND, state.entitySetId, ::processBatch)
+
+        // shards are waited on outside of admission, since they must be admitted to the same pool to make progress
+        if (rangeDeleted && !adoptPendingShard() && awaitShards()) {
             hasWorkRemaining = false
             publishJobState()
-            return
+        }
+    }
+
+    /**
+     * @return True if there was nothing left to delete in the id range of this job, false otherwise.
+     */
+    private fun processBatch(): Boolean {
+        val entityDataKeys = getBatchOfEntityDataKeys()
+
+        if (entityDataKeys.isEmpty()) {
+            return true
         }
 
         // batch delete neighbors first. Only delete from state.entitySetId if there are no more neighbors to delete
         val neighborEntityDataKeys = getBatchOfNeighborEntityDataKeys(entityDataKeys.map { it.entityKeyId }.toSet())
         if (neighborEntityDataKeys.isNotEmpty()) {
             deleteNeighborEntitiesAndEdges(neighborEntityDataKeys)
-            return
+            blobDeleter.flush()
+            return false
         }
 
         logger.info("Processing data keys: {}", entityDataKeys)
@@ -131,7 +201,132 @@ class DataDeletionJob(
         logger.info("Deleted $deletedEntities from batch {}", entityDataKeys)
         state.numDeletes += deletedEntities
         cleanUpBatch(entityDataKeys)
+        blobDeleter.flush()
+        publishJobState()
+        return false
+    }
+
+    /**
+     * Only deletions of an entire entity set are split into shards. Deletions of specific entities are bounded by
+     * the number of requested entity key ids and deletions of neighbors rely on the entity key ids being deleted.
+     */
+    private fun isShardable(): Boolean {
+        return state.entityKeyIds == null
+                && state.neighborSrcEntitySetIds.isEmpty()
+                && state.neighborDstEntitySetIds.isEmpty()
+    }
+
+    /**
+     * Splits the entity set into id range shards. This job keeps the first range for itself and every other range is
+     * submitted as an independent job, so that it can be claimed by any member running jobs.
+     */
+    private fun submitShards() {
+        val shardCount = minOf(
+                MAX_SHARDS.toLong(),
+                (state.totalToDelete + ENTITIES_PER_SHARD - 1) / ENTITIES_PER_SHARD
+        ).toInt()
+
+        if (shardCount < 2) {
+            return
+        }
+
+        val idRanges = getIdRanges(shardCount)
+        val (lowerBound, upperBound) = idRanges.first()
+        state.lowerBound = lowerBound
+        state.upperBound = upperBound
+
+        idRanges.drop(1).forEach { (shardLowerBound, shardUpperBound) ->
+            val shardJobId = jobService.submitJob(
+                    DataDeletionJob(
+                            DataDeletionJobState(
+                                    state.entitySetId,
+                                    state.deleteType,
+                                    totalToDelete = state.totalToDelete / shardCount,
+                                    lowerBound = shardLowerBound,
+                                    upperBound = shardUpperBound,
+                                    parentJobId = id
+                            )
+                    )
+            )
+            state.shardDeletes[shardJobId] = 0
+        }
+
+        logger.info("Split deletion of entity set {} into {} shards", state.entitySetId, shardCount)
+        publishJobState()
+    }
+
+    /**
+     * Shards check the status of the job that submitted them before every batch, so that canceling a deletion also
+     * cancels all of its shards.
+     */
+    private fun isParentCanceled(): Boolean {
+        return state.parentJobId?.let { jobService.getStatus(it) == JobStatus.CANCELED } ?: false
+    }
+
+    /**
+     * Takes over the id range of a shard that no member has started running yet, so that this job never waits on a
+     * shard that is itself waiting for a worker. The shard is canceled before its range is taken over. If a member
+     * starts it at the same time, the shard stops at its next batch and the few ids deleted twice are harmless.
+     *
+     * @return True if this job took over the range of a shard, false if every shard has already been started.
+     */
+    private fun adoptPendingShard(): Boolean {
+        val shardJobId = state.shardDeletes.keys
+                .filterNot { state.adoptedShards.contains(it) }
+                .firstOrNull { jobService.getStatus(it) == JobStatus.PENDING }
+                ?: return false
+
+        jobService.updateJob(shardJobId, JobStatus.CANCELED)
+        val shardState = jobService.getJob(shardJobId).state as DataDeletionJobState
+        state.lowerBound = shardState.lowerBound
+        state.upperBound = shardState.upperBound
+        state.adoptedShards.add(shardJobId)
+
+        logger.info(
+                "Took over range [{}, {}) of pending shard {} of deletion from entity set {}",
+                state.lowerBound,
+                state.upperBound,
+                shardJobId,
+                state.entitySetId
+        )
         publishJobState()
+        return true
+    }
+
+    /**
+     * Collects the number of deletes reported by each shard job, so that the progress of this job reflects the
+     * progress of the entire deletion, and waits one poll interval if any of them is still running. Since pending
+     * shards are taken over by [adoptPendingShard], only shards that hold a worker of their own are waited on.
+     *
+     * @return True if all shards submitted by this job have finished or were canceled, false otherwise.
+     */
+    private fun awaitShards(): Boolean {
+        if (state.shardDeletes.isEmpty()) {
+            return true
+        }
+
+        val statuses = state.shardDeletes.keys.associateWith { jobService.getStatus(it) }
+
+        state.shardDeletes.keys.toList().forEach { shardJobId ->
+            val shardNumDeletes = (jobService.getJob(shardJobId).state as DataDeletionJobState).numDeletes
+            state.numDeletes += shardNumDeletes - state.shardDeletes.getValue(shardJobId)
+            state.shardDeletes[shardJobId] = shardNumDeletes
+        }
+        publishJobState()
+
+        val unfinished = statuses.filterValues { !TERMINAL_JOB_STATUSES.contains(it) }.keys
+        if (unfinished.isNotEmpty()) {
+            logger.info("Waiting on {} of {} shards to finish deleting.", unfinished.size, statuses.size)
+            Thread.sleep(SHARD_POLL_INTERVAL_MILLIS)
+            return false
+        }
+
+        val canceled = statuses.filterValues { it == JobStatus.CANCELED }.keys - state.adoptedShards
+        if (canceled.isNotEmpty()) {
+            logger.error("Shards {} of deletion from entity set {} were canceled.", canceled, state.entitySetId)
+        }
+
+        return true
     }
 
     override fun updateProgress() {
@@ -181,7 +376,7 @@ class DataDeletionJob(
         }
         val hds = lateInitProvider.resolver.resolve(state.entitySetId)
         return hds.connection.use { connection ->
-            connection.prepareStatement(GET_ENTITY_SET_COUNT_SQL).use { ps ->
+            connection.prepareStatement(selectEntitySetSizeSql).use { ps ->
                 ps.setObject(1, state.entitySetId)
                 ps.executeQuery().use { rs ->
                     if (rs.next()) {
@@ -283,7 +478,10 @@ class DataDeletionJob(
         val hds = lateInitProvider.resolver.resolve(state.entitySetId)
 
         return BasePostgresIterable(PreparedStatementHolderSupplier(hds, getIdsBatchSql()) {
-            it.setObject(1, state.entitySetId)
+            var index = 0
+            it.setObject(++index, state.entitySetId)
+            state.lowerBound?.let { lowerBound -> it.setObject(++index, lowerBound) }
+            state.upperBound?.let { upperBound -> it.setObject(++index, upperBound) }
         }) {
             ResultSetAdapters.entityDataKey(it)
         }.toSet()
@@ -342,41 +540,71 @@ class DataDeletionJob(
 
         val version = -System.currentTimeMillis()
 
+        // Blob keys have to be read before the rows referencing them are deleted, but the blobs themselves are only
+        // deleted once the rows are gone.
         if (isHardDelete()) {
             val esIdToBinaryPts = getBinaryPropertiesOfEntitySets(entitySetIds)
             if (esIdToBinaryPts.isNotEmpty()) {
                 val entitySetIdToIds =
                         entityDataKeys.groupBy({ it.entitySetId }, { it.entityKeyId })
 
-                deletePropertyOfEntityFromS3(
-                        esIdToBinaryPts.keys,
-                        esIdToBinaryPts.keys.flatMap { esId -> entitySetIdToIds.getValue(esId) },
-                        esIdToBinaryPts.flatMap { it.value }
+                blobDeleter.enqueue(
+                        getBinaryPropertyKeys(
+                                esIdToBinaryPts.keys,
+                                esIdToBinaryPts.keys.flatMap { esId -> entitySetIdToIds.getValue(esId) },
+                                esIdToBinaryPts.flatMap { it.value }
+                        )
                 )
             }
         }
 
-        return entityDataKeys.groupBy { lateInitProvider.resolver.getDataSourceName(it.entitySetId) }
+        val deletedEntities = entityDataKeys.groupBy { lateInitProvider.resolver.getDataSourceName(it.entitySetId) }
                 .map { (dataSourceName, entityDataKeysForDataSource) ->
                     val dataHds = lateInitProvider.resolver.getDataSource(dataSourceName)
                     val entitySetIdToIds = entityDataKeysForDataSource
                             .groupBy({ edkForDataSource -> edkForDataSource.entitySetId }, { it.entityKeyId })
+                            .toSortedMap()
 
                     dataHds.connection.use {
-                        it.prepareStatement(deleteFromDataSql).use { ps ->
-                            entitySetIdToIds.forEach { (entitySetId, ids) ->
-                                bindEntityDelete(ps, entitySetId, ids, version)
+                        // The ids are locked up front so that the change in entity set sizes is recorded in the same
+                        // transaction as the deletes.
+                        it.autoCommit = false
+                        try {
+                            val sizeDeltas = entitySetIdToIds.mapValues { (entitySetId, ids) ->
+                                val previousVersions = lockEntityVersions(it, entitySetId, ids).values
+                                if (isHardDelete()) {
+                                    -previousVersions.count { previousVersion -> previousVersion > 0 }.toLong()
+                                } else {
+                                    getLiveEntityDelta(previousVersions, version)
+                                }
                             }
 
-                            ps.executeBatch()
-                        }.sum() + it.prepareStatement(deleteFromIdsSql).use { ps ->
-                            entitySetIdToIds.forEach { (entitySetId, ids) ->
-                                bindEntityDelete(ps, entitySetId, ids, version)
+                            val deleted = it.prepareStatement(deleteFromDataSql).use { ps ->
+                                entitySetIdToIds.forEach { (entitySetId, ids) ->
+                                    bindEntityDelete(ps, entitySetId, ids, version)
+                                }
+
+                                ps.executeBatch()
+                            }.sum() + it.prepareStatement(deleteFromIdsSql).use { ps ->
+                                entitySetIdToIds.forEach { (entitySetId, ids) ->
+                                    bindEntityDelete(ps, entitySetId, ids, version)
+                                }
+                                ps.executeBatch().sum()
                             }
-                            ps.executeBatch().sum()
+
+                            addEntitySetSizeDeltas(it, sizeDeltas)
+                            it.commit()
+                            deleted
+                        } catch (e: Exception) {
+                            it.rollback()
+                            throw e
                         }
                     }
                 }.sum()
+
+        blobDeleter.flushFullBatches()
+
+        return deletedEntities
     }
 
     @JsonIgnore
@@ -437,14 +665,12 @@ class DataDeletionJob(
     )
     //TODO: entity key ids should be paired with their entity set ids :-/
     @JsonIgnore
-    private fun deletePropertyOfEntityFromS3(
+    private fun getBinaryPropertyKeys(
             entitySetIds: Collection<UUID>,
             entityKeyIds: Collection<UUID>,
             propertyTypeIds: Collection<UUID>
-    ) {
-
-        val s3Keys =
-                entitySetIds
+    ): List<String> {
+        return entitySetIds
                         .groupBy(lateInitProvider.resolver::getDataSourceName)
                         .flatMap { (dataSourceName, entitySetIdsForDataSource) ->
                             val hds = lateInitProvider.resolver.getDataSource(dataSourceName)
@@ -466,24 +692,11 @@ class DataDeletionJob(
                                     }
                             ) { it.getString(getMergedDataColumnName(PostgresDatatype.TEXT)) }
                         }
-
-
-        if (s3Keys.isNotEmpty()) {
-            try {
-                lateInitProvider.byteBlobDataManager.deleteObjects(s3Keys)
-            } catch (e: Exception) {
-                logger.error(
-                        "Unable to delete object from s3 for entity sets {} with ids {}",
-                        entitySetIds,
-                        entityKeyIds,
-                        e
-                )
-            }
-        }
     }
 
     override fun setLateInitProvider(lateInitProvider: LateInitProvider) {
         this.lateInitProvider = lateInitProvider
+        this.blobDeleter = BatchedBlobDeleter(lateInitProvider.byteBlobDataManager)
     }
 
     @JsonIgnore
@@ -584,25 +797,20 @@ class DataDeletionJob(
      * PreparedStatement bind order:
      *
      * 1) entitySetId
-     */
-    @JsonIgnore
-    private val GET_ENTITY_SET_COUNT_SQL = """
-        SELECT $COUNT
-            FROM ${PostgresEntitySetSizesInitializationTask.ENTITY_SET_SIZES_VIEW}
-            WHERE ${ENTITY_SET_ID.name} = ?
-    """.trimIndent()
-
-    /**
-     * PreparedStatement bind order:
-     *
-     * 1) entitySetId
+     * 2) lowerBound, if present
+     * 3) upperBound, if present
      */
     @JsonIgnore
     private fun getIdsBatchSql(): String {
+        val lowerBoundSql = if (state.lowerBound == null) "" else "AND ${ID.name} >= ?"
+        val upperBoundSql = if (state.upperBound == null) "" else "AND ${ID.name} < ?"
+
         return """
             SELECT ${ENTITY_SET_ID.name}, ${ID.name}
             FROM ${IDS.name}
             WHERE ${ENTITY_SET_ID.name} = ?
+            $lowerBoundSql
+            $upperBoundSql
             ${excludeClearedIfSoftDeleteSql()}
             LIMIT $BATCH_SIZE
         """.trimIndent()
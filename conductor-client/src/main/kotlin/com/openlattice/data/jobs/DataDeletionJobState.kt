@@ -5,6 +5,13 @@ import com.geekbeast.rhizome.jobs.JobState
 import com.openlattice.data.DeleteType
 import java.util.*
 
+/**
+ * @param lowerBound Inclusive lower bound of the entity key id range handled by a shard job. Null for unbounded.
+ * @param upperBound Exclusive upper bound of the entity key id range handled by a shard job. Null for unbounded.
+ * @param parentJobId The id of the job that submitted this shard job, or null if this is not a shard job.
+ * @param shardDeletes Number of deletes reported by each shard job submitted by this job, keyed by shard job id.
+ * @param adoptedShards Shard jobs that were canceled before they started because this job took over their range.
+ */
 @JsonIgnoreProperties(value = ["partitions"])
 data class DataDeletionJobState(
         val entitySetId: UUID,
@@ -13,5 +20,10 @@ data class DataDeletionJobState(
         internal var totalToDelete: Long = 0,
         var numDeletes: Long = 0,
         val neighborSrcEntitySetIds: Set<UUID> = setOf(),
-        val neighborDstEntitySetIds: Set<UUID> = setOf()
+        val neighborDstEntitySetIds: Set<UUID> = setOf(),
+        var lowerBound: UUID? = null,
+        var upperBound: UUID? = null,
+        val parentJobId: UUID? = null,
+        val shardDeletes: MutableMap<UUID, Long> = mutableMapOf(),
+        val adoptedShards: MutableSet<UUID> = mutableSetOf()
 ) : JobState
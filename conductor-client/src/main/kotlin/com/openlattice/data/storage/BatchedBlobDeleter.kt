@@ -0,0 +1,76 @@
+package com.openlattice.data.storage
+
+import org.slf4j.LoggerFactory
+
+private val logger = LoggerFactory.getLogger(BatchedBlobDeleter::class.java)
+
+/**
+ * S3 accepts at most this many keys in a single multi-object delete request.
+ */
+const val MAX_BLOB_KEYS_PER_DELETE = 1_000
+
+/**
+ * Accumulates blob keys and hands them to [ByteBlobDataManager.deleteObjects] in full size batches, so that callers
+ * deleting entities in many small steps don't issue a blob delete request for each step.
+ *
+ * Keys are only handed off on [flush] or once a full batch is available, which lets callers enqueue keys before
+ * deleting the rows that reference them and delete the blobs after the rows are gone.
+ *
+ * A batch that fails to delete is put back in front of the pending keys and the failure is rethrown, so that callers
+ * don't lose track of blobs whose rows are already gone and the next flush retries them.
+ *
+ * This class is not thread safe.
+ */
+class BatchedBlobDeleter(
+        private val byteBlobDataManager: ByteBlobDataManager,
+        private val batchSize: Int = MAX_BLOB_KEYS_PER_DELETE
+) : AutoCloseable {
+    private val pending = mutableListOf<String>()
+
+    var numDeleted: Long = 0
+        private set
+
+    val numPending: Int
+        get() = pending.size
+
+    fun enqueue(keys: Iterable<String>) {
+        pending.addAll(keys)
+    }
+
+    /**
+     * Hands off all full batches of pending keys, keeping any remainder for a later call.
+     */
+    fun flushFullBatches() {
+        while (pending.size >= batchSize) {
+            deleteBatch(batchSize)
+        }
+    }
+
+    /**
+     * Hands off all pending keys.
+     */
+    fun flush() {
+        while (pending.isNotEmpty()) {
+            deleteBatch(minOf(batchSize, pending.size))
+        }
+    }
+
+    private fun deleteBatch(size: Int) {
+        val batch = pending.subList(0, size)
+        val keys = batch.toList()
+        batch.clear()
+
+        try {
+            byteBlobDataManager.deleteObjects(keys)
+        } catch (e: Exception) {
+            logger.error("Unable to delete batch of {} objects from blob storage.", keys.size, e)
+            pending.addAll(0, keys)
+            throw e
+        }
+        numDeleted += keys.size
+    }
+
+    override fun close() {
+        flush()
+    }
+}
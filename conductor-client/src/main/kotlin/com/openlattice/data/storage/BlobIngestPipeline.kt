@@ -0,0 +1,144 @@
+package com.openlattice.data.storage
+
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.openlattice.data.util.PostgresDataHasher
+import io.prometheus.client.Counter
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+private val MAX_CONCURRENT_UPLOADS = 2 * Runtime.getRuntime().availableProcessors()
+
+/**
+ * Uploads the binary values of entities before they are written to postgres, so that no write holds row locks while
+ * waiting on an upload and every written value references a blob that is already durable.
+ *
+ * Keys are derived from the digest of each payload, so identical payloads of a property of an entity share a key. A
+ * key is uploaded only once even if it appears several times in a batch or in concurrent batches, and not at all if
+ * it is already referenced by a value that was written before.
+ *
+ * Uploads of all pipelines share a bounded executor unless another one is provided.
+ */
+class BlobIngestPipeline(
+        private val byteBlobDataManager: ByteBlobDataManager,
+        private val executor: ListeningExecutorService = uploadExecutor
+) {
+    companion object {
+        private val uploadExecutor: ListeningExecutorService by lazy {
+            MoreExecutors.listeningDecorator(
+                    Executors.newFixedThreadPool(
+                            MAX_CONCURRENT_UPLOADS,
+                            ThreadFactoryBuilder().setDaemon(true).setNameFormat("blob-ingest-%d").build()
+                    )
+            )
+        }
+
+        private val blobsUploaded: Counter = Counter.build()
+                .name("blob_ingest_uploaded")
+                .help("Count of blobs uploaded by the blob ingest pipeline")
+                .register()
+        private val blobsDeduplicated: Counter = Counter.build()
+                .name("blob_ingest_deduplicated")
+                .help("Count of binary values whose blob was already uploaded or being uploaded")
+                .register()
+    }
+
+    private val uploadsInFlight = ConcurrentHashMap<String, ListenableFuture<*>>()
+
+    /**
+     * Entities whose binary values were replaced by the keys of their blobs.
+     */
+    class StagedEntities(
+            val entities: Map<UUID, Map<UUID, Set<Any>>>,
+            private val uploads: List<ListenableFuture<*>>
+    ) {
+        /**
+         * Waits until every blob referenced by [entities] is durable.
+         *
+         * @throws IllegalStateException if any of the blobs could not be uploaded.
+         */
+        fun awaitDurable() {
+            try {
+                Futures.allAsList(uploads).get()
+            } catch (e: ExecutionException) {
+                throw IllegalStateException("Unable to upload binary data.", e.cause)
+            }
+        }
+    }
+
+    /**
+     * Starts uploading the binary values of [entities].
+     *
+     * @param entities The normalized entities to stage, with binary values as [BinaryObjectWithMetadata].
+     * @param binaryPropertyTypeIds The property types of [entities] that hold binary values.
+     * @param getDurableKeys Returns which of the keys of each property type are already referenced by written values,
+     * and therefore do not need to be uploaded.
+     */
+    fun stage(
+            entitySetId: UUID,
+            entities: Map<UUID, Map<UUID, Set<Any>>>,
+            binaryPropertyTypeIds: Set<UUID>,
+            getDurableKeys: (keysByPropertyType: Map<UUID, Set<String>>) -> Set<String> = { setOf() }
+    ): StagedEntities {
+        val blobs = mutableMapOf<String, BinaryObjectWithMetadata>()
+        val keysByPropertyType = mutableMapOf<UUID, MutableSet<String>>()
+
+        val stagedEntities = entities.mapValues { (entityKeyId, entity) ->
+            entity.mapValues { (propertyTypeId, values) ->
+                if (binaryPropertyTypeIds.contains(propertyTypeId)) {
+                    values.mapTo(mutableSetOf<Any>()) { value ->
+                        val blob = value as BinaryObjectWithMetadata
+                        val digest = PostgresDataHasher.hashObjectToHex(blob.data, EdmPrimitiveTypeKind.Binary)
+                        val key = ByteBlobDataManager.generateS3Key(entitySetId, entityKeyId, propertyTypeId, digest)
+                        blobs.putIfAbsent(key, blob)
+                        keysByPropertyType.getOrPut(propertyTypeId) { mutableSetOf() }.add(key)
+                        key
+                    }
+                } else {
+                    values
+                }
+            }
+        }
+
+        if (blobs.isEmpty()) {
+            return StagedEntities(stagedEntities, listOf())
+        }
+
+        val durableKeys = getDurableKeys(keysByPropertyType)
+        val uploads = blobs.mapNotNull { (key, blob) ->
+            if (durableKeys.contains(key)) {
+                blobsDeduplicated.inc()
+                null
+            } else {
+                upload(key, blob)
+            }
+        }
+
+        return StagedEntities(stagedEntities, uploads)
+    }
+
+    private fun upload(key: String, blob: BinaryObjectWithMetadata): ListenableFuture<*> {
+        var isNew = false
+        val upload = uploadsInFlight.computeIfAbsent(key) {
+            isNew = true
+            executor.submit(Callable {
+                byteBlobDataManager.putObject(key, blob)
+                blobsUploaded.inc()
+            })
+        }
+
+        if (isNew) {
+            upload.addListener({ uploadsInFlight.remove(key, upload) }, MoreExecutors.directExecutor())
+        } else {
+            blobsDeduplicated.inc()
+        }
+        return upload
+    }
+}
@@ -21,6 +21,10 @@ interface ByteBlobDataManager {
 
     fun putObject(s3Key: String, binaryObjectWithMetadata: BinaryObjectWithMetadata)
 
+    fun putObjects(objects: Map<String, BinaryObjectWithMetadata>) {
+        objects.forEach { (s3Key, binaryObjectWithMetadata) -> putObject(s3Key, binaryObjectWithMetadata) }
+    }
+
     fun deleteObject(s3Key: String)
 
     fun getObjects(keys: Collection<Any>): List<Any>
@@ -18,7 +18,8 @@ import java.util.concurrent.TimeUnit
 open class DataSourceResolver @JvmOverloads constructor(
         hazelcastInstance: HazelcastInstance,
         val dataSourceManager: DataSourceManager,
-        val defaultOnMissingEntitySet: Boolean = false
+        val defaultOnMissingEntitySet: Boolean = false,
+        val replicaRouter: ReplicaRouter? = null
 ) {
     private val entitySets = HazelcastMap.ENTITY_SETS.getMap(hazelcastInstance)
     private val resolverCache = CacheBuilder
@@ -36,13 +37,46 @@ open class DataSourceResolver @JvmOverloads constructor(
                 }
             })
 
-    fun resolve(entitySetId: UUID): HikariDataSource = dataSourceManager.getDataSource(getDataSourceName(entitySetId))
+    val admissionController = WorkloadAdmissionController(
+            dataSourceManager::getDataSource,
+            { dataSourceManager.dataSources.keys },
+            hazelcastInstance
+    )
+
+    fun resolve(entitySetId: UUID): HikariDataSource = getDataSource(getDataSourceName(entitySetId))
     fun getDataSourceName(entitySetId: UUID): String = if (entitySetId == IdConstants.LINKING_ENTITY_SET_ID.id) {
         DataSourceManager.DEFAULT_DATASOURCE
     } else resolverCache.get(entitySetId)
 
     fun getFlavor(dataSourceName: String) = dataSourceManager.getFlavor(dataSourceName)
-    fun getDataSource(dataSourceName: String): HikariDataSource = dataSourceManager.getDataSource(dataSourceName)
+
+    /**
+     * Reads marked with [ReadConsistency.replicaEligible] from the default data source are routed by [replicaRouter],
+     * according to the consistency of the current request.
+     */
+    fun getDataSource(dataSourceName: String): HikariDataSource {
+        return if (replicaRouter != null && dataSourceName == DataSourceManager.DEFAULT_DATASOURCE
+                && ReadConsistency.isReplicaEligible()) {
+            replicaRouter.route(ReadConsistency.current())
+        } else {
+            dataSourceManager.getDataSource(dataSourceName)
+        }
+    }
+
+    /**
+     * Runs [work] once [workload] is admitted to the pool of the data source of [entitySetId].
+     */
+    fun <T> admit(workload: Workload, entitySetId: UUID, work: () -> T): T {
+        return admissionController.admit(workload, getDataSourceName(entitySetId), work)
+    }
+
+    /**
+     * Runs [work] once [workload] is admitted to the pool of the default data source.
+     */
+    fun <T> admitToDefaultDataSource(workload: Workload, work: () -> T): T {
+        return admissionController.admit(workload, DataSourceManager.DEFAULT_DATASOURCE, work)
+    }
+
     fun getDefaultDataSource(): HikariDataSource = dataSourceManager.getDefaultDataSource()
     fun getAllDataSources(): Collection<HikariDataSource> = dataSourceManager.dataSources.values
 }
\ No newline at end of file
@@ -20,6 +20,11 @@ import java.util.*
 interface EntityDataQueryService {
     fun getEntitySetCounts(): Map<UUID, Long>
 
+    /**
+     * Reads the last write of entities from the ids table, without reading any of their data.
+     */
+    fun getLastWrites(entitySetId: UUID, entityKeyIds: Set<UUID>): Map<UUID, OffsetDateTime>
+
     fun getEntitiesWithPropertyTypeIds(
             entityKeyIds: Map<UUID, Optional<Set<UUID>>>,
             authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
@@ -149,20 +154,28 @@ interface EntityDataQueryService {
             awsPassthrough: Boolean
     ): Pair<ByteArray, Any>
 
+    /**
+     * @param writtenEntitiesFn Receives the entities as they are written, after their values were normalized.
+     */
     @Timed
     fun replaceEntities(
             entitySetId: UUID,
             entities: Map<UUID, Map<UUID, Set<Any>>>,
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType,
+            writtenEntitiesFn: (Map<UUID, Map<UUID, Set<Any>>>) -> Unit = {}
     ): WriteEvent
 
+    /**
+     * @param writtenEntitiesFn Receives the entities as they are written, after their values were normalized.
+     */
     @Timed
     fun partialReplaceEntities(
             entitySetId: UUID,
             entities: Map<UUID, Map<UUID, Set<Any>>>,
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType,
+            writtenEntitiesFn: (Map<UUID, Map<UUID, Set<Any>>>) -> Unit = {}
     ): WriteEvent
 
     @Timed
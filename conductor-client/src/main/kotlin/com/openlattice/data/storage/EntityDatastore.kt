@@ -69,6 +69,11 @@ interface EntityDatastore {
             authorizedPropertyTypesByEntitySet: Map<UUID, Map<UUID, PropertyType>>
     ): Map<UUID, Collection<MutableMap<FullQualifiedName, MutableSet<Any>>>>
 
+    /**
+     * @return The last writes of the entities of [entitySetId] among [entityKeyIds] that exist, by entity key id.
+     */
+    fun getLastWrites(entitySetId: UUID, entityKeyIds: Set<UUID>): Map<UUID, OffsetDateTime>
+
     fun getEntityKeyIdsOfLinkingIds(
             linkingIds: Set<UUID>,
             normalEntitySetIds: Set<UUID>
@@ -0,0 +1,312 @@
+package com.openlattice.data.storage
+
+import com.amazonaws.HttpMethod
+import com.google.common.hash.Hashing
+import org.slf4j.LoggerFactory
+import java.io.*
+import java.net.URL
+import java.net.URLEncoder
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.*
+import java.security.MessageDigest
+import java.time.Clock
+import java.util.*
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+private val logger = LoggerFactory.getLogger(FilesystemBlobDataService::class.java)
+
+private const val MAGIC = 0x4f4c4231 // OLB1
+private const val CHECKSUM_LENGTH = 32
+private const val BLOB_SUFFIX = ".blob"
+private const val TEMP_SUFFIX = ".tmp"
+private const val HMAC_SHA256 = "HmacSHA256"
+
+const val BLOB_KEY_PARAMETER = "key"
+const val BLOB_EXPIRES_PARAMETER = "expires"
+const val BLOB_DISPOSITION_PARAMETER = "disposition"
+const val BLOB_SIGNATURE_PARAMETER = "signature"
+
+/**
+ * Stores blobs as files under [root], for deployments that can not use S3.
+ *
+ * Each key is stored at a path derived from the SHA-256 of the key, sharded over two levels of 256 directories so that
+ * no directory grows too large. A file starts with a header holding the SHA-256 of the data, the content type and the
+ * content disposition, followed by the data. Writes go to a temporary file next to the blob that is synced and then
+ * renamed into place, so a blob is either fully written or absent, and reads verify the data against its checksum.
+ *
+ * Urls returned by [getObjects] and [getPresignedUrl] point at [baseUrl] on the datastore, which checks them with
+ * [verifySignature] before serving the blob from [readObject].
+ *
+ * @param timeToLive How long urls are valid for, in milliseconds.
+ */
+class FilesystemBlobDataService @JvmOverloads constructor(
+        private val root: Path,
+        private val baseUrl: String,
+        signingSecret: String,
+        private val timeToLive: Long,
+        private val clock: Clock = Clock.systemUTC()
+) : ByteBlobDataManager {
+
+    private val signingKey = SecretKeySpec(signingSecret.toByteArray(Charsets.UTF_8), HMAC_SHA256)
+
+    init {
+        check(signingSecret.isNotBlank()) { "A signing secret is required to sign blob urls." }
+        Files.createDirectories(root)
+    }
+
+    private class Header(val checksum: ByteArray, val contentType: String, val contentDisposition: String?)
+
+    override fun putObject(s3Key: String, binaryObjectWithMetadata: BinaryObjectWithMetadata) {
+        putObjects(mapOf(s3Key to binaryObjectWithMetadata))
+    }
+
+    /**
+     * Writes all blobs before syncing the directories that they were renamed into, once per directory.
+     */
+    override fun putObjects(objects: Map<String, BinaryObjectWithMetadata>) {
+        val directories = objects.mapNotNullTo(mutableSetOf()) { (key, blob) -> write(getPath(key), blob) }
+        directories.forEach(::syncDirectory)
+    }
+
+    /**
+     * @return The directory the blob was written to, or null if an identical blob was already there.
+     */
+    private fun write(path: Path, blob: BinaryObjectWithMetadata): Path? {
+        val checksum = checksum(blob.data)
+        if (Files.exists(path) && readHeader(path)?.checksum?.contentEquals(checksum) == true) {
+            return null
+        }
+
+        val directory = path.parent
+        Files.createDirectories(directory)
+        val temp = Files.createTempFile(directory, path.fileName.toString(), TEMP_SUFFIX)
+        try {
+            FileChannel.open(temp, StandardOpenOption.WRITE).use { channel ->
+                val out = DataOutputStream(BufferedOutputStream(Channels.newOutputStream(channel)))
+                out.writeInt(MAGIC)
+                out.write(checksum)
+                out.writeUTF(blob.contentType)
+                out.writeBoolean(blob.contentDisposition != null)
+                out.writeUTF(blob.contentDisposition ?: "")
+                out.write(blob.data)
+                out.flush()
+                channel.force(true)
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE)
+        } catch (e: Exception) {
+            Files.deleteIfExists(temp)
+            throw e
+        }
+        return directory
+    }
+
+    /**
+     * Reads a blob, verifying its data against the checksum it was written with.
+     *
+     * @return The blob, or null if there is no blob with this key.
+     * @throws IllegalStateException if the blob is corrupted.
+     */
+    fun readObject(key: String): BinaryObjectWithMetadata? {
+        return openObject(key)?.use { blob ->
+            val data = try {
+                blob.data.readBytes()
+            } catch (e: CorruptedBlobException) {
+                throw IllegalStateException(e.message, e)
+            }
+            BinaryObjectWithMetadata(blob.contentType, data, blob.contentDisposition)
+        }
+    }
+
+    /**
+     * Opens a blob for streaming, without loading its data into memory. The data is verified against its checksum as
+     * it is read, so a corrupted blob is only detected once all of it has been read, at which point reading fails with
+     * a [CorruptedBlobException].
+     *
+     * @return The blob, which has to be closed by the caller, or null if there is no blob with this key.
+     */
+    fun openObject(key: String): BlobStream? {
+        val path = getPath(key)
+        val input = try {
+            DataInputStream(BufferedInputStream(Files.newInputStream(path)))
+        } catch (e: NoSuchFileException) {
+            return null
+        }
+
+        try {
+            val header = readHeader(input, path)
+            return BlobStream(
+                    header.contentType,
+                    header.contentDisposition,
+                    VerifyingInputStream(input, header.checksum, "Blob $key at $path is corrupted.")
+            )
+        } catch (e: Exception) {
+            input.close()
+            throw e
+        }
+    }
+
+    /**
+     * @return The blobs that exist among [keys], each verified against its checksum.
+     */
+    fun readObjects(keys: Collection<String>): Map<String, BinaryObjectWithMetadata> {
+        return keys.mapNotNull { key -> readObject(key)?.let { key to it } }.toMap()
+    }
+
+    private fun readHeader(path: Path): Header? {
+        return try {
+            DataInputStream(BufferedInputStream(Files.newInputStream(path))).use { readHeader(it, path) }
+        } catch (e: IOException) {
+            logger.warn("Unable to read header of blob at {}", path, e)
+            null
+        } catch (e: IllegalStateException) {
+            logger.warn("Blob at {} has an invalid header", path, e)
+            null
+        }
+    }
+
+    private fun readHeader(input: DataInputStream, path: Path): Header {
+        check(input.readInt() == MAGIC) { "File at $path is not a blob." }
+        val checksum = ByteArray(CHECKSUM_LENGTH)
+        input.readFully(checksum)
+        val contentType = input.readUTF()
+        val hasContentDisposition = input.readBoolean()
+        val contentDisposition = input.readUTF()
+        return Header(checksum, contentType, if (hasContentDisposition) contentDisposition else null)
+    }
+
+    override fun deleteObject(s3Key: String) {
+        Files.deleteIfExists(getPath(s3Key))
+    }
+
+    override fun deleteObjects(s3Keys: List<String>) {
+        s3Keys.forEach(::deleteObject)
+    }
+
+    override fun getObjects(keys: Collection<Any>): List<Any> {
+        return getPresignedUrls(keys)
+    }
+
+    override fun getPresignedUrl(
+            key: Any,
+            expiration: Date,
+            httpMethod: HttpMethod,
+            contentType: String?,
+            contentDisposition: String?
+    ): URL {
+        if (httpMethod != HttpMethod.GET) {
+            throw UnsupportedOperationException("Blobs can only be written through the datastore.")
+        }
+        return sign(key.toString(), expiration.time / 1000, contentDisposition)
+    }
+
+    override fun getPresignedUrls(keys: Collection<Any>): List<URL> {
+        val expires = getDefaultExpirationDateTime().time / 1000
+        return keys.map { sign(it.toString(), expires, null) }
+    }
+
+    override fun getPresignedUrlsWithDispositions(keysToDispositions: Map<String, String?>): Map<String, URL> {
+        val expires = getDefaultExpirationDateTime().time / 1000
+        return keysToDispositions.mapValues { (key, disposition) -> sign(key, expires, disposition) }
+    }
+
+    override fun getDefaultExpirationDateTime(): Date {
+        return Date(clock.millis() + timeToLive)
+    }
+
+    /**
+     * @param expires When the url expires, in seconds since the epoch.
+     * @return True if the signature was produced for these parameters by this service, and has not expired yet.
+     */
+    fun verifySignature(key: String, expires: Long, contentDisposition: String?, signature: String): Boolean {
+        val expected = signature(key, expires, contentDisposition).toByteArray(Charsets.UTF_8)
+        return MessageDigest.isEqual(expected, signature.toByteArray(Charsets.UTF_8))
+                && clock.millis() / 1000 <= expires
+    }
+
+    private fun sign(key: String, expires: Long, contentDisposition: String?): URL {
+        val query = listOfNotNull(
+                BLOB_KEY_PARAMETER to key,
+                BLOB_EXPIRES_PARAMETER to expires.toString(),
+                contentDisposition?.let { BLOB_DISPOSITION_PARAMETER to it },
+                BLOB_SIGNATURE_PARAMETER to signature(key, expires, contentDisposition)
+        ).joinToString("&") { (name, value) -> "$name=${URLEncoder.encode(value, Charsets.UTF_8.name())}" }
+        return URL("$baseUrl?$query")
+    }
+
+    private fun signature(key: String, expires: Long, contentDisposition: String?): String {
+        val mac = Mac.getInstance(HMAC_SHA256)
+        mac.init(signingKey)
+        val payload = "$key\n$expires\n${contentDisposition ?: ""}"
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal(payload.toByteArray(Charsets.UTF_8)))
+    }
+
+    private fun getPath(key: String): Path {
+        val name = Hashing.sha256().hashString(key, Charsets.UTF_8).toString()
+        return root.resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name + BLOB_SUFFIX)
+    }
+
+    private fun checksum(data: ByteArray): ByteArray {
+        return MessageDigest.getInstance("SHA-256").digest(data)
+    }
+
+    private fun syncDirectory(directory: Path) {
+        try {
+            FileChannel.open(directory, StandardOpenOption.READ).use { it.force(true) }
+        } catch (e: IOException) {
+            // not every platform allows syncing a directory, in which case the rename is as durable as it gets
+            logger.debug("Unable to sync directory {}", directory, e)
+        }
+    }
+}
+
+/**
+ * A blob opened by [FilesystemBlobDataService.openObject]. Closing it closes [data].
+ */
+class BlobStream(val contentType: String, val contentDisposition: String?, val data: InputStream) : Closeable {
+    override fun close() {
+        data.close()
+    }
+}
+
+class CorruptedBlobException(message: String) : IOException(message)
+
+/**
+ * Digests the data read through it and fails at the end of the data if the digest doesn't match [checksum].
+ */
+private class VerifyingInputStream(
+        input: InputStream,
+        private val checksum: ByteArray,
+        private val message: String
+) : FilterInputStream(input) {
+    private val digest = MessageDigest.getInstance("SHA-256")
+    private var verified = false
+
+    override fun read(): Int {
+        val b = super.read()
+        if (b == -1) verify() else digest.update(b.toByte())
+        return b
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val read = super.read(b, off, len)
+        if (read == -1) verify() else digest.update(b, off, read)
+        return read
+    }
+
+    override fun skip(n: Long): Long {
+        throw IOException("Blobs can not be skipped through, as their data is verified as it is read.")
+    }
+
+    override fun markSupported() = false
+
+    private fun verify() {
+        if (!verified) {
+            verified = true
+            if (!digest.digest().contentEquals(checksum)) {
+                throw CorruptedBlobException(message)
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.openlattice.data.storage
 
+import com.geekbeast.postgres.PostgresArrays
 import com.openlattice.data.EntityDataKey
 import com.openlattice.postgres.DataTables.LAST_INDEX
 import com.openlattice.postgres.DataTables.LAST_LINK
@@ -134,6 +135,22 @@ class IndexingMetadataManager(
     }
 
 
+    /**
+     * Sets the last_index of provided entities to -infinity, so that background indexing indexes them again.
+     * @param entitySetId The id of the (normal) entity set of the entities.
+     * @param entityKeyIds The entity key ids of the entities.
+     */
+    fun markAsNeedsToBeIndexed(entitySetId: UUID, entityKeyIds: Set<UUID>): Int {
+        val hds = dataSourceResolver.resolve(entitySetId)
+        return hds.connection.use { connection ->
+            connection.prepareStatement(markAsNeedsToBeIndexedSql).use { ps ->
+                ps.setObject(1, entitySetId)
+                ps.setArray(2, PostgresArrays.createUuidArray(connection, entityKeyIds))
+                ps.executeUpdate()
+            }
+        }
+    }
+
     fun markEntitySetsAsNeedsToBeIndexed(entitySetIds: Set<UUID>, linking: Boolean): Int {
         val query = markEntitySetsAsNeedsToBeIndexedSql(linking)
 
@@ -229,6 +246,15 @@ private val markEntitySetLastIndexSql = "UPDATE ${IDS.name} SET ${LAST_INDEX.nam
 
 
 
+/**
+ * Arguments of preparable sql in order:
+ * 1. entity set id
+ * 2. entity key ids (uuid array)
+ */
+private val markAsNeedsToBeIndexedSql =
+        "UPDATE ${IDS.name} SET ${LAST_INDEX.name} = '-infinity()' " +
+                "WHERE ${ENTITY_SET_ID.name} = ? AND ${ID.name} = ANY(?)"
+
 /**
  * Arguments of preparable sql in order:
  * 1. entity set id
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2019. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+package com.openlattice.data.storage
+
+import com.geekbeast.postgres.PostgresArrays
+import com.openlattice.postgres.PostgresColumn.COUNT
+import com.openlattice.postgres.PostgresColumn.ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.ID
+import com.openlattice.postgres.PostgresColumn.PARTITION
+import com.openlattice.postgres.PostgresColumn.VERSION
+import com.openlattice.postgres.PostgresTable.ENTITY_SET_SIZES
+import com.openlattice.postgres.PostgresTable.IDS
+import com.openlattice.postgres.ResultSetAdapters
+import java.sql.Connection
+import java.util.*
+import java.util.concurrent.ThreadLocalRandom
+import kotlin.math.abs
+
+/*
+ * Entity set sizes are kept as counters in [ENTITY_SET_SIZES], in the same database as the [IDS] rows they count.
+ *
+ * Every transaction that changes which entities of an entity set are live adds the change to one of
+ * [ENTITY_SET_SIZE_SHARDS] randomly chosen rows of that entity set, so concurrent writers rarely wait on each other.
+ * Partition 0 holds the compacted total, which [compactEntitySetSizesSql] periodically folds the other rows into.
+ * The size of an entity set is the sum of its rows.
+ */
+
+const val ENTITY_SET_SIZE_SHARDS = 16
+
+/**
+ * Preparable sql to add to the size of an entity set.
+ *
+ * The bind order is the following:
+ *
+ * 1 - entity set id
+ *
+ * 2 - partition
+ *
+ * 3 - delta
+ */
+internal val addEntitySetSizeDeltaSql = "INSERT INTO ${ENTITY_SET_SIZES.name} " +
+        "(${ENTITY_SET_ID.name}, ${PARTITION.name}, $COUNT) VALUES (?, ?, ?) " +
+        "ON CONFLICT (${ENTITY_SET_ID.name}, ${PARTITION.name}) " +
+        "DO UPDATE SET $COUNT = ${ENTITY_SET_SIZES.name}.$COUNT + EXCLUDED.$COUNT"
+
+/**
+ * Preparable sql to select the size of an entity set.
+ *
+ * The bind order is the following:
+ *
+ * 1 - entity set id
+ */
+val selectEntitySetSizeSql = "SELECT COALESCE(sum($COUNT), 0) AS $COUNT FROM ${ENTITY_SET_SIZES.name} " +
+        "WHERE ${ENTITY_SET_ID.name} = ?"
+
+/**
+ * Sql to select the sizes of all entity sets.
+ */
+val selectEntitySetSizesSql = "SELECT ${ENTITY_SET_ID.name}, sum($COUNT) AS $COUNT FROM ${ENTITY_SET_SIZES.name} " +
+        "GROUP BY ${ENTITY_SET_ID.name}"
+
+/**
+ * Sql to fold the rows of every entity set into its compacted total in partition 0.
+ *
+ * Deleting the rows and adding them to the total happens in a single statement, so a concurrent read sees either all
+ * of the rows or the total they were folded into.
+ */
+internal val compactEntitySetSizesSql = "WITH folded AS (" +
+        "DELETE FROM ${ENTITY_SET_SIZES.name} WHERE ${PARTITION.name} <> 0 " +
+        "RETURNING ${ENTITY_SET_ID.name}, $COUNT) " +
+        "INSERT INTO ${ENTITY_SET_SIZES.name} (${ENTITY_SET_ID.name}, ${PARTITION.name}, $COUNT) " +
+        "SELECT ${ENTITY_SET_ID.name}, 0, sum($COUNT) FROM folded GROUP BY ${ENTITY_SET_ID.name} " +
+        "ON CONFLICT (${ENTITY_SET_ID.name}, ${PARTITION.name}) " +
+        "DO UPDATE SET $COUNT = ${ENTITY_SET_SIZES.name}.$COUNT + EXCLUDED.$COUNT"
+
+/**
+ * Sql to drop compacted totals of entity sets that no longer have any live entities. Writers never write to
+ * partition 0, so this can not race with them.
+ */
+internal val deleteEmptyEntitySetSizesSql = "DELETE FROM ${ENTITY_SET_SIZES.name} " +
+        "WHERE ${PARTITION.name} = 0 AND $COUNT = 0"
+
+/**
+ * Sql to select, for every entity set whose counters disagree with [IDS], the difference between the number of live
+ * entities and the counters.
+ *
+ * Both sides are read by the same statement, and thus from the same snapshot. Writers change [IDS] and the counters in
+ * the same transaction, so the difference can be added to the counters afterwards even while writes are ongoing.
+ */
+internal val selectEntitySetSizeDriftsSql = "WITH actual AS (" +
+        "SELECT ${ENTITY_SET_ID.name}, count(*) AS $COUNT FROM ${IDS.name} " +
+        "WHERE ${VERSION.name} > 0 GROUP BY ${ENTITY_SET_ID.name}), " +
+        "recorded AS ($selectEntitySetSizesSql) " +
+        "SELECT ${ENTITY_SET_ID.name}, COALESCE(actual.$COUNT, 0) - COALESCE(recorded.$COUNT, 0) AS $COUNT " +
+        "FROM actual FULL OUTER JOIN recorded USING (${ENTITY_SET_ID.name}) " +
+        "WHERE COALESCE(actual.$COUNT, 0) <> COALESCE(recorded.$COUNT, 0)"
+
+/**
+ * Preparable sql to lock entities in the [IDS] table in ID order and select their versions.
+ *
+ * The bind order is the following:
+ *
+ * 1 - entity set id
+ *
+ * 2 - entity key ids
+ */
+internal val lockEntityVersionsSql = "SELECT ${ID.name}, ${VERSION.name} FROM ${IDS.name} " +
+        "WHERE ${ENTITY_SET_ID.name} = ? AND ${ID.name} = ANY(?) " +
+        "ORDER BY ${ID.name} " +
+        "FOR UPDATE"
+
+/**
+ * Locks the entities until the end of the current transaction, so that their versions can not change before the
+ * change in the size of their entity set is recorded.
+ *
+ * @return The current version of each entity that exists.
+ */
+fun lockEntityVersions(connection: Connection, entitySetId: UUID, entityKeyIds: Collection<UUID>): Map<UUID, Long> {
+    require(!connection.autoCommit) { "Connection must not be in autocommit mode." }
+
+    return connection.prepareStatement(lockEntityVersionsSql).use { ps ->
+        ps.setObject(1, entitySetId)
+        ps.setArray(2, PostgresArrays.createUuidArray(connection, entityKeyIds))
+        ps.executeQuery().use { rs ->
+            val versions = mutableMapOf<UUID, Long>()
+            while (rs.next()) {
+                versions[ResultSetAdapters.id(rs)] = ResultSetAdapters.version(rs)
+            }
+            versions
+        }
+    }
+}
+
+/**
+ * @return The change in the number of live entities when [version] is written to entities with [previousVersions],
+ * following the rule that a version only replaces versions with a smaller absolute value.
+ */
+fun getLiveEntityDelta(previousVersions: Collection<Long>, version: Long): Long {
+    return previousVersions.fold(0L) { delta, previous ->
+        val next = if (abs(previous) <= abs(version)) version else previous
+        delta + (if (next > 0) 1 else 0) - (if (previous > 0) 1 else 0)
+    }
+}
+
+/**
+ * Adds to the sizes of entity sets within the transaction of [connection].
+ *
+ * @param deltas The change in the number of live entities of each entity set.
+ */
+fun addEntitySetSizeDeltas(connection: Connection, deltas: Map<UUID, Long>) {
+    val nonZeroDeltas = deltas.filterValues { it != 0L }
+    if (nonZeroDeltas.isEmpty()) {
+        return
+    }
+
+    val partition = ThreadLocalRandom.current().nextInt(1, ENTITY_SET_SIZE_SHARDS + 1)
+    connection.prepareStatement(addEntitySetSizeDeltaSql).use { ps ->
+        // in a consistent order, so that transactions touching several entity sets can not deadlock
+        nonZeroDeltas.toSortedMap().forEach { (entitySetId, delta) ->
+            ps.setObject(1, entitySetId)
+            ps.setInt(2, partition)
+            ps.setLong(3, delta)
+            ps.addBatch()
+        }
+        ps.executeBatch()
+    }
+}
+
+/**
+ * Folds the counters of every entity set into its compacted total.
+ *
+ * @return The number of counters that were folded.
+ */
+fun compactEntitySetSizes(connection: Connection): Int {
+    return connection.createStatement().use { stmt ->
+        val folded = stmt.executeUpdate(compactEntitySetSizesSql)
+        stmt.executeUpdate(deleteEmptyEntitySetSizesSql)
+        folded
+    }
+}
+
+/**
+ * Corrects the counters of every entity set that disagree with the number of live entities in [IDS].
+ *
+ * @return The correction applied to each entity set whose counters had drifted.
+ */
+fun reconcileEntitySetSizes(connection: Connection): Map<UUID, Long> {
+    val drifts = connection.createStatement().use { stmt ->
+        stmt.executeQuery(selectEntitySetSizeDriftsSql).use { rs ->
+            val drifts = mutableMapOf<UUID, Long>()
+            while (rs.next()) {
+                drifts[ResultSetAdapters.entitySetId(rs)] = ResultSetAdapters.count(rs)
+            }
+            drifts
+        }
+    }
+
+    connection.prepareStatement(addEntitySetSizeDeltaSql).use { ps ->
+        drifts.toSortedMap().forEach { (entitySetId, drift) ->
+            ps.setObject(1, entitySetId)
+            ps.setInt(2, 0)
+            ps.setLong(3, drift)
+            ps.addBatch()
+        }
+        ps.executeBatch()
+    }
+
+    return drifts
+}
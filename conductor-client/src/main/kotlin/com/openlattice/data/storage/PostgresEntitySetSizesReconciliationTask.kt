@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+package com.openlattice.data.storage
+
+import com.geekbeast.tasks.HazelcastFixedRateTask
+import com.geekbeast.tasks.Task
+import org.slf4j.LoggerFactory
+import java.util.concurrent.TimeUnit
+
+private val logger = LoggerFactory.getLogger(PostgresEntitySetSizesReconciliationTask::class.java)
+
+/**
+ * Verifies the entity set size counters against the entities they count, correcting any that have drifted.
+ */
+class PostgresEntitySetSizesReconciliationTask : HazelcastFixedRateTask<PostgresEntitySetSizesTaskDependency> {
+
+    override fun getInitialDelay(): Long {
+        return getPeriod()
+    }
+
+    override fun getPeriod(): Long {
+        return 60_000 * 60 * 24 // 1 day
+    }
+
+    override fun getTimeUnit(): TimeUnit {
+        return TimeUnit.MILLISECONDS
+    }
+
+    override fun runTask() {
+        getDependency().resolver.getAllDataSources().forEach { hds ->
+            val drifts = hds.connection.use { reconcileEntitySetSizes(it) }
+            if (drifts.isNotEmpty()) {
+                logger.warn("Corrected drifted sizes of {} entity sets: {}", drifts.size, drifts)
+            }
+        }
+    }
+
+    override fun getName(): String {
+        return Task.POSTGRES_ENTITY_SET_SIZES_RECONCILIATION_TASK.name
+    }
+
+    override fun getDependenciesClass(): Class<out PostgresEntitySetSizesTaskDependency> {
+        return PostgresEntitySetSizesTaskDependency::class.java
+    }
+
+}
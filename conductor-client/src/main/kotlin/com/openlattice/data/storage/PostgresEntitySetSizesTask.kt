@@ -20,7 +20,6 @@
  */
 package com.openlattice.data.storage
 
-import com.openlattice.data.storage.PostgresEntitySetSizesInitializationTask.Companion.REFRESH_ENTITY_SET_COUNTS_VIEW
 import com.geekbeast.tasks.HazelcastFixedRateTask
 import com.geekbeast.tasks.Task
 import org.slf4j.LoggerFactory
@@ -28,14 +27,17 @@ import java.util.concurrent.TimeUnit
 
 private val logger = LoggerFactory.getLogger(PostgresEntitySetSizesTask::class.java)
 
+/**
+ * Compacts the entity set size counters, so that reading the size of an entity set stays a lookup of a few rows.
+ */
 class PostgresEntitySetSizesTask : HazelcastFixedRateTask<PostgresEntitySetSizesTaskDependency> {
 
     override fun getInitialDelay(): Long {
-        return 0
+        return 60_000
     }
 
     override fun getPeriod(): Long {
-        return 60_000 * 60 // 15 minutes
+        return 60_000 * 5 // 5 minutes
     }
 
     override fun getTimeUnit(): TimeUnit {
@@ -43,16 +45,14 @@ class PostgresEntitySetSizesTask : HazelcastFixedRateTask<PostgresEntitySetSizes
     }
 
     override fun runTask() {
-        logger.info("Refreshing entity set count views.")
-        getDependency().hikariDataSource.connection.use { connection ->
-            connection.createStatement().use { stmt ->
-                stmt.execute(REFRESH_ENTITY_SET_COUNTS_VIEW)
-            }
+        getDependency().resolver.getAllDataSources().forEach { hds ->
+            val folded = hds.connection.use { compactEntitySetSizes(it) }
+            logger.debug("Compacted {} entity set size counters.", folded)
         }
     }
 
     override fun getName(): String {
-        return Task.POSTGRES_ENTITY_SET_SIZES_REFRESH_TASK.name
+        return Task.POSTGRES_ENTITY_SET_SIZES_COMPACTION_TASK.name
     }
 
     override fun getDependenciesClass(): Class<out PostgresEntitySetSizesTaskDependency> {
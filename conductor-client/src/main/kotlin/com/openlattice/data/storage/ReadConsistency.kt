@@ -0,0 +1,118 @@
+package com.openlattice.data.storage
+
+/**
+ * Request header with the maximum staleness, in milliseconds, that a request accepts for reads served by a replica.
+ */
+const val MAX_STALENESS_HEADER = "OL-Max-Staleness"
+
+/**
+ * Request header with a log position returned in [WRITE_LSN_HEADER] by an earlier write, which reads of the request
+ * must observe.
+ */
+const val READ_AFTER_LSN_HEADER = "OL-Read-After-Lsn"
+
+/**
+ * Response header with the log position of the primary after a write.
+ */
+const val WRITE_LSN_HEADER = "OL-Write-Lsn"
+
+/**
+ * How stale the data read by a request may be, if it is read from a replica.
+ *
+ * The consistency of the current request is held by the thread serving it. Only reads marked with [replicaEligible]
+ * consider it, everything else reads from the primary.
+ *
+ * @param maxStaleness How far a replica may lag behind the primary, in milliseconds. Zero reads from the primary.
+ * @param minLsn The log position a replica must have replayed, so that the read observes the write it was returned by.
+ */
+data class ReadConsistency(val maxStaleness: Long, val minLsn: Long? = null) {
+    init {
+        require(maxStaleness >= 0) { "Max staleness must not be negative." }
+    }
+
+    companion object {
+        @JvmField
+        val PRIMARY = ReadConsistency(0)
+
+        private val currentConsistency = ThreadLocal<ReadConsistency>()
+        private val eligible = ThreadLocal.withInitial { false }
+
+        @JvmStatic
+        fun current(): ReadConsistency = currentConsistency.get() ?: PRIMARY
+
+        @JvmStatic
+        fun set(consistency: ReadConsistency) = currentConsistency.set(consistency)
+
+        @JvmStatic
+        fun clear() = currentConsistency.remove()
+
+        @JvmStatic
+        fun isReplicaEligible(): Boolean = eligible.get()
+
+        internal fun currentOrNull(): ReadConsistency? = currentConsistency.get()
+
+        internal fun restore(consistency: ReadConsistency?, replicaEligible: Boolean) {
+            if (consistency == null) currentConsistency.remove() else currentConsistency.set(consistency)
+            eligible.set(replicaEligible)
+        }
+
+        /**
+         * Marks the reads performed by [read] on this thread as ones that may be served by a replica. The reads must
+         * not be followed by writes that depend on them.
+         */
+        @JvmStatic
+        fun <T> replicaEligible(read: () -> T): T {
+            val previous = eligible.get()
+            eligible.set(true)
+            try {
+                return read()
+            } finally {
+                eligible.set(previous)
+            }
+        }
+
+        /**
+         * Captures the consistency of the current thread and whether its reads may be served by a replica, for reads
+         * performed on other threads on its behalf.
+         */
+        @JvmStatic
+        fun capture(): ReadContext = ReadContext(currentConsistency.get(), eligible.get())
+
+        /**
+         * Parses a log position in the textual form postgres reports it in, such as 16/B374D848.
+         */
+        @JvmStatic
+        fun parseLsn(lsn: String): Long {
+            val parts = lsn.split('/')
+            require(parts.size == 2) { "Invalid log position $lsn." }
+            return (parts[0].toLong(16) shl 32) or parts[1].toLong(16)
+        }
+
+        @JvmStatic
+        fun formatLsn(lsn: Long): String {
+            return String.format("%X/%X", lsn ushr 32, lsn and 0xFFFFFFFFL)
+        }
+    }
+}
+
+/**
+ * The read consistency of a thread, captured by [ReadConsistency.capture].
+ */
+class ReadContext internal constructor(
+        private val consistency: ReadConsistency?,
+        private val replicaEligible: Boolean
+) {
+    /**
+     * Performs [read] with the captured consistency, restoring the one of the calling thread afterwards.
+     */
+    fun <T> run(read: () -> T): T {
+        val previousConsistency = ReadConsistency.currentOrNull()
+        val previousEligible = ReadConsistency.isReplicaEligible()
+        ReadConsistency.restore(consistency, replicaEligible)
+        try {
+            return read()
+        } finally {
+            ReadConsistency.restore(previousConsistency, previousEligible)
+        }
+    }
+}
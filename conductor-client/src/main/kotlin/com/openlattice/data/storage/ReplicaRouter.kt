@@ -0,0 +1,182 @@
+package com.openlattice.data.storage
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.zaxxer.hikari.HikariDataSource
+import io.prometheus.client.Counter
+import io.prometheus.client.Gauge
+import org.slf4j.LoggerFactory
+import java.time.Clock
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+private val logger = LoggerFactory.getLogger(ReplicaRouter::class.java)
+
+const val DEFAULT_REPLICA_POLL_INTERVAL_MILLIS = 1_000L
+
+/**
+ * How many samples of the log position of the primary are kept, which bounds the staleness that can be measured.
+ */
+private const val PRIMARY_LSN_SAMPLES = 600
+
+private const val CURRENT_LSN_SQL = "SELECT pg_current_wal_lsn()::text"
+private const val REPLAY_LSN_SQL = "SELECT pg_last_wal_replay_lsn()::text"
+
+/**
+ * Tracks how far each replica lags behind the primary and picks the replicas that may serve a read.
+ *
+ * The primary reports how far its log has been written and a replica how far it has replayed it, but neither reports
+ * when a position was written. Samples of the position of the primary are therefore kept with the time they were taken
+ * at. A replica that has replayed up to the position of a sample has every write committed before that sample, so it
+ * is at most as stale as the sample is old.
+ */
+internal class ReplicaLagTracker(private val replicaCount: Int, private val maxSamples: Int = PRIMARY_LSN_SAMPLES) {
+    private class Sample(val at: Long, val lsn: Long)
+
+    private val primarySamples = ArrayDeque<Sample>()
+    private val replayLsns = arrayOfNulls<Long>(replicaCount)
+    private val nextReplica = AtomicInteger()
+
+    @Synchronized
+    fun recordPrimaryLsn(at: Long, lsn: Long) {
+        primarySamples.addLast(Sample(at, lsn))
+        while (primarySamples.size > maxSamples) {
+            primarySamples.removeFirst()
+        }
+    }
+
+    /**
+     * @param lsn The position the replica has replayed the log of the primary to, or null if it can not serve reads.
+     */
+    @Synchronized
+    fun recordReplayLsn(replica: Int, lsn: Long?) {
+        replayLsns[replica] = lsn
+    }
+
+    /**
+     * @return How stale the replica is at [now] in milliseconds, or null if it is unavailable or lags further behind
+     * than the samples reach.
+     */
+    @Synchronized
+    fun getStaleness(replica: Int, now: Long): Long? {
+        val replayLsn = replayLsns[replica] ?: return null
+        return primarySamples.lastOrNull { it.lsn <= replayLsn }?.let { now - it.at }
+    }
+
+    @Synchronized
+    fun getReplayLsn(replica: Int): Long? = replayLsns[replica]
+
+    /**
+     * Picks a replica that satisfies [consistency], rotating between the replicas that do.
+     *
+     * @return The index of the replica, or null if the read has to be served by the primary.
+     */
+    fun choose(consistency: ReadConsistency, now: Long): Int? {
+        if (consistency.maxStaleness == 0L) {
+            return null
+        }
+
+        val candidates = (0 until replicaCount).filter { replica ->
+            val staleness = getStaleness(replica, now)
+            val replayLsn = getReplayLsn(replica)
+            staleness != null && replayLsn != null && staleness <= consistency.maxStaleness &&
+                    replayLsn >= (consistency.minLsn ?: 0L)
+        }
+
+        return if (candidates.isEmpty()) {
+            null
+        } else {
+            candidates[Math.floorMod(nextReplica.getAndIncrement(), candidates.size)]
+        }
+    }
+}
+
+/**
+ * Routes reads that tolerate stale data to read only replicas of [primary], when they are recent enough.
+ *
+ * The positions of the primary and the replicas are polled every [pollInterval] milliseconds, so a replica is never
+ * considered to be less stale than the poll interval.
+ */
+class ReplicaRouter @JvmOverloads constructor(
+        private val primary: HikariDataSource,
+        private val replicas: List<HikariDataSource>,
+        private val pollInterval: Long = DEFAULT_REPLICA_POLL_INTERVAL_MILLIS,
+        private val clock: Clock = Clock.systemUTC()
+) {
+    companion object {
+        private val replicaStaleness: Gauge = Gauge.build()
+                .name("replica_staleness_millis")
+                .help("How far each read only replica lags behind the primary, in milliseconds")
+                .labelNames("replica")
+                .register()
+        private val routedReads: Counter = Counter.build()
+                .name("replica_routed_reads")
+                .help("Count of reads eligible for a replica, by whether a replica or the primary served them")
+                .labelNames("target")
+                .register()
+    }
+
+    private val tracker = ReplicaLagTracker(replicas.size)
+    private val executor = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder().setDaemon(true).setNameFormat("replica-lag-poller-%d").build()
+    )
+
+    init {
+        executor.scheduleWithFixedDelay(::poll, 0, pollInterval, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * @return A replica that satisfies [consistency], or the primary if none does.
+     */
+    fun route(consistency: ReadConsistency): HikariDataSource {
+        val replica = tracker.choose(consistency, clock.millis())
+        return if (replica == null) {
+            routedReads.labels("primary").inc()
+            primary
+        } else {
+            routedReads.labels("replica").inc()
+            replicas[replica]
+        }
+    }
+
+    /**
+     * @return The current log position of the primary, which a replica must have replayed to observe every write
+     * committed so far.
+     */
+    fun getCurrentLsn(): Long {
+        return queryLsn(primary, CURRENT_LSN_SQL)
+                ?: throw IllegalStateException("Unable to read the log position of the primary.")
+    }
+
+    private fun poll() {
+        try {
+            // the primary is sampled first, so the replicas are compared against a position it had reached already
+            tracker.recordPrimaryLsn(clock.millis(), getCurrentLsn())
+        } catch (e: Exception) {
+            logger.warn("Unable to read the log position of the primary.", e)
+            return
+        }
+
+        replicas.forEachIndexed { index, replica ->
+            val replayLsn = try {
+                queryLsn(replica, REPLAY_LSN_SQL)
+            } catch (e: Exception) {
+                logger.warn("Unable to read the replay position of replica {}.", replica.poolName, e)
+                null
+            }
+            tracker.recordReplayLsn(index, replayLsn)
+            replicaStaleness.labels(replica.poolName ?: "replica-$index")
+                    .set(tracker.getStaleness(index, clock.millis())?.toDouble() ?: Double.POSITIVE_INFINITY)
+        }
+    }
+
+    private fun queryLsn(dataSource: HikariDataSource, sql: String): Long? {
+        return dataSource.connection.use { connection ->
+            connection.createStatement().use { stmt ->
+                stmt.executeQuery(sql).use { rs ->
+                    if (rs.next()) rs.getString(1)?.let(ReadConsistency::parseLsn) else null
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.openlattice.data.storage
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.hazelcast.core.HazelcastInstance
+import com.openlattice.hazelcast.HazelcastMap
+import com.zaxxer.hikari.HikariDataSource
+import io.prometheus.client.Gauge
+import io.prometheus.client.Histogram
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.ceil
+
+private val logger = LoggerFactory.getLogger(WorkloadAdmissionController::class.java)
+
+/**
+ * Share of the connections of a pool that ingest may hold at once.
+ */
+const val INGEST_POOL_SHARE = 0.5
+
+/**
+ * Share of the connections of a pool that background work may hold at once, while the pool isn't under pressure.
+ */
+const val BACKGROUND_POOL_SHARE = 0.25
+
+/**
+ * Background work is never limited to fewer units than this, so that it keeps making progress under sustained load.
+ */
+const val MIN_BACKGROUND_LIMIT = 1
+
+private const val PRESSURE_SAMPLE_INTERVAL_MILLIS = 1_000L
+
+/**
+ * Published pressure samples outlive a few missed samples, but not the member that published them.
+ */
+private const val PRESSURE_SAMPLE_TTL_MILLIS = PRESSURE_SAMPLE_INTERVAL_MILLIS * 5
+
+/**
+ * The classes of work that share the connection pools of a data source.
+ */
+enum class Workload {
+    /**
+     * Api requests made on behalf of a user, which are never held back.
+     */
+    INTERACTIVE,
+
+    /**
+     * Bulk writes made by integrations.
+     */
+    INGEST,
+
+    /**
+     * Indexing, expiration and deletion jobs, which are shed when the pool is under pressure.
+     */
+    BACKGROUND
+}
+
+/**
+ * Limits how many units of work of each [Workload] may run against one pool at once.
+ *
+ * The background limit is adjusted every time the pressure on the pool is sampled: it is halved, down to
+ * [MIN_BACKGROUND_LIMIT], when threads are waiting for a connection and raised by one, up to its share of the pool, when
+ * none are. Waiting units of work are admitted in the order they arrived.
+ */
+internal class PoolAdmission(poolSize: Int) {
+    val maxIngest = ceil(poolSize * INGEST_POOL_SHARE).toInt()
+    val maxBackground = ceil(poolSize * BACKGROUND_POOL_SHARE).toInt()
+
+    private val lock = ReentrantLock(true)
+    private val admitted = lock.newCondition()
+    private val running = EnumMap<Workload, Int>(Workload::class.java)
+    private val waiting = EnumMap<Workload, Int>(Workload::class.java)
+
+    var backgroundLimit = maxBackground
+        private set
+
+    init {
+        Workload.values().forEach {
+            running[it] = 0
+            waiting[it] = 0
+        }
+    }
+
+    private fun getLimit(workload: Workload): Int {
+        return when (workload) {
+            Workload.INTERACTIVE -> Int.MAX_VALUE
+            Workload.INGEST -> maxIngest
+            Workload.BACKGROUND -> backgroundLimit
+        }
+    }
+
+    /**
+     * Waits until [workload] may run another unit of work.
+     */
+    fun acquire(workload: Workload) {
+        lock.withLock {
+            waiting[workload] = waiting.getValue(workload) + 1
+            try {
+                while (running.getValue(workload) >= getLimit(workload)) {
+                    admitted.await()
+                }
+            } finally {
+                waiting[workload] = waiting.getValue(workload) - 1
+            }
+            running[workload] = running.getValue(workload) + 1
+        }
+    }
+
+    fun release(workload: Workload) {
+        lock.withLock {
+            running[workload] = running.getValue(workload) - 1
+            admitted.signalAll()
+        }
+    }
+
+    fun getRunning(workload: Workload): Int = lock.withLock { running.getValue(workload) }
+
+    fun getWaiting(workload: Workload): Int = lock.withLock { waiting.getValue(workload) }
+
+    /**
+     * @param threadsAwaitingConnection How many threads are waiting for a connection from the pool.
+     */
+    fun onPressureSample(threadsAwaitingConnection: Int) {
+        lock.withLock {
+            backgroundLimit = if (threadsAwaitingConnection > 0) {
+                (backgroundLimit / 2).coerceAtLeast(MIN_BACKGROUND_LIMIT)
+            } else {
+                minOf(backgroundLimit + 1, maxBackground)
+            }
+            admitted.signalAll()
+        }
+    }
+}
+
+/**
+ * Shares how many threads are waiting for connections to each data source across the cluster. Every member publishes
+ * the waiters on its own pools, and reads the total over all members.
+ *
+ * @param memberId Identifies the pools of this member.
+ */
+internal class ClusterPoolPressure(
+        hazelcast: HazelcastInstance,
+        private val memberId: String = hazelcast.localEndpoint.uuid.toString()
+) {
+    private val threadsAwaitingConnection = HazelcastMap.THREADS_AWAITING_CONNECTION.getMap(hazelcast)
+
+    fun publish(dataSourceName: String, waiting: Int) {
+        threadsAwaitingConnection.set(
+                "$dataSourceName@$memberId", waiting, PRESSURE_SAMPLE_TTL_MILLIS, TimeUnit.MILLISECONDS
+        )
+    }
+
+    /**
+     * @return How many threads across the cluster are waiting for a connection to [dataSourceName].
+     */
+    fun getThreadsAwaitingConnection(dataSourceName: String): Int {
+        return threadsAwaitingConnection.entries
+                .filter { it.key.substringBeforeLast('@') == dataSourceName }
+                .sumOf { it.value }
+    }
+}
+
+/**
+ * Keeps ingest and background work from exhausting the connection pools that interactive requests read and write
+ * through.
+ *
+ * Units of work wrapped in [admit] wait for their [Workload] to be admitted to the pool of the data source they run
+ * against. A unit of work that is already admitted to a pool runs nested units of work against it directly, so that it
+ * can not deadlock on itself. Hikari doesn't attribute connection waits to callers, so the pressure on a data source is
+ * the number of threads waiting for one of its connections, which once ingest and background work are bounded are
+ * mostly interactive requests. Waiters are counted across the cluster, since background work on one service, e.g. the
+ * indexer, competes for the database with interactive requests on another, e.g. the datastore.
+ *
+ * @param getPool Looks up the pool of a data source by name.
+ * @param getDataSourceNames The data sources this member has pools for, whose waiters it publishes.
+ */
+class WorkloadAdmissionController internal constructor(
+        private val getPool: (String) -> HikariDataSource,
+        private val getDataSourceNames: () -> Collection<String>,
+        private val clusterPressure: ClusterPoolPressure
+) {
+    constructor(
+            getPool: (String) -> HikariDataSource,
+            getDataSourceNames: () -> Collection<String>,
+            hazelcast: HazelcastInstance
+    ) : this(getPool, getDataSourceNames, ClusterPoolPressure(hazelcast))
+
+    companion object {
+        private val queueDepth: Gauge = Gauge.build()
+                .name("workload_admission_queue_depth")
+                .help("Units of work waiting to be admitted to a connection pool, by workload")
+                .labelNames("data_source", "workload")
+                .register()
+        private val admissionWait: Histogram = Histogram.build()
+                .name("workload_admission_wait_seconds")
+                .help("Time units of work waited to be admitted to a connection pool, by workload")
+                .labelNames("data_source", "workload")
+                .register()
+        private val backgroundLimit: Gauge = Gauge.build()
+                .name("workload_admission_background_limit")
+                .help("Units of background work that may run against a connection pool at once")
+                .labelNames("data_source")
+                .register()
+        private val threadsAwaitingConnection: Gauge = Gauge.build()
+                .name("workload_admission_threads_awaiting_connection")
+                .help("Threads across the cluster waiting for a connection to a data source, as last sampled")
+                .labelNames("data_source")
+                .register()
+    }
+
+    private val admissions = ConcurrentHashMap<String, PoolAdmission>()
+    private val admittedDataSources = ThreadLocal.withInitial { mutableSetOf<String>() }
+
+    // started eagerly, since members that only serve interactive requests still have to publish their waiters
+    private val sampler = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder().setDaemon(true).setNameFormat("workload-admission-sampler-%d").build()
+    ).also {
+        it.scheduleWithFixedDelay(
+                ::samplePressure, PRESSURE_SAMPLE_INTERVAL_MILLIS, PRESSURE_SAMPLE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS
+        )
+    }
+
+    /**
+     * Runs [work] once [workload] is admitted to the pool of [dataSourceName].
+     */
+    fun <T> admit(workload: Workload, dataSourceName: String, work: () -> T): T {
+        val admittedDataSources = admittedDataSources.get()
+        if (workload == Workload.INTERACTIVE || admittedDataSources.contains(dataSourceName)) {
+            return work()
+        }
+
+        val admission = admissions.computeIfAbsent(dataSourceName) {
+            PoolAdmission(getPool(dataSourceName).maximumPoolSize)
+        }
+
+        queueDepth.labels(dataSourceName, workload.name).inc()
+        val timer = admissionWait.labels(dataSourceName, workload.name).startTimer()
+        try {
+            admission.acquire(workload)
+        } finally {
+            timer.observeDuration()
+            queueDepth.labels(dataSourceName, workload.name).dec()
+        }
+
+        admittedDataSources.add(dataSourceName)
+        try {
+            return work()
+        } finally {
+            admittedDataSources.remove(dataSourceName)
+            admission.release(workload)
+        }
+    }
+
+    private fun samplePressure() {
+        try {
+            getDataSourceNames().forEach { dataSourceName ->
+                val waiting = getPool(dataSourceName).hikariPoolMXBean?.threadsAwaitingConnection ?: 0
+                clusterPressure.publish(dataSourceName, waiting)
+            }
+        } catch (e: Exception) {
+            logger.warn("Unable to publish the pressure on the data sources of this member.", e)
+        }
+
+        admissions.forEach { (dataSourceName, admission) ->
+            try {
+                val waiting = clusterPressure.getThreadsAwaitingConnection(dataSourceName)
+                admission.onPressureSample(waiting)
+                threadsAwaitingConnection.labels(dataSourceName).set(waiting.toDouble())
+                backgroundLimit.labels(dataSourceName).set(admission.backgroundLimit.toDouble())
+            } catch (e: Exception) {
+                logger.warn("Unable to sample the pressure on data source {}.", dataSourceName, e)
+            }
+        }
+    }
+}
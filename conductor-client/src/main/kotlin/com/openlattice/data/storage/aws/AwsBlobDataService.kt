@@ -19,6 +19,7 @@ import com.amazonaws.services.s3.model.PutObjectRequest
 import com.amazonaws.services.s3.model.ResponseHeaderOverrides
 import com.amazonaws.services.s3.transfer.TransferManagerBuilder
 import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.openlattice.data.storage.BinaryObjectWithMetadata
 import com.openlattice.data.storage.ByteBlobDataManager
 import com.openlattice.datastore.configuration.DatastoreConfiguration
@@ -26,7 +27,7 @@ import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
 import java.net.URL
 import java.util.*
-import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import java.util.concurrent.Semaphore
 
 
@@ -34,6 +35,7 @@ private val logger = LoggerFactory.getLogger(AwsBlobDataService::class.java)
 const val MAX_ERROR_RETRIES = 5
 private const val MAX_NUM_OF_OBJECTS_FOR_S3_DELETE = 1000
 private val MAX_PARALLEL_JOBS = Runtime.getRuntime().availableProcessors()
+private val MAX_PARALLEL_TRANSFERS = 2 * Runtime.getRuntime().availableProcessors()
 
 @Service
 class AwsBlobDataService(
@@ -46,6 +48,24 @@ class AwsBlobDataService(
     private val s3 = newS3Client(datastoreConfiguration)
     private val semaphore = Semaphore(MAX_PARALLEL_JOBS)
 
+    // shared by all uploads, so that uploading an object does not require building a new thread pool
+    private val transferManager = TransferManagerBuilder.standard()
+        .withS3Client(s3)
+        .withExecutorFactory {
+            Executors.newFixedThreadPool(
+                MAX_PARALLEL_TRANSFERS,
+                ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-transfer-%d").build()
+            )
+        }
+        .build()
+
+    // signs GET urls locally, instead of going through the client for every url
+    private val presigner = S3UrlPresigner(
+        s3Credentials,
+        datastoreConfiguration.regionName,
+        s3.getUrl(datastoreConfiguration.bucketName, "")
+    )
+
     private final fun newS3Client(datastoreConfiguration: DatastoreConfiguration): AmazonS3 {
         val builder = AmazonS3ClientBuilder.standard()
         builder.region = datastoreConfiguration.regionName
@@ -68,10 +88,7 @@ class AwsBlobDataService(
         binaryObjectWithMetadata.contentDisposition?.let { metadata.contentDisposition = it }
 
         val putRequest = PutObjectRequest(datastoreConfiguration.bucketName, s3Key, dataInputStream, metadata)
-        val transferManager = TransferManagerBuilder.standard().withS3Client(s3).build()
-        val upload = transferManager.upload(putRequest)
-        upload.waitForCompletion()
-        transferManager.shutdownNow(false)
+        transferManager.upload(putRequest).waitForCompletion()
     }
 
     override fun deleteObjects(s3Keys: List<String>) {
@@ -109,19 +126,7 @@ class AwsBlobDataService(
     }
 
     override fun getPresignedUrlsWithDispositions(keysToDispositions: Map<String, String?>): Map<String, URL> {
-        val expirationTime = getDefaultExpirationDateTime()
-
-        return keysToDispositions
-            .map { (key, disposition) ->
-                executorService.submit(Callable<Pair<String, URL>> {
-                    key to getPresignedUrl(
-                        key = key,
-                        expiration = expirationTime,
-                        httpMethod = HttpMethod.GET,
-                        contentDisposition = disposition
-                    )
-                })
-            }.map { it.get() }.toMap()
+        return presigner.presignAll(keysToDispositions, getDefaultExpirationDateTime())
     }
 
     override fun getPresignedUrl(
@@ -131,6 +136,10 @@ class AwsBlobDataService(
         contentType: String?,
         contentDisposition: String?
     ): URL {
+        if (httpMethod == HttpMethod.GET && contentType == null) {
+            return presigner.presign(key.toString(), expiration, contentDisposition)
+        }
+
         val urlRequest = GeneratePresignedUrlRequest(datastoreConfiguration.bucketName, key.toString()).withMethod(
             httpMethod
         ).withExpiration(expiration)
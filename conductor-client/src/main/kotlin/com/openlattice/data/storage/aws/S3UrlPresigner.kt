@@ -0,0 +1,137 @@
+package com.openlattice.data.storage.aws
+
+import com.amazonaws.auth.AWSCredentials
+import com.amazonaws.auth.AWSSessionCredentials
+import com.amazonaws.util.BinaryUtils
+import com.amazonaws.util.SdkHttpUtils
+import java.net.URL
+import java.security.MessageDigest
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.util.*
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+private const val ALGORITHM = "AWS4-HMAC-SHA256"
+private const val SERVICE = "s3"
+private const val TERMINATOR = "aws4_request"
+private const val UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD"
+private const val HMAC_SHA256 = "HmacSHA256"
+private const val MAX_EXPIRATION_SECONDS = 7 * 24 * 60 * 60L
+
+private const val CONTENT_DISPOSITION_PARAMETER = "response-content-disposition"
+private const val SECURITY_TOKEN_PARAMETER = "X-Amz-Security-Token"
+
+private val CONSECUTIVE_SLASH = Regex("(?<=/)/")
+
+private val DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC)
+private val TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC)
+
+/**
+ * Presigns urls for getting objects from a bucket locally, producing the same urls as
+ * [com.amazonaws.services.s3.AmazonS3.generatePresignedUrl] does for GET requests.
+ *
+ * The SigV4 signing key only depends on the date, the region and the service, so it is derived once per day instead
+ * of for every url. A batch of keys is signed on the calling thread, reusing the same HMAC and digest throughout.
+ *
+ * @param bucketUrl The url of the bucket, as returned by [com.amazonaws.services.s3.AmazonS3.getUrl] for an empty key.
+ */
+class S3UrlPresigner(
+        private val credentials: AWSCredentials,
+        private val region: String,
+        bucketUrl: URL,
+        private val clock: Clock = Clock.systemUTC()
+) {
+    private class SigningKey(val date: String, val key: ByteArray)
+
+    private val endpoint = "${bucketUrl.protocol}://${bucketUrl.authority}"
+    private val host = bucketUrl.authority
+    private val bucketPath = bucketUrl.path.removeSuffix("/")
+
+    @Volatile
+    private var signingKey: SigningKey? = null
+
+    fun presign(key: String, expiration: Date, contentDisposition: String? = null): URL {
+        return presignAll(mapOf(key to contentDisposition), expiration).getValue(key)
+    }
+
+    /**
+     * @param keysToDispositions The keys to presign, each with the content disposition to request, if any.
+     */
+    fun presignAll(keysToDispositions: Map<String, String?>, expiration: Date): Map<String, URL> {
+        val signingTime = clock.instant()
+        return presignAll(keysToDispositions, signingTime, (expiration.time - signingTime.toEpochMilli()) / 1000)
+    }
+
+    internal fun presignAll(
+            keysToDispositions: Map<String, String?>,
+            signingTime: Instant,
+            expiresInSeconds: Long
+    ): Map<String, URL> {
+        require(expiresInSeconds <= MAX_EXPIRATION_SECONDS) {
+            "Presigned urls can not be valid for more than $MAX_EXPIRATION_SECONDS seconds."
+        }
+
+        val date = DATE_FORMATTER.format(signingTime)
+        val timestamp = TIMESTAMP_FORMATTER.format(signingTime)
+        val scope = "$date/$region/$SERVICE/$TERMINATOR"
+
+        // parameters in the order the sdk adds them, which is the order they appear in the url
+        val signingParameters = listOfNotNull(
+                (credentials as? AWSSessionCredentials)?.let { SECURITY_TOKEN_PARAMETER to it.sessionToken },
+                "X-Amz-Algorithm" to ALGORITHM,
+                "X-Amz-Date" to timestamp,
+                "X-Amz-SignedHeaders" to "host",
+                "X-Amz-Expires" to expiresInSeconds.toString(),
+                "X-Amz-Credential" to "${credentials.awsAccessKeyId}/$scope"
+        ).map { (name, value) -> encode(name) to encode(value) }
+        val signingQuery = signingParameters.joinToString("&") { (name, value) -> "$name=$value" }
+        // the content disposition parameter sorts after every signing parameter, so it can simply be appended
+        val canonicalSigningQuery = signingParameters
+                .sortedWith(compareBy({ it.first }, { it.second }))
+                .joinToString("&") { (name, value) -> "$name=$value" }
+
+        val mac = Mac.getInstance(HMAC_SHA256)
+        mac.init(SecretKeySpec(getSigningKey(date), HMAC_SHA256))
+        val digest = MessageDigest.getInstance("SHA-256")
+
+        return keysToDispositions.mapValues { (key, contentDisposition) ->
+            val path = SdkHttpUtils.urlEncode("$bucketPath/$key", true)
+            val dispositionParameter = contentDisposition?.let { "$CONTENT_DISPOSITION_PARAMETER=${encode(it)}" }
+            val canonicalQuery = dispositionParameter?.let { "$canonicalSigningQuery&$it" } ?: canonicalSigningQuery
+
+            val canonicalRequest = "GET\n$path\n$canonicalQuery\nhost:$host\n\nhost\n$UNSIGNED_PAYLOAD"
+            val stringToSign = "$ALGORITHM\n$timestamp\n$scope\n" +
+                    BinaryUtils.toHex(digest.digest(canonicalRequest.toByteArray(Charsets.UTF_8)))
+            val signature = BinaryUtils.toHex(mac.doFinal(stringToSign.toByteArray(Charsets.UTF_8)))
+
+            val query = dispositionParameter?.let { "$it&$signingQuery" } ?: signingQuery
+            // the sdk escapes consecutive slashes, as some http clients collapse them
+            URL("$endpoint${path.replace(CONSECUTIVE_SLASH, "%2F")}?$query&X-Amz-Signature=$signature")
+        }
+    }
+
+    private fun getSigningKey(date: String): ByteArray {
+        val current = signingKey
+        if (current != null && current.date == date) {
+            return current.key
+        }
+
+        val dateKey = hmac("AWS4${credentials.awsSecretKey}".toByteArray(Charsets.UTF_8), date)
+        val key = hmac(hmac(hmac(dateKey, region), SERVICE), TERMINATOR)
+        signingKey = SigningKey(date, key)
+        return key
+    }
+
+    private fun hmac(key: ByteArray, data: String): ByteArray {
+        val mac = Mac.getInstance(HMAC_SHA256)
+        mac.init(SecretKeySpec(key, HMAC_SHA256))
+        return mac.doFinal(data.toByteArray(Charsets.UTF_8))
+    }
+
+    private fun encode(value: String): String {
+        return SdkHttpUtils.urlEncode(value, false)
+    }
+}
@@ -0,0 +1,427 @@
+package com.openlattice.data.storage.postgres
+
+import com.geekbeast.postgres.PostgresArrays
+import com.geekbeast.postgres.streams.BasePostgresIterable
+import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
+import com.openlattice.data.DataExpiration
+import com.openlattice.data.DeleteType
+import com.openlattice.data.storage.DataSourceResolver
+import com.openlattice.edm.set.ExpirationBase
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.postgres.DataTables.LAST_WRITE
+import com.openlattice.postgres.PostgresColumn.ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.EXPIRATION_BASE_FLAG
+import com.openlattice.postgres.PostgresColumn.EXPIRATION_DATE
+import com.openlattice.postgres.PostgresColumn.EXPIRATION_DELETE_FLAG
+import com.openlattice.postgres.PostgresColumn.EXPIRATION_START_ID
+import com.openlattice.postgres.PostgresColumn.ID
+import com.openlattice.postgres.PostgresColumn.PROPERTY_TYPE_ID
+import com.openlattice.postgres.PostgresColumn.TIME_TO_EXPIRATION
+import com.openlattice.postgres.PostgresColumn.VERSION
+import com.openlattice.postgres.PostgresColumn.VERSIONS
+import com.openlattice.postgres.PostgresDataTables
+import com.openlattice.postgres.PostgresTable.DATA
+import com.openlattice.postgres.PostgresTable.DATA_EXPIRATIONS
+import com.openlattice.postgres.PostgresTable.DATA_EXPIRATION_POLICIES
+import com.openlattice.postgres.PostgresTable.IDS
+import com.openlattice.postgres.ResultSetAdapters
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.slf4j.LoggerFactory
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.Types
+import java.time.OffsetDateTime
+import java.util.*
+
+/**
+ * Maintains the [DATA_EXPIRATIONS] table, which records when each entity of an entity set with an expiration policy
+ * is expected to expire, so that expired data can be found without scanning the ids or data tables.
+ *
+ * The policy each entity set was last rebuilt with is recorded in [DATA_EXPIRATION_POLICIES], so that rebuilds survive
+ * restarts and writes know whether and how to index themselves. Writes re-index their entities from the rows they
+ * wrote within the transaction that makes them visible, see [indexWrites]. [getExpiredEntities] still confirms
+ * expiration against the base tables before returning anything.
+ */
+class PostgresDataExpirationIndex(
+        private val dataSourceResolver: DataSourceResolver,
+        private val dataQueryService: PostgresEntityDataQueryService
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(PostgresDataExpirationIndex::class.java)
+
+        const val EXPIRED_BATCH_SIZE = 10_000
+
+        /**
+         * Re-indexes entities that were just written to an entity set, within the transaction of [connection] that
+         * makes the write visible. Expirations are read back from the rows as written, i.e. the last write or versions
+         * in the ids table or the live values of the start date property.
+         *
+         * Entity sets are only indexed once [rebuild] has recorded their expiration policy. A write that commits while
+         * that policy is being recorded is picked up by the rebuild that follows, as long as it commits before the
+         * rebuild reads the base tables.
+         *
+         * @param propertyTypes The property types that were written.
+         */
+        @JvmStatic
+        fun indexWrites(
+                connection: Connection,
+                entitySetId: UUID,
+                entityKeyIds: Set<UUID>,
+                propertyTypes: Map<UUID, PropertyType>
+        ) {
+            val expirationPolicy = getIndexedPolicy(connection, entitySetId) ?: return
+            val expirationPropertyType = expirationPolicy.startDateProperty.map { propertyTypes[it] }.orElse(null)
+
+            // the start date of an entity can only change when its start date property is written
+            if (expirationPolicy.expirationBase == ExpirationBase.DATE_PROPERTY && expirationPropertyType == null) {
+                return
+            }
+
+            reindex(connection, entitySetId, expirationPolicy, expirationPropertyType, entityKeyIds)
+        }
+
+        private fun getIndexedPolicy(connection: Connection, entitySetId: UUID): DataExpiration? {
+            return connection.prepareStatement(SELECT_POLICY_SQL).use { ps ->
+                ps.setObject(1, entitySetId)
+                ps.executeQuery().use { rs -> if (rs.next()) ResultSetAdapters.dataExpiration(rs) else null }
+            }
+        }
+
+        /**
+         * Replaces the index entries of an entity set, or of some of its entities, with entries computed from the ids
+         * or data tables.
+         *
+         * @return The number of entries removed and the number of entries added.
+         */
+        private fun reindex(
+                connection: Connection,
+                entitySetId: UUID,
+                expirationPolicy: DataExpiration,
+                expirationPropertyType: PropertyType?,
+                entityKeyIds: Set<UUID>?
+        ): Pair<Int, Int> {
+            val deleted = connection.prepareStatement(deleteEntriesSql(entityKeyIds != null)).use { ps ->
+                ps.setObject(1, entitySetId)
+                entityKeyIds?.let { ps.setArray(2, PostgresArrays.createUuidArray(connection, it)) }
+                ps.executeUpdate()
+            }
+
+            val inserted = connection.prepareStatement(
+                    rebuildSql(expirationPolicy, expirationPropertyType, entityKeyIds != null)
+            ).use { ps ->
+                var index = 1
+                ps.setLong(index++, expirationPolicy.timeToExpiration)
+                ps.setObject(index++, entitySetId)
+                expirationPropertyType?.let { ps.setObject(index++, it.id) }
+                entityKeyIds?.let { ps.setArray(index, PostgresArrays.createUuidArray(connection, it)) }
+                ps.executeUpdate()
+            }
+
+            return deleted to inserted
+        }
+
+        /**
+         * PreparedStatement bind order:
+         *
+         * 1) entitySetId
+         * 2) entityKeyIds, if filtering by ids
+         */
+        private fun deleteEntriesSql(filterIds: Boolean): String {
+            val idsClause = if (filterIds) "AND ${ID.name} = ANY(?)" else ""
+            return "DELETE FROM ${DATA_EXPIRATIONS.name} WHERE ${ENTITY_SET_ID.name} = ? $idsClause"
+        }
+
+        /**
+         * PreparedStatement bind order:
+         *
+         * 1) time to expiration in milliseconds
+         * 2) entitySetId
+         * 3) propertyTypeId, if the expiration base is a date property
+         * 4) entityKeyIds, if filtering by ids
+         */
+        private fun rebuildSql(
+                expirationPolicy: DataExpiration,
+                expirationPropertyType: PropertyType?,
+                filterIds: Boolean
+        ): String {
+            val idsClause = if (filterIds) "AND ${ID.name} = ANY(?)" else ""
+            val clearedEntitiesClause = if (expirationPolicy.deleteType == DeleteType.Soft) {
+                "AND ${VERSION.name} >= 0"
+            } else {
+                ""
+            }
+
+            val selectSql = when (expirationPolicy.expirationBase) {
+                ExpirationBase.FIRST_WRITE -> """
+                    SELECT ${ENTITY_SET_ID.name}, ${ID.name}, to_timestamp((first_write + ?) / 1000.0)
+                    FROM (
+                      SELECT ${ENTITY_SET_ID.name}, ${ID.name}, (SELECT MIN(v) FROM UNNEST(${VERSIONS.name}) AS v WHERE v > 0) AS first_write
+                      FROM ${IDS.name}
+                      WHERE ${ENTITY_SET_ID.name} = ?
+                      $idsClause
+                      $clearedEntitiesClause
+                    ) AS first_writes
+                    WHERE first_write IS NOT NULL
+                """.trimIndent()
+                ExpirationBase.LAST_WRITE -> """
+                    SELECT ${ENTITY_SET_ID.name}, ${ID.name}, ${LAST_WRITE.name} + ? * interval '1 millisecond'
+                    FROM ${IDS.name}
+                    WHERE ${ENTITY_SET_ID.name} = ?
+                    $idsClause
+                    $clearedEntitiesClause
+                """.trimIndent()
+                ExpirationBase.DATE_PROPERTY -> {
+                    val expirationColumnName = PostgresDataTables.getColumnDefinition(
+                            expirationPropertyType!!.postgresIndexType,
+                            expirationPropertyType.datatype
+                    ).name
+
+                    // dates carry no time zone, so they are taken to start at midnight UTC
+                    val startDateSql = if (expirationPropertyType.datatype == EdmPrimitiveTypeKind.Date) {
+                        "(MIN($expirationColumnName)::timestamp AT TIME ZONE 'UTC')"
+                    } else {
+                        "MIN($expirationColumnName)"
+                    }
+
+                    """
+                        SELECT ${ENTITY_SET_ID.name}, ${ID.name}, $startDateSql + ? * interval '1 millisecond'
+                        FROM ${DATA.name}
+                        WHERE ${ENTITY_SET_ID.name} = ?
+                        AND ${PROPERTY_TYPE_ID.name} = ?
+                        AND ${VERSION.name} >= 0
+                        $idsClause
+                        GROUP BY ${ENTITY_SET_ID.name}, ${ID.name}
+                    """.trimIndent()
+                }
+            }
+
+            return """
+                INSERT INTO ${DATA_EXPIRATIONS.name} (${ENTITY_SET_ID.name}, ${ID.name}, ${EXPIRATION_DATE.name})
+                $selectSql
+                ON CONFLICT (${ENTITY_SET_ID.name}, ${ID.name}) DO UPDATE SET ${EXPIRATION_DATE.name} = EXCLUDED.${EXPIRATION_DATE.name}
+            """.trimIndent()
+        }
+
+        private val POLICY_COLUMNS = listOf(
+                ENTITY_SET_ID,
+                TIME_TO_EXPIRATION,
+                EXPIRATION_BASE_FLAG,
+                EXPIRATION_DELETE_FLAG,
+                EXPIRATION_START_ID
+        ).joinToString(",") { it.name }
+
+        /**
+         * PreparedStatement bind order:
+         *
+         * 1) entitySetId
+         * 2) time to expiration in milliseconds
+         * 3) expiration base
+         * 4) delete type
+         * 5) start date property type id
+         */
+        private val UPSERT_POLICY_SQL = """
+            INSERT INTO ${DATA_EXPIRATION_POLICIES.name} ($POLICY_COLUMNS) VALUES (?,?,?,?,?)
+            ON CONFLICT (${ENTITY_SET_ID.name}) DO UPDATE SET
+              ${TIME_TO_EXPIRATION.name} = EXCLUDED.${TIME_TO_EXPIRATION.name},
+              ${EXPIRATION_BASE_FLAG.name} = EXCLUDED.${EXPIRATION_BASE_FLAG.name},
+              ${EXPIRATION_DELETE_FLAG.name} = EXCLUDED.${EXPIRATION_DELETE_FLAG.name},
+              ${EXPIRATION_START_ID.name} = EXCLUDED.${EXPIRATION_START_ID.name}
+        """.trimIndent()
+
+        private val SELECT_POLICIES_SQL = "SELECT $POLICY_COLUMNS FROM ${DATA_EXPIRATION_POLICIES.name}"
+
+        /**
+         * PreparedStatement bind order:
+         *
+         * 1) entitySetId
+         */
+        private val SELECT_POLICY_SQL = "$SELECT_POLICIES_SQL WHERE ${ENTITY_SET_ID.name} = ?"
+
+        /**
+         * PreparedStatement bind order:
+         *
+         * 1) entitySetId
+         */
+        private val DELETE_POLICY_SQL = "DELETE FROM ${DATA_EXPIRATION_POLICIES.name} WHERE ${ENTITY_SET_ID.name} = ?"
+    }
+
+    /**
+     * Rebuilds the index for an entity set from the ids or data tables. This is the only operation that scans the
+     * base tables and is intended for when an expiration policy is first seen or changes. A full rebuild also records
+     * [expirationPolicy] as the policy the entity set is indexed with.
+     *
+     * @param entityKeyIds If present, only the index entries of these entities are rebuilt.
+     */
+    fun rebuild(
+            entitySetId: UUID,
+            expirationPolicy: DataExpiration,
+            expirationPropertyType: PropertyType?,
+            entityKeyIds: Set<UUID>? = null
+    ) {
+        dataSourceResolver.resolve(entitySetId).connection.use { connection ->
+            if (entityKeyIds == null) {
+                // committed on its own first, so that writes index themselves before the base tables are read
+                connection.prepareStatement(UPSERT_POLICY_SQL).use { ps ->
+                    bindPolicy(ps, entitySetId, expirationPolicy)
+                    ps.executeUpdate()
+                }
+            }
+
+            connection.autoCommit = false
+            val (deleted, inserted) = try {
+                val counts = reindex(connection, entitySetId, expirationPolicy, expirationPropertyType, entityKeyIds)
+                connection.commit()
+                counts
+            } catch (e: Exception) {
+                connection.rollback()
+                throw e
+            } finally {
+                connection.autoCommit = true
+            }
+
+            logger.info(
+                    "Rebuilt expiration index of entity set {}, removing {} entries and adding {} entries.",
+                    entitySetId,
+                    deleted,
+                    inserted
+            )
+        }
+    }
+
+    /**
+     * Returns the expiration policy each entity set was last rebuilt with, across all data sources.
+     */
+    fun getIndexedPolicies(): Map<UUID, DataExpiration> {
+        return dataSourceResolver.getAllDataSources().flatMap { hds ->
+            BasePostgresIterable(PreparedStatementHolderSupplier(hds, SELECT_POLICIES_SQL) {}) { rs ->
+                ResultSetAdapters.entitySetId(rs) to ResultSetAdapters.dataExpiration(rs)
+            }
+        }.toMap()
+    }
+
+    /**
+     * Returns the earliest indexed expiration of each of the specified entity sets that has any indexed entities.
+     */
+    fun getNextExpirations(entitySetIds: Set<UUID>): Map<UUID, OffsetDateTime> {
+        return entitySetIds
+                .groupBy { dataSourceResolver.getDataSourceName(it) }
+                .flatMap { (dataSourceName, entitySetIdsForDataSource) ->
+                    val hds = dataSourceResolver.getDataSource(dataSourceName)
+                    BasePostgresIterable(PreparedStatementHolderSupplier(hds, NEXT_EXPIRATIONS_SQL) { ps ->
+                        ps.setArray(1, PostgresArrays.createUuidArray(ps.connection, entitySetIdsForDataSource))
+                    }) { rs ->
+                        ResultSetAdapters.entitySetId(rs) to rs.getObject(EXPIRATION_DATE.name, OffsetDateTime::class.java)
+                    }
+                }.toMap()
+    }
+
+    /**
+     * Returns a batch of entities of an entity set that are indexed as expired as of [currentDateTime] and confirms
+     * their expiration against the base tables. Entities that turn out not to have expired yet are re-indexed.
+     */
+    fun getExpiredEntities(
+            entitySetId: UUID,
+            expirationPolicy: DataExpiration,
+            expirationPropertyType: PropertyType?,
+            currentDateTime: OffsetDateTime
+    ): Set<UUID> {
+        val hds = dataSourceResolver.resolve(entitySetId)
+        val candidates = BasePostgresIterable(PreparedStatementHolderSupplier(hds, EXPIRED_ENTRIES_SQL) { ps ->
+            ps.setObject(1, entitySetId)
+            ps.setObject(2, currentDateTime)
+        }) { ResultSetAdapters.id(it) }.toSet()
+
+        if (candidates.isEmpty()) {
+            return candidates
+        }
+
+        val expired = dataQueryService.filterExpiredEntities(
+                entitySetId,
+                candidates,
+                expirationPolicy,
+                expirationPropertyType,
+                currentDateTime
+        )
+
+        val notExpired = candidates - expired
+        if (notExpired.isNotEmpty()) {
+            logger.info(
+                    "{} entities of entity set {} were indexed as expired but have not expired yet.",
+                    notExpired.size,
+                    entitySetId
+            )
+            rebuild(entitySetId, expirationPolicy, expirationPropertyType, notExpired)
+        }
+
+        return expired
+    }
+
+    fun removeEntities(entitySetId: UUID, entityKeyIds: Set<UUID>) {
+        dataSourceResolver.resolve(entitySetId).connection.use { connection ->
+            connection.prepareStatement(deleteEntriesSql(true)).use { ps ->
+                ps.setObject(1, entitySetId)
+                ps.setArray(2, PostgresArrays.createUuidArray(connection, entityKeyIds))
+                ps.executeUpdate()
+            }
+        }
+    }
+
+    fun removeEntitySet(entitySetId: UUID) {
+        dataSourceResolver.resolve(entitySetId).connection.use { connection ->
+            connection.autoCommit = false
+            try {
+                listOf(DELETE_POLICY_SQL, deleteEntriesSql(false)).forEach { sql ->
+                    connection.prepareStatement(sql).use { ps ->
+                        ps.setObject(1, entitySetId)
+                        ps.executeUpdate()
+                    }
+                }
+                connection.commit()
+            } catch (e: Exception) {
+                connection.rollback()
+                throw e
+            } finally {
+                connection.autoCommit = true
+            }
+        }
+    }
+
+    private fun bindPolicy(ps: PreparedStatement, entitySetId: UUID, expirationPolicy: DataExpiration) {
+        ps.setObject(1, entitySetId)
+        ps.setLong(2, expirationPolicy.timeToExpiration)
+        ps.setString(3, expirationPolicy.expirationBase.toString())
+        ps.setString(4, expirationPolicy.deleteType.toString())
+        if (expirationPolicy.startDateProperty.isPresent) {
+            ps.setObject(5, expirationPolicy.startDateProperty.get())
+        } else {
+            ps.setNull(5, Types.OTHER)
+        }
+    }
+
+    /**
+     * PreparedStatement bind order:
+     *
+     * 1) entitySetIds
+     */
+    private val NEXT_EXPIRATIONS_SQL = """
+        SELECT ${ENTITY_SET_ID.name}, MIN(${EXPIRATION_DATE.name}) AS ${EXPIRATION_DATE.name}
+        FROM ${DATA_EXPIRATIONS.name}
+        WHERE ${ENTITY_SET_ID.name} = ANY(?)
+        GROUP BY ${ENTITY_SET_ID.name}
+    """.trimIndent()
+
+    /**
+     * PreparedStatement bind order:
+     *
+     * 1) entitySetId
+     * 2) current date time
+     */
+    private val EXPIRED_ENTRIES_SQL = """
+        SELECT ${ID.name}
+        FROM ${DATA_EXPIRATIONS.name}
+        WHERE ${ENTITY_SET_ID.name} = ?
+        AND ${EXPIRATION_DATE.name} <= ?
+        ORDER BY ${EXPIRATION_DATE.name}
+        LIMIT $EXPIRED_BATCH_SIZE
+    """.trimIndent()
+}
@@ -419,6 +419,41 @@ val lockLinkedEntitiesInIdsTable =
                 "ORDER BY ${ID_VALUE.name} " +
                 "FOR UPDATE"
 
+/**
+ * Preparable sql to select the last write of entities from the [IDS] table.
+ *
+ * The bind order is the following:
+ *
+ * 1 - entity set id
+ *
+ * 2 - entity key ids
+ *
+ */
+val selectLastWritesOfEntitiesSql =
+        "SELECT ${ID_VALUE.name}, ${LAST_WRITE.name} FROM ${IDS.name} " +
+                "WHERE ${ENTITY_SET_ID.name} = ? AND ${ID_VALUE.name} = ANY(?)"
+
+/**
+ * Builds preparable sql to select which of the given values of a property type of entities are live.
+ *
+ * The bind order is the following:
+ *
+ * 1 - entity set id
+ *
+ * 2 - entity key ids
+ *
+ * 3 - property type id
+ *
+ * 4 - values
+ *
+ */
+fun selectLivePropertyValuesSql(propertyType: PropertyType): String {
+    val valueColumn = getColumnDefinition(propertyType.postgresIndexType, propertyType.datatype).name
+    return "SELECT $valueColumn FROM ${DATA.name} " +
+            "WHERE ${ENTITY_SET_ID.name} = ? AND ${ID_VALUE.name} = ANY(?) AND ${PROPERTY_TYPE_ID.name} = ? " +
+            "AND ${VERSION.name} > 0 AND $valueColumn = ANY(?)"
+}
+
 /**
  * Preparable sql to upsert entities in [IDS] table.
  *
@@ -715,6 +750,16 @@ internal val deleteEntityKeys =
             "${ID.name} = ANY(?) "
 // @formatter:on
 
+/**
+ * Preparable SQL deletes all entities in a given entity set in [IDS], returning the version each entity had.
+ *
+ * The following bind order is expected:
+ *
+ * 1. entity set id
+ * 2. entity key ids
+ */
+internal val deleteEntityKeysReturningVersions = "$deleteEntityKeys RETURNING ${VERSION.name} "
+
 /**
  * Selects a text properties from entity sets with the following bind order:
  * 1. entity set ids  (array)
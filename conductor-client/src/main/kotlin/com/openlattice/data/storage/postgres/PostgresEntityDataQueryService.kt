@@ -6,9 +6,7 @@ import com.geekbeast.postgres.PostgresDatatype
 import com.openlattice.analysis.requests.Filter
 import com.openlattice.data.*
 import com.openlattice.data.storage.*
-import com.openlattice.data.storage.PostgresEntitySetSizesInitializationTask.Companion.ENTITY_SET_SIZES_VIEW
 import com.openlattice.data.util.PostgresDataHasher
-import com.openlattice.edm.EntitySet
 import com.openlattice.edm.set.ExpirationBase
 import com.openlattice.edm.type.PropertyType
 import com.openlattice.postgres.*
@@ -22,6 +20,8 @@ import com.openlattice.postgres.PostgresTable.IDS
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
 import com.geekbeast.postgres.streams.StatementHolderSupplier
+import com.openlattice.tracing.RequestTracing
+import com.openlattice.tracing.TraceCategory
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.apache.olingo.commons.api.edm.FullQualifiedName
 import org.slf4j.LoggerFactory
@@ -33,6 +33,7 @@ import java.sql.ResultSet
 import java.sql.Types
 import java.time.OffsetDateTime
 import java.time.ZoneId
+import java.time.ZoneOffset
 import java.util.*
 import java.util.concurrent.atomic.AtomicLong
 import kotlin.streams.asStream
@@ -46,6 +47,8 @@ class PostgresEntityDataQueryService(
         private val dataSourceResolver: DataSourceResolver,
         private val byteBlobDataManager: ByteBlobDataManager,
 ) : EntityDataQueryService {
+    private val blobIngestPipeline = BlobIngestPipeline(byteBlobDataManager)
+
     companion object {
         private val logger = LoggerFactory.getLogger(PostgresEntityDataQueryService::class.java)
 
@@ -54,12 +57,21 @@ class PostgresEntityDataQueryService(
     }
 
     override fun getEntitySetCounts(): Map<UUID, Long> {
+        return dataSourceResolver.getAllDataSources().flatMap { hds ->
+            BasePostgresIterable(StatementHolderSupplier(hds, selectEntitySetSizesSql)) {
+                ResultSetAdapters.entitySetId(it) to ResultSetAdapters.count(it)
+            }
+        }.groupBy({ it.first }, { it.second }).mapValues { it.value.sum() }
+    }
+
+    override fun getLastWrites(entitySetId: UUID, entityKeyIds: Set<UUID>): Map<UUID, OffsetDateTime> {
+        val hds = dataSourceResolver.resolve(entitySetId)
         return BasePostgresIterable(
-                StatementHolderSupplier(
-                        dataSourceResolver.getDataSource(EntitySet.DEFAULT_DATASOURCE),
-                        "SELECT * FROM $ENTITY_SET_SIZES_VIEW"
-                )
-        ) { ResultSetAdapters.entitySetId(it) to ResultSetAdapters.count(it) }.toMap()
+                PreparedStatementHolderSupplier(hds, selectLastWritesOfEntitiesSql) { ps ->
+                    ps.setObject(1, entitySetId)
+                    ps.setArray(2, PostgresArrays.createUuidArray(ps.connection, entityKeyIds))
+                }
+        ) { rs -> ResultSetAdapters.id(rs) to ResultSetAdapters.lastWriteTyped(rs) }.toMap()
     }
 
     @JvmOverloads
@@ -233,14 +245,16 @@ class PostgresEntityDataQueryService(
 
                     )
 
-                    BasePostgresIterable(
-                        PreparedStatementHolderSupplier(
-                                    dataSourceResolver.getDataSource(dataSourceName),
-                                    sql,
-                                    FETCH_SIZE
-                            ) { ps -> binders.forEach { it.bind(ps) } },
-                        adapter
-                    ).toList()
+                    RequestTracing.span(TraceCategory.POSTGRES, "getEntitySetIterable") {
+                        BasePostgresIterable(
+                                PreparedStatementHolderSupplier(
+                                        dataSourceResolver.getDataSource(dataSourceName),
+                                        sql,
+                                        FETCH_SIZE
+                                ) { ps -> binders.forEach { it.bind(ps) } }
+                        ) { rs -> RequestTracing.span(TraceCategory.ROW_DECODING, "decodeEntity") { adapter(rs) } }
+                                .toList()
+                    }
                 }
     }
 
@@ -309,24 +323,42 @@ class PostgresEntityDataQueryService(
         var entityBatch = batch.associate { it.key to it.value }
 
         if (!awsPassthrough) {
+            val codecs = ValueCodecs.forPropertyTypes(authorizedPropertyTypes)
             entityBatch = entityBatch.mapValues {
                 JsonDeserializer.validateFormatAndNormalize(
                         it.value,
-                        authorizedPropertyTypes
+                        authorizedPropertyTypes,
+                        codecs
                 ) { "Entity set $entitySetId with entity key id ${it.key}" }
             }
+
+            // upload binary data before touching any rows, so that no row lock is held while waiting on an upload
+            val binaryPropertyTypeIds = authorizedPropertyTypes.values
+                    .filter { it.datatype == EdmPrimitiveTypeKind.Binary }
+                    .mapTo(mutableSetOf()) { it.id }
+            if (binaryPropertyTypeIds.isNotEmpty()) {
+                val entityKeyIds = entityBatch.keys
+                val staged = blobIngestPipeline.stage(entitySetId, entityBatch, binaryPropertyTypeIds) { keys ->
+                    getLivePropertyValues(entitySetId, entityKeyIds, keys, authorizedPropertyTypes)
+                }
+                staged.awaitDurable()
+                entityBatch = staged.entities
+            }
         }
 
         tombstoneFn(version, entityBatch)
 
-        val upc = upsertEntities(
-                entitySetId,
-                entityBatch,
-                authorizedPropertyTypes,
-                version + 1,
-                awsPassthrough,
-                propertyUpdateType
-        )
+        // binary values are keys of durable blobs by now, so they are written as is
+        val upc = RequestTracing.span(TraceCategory.POSTGRES, "upsertEntities") {
+            upsertEntities(
+                    entitySetId,
+                    entityBatch,
+                    authorizedPropertyTypes,
+                    version + 1,
+                    true,
+                    propertyUpdateType
+            )
+        }
 
         //For now we can't track how many entities were updated in a call transactionally.
         //If we want to check how many entities were written at a specific version that is possible but
@@ -349,17 +381,24 @@ class PostgresEntityDataQueryService(
             propertyUpdateType: PropertyUpdateType
     ): Int {
 
+        // resolved once, so that values aren't dispatched on their datatype for hashing and again for binding
+        val codecs = ValueCodecs.forPropertyTypes(authorizedPropertyTypes)
         val entitiesWithHashAndInsertData = entities.mapValues { entityKeyIdToEntity ->
             entityKeyIdToEntity.value.mapValues { propertyTypeIdToPropertyValues ->
+                val codec = codecs.getValue(propertyTypeIdToPropertyValues.key)
                 propertyTypeIdToPropertyValues.value.map { propertyValue ->
-                    getPropertyHash(
-                            entitySetId,
-                            entityKeyIdToEntity.key,
-                            propertyTypeIdToPropertyValues.key,
-                            propertyValue,
-                            authorizedPropertyTypes.getValue(propertyTypeIdToPropertyValues.key).datatype,
-                            awsPassthrough
-                    )
+                    if (codec.datatype == EdmPrimitiveTypeKind.Binary) {
+                        getPropertyHash(
+                                entitySetId,
+                                entityKeyIdToEntity.key,
+                                propertyTypeIdToPropertyValues.key,
+                                propertyValue,
+                                codec.datatype,
+                                awsPassthrough
+                        )
+                    } else {
+                        codec.hash(propertyValue) to propertyValue
+                    }
                 }
             }
         }
@@ -370,8 +409,8 @@ class PostgresEntityDataQueryService(
             val versionsArrays = PostgresArrays.createLongArray(connection, version)
 
             /*
-             * We do not need entity level locking as the version in the ids table ensures that data is consistent even
-             * if the follow property upserts fails halfway through.
+             * We do not need entity level locking for the property upserts as the version in the ids table ensures
+             * that data is consistent even if the follow property upserts fails halfway through.
              *
              * Previous me said deletes had to be handled specially, but it makes sense that clear is fine.
              *
@@ -386,6 +425,7 @@ class PostgresEntityDataQueryService(
                         val pt = authorizedPropertyTypes[propertyTypeId] ?: abortInsert(entitySetId, entityKeyId)
                         connection.prepareStatement(upsertPropertyValueSql(pt, propertyUpdateType))
                     }
+                    val codec = codecs.getValue(propertyTypeId)
 
                     hashAndInsertValue.map { (propertyHash, insertValue) ->
                         upsertPropertyValue.setObject(1, entitySetId)
@@ -394,7 +434,7 @@ class PostgresEntityDataQueryService(
                         upsertPropertyValue.setBytes(4, propertyHash)
                         upsertPropertyValue.setObject(5, version)
                         upsertPropertyValue.setArray(6, versionsArrays)
-                        upsertPropertyValue.setObject(7, insertValue)
+                        codec.bind(upsertPropertyValue, 7, insertValue)
                         upsertPropertyValue.addBatch()
                     }
                 }
@@ -407,22 +447,39 @@ class PostgresEntityDataQueryService(
              *
              */
 
-            //Make data visible by marking new version in ids table.
+            //Make data visible by marking new version in ids table, counting the entities that become visible.
+            connection.autoCommit = false
+            try {
+                /*
+                 * The update below locks the same ids rows until commit anyway, so locking them first doesn't add
+                 * contention. It reads the versions the update replaces, without which two concurrent writes of a new
+                 * entity would both count it, and takes the locks in id order like the update does.
+                 */
+                val previousVersions = lockEntityVersions(connection, entitySetId, entities.keys)
+                val ps = connection.prepareStatement(updateEntitySql)
+
+                entities.keys.sorted().forEach { entityKeyId ->
+                    ps.setArray(1, versionsArrays)
+                    ps.setObject(2, version)
+                    ps.setObject(3, version)
+                    ps.setObject(4, entitySetId)
+                    ps.setObject(5, entityKeyId)
+                    ps.addBatch()
+                }
 
-            val ps = connection.prepareStatement(updateEntitySql)
+                val updatedEntities = ps.executeBatch().sum()
+                addEntitySetSizeDeltas(
+                        connection,
+                        mapOf(entitySetId to getLiveEntityDelta(previousVersions.values, version))
+                )
+                PostgresDataExpirationIndex.indexWrites(connection, entitySetId, entities.keys, authorizedPropertyTypes)
+                connection.commit()
 
-            entities.keys.sorted().forEach { entityKeyId ->
-                ps.setArray(1, versionsArrays)
-                ps.setObject(2, version)
-                ps.setObject(3, version)
-                ps.setObject(4, entitySetId)
-                ps.setObject(5, entityKeyId)
-                ps.addBatch()
+                logger.debug("Updated $updatedEntities entities as part of insert.")
+            } catch (e: Exception) {
+                connection.rollback()
+                throw e
             }
-
-            val updatedEntities = ps.executeBatch().sum()
-
-            logger.debug("Updated $updatedEntities entities as part of insert.")
             return@use updatedPropertyCounts
         }
     }
@@ -436,7 +493,7 @@ class PostgresEntityDataQueryService(
             awsPassthrough: Boolean
     ): Pair<ByteArray, Any> {
         if (dataType != EdmPrimitiveTypeKind.Binary) {
-            return PostgresDataHasher.hashObject(value, dataType) to value
+            return ValueCodecs.of(dataType).hash(value) to value
         }
         //Binary data types get stored in S3 bucket:
         if (awsPassthrough) {
@@ -456,12 +513,42 @@ class PostgresEntityDataQueryService(
         return PostgresDataHasher.hashObject(s3Key, EdmPrimitiveTypeKind.String) to s3Key
     }
 
+    /**
+     * @return The values of [valuesByPropertyType] that are held by live properties of the given entities.
+     */
+    private fun getLivePropertyValues(
+            entitySetId: UUID,
+            entityKeyIds: Set<UUID>,
+            valuesByPropertyType: Map<UUID, Set<String>>,
+            authorizedPropertyTypes: Map<UUID, PropertyType>
+    ): Set<String> {
+        return dataSourceResolver.resolve(entitySetId).connection.use { connection ->
+            val entityKeyIdsArr = PostgresArrays.createUuidArray(connection, entityKeyIds)
+            valuesByPropertyType.flatMapTo(mutableSetOf()) { (propertyTypeId, values) ->
+                val propertyType = authorizedPropertyTypes.getValue(propertyTypeId)
+                connection.prepareStatement(selectLivePropertyValuesSql(propertyType)).use { ps ->
+                    ps.setObject(1, entitySetId)
+                    ps.setArray(2, entityKeyIdsArr)
+                    ps.setObject(3, propertyTypeId)
+                    ps.setArray(4, PostgresArrays.createTextArray(connection, values))
+                    val rs = ps.executeQuery()
+                    val liveValues = mutableSetOf<String>()
+                    while (rs.next()) {
+                        liveValues.add(rs.getString(1))
+                    }
+                    liveValues
+                }
+            }
+        }
+    }
+
     @Timed
     override fun replaceEntities(
             entitySetId: UUID,
             entities: Map<UUID, Map<UUID, Set<Any>>>,
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType,
+            writtenEntitiesFn: (Map<UUID, Map<UUID, Set<Any>>>) -> Unit
     ): WriteEvent {
 
         val propertyTypes = authorizedPropertyTypes.values
@@ -475,6 +562,7 @@ class PostgresEntityDataQueryService(
                     propertyTypes,
                     version,
             )
+            writtenEntitiesFn(entityBatch)
         }
 
         return upsertEntities(
@@ -493,6 +581,7 @@ class PostgresEntityDataQueryService(
             entities: Map<UUID, Map<UUID, Set<Any>>>,
             authorizedPropertyTypes: Map<UUID, PropertyType>,
             propertyUpdateType: PropertyUpdateType,
+            writtenEntitiesFn: (Map<UUID, Map<UUID, Set<Any>>>) -> Unit
     ): WriteEvent {
 
         // Is the overhead from including irrelevant property types in a bulk delete really worse than performing individual queries? :thinking-face:
@@ -508,6 +597,7 @@ class PostgresEntityDataQueryService(
                                 version
                         )
                     }
+                    writtenEntitiesFn(entityBatch)
                 }
 
         return upsertEntities(
@@ -668,13 +758,24 @@ class PostgresEntityDataQueryService(
         val hds = dataSourceResolver.resolve(entitySetId)
 
         val numUpdates = hds.connection.use { connection ->
+            connection.autoCommit = false
             try {
-                val ps = connection.prepareStatement(deleteEntityKeys)
+                val ps = connection.prepareStatement(deleteEntityKeysReturningVersions)
                 val entityArr = PostgresArrays.createUuidArray(ps.connection, entityKeyIds)
                 ps.setObject(1, entitySetId)
                 ps.setArray(2, entityArr)
-                ps.executeUpdate()
+                val deletedVersions = ps.executeQuery().use { rs ->
+                    val versions = mutableListOf<Long>()
+                    while (rs.next()) {
+                        versions.add(ResultSetAdapters.version(rs))
+                    }
+                    versions
+                }
+                addEntitySetSizeDeltas(connection, mapOf(entitySetId to -deletedVersions.count { it > 0 }.toLong()))
+                connection.commit()
+                deletedVersions.size
             } catch (ex: Exception) {
+                connection.rollback()
                 logger.error("Unable to delete entities ($entityKeyIds) in $entitySetId.")
                 throw ex
             }
@@ -844,6 +945,37 @@ class PostgresEntityDataQueryService(
         ) { rs -> ResultSetAdapters.id(rs) }
     }
 
+    /**
+     * Returns the subset of [entityKeyIds] that have expired according to [expirationPolicy] as of [currentDateTime].
+     *
+     * @param expirationPropertyType The property type used as expiration base. Required if the expiration base of
+     * [expirationPolicy] is [ExpirationBase.DATE_PROPERTY].
+     */
+    fun filterExpiredEntities(
+            entitySetId: UUID,
+            entityKeyIds: Set<UUID>,
+            expirationPolicy: DataExpiration,
+            expirationPropertyType: PropertyType?,
+            currentDateTime: OffsetDateTime
+    ): Set<UUID> {
+        val hds = dataSourceResolver.resolve(entitySetId)
+        val sql = if (expirationPolicy.startDateProperty.isPresent) {
+            buildExpiringEntitiesUsingDataQuery(expirationPropertyType!!, expirationPolicy.deleteType, true)
+        } else {
+            buildExpiringEntitiesUsingIdsQuery(expirationPolicy, true)
+        }
+
+        return BasePostgresIterable(PreparedStatementHolderSupplier(hds, sql) { ps ->
+            var index = 1
+            ps.setObject(index++, entitySetId)
+            bindExpirationDate(ps, index++, expirationPolicy, currentDateTime, expirationPropertyType)
+            if (expirationPolicy.startDateProperty.isPresent) {
+                ps.setObject(index++, expirationPropertyType!!.id)
+            }
+            ps.setArray(index, PostgresArrays.createUuidArray(ps.connection, entityKeyIds))
+        }) { rs -> ResultSetAdapters.id(rs) }.toSet()
+    }
+
     override fun bindExpirationDate(
             ps: PreparedStatement,
             index: Int,
@@ -861,9 +993,13 @@ class PostgresEntityDataQueryService(
                 ps.setObject(index, OffsetDateTime.ofInstant(expirationDateTime, ZoneId.systemDefault()))
             }
             else -> {
-                val sqlFormat =
-                        if (propertyType!!.datatype == EdmPrimitiveTypeKind.Date) Types.DATE else Types.TIMESTAMP_WITH_TIMEZONE
-                ps.setObject(index, OffsetDateTime.ofInstant(expirationDateTime, ZoneId.systemDefault()), sqlFormat)
+                // dates carry no time zone, so they are taken to start at midnight UTC as in the expiration index
+                if (propertyType!!.datatype == EdmPrimitiveTypeKind.Date) {
+                    ps.setObject(index, OffsetDateTime.ofInstant(expirationDateTime, ZoneOffset.UTC), Types.DATE)
+                } else {
+                    val expirationOffsetDateTime = OffsetDateTime.ofInstant(expirationDateTime, ZoneId.systemDefault())
+                    ps.setObject(index, expirationOffsetDateTime, Types.TIMESTAMP_WITH_TIMEZONE)
+                }
             }
         }
     }
@@ -879,6 +1015,16 @@ class PostgresEntityDataQueryService(
     override fun getExpiringEntitiesUsingDataQuery(
             expirationPropertyType: PropertyType, deleteType: DeleteType
     ): String {
+        return buildExpiringEntitiesUsingDataQuery(expirationPropertyType, deleteType, false)
+    }
+
+    /**
+     * @param filterIds If true, an additional entityKeyIds array parameter is bound after all other parameters.
+     */
+    private fun buildExpiringEntitiesUsingDataQuery(
+            expirationPropertyType: PropertyType, deleteType: DeleteType, filterIds: Boolean
+    ): String {
+        val idsClause = if (filterIds) "AND ${ID.name} = ANY(?)" else ""
         val clearedEntitiesClause = if (deleteType == DeleteType.Soft) "AND ${VERSION.name} >= 0 " else ""
 
         val expirationColumnName = PostgresDataTables.getColumnDefinition(
@@ -891,6 +1037,7 @@ class PostgresEntityDataQueryService(
             WHERE ${ENTITY_SET_ID.name} = ?
             AND $expirationColumnName <= ?
             AND ${PROPERTY_TYPE_ID.name} = ?
+            $idsClause
             $clearedEntitiesClause
             LIMIT $EXPIRED_DATA_BATCH_SIZE
         """.trimIndent()
@@ -904,6 +1051,14 @@ class PostgresEntityDataQueryService(
      * 3) expiration datetime
      */
     override fun getExpiringEntitiesUsingIdsQuery(expirationPolicy: DataExpiration): String {
+        return buildExpiringEntitiesUsingIdsQuery(expirationPolicy, false)
+    }
+
+    /**
+     * @param filterIds If true, an additional entityKeyIds array parameter is bound after all other parameters.
+     */
+    private fun buildExpiringEntitiesUsingIdsQuery(expirationPolicy: DataExpiration, filterIds: Boolean): String {
+        val idsClause = if (filterIds) "AND ${ID.name} = ANY(?)" else ""
         val clearedEntitiesClause =
                 if (expirationPolicy.deleteType == DeleteType.Soft) "AND ${VERSION.name} >= 0 " else ""
 
@@ -919,6 +1074,7 @@ class PostgresEntityDataQueryService(
             SELECT ${ID.name} FROM ${IDS.name}
             WHERE ${ENTITY_SET_ID.name} = ?
             AND $expirationField <= ?
+            $idsClause
             $clearedEntitiesClause
             LIMIT $EXPIRED_DATA_BATCH_SIZE
         """.trimIndent()
@@ -7,11 +7,13 @@ import com.google.common.collect.Multimaps
 import com.google.common.collect.SetMultimap
 import com.google.common.eventbus.EventBus
 import com.openlattice.assembler.events.MaterializedEntitySetDataChangeEvent
+import com.openlattice.IdConstants.LAST_WRITE_ID
 import com.openlattice.data.*
 import com.openlattice.data.events.EntitiesDeletedEvent
 import com.openlattice.data.events.EntitiesUpsertedEvent
 import com.openlattice.data.storage.EntityDatastore
 import com.openlattice.data.storage.MetadataOption
+import com.openlattice.data.storage.ReadConsistency
 import com.openlattice.datastore.services.EdmManager
 import com.openlattice.datastore.services.EntitySetManager
 import com.openlattice.edm.events.EntitySetDataDeletedEvent
@@ -19,6 +21,7 @@ import com.openlattice.edm.set.EntitySetFlag
 import com.openlattice.edm.type.PropertyType
 import com.openlattice.linking.LinkingQueryService
 import com.openlattice.linking.PostgresLinkingFeedbackService
+import com.openlattice.tracing.RequestTracing
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.apache.olingo.commons.api.edm.FullQualifiedName
@@ -48,6 +51,41 @@ class PostgresEntityDatastore(
     companion object {
         private val logger = LoggerFactory.getLogger(PostgresEntityDatastore::class.java)
         const val BATCH_INDEX_THRESHOLD = 256
+
+        /**
+         * Builds the documents of entities whose properties [replaced] were written with the values in [entities],
+         * keeping the values in [kept] of the other properties. Entities without a last write no longer exist and
+         * are left out.
+         */
+        @JvmStatic
+        internal fun buildReplacedDocuments(
+                entities: Map<UUID, Map<UUID, Set<Any>>>,
+                replaced: Map<UUID, Set<UUID>>,
+                kept: Map<UUID, Map<UUID, Set<Any>>>,
+                lastWrites: Map<UUID, OffsetDateTime>,
+                propertyTypesToIndex: Map<UUID, PropertyType>
+        ): Map<UUID, Map<UUID, Set<Any>>> {
+            return entities.entries.mapNotNull { (entityKeyId, entity) ->
+                val lastWrite = lastWrites[entityKeyId] ?: return@mapNotNull null
+                val document = mutableMapOf<UUID, Set<Any>>()
+
+                val entityReplaced = replaced.getValue(entityKeyId)
+                kept[entityKeyId]?.forEach { (propertyTypeId, values) ->
+                    if (!entityReplaced.contains(propertyTypeId)) {
+                        document[propertyTypeId] = values
+                    }
+                }
+
+                entity.forEach { (propertyTypeId, values) ->
+                    if (propertyTypesToIndex.containsKey(propertyTypeId) && values.isNotEmpty()) {
+                        document[propertyTypeId] = values
+                    }
+                }
+
+                document[LAST_WRITE_ID.id] = setOf(lastWrite)
+                entityKeyId to document
+            }.toMap()
+        }
     }
 
     private val getEntitiesTimer = metricRegistry.timer(
@@ -60,6 +98,26 @@ class PostgresEntityDatastore(
                     PostgresEntityDatastore::class.java, "getEntities(linked)"
             )
     )
+    private val signalReadBackTimer = metricRegistry.timer(
+            MetricRegistry.name(
+                    PostgresEntityDatastore::class.java, "signalCreatedEntities(readBack)"
+            )
+    )
+    private val signalWritePathTimer = metricRegistry.timer(
+            MetricRegistry.name(
+                    PostgresEntityDatastore::class.java, "signalCreatedEntities(writePath)"
+            )
+    )
+    private val readBackEntitiesMeter = metricRegistry.meter(
+            MetricRegistry.name(
+                    PostgresEntityDatastore::class.java, "indexReadBackEntities"
+            )
+    )
+    private val readBackPropertiesMeter = metricRegistry.meter(
+            MetricRegistry.name(
+                    PostgresEntityDatastore::class.java, "indexReadBackProperties"
+            )
+    )
 
     @Timed
     override fun createOrUpdateEntities(
@@ -90,13 +148,14 @@ class PostgresEntityDatastore(
     ): WriteEvent {
         // need to collect linking ids before writes to the entities
 
+        var writtenEntities = mapOf<UUID, Map<UUID, Set<Any>>>()
         val writeEvent = dataQueryService.replaceEntities(
                 entitySetId,
                 entities,
                 authorizedPropertyTypes,
                 propertyUpdateType
-        )
-        signalCreatedEntities(entitySetId, entities.keys)
+        ) { writtenEntities = it }
+        signalReplacedEntities(entitySetId, writtenEntities) { authorizedPropertyTypes.keys }
 
         return writeEvent
     }
@@ -109,33 +168,90 @@ class PostgresEntityDatastore(
             propertyUpdateType: PropertyUpdateType
     ): WriteEvent {
         // need to collect linking ids before writes to the entities
+        var writtenEntities = mapOf<UUID, Map<UUID, Set<Any>>>()
         val writeEvent = dataQueryService
                 .partialReplaceEntities(
                         entitySetId,
                         entities,
                         authorizedPropertyTypes,
                         propertyUpdateType
-                )
+                ) { writtenEntities = it }
 
-        signalCreatedEntities(entitySetId, entities.keys)
+        signalReplacedEntities(entitySetId, writtenEntities) { entity -> entity.keys }
 
         return writeEvent
     }
 
+    private fun getPropertyTypesToIndex(entitySetId: UUID): Map<UUID, PropertyType> {
+        return entitySetManager.getPropertyTypesForEntitySet(entitySetId)
+                .filter { it.value.datatype != EdmPrimitiveTypeKind.Binary }
+    }
+
+    /**
+     * Signals that entities were written, reading them back in full to index them.
+     */
     private fun signalCreatedEntities(entitySetId: UUID, entityKeyIds: Set<UUID>) {
         if (shouldIndexDirectly(entitySetId, entityKeyIds)) {
-            val propertyTypesToIndex = entitySetManager.getPropertyTypesForEntitySet(entitySetId)
-                    .filter { it.value.datatype != EdmPrimitiveTypeKind.Binary }
-            val entities = dataQueryService
-                    .getEntitiesWithPropertyTypeIds(
-                            ImmutableMap.of(entitySetId, Optional.of(entityKeyIds)),
-                            ImmutableMap.of(entitySetId, propertyTypesToIndex),
-                            mapOf(),
-                            EnumSet.of(MetadataOption.LAST_WRITE)
-                    )
-            eventBus.post(EntitiesUpsertedEvent(entitySetId, entities.toMap()))
+            signalReadBackTimer.time().use {
+                val propertyTypesToIndex = getPropertyTypesToIndex(entitySetId)
+                val entities = dataQueryService
+                        .getEntitiesWithPropertyTypeIds(
+                                ImmutableMap.of(entitySetId, Optional.of(entityKeyIds)),
+                                ImmutableMap.of(entitySetId, propertyTypesToIndex),
+                                mapOf(),
+                                EnumSet.of(MetadataOption.LAST_WRITE)
+                        ).toMap()
+                readBackEntitiesMeter.mark(entities.size.toLong())
+                readBackPropertiesMeter.mark(entities.values.sumBy { it.size }.toLong())
+                eventBus.post(EntitiesUpsertedEvent(entitySetId, entities))
+            }
         }
 
+        markEntitySetDataChanged(entitySetId)
+    }
+
+    /**
+     * Signals that the properties [replacedPropertyTypes] of each entity were replaced with the values in [entities],
+     * which are the normalized values that were written.
+     *
+     * Documents are built from those values instead of reading the entities back. Only indexed properties that an
+     * entity kept from before the write are read, along with the last write of each entity.
+     */
+    private fun signalReplacedEntities(
+            entitySetId: UUID,
+            entities: Map<UUID, Map<UUID, Set<Any>>>,
+            replacedPropertyTypes: (Map<UUID, Set<Any>>) -> Set<UUID>
+    ) {
+        if (shouldIndexDirectly(entitySetId, entities.keys)) {
+            signalWritePathTimer.time().use {
+                val propertyTypesToIndex = getPropertyTypesToIndex(entitySetId)
+                val replaced = entities.mapValues { (_, entity) -> replacedPropertyTypes(entity) }
+                val keptPropertyTypes = propertyTypesToIndex.filterKeys { propertyTypeId ->
+                    replaced.values.any { !it.contains(propertyTypeId) }
+                }
+
+                val kept = if (keptPropertyTypes.isEmpty()) {
+                    mapOf()
+                } else {
+                    dataQueryService.getEntitiesWithPropertyTypeIds(
+                            ImmutableMap.of(entitySetId, Optional.of(entities.keys)),
+                            ImmutableMap.of(entitySetId, keptPropertyTypes)
+                    ).toMap()
+                }
+                readBackEntitiesMeter.mark(kept.size.toLong())
+                readBackPropertiesMeter.mark(kept.values.sumBy { it.size }.toLong())
+
+                val lastWrites = dataQueryService.getLastWrites(entitySetId, entities.keys)
+                val documents = buildReplacedDocuments(entities, replaced, kept, lastWrites, propertyTypesToIndex)
+
+                eventBus.post(EntitiesUpsertedEvent(entitySetId, documents))
+            }
+        }
+
+        markEntitySetDataChanged(entitySetId)
+    }
+
+    private fun markEntitySetDataChanged(entitySetId: UUID) {
         markMaterializedEntitySetDirty(entitySetId) // mark entityset as unsync with data
         // mark all involved linking entitysets as unsync with data
         edmManager.getAllLinkingEntitySetIdsForEntitySet(entitySetId)
@@ -399,21 +515,32 @@ class PostgresEntityDatastore(
             entitySetIdsToEntityKeyIds: SetMultimap<UUID, UUID>,
             authorizedPropertyTypesByEntitySet: Map<UUID, Map<UUID, PropertyType>>
     ): Map<UUID, Collection<MutableMap<FullQualifiedName, MutableSet<Any>>>> {
+        val readContext = ReadConsistency.capture()
+        val traceContext = RequestTracing.capture()
         return Multimaps
                 .asMap(entitySetIdsToEntityKeyIds)
                 .entries
                 .parallelStream()
                 .map { (entitySetId, entityKeyIds) ->
-                    val data = dataQueryService.getEntitiesWithPropertyTypeFqns(
-                            mapOf(entitySetId to Optional.of(entityKeyIds)),
-                            mapOf(entitySetId to authorizedPropertyTypesByEntitySet.getValue(entitySetId)),
-                            emptyMap(),
-                            EnumSet.noneOf(MetadataOption::class.java)
-                    )
+                    val data = traceContext.run {
+                        readContext.run {
+                            dataQueryService.getEntitiesWithPropertyTypeFqns(
+                                    mapOf(entitySetId to Optional.of(entityKeyIds)),
+                                    mapOf(entitySetId to authorizedPropertyTypesByEntitySet.getValue(entitySetId)),
+                                    emptyMap(),
+                                    EnumSet.noneOf(MetadataOption::class.java)
+                            )
+                        }
+                    }
                     entitySetId to data.values
                 }.asSequence().toMap()
     }
 
+    @Timed
+    override fun getLastWrites(entitySetId: UUID, entityKeyIds: Set<UUID>): Map<UUID, OffsetDateTime> {
+        return dataQueryService.getLastWrites(entitySetId, entityKeyIds)
+    }
+
     @Timed
     override fun getEntityKeyIdsOfLinkingIds(
             linkingIds: Set<UUID>,
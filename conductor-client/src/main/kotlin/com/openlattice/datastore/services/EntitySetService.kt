@@ -43,7 +43,7 @@ import com.openlattice.authorization.Principals
 import com.openlattice.authorization.securable.SecurableObjectType
 import com.openlattice.authorization.securable.SecurableObjectType.PropertyTypeInEntitySet
 import com.geekbeast.controllers.exceptions.ResourceNotFoundException
-import com.openlattice.data.storage.PostgresEntitySetSizesInitializationTask
+import com.openlattice.data.storage.selectEntitySetSizeSql
 import com.openlattice.datasets.DataSetService
 import com.openlattice.datasets.SecurableObjectMetadata
 import com.openlattice.datasets.SecurableObjectMetadataUpdate
@@ -65,7 +65,6 @@ import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.hazelcast.processors.AddEntitySetsToLinkingEntitySetProcessor
 import com.openlattice.hazelcast.processors.RemoveDataExpirationPolicyProcessor
 import com.openlattice.hazelcast.processors.RemoveEntitySetsFromLinkingEntitySetProcessor
-import com.openlattice.postgres.PostgresColumn
 import com.openlattice.postgres.PostgresColumn.ACL_KEY
 import com.openlattice.postgres.PostgresColumn.ENTITY_TYPE_ID
 import com.openlattice.postgres.PostgresColumn.ID
@@ -377,15 +376,9 @@ class EntitySetService(
         }
     }
 
-    private val GET_ENTITY_SET_COUNT = """
-        SELECT ${PostgresColumn.COUNT} 
-            FROM ${PostgresEntitySetSizesInitializationTask.ENTITY_SET_SIZES_VIEW} 
-            WHERE ${PostgresColumn.ENTITY_SET_ID.name} = ?
-    """.trimIndent()
-
     override fun getEntitySetSize(entitySetId: UUID): Long {
         return hds.connection.use { connection ->
-            connection.prepareStatement(GET_ENTITY_SET_COUNT).use { ps ->
+            connection.prepareStatement(selectEntitySetSizeSql).use { ps ->
                 ps.setObject(1, entitySetId)
                 ps.executeQuery().use { rs ->
                     if (rs.next()) {
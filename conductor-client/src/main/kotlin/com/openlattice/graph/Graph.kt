@@ -49,6 +49,8 @@ import com.openlattice.postgres.PostgresTable.IDS
 import com.openlattice.postgres.ResultSetAdapters
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
+import com.openlattice.tracing.RequestTracing
+import com.openlattice.tracing.TraceCategory
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
@@ -257,23 +259,25 @@ class Graph(
         val edges = entitySetIds
                 .groupBy { dataSourceResolver.getDataSourceName(it) }
                 .flatMap { (dataSourceName, entitySetIdsForDataSource) ->
-                    BasePostgresIterable(
-                            PreparedStatementHolderSupplier(
-                                    dataSourceResolver.getDataSource(dataSourceName),
-                                    getFilteredNeighborhoodSql(pagedNeighborRequest)
-                            ) { ps ->
-                                val connection = ps.connection
-                                val idsArr = PostgresArrays.createUuidArray(connection, filter.entityKeyIds)
-                                val entitySetIdsArr = PostgresArrays.createUuidArray(
-                                        connection, entitySetIdsForDataSource
-                                )
-                                ps.setArray(1, idsArr)
-                                ps.setArray(2, entitySetIdsArr)
-                                ps.setArray(3, idsArr)
-                                ps.setArray(4, entitySetIdsArr)
-                            }) {
-                        ResultSetAdapters.edge(it)
-                    }.toList()
+                    RequestTracing.span(TraceCategory.POSTGRES, "getEdgesAndNeighborsForVertices") {
+                        BasePostgresIterable(
+                                PreparedStatementHolderSupplier(
+                                        dataSourceResolver.getDataSource(dataSourceName),
+                                        getFilteredNeighborhoodSql(pagedNeighborRequest)
+                                ) { ps ->
+                                    val connection = ps.connection
+                                    val idsArr = PostgresArrays.createUuidArray(connection, filter.entityKeyIds)
+                                    val entitySetIdsArr = PostgresArrays.createUuidArray(
+                                            connection, entitySetIdsForDataSource
+                                    )
+                                    ps.setArray(1, idsArr)
+                                    ps.setArray(2, entitySetIdsArr)
+                                    ps.setArray(3, idsArr)
+                                    ps.setArray(4, entitySetIdsArr)
+                                }) {
+                            ResultSetAdapters.edge(it)
+                        }.toList()
+                    }
                 }
 
         return edges.stream()
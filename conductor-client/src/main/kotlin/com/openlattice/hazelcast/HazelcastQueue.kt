@@ -24,6 +24,7 @@ import com.hazelcast.core.HazelcastInstance
 import com.hazelcast.collection.IQueue
 import com.openlattice.auditing.AuditableEvent
 import com.openlattice.codex.MessageRequest
+import com.openlattice.data.DataEdgeKey
 import com.openlattice.data.EntityDataKey
 import com.openlattice.edm.EntitySet
 import com.openlattice.mail.RenderableEmailRequest
@@ -66,8 +67,13 @@ class HazelcastQueue<T> internal constructor(val name: String) : TypedQueueIdent
         @JvmField val LINKING_CANDIDATES = HazelcastQueue<EntityDataKey>("LINKING_CANDIDATES")
         @JvmField val LINKING_INDEXING = HazelcastQueue<Triple<List<Array<UUID>>, UUID, OffsetDateTime>>("LINKING_INDEXING")
         @JvmField val LINKING_UNINDEXING = HazelcastQueue<Triple<List<Array<UUID>>, UUID, OffsetDateTime>>("LINKING_UNINDEXING")
+        @JvmField val SUBSCRIPTION_CHANGES = HazelcastQueue<UUID>("SUBSCRIPTION_CHANGES")
+        @JvmField val SUBSCRIPTION_EDGE_EVENTS = HazelcastQueue<DataEdgeKey>("SUBSCRIPTION_EDGE_EVENTS")
+        @JvmField val SUBSCRIPTION_EVENTS = HazelcastQueue<EntityDataKey>("SUBSCRIPTION_EVENTS")
+        // Outgoing messages queued whole by earlier releases, which are moved onto TWILIO_OUTGOING
         @JvmField val TWILIO = HazelcastQueue<MessageRequest>("TWILIO")
         @JvmField val TWILIO_FEED = HazelcastQueue<SubscriptionNotification>("TWILIO_FEED")
+        @JvmField val TWILIO_OUTGOING = HazelcastQueue<UUID>("TWILIO_OUTGOING")
 
         // @formatter:on
 
@@ -55,6 +55,34 @@ class HazelcastQueuePod {
         }
     }
 
+    @Bean
+    fun twilioOutgoingQueueConfigurer(): QueueConfigurer {
+        return QueueConfigurer(HazelcastQueue.TWILIO_OUTGOING.name) { config ->
+            config.setMaxSize(10_0000).backupCount = 1
+        }
+    }
+
+    @Bean
+    fun subscriptionEventsQueueConfigurer(): QueueConfigurer {
+        return QueueConfigurer(HazelcastQueue.SUBSCRIPTION_EVENTS.name) { config ->
+            config.setMaxSize(100_000).backupCount = 1
+        }
+    }
+
+    @Bean
+    fun subscriptionEdgeEventsQueueConfigurer(): QueueConfigurer {
+        return QueueConfigurer(HazelcastQueue.SUBSCRIPTION_EDGE_EVENTS.name) { config ->
+            config.setMaxSize(100_000).backupCount = 1
+        }
+    }
+
+    @Bean
+    fun subscriptionChangesQueueConfigurer(): QueueConfigurer {
+        return QueueConfigurer(HazelcastQueue.SUBSCRIPTION_CHANGES.name) { config ->
+            config.setMaxSize(10_000).backupCount = 1
+        }
+    }
+
     @Bean
     fun indexingQueueConfigurer(): QueueConfigurer {
         return QueueConfigurer(HazelcastQueue.INDEXING.name) { config ->
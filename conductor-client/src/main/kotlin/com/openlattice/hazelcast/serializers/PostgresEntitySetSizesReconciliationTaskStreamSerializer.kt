@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2019. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+package com.openlattice.hazelcast.serializers
+
+import com.openlattice.data.storage.PostgresEntitySetSizesReconciliationTask
+import com.openlattice.hazelcast.StreamSerializerTypeIds
+import org.springframework.stereotype.Component
+
+@Component
+class PostgresEntitySetSizesReconciliationTaskStreamSerializer : NoOpSelfRegisteringStreamSerializer<PostgresEntitySetSizesReconciliationTask>() {
+    override fun getTypeId(): Int {
+        return StreamSerializerTypeIds.POSTGRES_ENTITY_SET_SIZES_RECONCILIATION_TASK.ordinal
+    }
+
+    override fun getClazz(): Class<out PostgresEntitySetSizesReconciliationTask> {
+        return PostgresEntitySetSizesReconciliationTask::class.java
+    }
+}
\ No newline at end of file
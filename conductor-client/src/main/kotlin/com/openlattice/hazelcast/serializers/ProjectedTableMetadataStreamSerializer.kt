@@ -5,6 +5,7 @@ import com.hazelcast.nio.ObjectDataInput
 import com.hazelcast.nio.ObjectDataOutput
 import com.geekbeast.rhizome.hazelcast.serializers.UUIDStreamSerializerUtils
 import com.openlattice.collaborations.ProjectedTableMetadata
+import com.openlattice.collaborations.ProjectionMode
 import com.openlattice.hazelcast.StreamSerializerTypeIds
 import com.openlattice.mapstores.TestDataFactory
 import org.springframework.stereotype.Component
@@ -12,6 +13,10 @@ import org.springframework.stereotype.Component
 @Component
 class ProjectedTableMetadataStreamSerializer : TestableSelfRegisteringStreamSerializer<ProjectedTableMetadata> {
 
+    companion object {
+        private val projectionModes = ProjectionMode.values()
+    }
+
     override fun generateTestValue(): ProjectedTableMetadata {
         return TestDataFactory.projectedTableMetadata()
     }
@@ -27,12 +32,14 @@ class ProjectedTableMetadataStreamSerializer : TestableSelfRegisteringStreamSeri
     override fun write(out: ObjectDataOutput, `object`: ProjectedTableMetadata) {
         UUIDStreamSerializerUtils.serialize(out, `object`.organizationId)
         out.writeUTF(`object`.tableName)
+        out.writeInt(`object`.projectionMode.ordinal)
     }
 
     override fun read(`in`: ObjectDataInput): ProjectedTableMetadata {
         val organizationId = UUIDStreamSerializerUtils.deserialize(`in`)
         val tableName = `in`.readString()!!
+        val projectionMode = projectionModes[`in`.readInt()]
 
-        return ProjectedTableMetadata(organizationId, tableName)
+        return ProjectedTableMetadata(organizationId, tableName, projectionMode)
     }
 }
\ No newline at end of file
@@ -286,6 +286,24 @@ class ExternalDatabaseManagementService(
         }.toList()
     }
 
+    /**
+     * Fingerprints every table in an organization database from its catalog metadata, so that callers can tell which
+     * tables changed between two calls without reading their columns or privileges.
+     *
+     * @return The fingerprint of each table, keyed by table oid.
+     */
+    fun getTableFingerprintsForOrganization(organizationId: UUID): Map<Long, String> {
+        return BasePostgresIterable(
+                StatementHolderSupplier(
+                        externalDbManager.connectToOrg(organizationId),
+                        getTableFingerprintsSql(),
+                        FETCH_SIZE
+                )
+        ) { rs ->
+            oid(rs) to rs.getString(FINGERPRINT_FIELD)
+        }.toMap()
+    }
+
     fun executePrivilegesUpdate(action: Action, acls: List<Acl>) {
         extDbPermsManager.executePrivilegesUpdate(action, acls)
     }
@@ -766,6 +784,43 @@ class ExternalDatabaseManagementService(
         """.trimIndent()
     }
 
+    /**
+     * For a database, retrieves a fingerprint of every table in the openlattice, staging and integrations schemas.
+     * The fingerprint covers the table's name, schema and ACL, the name, type and ACL of each of its columns, and its
+     * primary key. Catalog xmins are left out, since every GRANT rewrites the catalog rows even when it doesn't change
+     * any privileges, and syncing a table re-applies its grants.
+     */
+    private fun getTableFingerprintsSql(): String {
+        return """
+            SELECT
+              pg_class.oid AS ${OID.name},
+              md5(concat_ws(
+                '|',
+                pg_class.relname,
+                pg_namespace.nspname,
+                pg_class.relacl::text,
+                (
+                  SELECT string_agg(
+                    concat_ws(':', attnum, attname, atttypid, attacl::text),
+                    ',' ORDER BY attnum
+                  )
+                  FROM pg_attribute
+                  WHERE attrelid = pg_class.oid AND attnum > 0 AND NOT attisdropped
+                ),
+                (
+                  SELECT string_agg(array_to_string(conkey, ','), ';' ORDER BY pg_constraint.oid)
+                  FROM pg_constraint
+                  WHERE conrelid = pg_class.oid AND contype = 'p'
+                )
+              )) AS $FINGERPRINT_FIELD
+            FROM pg_class
+            INNER JOIN pg_namespace ON pg_namespace.oid = pg_class.relnamespace
+            WHERE
+              pg_namespace.nspname=ANY('{$OPENLATTICE_SCHEMA,$STAGING_SCHEMA,$INTEGRATIONS_SCHEMA}')
+              AND pg_class.relkind = ANY('{r,p}')
+        """.trimIndent()
+    }
+
     private val oidFromPgTables = "(information_schema.tables.table_schema || '.' || quote_ident(information_schema.tables.table_name))::regclass::oid AS ${OID.name}"
 
     private fun getColumnMetadataSql(tableSchema: String, tableName: String): String {
@@ -31,11 +31,13 @@ import com.openlattice.authorization.mapstores.PrincipalTreesMapstore
 import com.openlattice.datastore.util.Util
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.organization.roles.Role
+import com.openlattice.organizations.SortedPrincipalSet
 import com.openlattice.organizations.processors.NestedPrincipalRemover
 import com.openlattice.organizations.roles.processors.PrincipalDescriptionUpdater
 import com.openlattice.organizations.roles.processors.PrincipalTitleUpdater
 import com.openlattice.postgres.external.ExternalDatabasePermissioningService
 import com.openlattice.principals.AddPrincipalToPrincipalEntryProcessor
+import com.openlattice.principals.PrincipalClosureService
 import com.openlattice.principals.PrincipalExistsEntryProcessor
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
@@ -56,6 +58,8 @@ class HazelcastPrincipalService(
     private val principals = HazelcastMap.PRINCIPALS.getMap(hazelcastInstance)
     private val principalTrees = HazelcastMap.PRINCIPAL_TREES.getMap(hazelcastInstance)
     private val users = HazelcastMap.USERS.getMap(hazelcastInstance)
+    private val resolvedPrincipalTrees = HazelcastMap.RESOLVED_PRINCIPAL_TREES.getMap(hazelcastInstance)
+    private val closures = PrincipalClosureService(hazelcastInstance)
 
     companion object {
         private val logger = LoggerFactory
@@ -173,9 +177,11 @@ class HazelcastPrincipalService(
         ensurePrincipalsExist(setOf(aclKey))
         authorizations.deletePrincipalPermissions(principals[aclKey]!!.principal)
         authorizations.deletePermissions(aclKey)
+        val formerMembers = closures.getMembers(aclKey)
         principalTrees.executeOnEntries(NestedPrincipalRemover(setOf(aclKey)), hasSecurablePrincipal(aclKey))
         reservations.release(aclKey[aclKey.getSize() - 1])
         principalTrees.delete(aclKey)
+        refreshResolvedPrincipalTrees(closures.principalDeleted(aclKey, formerMembers))
         principals.delete(aclKey)
     }
 
@@ -197,6 +203,10 @@ class HazelcastPrincipalService(
                 .filterNotNull()
                 .toSet()
 
+        if (updatedKeys.isNotEmpty()) {
+            refreshResolvedPrincipalTrees(closures.principalAdded(source, updatedKeys))
+        }
+
         // consider renaming to updateExternalPrincipalTrees
         extDatabasePermsManager.addPrincipalToPrincipals(source, updatedKeys)
         return updatedKeys
@@ -209,20 +219,40 @@ class HazelcastPrincipalService(
     override fun removePrincipalsFromPrincipals(principalsToRemove: Set<AclKey>, fromPrincipals: Set<AclKey>) {
         ensurePrincipalsExist(fromPrincipals + principalsToRemove)
         principalTrees.executeOnKeys(fromPrincipals, NestedPrincipalRemover(principalsToRemove))
+        refreshResolvedPrincipalTrees(closures.principalsRemoved(fromPrincipals))
         extDatabasePermsManager.removePrincipalsFromPrincipals(principalsToRemove, fromPrincipals)
     }
 
     private fun getAllPrincipalsWithPrincipal(aclKey: AclKey): Collection<SecurablePrincipal> {
-        //We start from the bottom layer and use predicates to sweep up the tree and enumerate all roles with this role.
-        var parentLayer = principalTrees.keySet(hasSecurablePrincipal(aclKey))
-        val principalsWithPrincipal = parentLayer.toMutableSet()
+        return principals.getAll(closures.getMembers(aclKey)).values
+    }
 
-        while (parentLayer.isNotEmpty()) {
-            parentLayer = principalTrees.keySet(hasAnySecurablePrincipal(parentLayer))
-            principalsWithPrincipal.addAll(parentLayer)
+    /**
+     * Rewrites the resolved principal trees used for authentication of the users among [aclKeys], whose closures have
+     * changed. Principals that aren't users aren't authenticated and are skipped.
+     */
+    private fun refreshResolvedPrincipalTrees(aclKeys: Set<AclKey>) {
+        if (aclKeys.isEmpty()) {
+            return
         }
 
-        return principals.getAll(principalsWithPrincipal).values
+        val closuresByAclKey = closures.getClosures(aclKeys)
+        val securablePrincipals = principals.getAll(aclKeys + closuresByAclKey.values.flatten())
+
+        val resolvedTrees = closuresByAclKey.mapNotNull { (aclKey, closure) ->
+            val sp = securablePrincipals[aclKey] ?: return@mapNotNull null
+            if (sp.principalType != PrincipalType.USER) {
+                return@mapNotNull null
+            }
+
+            val resolved = TreeSet<Principal>()
+            resolved.add(sp.principal)
+            closure.mapNotNullTo(resolved) { securablePrincipals[it]?.principal }
+            sp.principal.id to SortedPrincipalSet(resolved)
+        }.toMap()
+
+        logger.debug("Refreshing resolved principal trees of users {}", resolvedTrees.keys)
+        resolvedPrincipalTrees.putAll(resolvedTrees)
     }
 
     override fun getSecurablePrincipals(p: Predicate<AclKey, SecurablePrincipal>): MutableCollection<SecurablePrincipal> {
@@ -299,48 +329,18 @@ class HazelcastPrincipalService(
     }
 
     override fun getAllPrincipals(sp: SecurablePrincipal): Collection<SecurablePrincipal> {
-        val roles = principalTrees[sp.aclKey] ?: return listOf()
-        var nextLayer: Set<AclKey> = roles
-
-        while (nextLayer.isNotEmpty()) {
-            nextLayer = principalTrees.getAll(nextLayer)
-                    .values
-                    .flatten()
-                    .filter { !roles.contains(it) }
-                    .toSet()
-            roles.addAll(nextLayer)
-        }
-        return principals.getAll(roles).values
+        return principals.getAll(closures.getClosure(sp.aclKey)).values
     }
 
     override fun bulkGetUnderlyingPrincipals(sps: Set<SecurablePrincipal>): Map<SecurablePrincipal, Set<Principal>> {
-        val aclKeyPrincipals = mutableMapOf<AclKey, AclKeySet>()
-
-        // Bulk load all relevant principal trees from hazelcast
-        var nextLayer = sps.mapTo(mutableSetOf()) { it.aclKey }
-        while (nextLayer.isNotEmpty()) {
-            //Don't load what's already been loaded.
-            val nextLayerMap = principalTrees.getAll(nextLayer - aclKeyPrincipals.keys)
-            nextLayer = nextLayerMap.values.flatMapTo(mutableSetOf()) { it.value }
-            aclKeyPrincipals.putAll(nextLayerMap)
-        }
+        val closuresByAclKey = closures.getClosures(sps.mapTo(mutableSetOf()) { it.aclKey })
 
-        // Map all loaded principals to SecurablePrincipals
-        val aclKeysToPrincipals = principals.getAll(aclKeyPrincipals.keys + aclKeyPrincipals.values.flatten())
+        // Map all principals in the closures to SecurablePrincipals
+        val aclKeysToPrincipals = principals.getAll(closuresByAclKey.keys + closuresByAclKey.values.flatten())
 
-        // Map each SecurablePrincipal to all its aclKey children from the in-memory map, and from there a SortedPrincipalSet
         return sps.associateWith { sp ->
             val childAclKeys = mutableSetOf<AclKey>(sp.aclKey) //Need to include self.
-            aclKeyPrincipals.getOrDefault(sp.aclKey, AclKeySet()).forEach { childAclKeys.add(it) }
-
-            var nextAclKeyLayer: Set<AclKey> = childAclKeys
-
-            while (nextAclKeyLayer.isNotEmpty()) {
-                nextAclKeyLayer = (nextAclKeyLayer.flatMapTo(mutableSetOf<AclKey>()) {
-                    aclKeyPrincipals[it] ?: setOf()
-                }) - childAclKeys
-                childAclKeys += nextAclKeyLayer
-            }
+            childAclKeys.addAll(closuresByAclKey.getValue(sp.aclKey))
 
             val principals = childAclKeys.mapNotNullTo(Sets.newLinkedHashSetWithExpectedSize(childAclKeys.size)) { aclKey ->
                 aclKeysToPrincipals[aclKey]?.principal
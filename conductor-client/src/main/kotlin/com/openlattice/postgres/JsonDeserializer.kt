@@ -1,19 +1,8 @@
 package com.openlattice.postgres
 
-import com.google.common.base.Preconditions
-import com.openlattice.data.storage.BinaryObjectWithMetadata
 import com.openlattice.edm.type.PropertyType
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
-import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
-import org.apache.olingo.commons.api.edm.geo.Geospatial
-import org.apache.olingo.commons.api.edm.geo.Point
 import org.slf4j.LoggerFactory
-import java.time.Duration
-import java.time.LocalDate
-import java.time.LocalTime
-import java.time.OffsetDateTime
 import java.util.*
-import java.util.regex.Pattern
 import java.util.stream.Collectors
 
 /**
@@ -25,8 +14,6 @@ class JsonDeserializer {
         private val logger = LoggerFactory.getLogger(
                 JsonDeserializer::class.java
         )
-        private val geographyPointRegex = Pattern
-                .compile("(-?[0-9]+\\.[0-9]+), *(-?[0-9]+\\.[0-9]+)")
 
         @JvmStatic
         fun validateFormatAndNormalize(
@@ -45,7 +32,21 @@ class JsonDeserializer {
                 authorizedPropertiesWithDataType: Map<UUID, PropertyType>,
                 lazyMessage: () -> String
         ): Map<UUID, Set<Any>> {
-            val normalizedPropertyValues: MutableMap<UUID, MutableSet<Any>> = mutableMapOf()
+            return validateFormatAndNormalize(propertyValues, authorizedPropertiesWithDataType, mapOf(), lazyMessage)
+        }
+
+        /**
+         * @param codecs The codecs of the property types, as resolved once for a batch of entities by
+         * [ValueCodecs.forPropertyTypes]. Property types without a codec are resolved per call.
+         */
+        @JvmStatic
+        fun validateFormatAndNormalize(
+                propertyValues: Map<UUID, Set<Any>>,
+                authorizedPropertiesWithDataType: Map<UUID, PropertyType>,
+                codecs: Map<UUID, ValueCodec>,
+                lazyMessage: () -> String
+        ): Map<UUID, Set<Any>> {
+            val normalizedPropertyValues: MutableMap<UUID, MutableSet<Any>> = LinkedHashMap(propertyValues.size)
             for ((propertyTypeId, valueSet) in propertyValues) {
                 try {
                     val propertyType = authorizedPropertiesWithDataType[propertyTypeId]
@@ -74,12 +75,22 @@ class JsonDeserializer {
                         continue
                     }
 
-                    for (value in valueSet) {
-                        val normalizedValue = validateFormatAndNormalize(dataType, propertyTypeId, value)
-                        if (normalizedValue != null) {
-                            normalizedPropertyValues
-                                    .getOrPut(propertyTypeId) { mutableSetOf() }
-                                    .add(normalizedValue)
+                    if (dataType == null) {
+                        logger.error("received a null datatype for property type {}", propertyTypeId.toString())
+                        throw NullPointerException(propertyTypeId.toString())
+                    }
+                    val codec = codecs[propertyTypeId] ?: ValueCodecs.of(dataType)
+
+                    // allocated on the first value that normalizes, so that properties without any are left out
+                    var normalizedValues: MutableSet<Any>? = null
+                    for (value: Any? in valueSet) {
+                        if (value != null) {
+                            val normalizedValue = codec.normalize(propertyTypeId, value)
+                            if (normalizedValues == null) {
+                                normalizedValues = LinkedHashSet(valueSet.size)
+                                normalizedPropertyValues[propertyTypeId] = normalizedValues
+                            }
+                            normalizedValues.add(normalizedValue)
                         } else {
                             logger.error(
                                     "Skipping null value when normalizing data {} for property type {}: {}",
@@ -98,137 +109,5 @@ class JsonDeserializer {
             }
             return normalizedPropertyValues
         }
-
-        @SuppressFBWarnings(value = ["SF_SWITCH_FALLTHROUGH"], justification = "by design")
-        private fun validateFormatAndNormalize(
-                dataType: EdmPrimitiveTypeKind,
-                propertyTypeId: UUID,
-                value: Any?
-        ): Any? {
-            if (value == null) {
-                return null
-            }
-            if (dataType == null) {
-                logger.error("received a null datatype for property type {}", propertyTypeId.toString())
-                throw NullPointerException(propertyTypeId.toString())
-            }
-            when (dataType) {
-                EdmPrimitiveTypeKind.Boolean -> {
-                    if (value is Boolean) {
-                        return value
-                    }
-                    Preconditions.checkState(
-                            value is String,
-                            "Expected string for property type %s with property type %s, received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-                    return java.lang.Boolean.valueOf(value as String?)
-                }
-                EdmPrimitiveTypeKind.Binary -> {
-                    Preconditions.checkState(
-                            value is Map<*, *>,
-                            "Expected map for property type %s with property type %s, received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-
-                    return BinaryObjectWithMetadata.fromMap(value as Map<String, Any>)
-                }
-                EdmPrimitiveTypeKind.Date -> {
-                    Preconditions.checkState(
-                            value is String,
-                            "Expected string for property type %s with data %s,  received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-                    return LocalDate.parse(value as String?)
-                }
-                EdmPrimitiveTypeKind.DateTimeOffset -> {
-                    if (value is OffsetDateTime) {
-                        return value
-                    }
-                    Preconditions.checkState(
-                            value is String,
-                            "Expected string for property type %s with data %s,  received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-                    return OffsetDateTime.parse(value as String?)
-                }
-                EdmPrimitiveTypeKind.Duration -> {
-                    Preconditions.checkState(
-                            value is String,
-                            "Expected string for property type %s with data %s,  received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-                    return Duration.parse(value as String?).toMillis()
-                }
-                EdmPrimitiveTypeKind.Guid -> {
-                    if (value is UUID) {
-                        return value
-                    }
-                    Preconditions.checkState(
-                            value is String,
-                            "Expected string for property type %s with data %s,  received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-                    return UUID.fromString(value as String?)
-                }
-                EdmPrimitiveTypeKind.String -> {
-                    Preconditions.checkState(
-                            value is String,
-                            "Expected string for property type %s with data %s,  received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-                    return value
-                }
-                EdmPrimitiveTypeKind.TimeOfDay -> {
-                    Preconditions.checkState(
-                            value is String,
-                            "Expected string for property type %s with data %s,  received %s",
-                            dataType,
-                            propertyTypeId,
-                            value.javaClass
-                    )
-                    return LocalTime.parse(value as String?)
-                }
-                EdmPrimitiveTypeKind.Decimal, EdmPrimitiveTypeKind.Double, EdmPrimitiveTypeKind.Single -> return value.toString().toDouble()
-                EdmPrimitiveTypeKind.Byte, EdmPrimitiveTypeKind.SByte -> return value.toString().toByte()
-                EdmPrimitiveTypeKind.Int16 -> return value.toString().toShort()
-                EdmPrimitiveTypeKind.Int32 -> return value.toString().toInt()
-                EdmPrimitiveTypeKind.Int64 -> return value.toString().toLong()
-                EdmPrimitiveTypeKind.GeographyPoint -> if (value is LinkedHashMap<*, *>) {
-                    // Raw data binding deserializes a pojo into linked hashmap :/
-                    val point = value as LinkedHashMap<String, Any>
-                    if ("POINT" == point["geoType"] && "GEOGRAPHY" == point["dimension"]) {
-                        // adhere to elasticsearch format of lat,lon:
-                        // https://www.elastic.co/guide/en/elasticsearch/reference/current/geo-point.html
-                        return point["y"].toString() + "," + point["x"]
-                    }
-                } else if (value is Point) {
-                    if (value.geoType == Geospatial.Type.POINT && value.dimension == Geospatial.Dimension.GEOGRAPHY) {
-                        return value.y.toString() + "," + value.x
-                    }
-                } else if (value is String) {
-                    val m = geographyPointRegex.matcher(value as String?)
-                    if (m.matches()) {
-                        return m.group(1) + "," + m.group(2)
-                    }
-                }
-                else -> return value
-            }
-            throw IllegalArgumentException()
-        }
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,38 @@ import com.openlattice.postgres.external.Schemas
 import com.zaxxer.hikari.HikariDataSource
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
 import org.slf4j.LoggerFactory
+import java.sql.Connection
+
+/**
+ * The state of a replica table as of its last sync.
+ *
+ * @param watermark The replication watermark of the source database the replica was last synced from.
+ * @param modifications The modification count of the source table when the replica was last synced, or null if it
+ * wasn't known.
+ */
+data class ReplicaState(val watermark: Long, val modifications: Long?)
+
+/**
+ * The changes that bring the columns of a replica table in line with those of its source table.
+ */
+data class ReplicaAlterations(
+        val dropped: Set<String>,
+        val retyped: Map<String, String>,
+        val added: Map<String, String>
+) {
+    fun isEmpty() = dropped.isEmpty() && retyped.isEmpty() && added.isEmpty()
+
+    /**
+     * Existing rows have no values for added columns and may have lost precision in retyped ones.
+     */
+    fun requiresReseed() = added.isNotEmpty() || retyped.isNotEmpty()
+
+    fun toSql(): List<String> {
+        return dropped.map { "DROP COLUMN ${quote(it)}" } +
+                retyped.map { (name, type) -> "ALTER COLUMN ${quote(name)} TYPE $type USING ${quote(name)}::text::$type" } +
+                added.map { (name, type) -> "ADD COLUMN ${quote(name)} $type" }
+    }
+}
 
 class PostgresProjectionService {
 
@@ -12,6 +44,41 @@ class PostgresProjectionService {
         private val logger = LoggerFactory.getLogger(PostgresProjectionService::class.java)
 
         const val RENAME_SERVER_DB_FUNCTION = "rename_server_database"
+        const val REPLICA_WATERMARKS_TABLE = "replica_watermarks"
+        private const val REPLICA_BATCH_SIZE = 10_000
+
+        /**
+         * How far the watermark of a replica may fall behind the source database before rows can no longer be
+         * selected by the age of their xmin, which is only meaningful within half of the 32 bit transaction id space.
+         * Replicas that fall further behind are reseeded.
+         */
+        const val MAX_REPLICA_WATERMARK_AGE = 1L shl 30
+
+        private val MODIFICATION_COUNT_SQL = """
+            SELECT n_tup_ins + n_tup_upd + n_tup_del
+            FROM pg_stat_user_tables
+            WHERE relid = to_regclass(quote_ident(?) || '.' || quote_ident(?))
+              AND current_setting('track_counts')::boolean
+        """.trimIndent()
+
+        private val COLUMN_TYPES_SQL = """
+            SELECT attname, format_type(atttypid, atttypmod)
+            FROM pg_attribute
+            WHERE attrelid = to_regclass(quote_ident(?) || '.' || quote_ident(?))
+              AND attnum > 0
+              AND NOT attisdropped
+            ORDER BY attnum
+        """.trimIndent()
+
+        private val PRIMARY_KEY_COLUMNS_SQL = """
+            SELECT a.attname
+            FROM pg_index i
+            CROSS JOIN LATERAL unnest(i.indkey) WITH ORDINALITY AS k(attnum, position)
+            JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = k.attnum
+            WHERE i.indrelid = to_regclass(quote_ident(?) || '.' || quote_ident(?))
+              AND i.indisprimary
+            ORDER BY k.position
+        """.trimIndent()
 
         // 0 = whole string, 1 = prefix, 2 = hostname, 3 = port, 4 = database
         private val PAT = Regex("""([\w:]+)://([\w_.]*):(\d+)/(\w+)""")
@@ -225,6 +292,358 @@ class PostgresProjectionService {
                 }
             }
         }
+
+        /**
+         * @return The names of the columns of [schema].[tableName] in order, mapped to their formatted types. Empty if
+         * the table doesn't exist.
+         */
+        fun getColumnTypes(hds: HikariDataSource, schema: String, tableName: String): LinkedHashMap<String, String> {
+            val columns = LinkedHashMap<String, String>()
+            hds.connection.use { conn ->
+                conn.prepareStatement(COLUMN_TYPES_SQL).use { ps ->
+                    ps.setString(1, schema)
+                    ps.setString(2, tableName)
+                    ps.executeQuery().use { rs ->
+                        while (rs.next()) {
+                            columns[rs.getString(1)] = rs.getString(2)
+                        }
+                    }
+                }
+            }
+            return columns
+        }
+
+        /**
+         * @return The primary key columns of [schema].[tableName] in key order, or an empty list if it has none.
+         */
+        fun getPrimaryKeyColumns(hds: HikariDataSource, schema: String, tableName: String): List<String> {
+            val columns = mutableListOf<String>()
+            hds.connection.use { conn ->
+                conn.prepareStatement(PRIMARY_KEY_COLUMNS_SQL).use { ps ->
+                    ps.setString(1, schema)
+                    ps.setString(2, tableName)
+                    ps.executeQuery().use { rs ->
+                        while (rs.next()) {
+                            columns.add(rs.getString(1))
+                        }
+                    }
+                }
+            }
+            return columns
+        }
+
+        /**
+         * @return The current replication watermark of the source database, which is the oldest transaction still in
+         * progress. Every row written by a transaction that wasn't visible at this point has an xmin at or after it.
+         */
+        fun getReplicationWatermark(hds: HikariDataSource): Long {
+            hds.connection.use { conn ->
+                conn.createStatement().use { stmt ->
+                    stmt.executeQuery("SELECT txid_snapshot_xmin(txid_current_snapshot())").use { rs ->
+                        rs.next()
+                        return rs.getLong(1)
+                    }
+                }
+            }
+        }
+
+        /**
+         * The statistics collector counts every row inserted, updated or deleted in a table, whether or not the
+         * transaction that did so committed, and reports it shortly after the transaction ends. An unchanged count
+         * therefore means that nothing was written to the table, as long as the count is read before anything else.
+         *
+         * @return The number of rows modified in [schema].[tableName] since statistics were last reset, or null if
+         * modifications aren't being counted.
+         */
+        fun getModificationCount(hds: HikariDataSource, schema: String, tableName: String): Long? {
+            hds.connection.use { conn ->
+                conn.prepareStatement(MODIFICATION_COUNT_SQL).use { ps ->
+                    ps.setString(1, schema)
+                    ps.setString(2, tableName)
+                    ps.executeQuery().use { rs ->
+                        return if (rs.next()) rs.getLong(1) else null
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return Whether a replica in [state] has to be synced with a source table with [modifications].
+         */
+        fun isReplicaStale(state: ReplicaState, modifications: Long?): Boolean {
+            return modifications == null || state.modifications != modifications
+        }
+
+        /**
+         * @return Whether a replica in [state] can be brought up to date by copying over only the rows written since
+         * its last sync. Tables without a primary key have to be reseeded, as their rows can't be upserted.
+         */
+        fun canUpdateReplica(state: ReplicaState, primaryKey: List<String>, currentWatermark: Long): Boolean {
+            return primaryKey.isNotEmpty() && currentWatermark - state.watermark < MAX_REPLICA_WATERMARK_AGE
+        }
+
+        /**
+         * Creates an empty local table with the columns of the foreign table [foreignSchema].[foreignTableName], with
+         * [primaryKey] as its primary key.
+         */
+        fun createReplicaTable(
+                hds: HikariDataSource,
+                foreignSchema: String,
+                foreignTableName: String,
+                replicaSchema: String,
+                replicaTableName: String,
+                primaryKey: List<String>
+        ) {
+            hds.connection.use { conn ->
+                conn.createStatement().use { stmt ->
+                    stmt.execute("""
+                        CREATE TABLE IF NOT EXISTS ${quote(replicaSchema)}.${quote(replicaTableName)}
+                        (LIKE ${quote(foreignSchema)}.${quote(foreignTableName)})
+                    """.trimIndent())
+
+                    if (primaryKey.isNotEmpty()) {
+                        stmt.execute("""
+                            ALTER TABLE ${quote(replicaSchema)}.${quote(replicaTableName)}
+                            ADD PRIMARY KEY (${primaryKey.joinToString { quote(it) }})
+                        """.trimIndent())
+                    }
+
+                    stmt.execute("""
+                        CREATE TABLE IF NOT EXISTS ${quote(replicaSchema)}.$REPLICA_WATERMARKS_TABLE
+                        (table_name text PRIMARY KEY, watermark bigint NOT NULL, modifications bigint)
+                    """.trimIndent())
+                }
+            }
+        }
+
+        fun dropReplicaTable(hds: HikariDataSource, replicaSchema: String, replicaTableName: String) {
+            hds.connection.use { conn ->
+                conn.createStatement().use { stmt ->
+                    stmt.execute("DROP TABLE IF EXISTS ${quote(replicaSchema)}.${quote(replicaTableName)}")
+                    stmt.execute(
+                            "DELETE FROM ${quote(replicaSchema)}.$REPLICA_WATERMARKS_TABLE " +
+                                    "WHERE table_name = '$replicaTableName'"
+                    )
+                }
+            }
+        }
+
+        /**
+         * @return The changes that bring [currentColumns] of a replica table in line with [targetColumns], both
+         * mapping column names to their formatted types.
+         */
+        fun getReplicaAlterations(
+                currentColumns: Map<String, String>,
+                targetColumns: Map<String, String>
+        ): ReplicaAlterations {
+            return ReplicaAlterations(
+                    dropped = currentColumns.keys - targetColumns.keys,
+                    retyped = targetColumns.filter { (name, type) -> currentColumns[name].let { it != null && it != type } },
+                    added = targetColumns.filterKeys { !currentColumns.containsKey(it) }
+            )
+        }
+
+        /**
+         * Brings the columns of a replica table in line with [targetColumns] by adding, dropping and retyping
+         * columns. Views over the replica have to be dropped first.
+         *
+         * @return True if a column was added or retyped, in which case existing rows have to be reseeded.
+         */
+        fun alterReplicaColumns(
+                hds: HikariDataSource,
+                replicaSchema: String,
+                replicaTableName: String,
+                currentColumns: Map<String, String>,
+                targetColumns: Map<String, String>
+        ): Boolean {
+            val table = "${quote(replicaSchema)}.${quote(replicaTableName)}"
+            val alterations = getReplicaAlterations(currentColumns, targetColumns)
+
+            if (alterations.isEmpty()) {
+                return false
+            }
+
+            hds.connection.use { conn ->
+                conn.createStatement().use { stmt ->
+                    logger.info("Altering replica table {}: {}", table, alterations.toSql())
+                    stmt.execute("ALTER TABLE $table ${alterations.toSql().joinToString()}")
+                }
+            }
+
+            return alterations.requiresReseed()
+        }
+
+        /**
+         * Replaces the contents of a replica table with the contents of the foreign table it replicates and records
+         * [watermark] as the point from which the next incremental update has to read.
+         *
+         * @param modifications The modification count of the source table, read before [watermark].
+         */
+        fun seedReplicaTable(
+                hds: HikariDataSource,
+                foreignSchema: String,
+                foreignTableName: String,
+                replicaSchema: String,
+                replicaTableName: String,
+                columns: Collection<String>,
+                watermark: Long,
+                modifications: Long?
+        ) {
+            val columnList = columns.joinToString { quote(it) }
+            hds.connection.use { conn ->
+                conn.autoCommit = false
+                conn.createStatement().use { stmt ->
+                    stmt.execute("TRUNCATE ${quote(replicaSchema)}.${quote(replicaTableName)}")
+                    stmt.execute("""
+                        INSERT INTO ${quote(replicaSchema)}.${quote(replicaTableName)} ($columnList)
+                        SELECT $columnList FROM ${quote(foreignSchema)}.${quote(foreignTableName)}
+                    """.trimIndent())
+                }
+                setReplicaState(conn, replicaSchema, replicaTableName, ReplicaState(watermark, modifications))
+                conn.commit()
+                conn.autoCommit = true
+            }
+        }
+
+        /**
+         * Applies the changes made to a source table since the last update of its replica. Rows written at or after
+         * the recorded watermark are read from the source database and upserted by [primaryKey].
+         *
+         * Every row of the source table is in the replica once the changed rows are upserted, so the replica only holds
+         * rows that were deleted from the source, or whose key was changed, if it has more rows than the source. Only
+         * then are the keys of the replica checked against those of the foreign table, which reads every key over the
+         * foreign data wrapper. The changed rows, the row count and the next watermark are all read from one snapshot
+         * of the source database.
+         *
+         * @param modifications The modification count of the source table, read before anything else.
+         * @return The number of rows upserted.
+         */
+        fun updateReplicaTable(
+                sourceHds: HikariDataSource,
+                sourceSchema: String,
+                sourceTableName: String,
+                hds: HikariDataSource,
+                foreignSchema: String,
+                foreignTableName: String,
+                replicaSchema: String,
+                replicaTableName: String,
+                columns: Map<String, String>,
+                primaryKey: List<String>,
+                modifications: Long?
+        ): Int {
+            val sourceTable = "${quote(sourceSchema)}.${quote(sourceTableName)}"
+            val replicaTable = "${quote(replicaSchema)}.${quote(replicaTableName)}"
+            val names = columns.keys.toList()
+            val upsertSql = """
+                INSERT INTO $replicaTable (${names.joinToString { quote(it) }})
+                VALUES (${names.joinToString { "CAST(? AS ${columns.getValue(it)})" }})
+                ON CONFLICT (${primaryKey.joinToString { quote(it) }}) DO UPDATE
+                SET ${(names - primaryKey).ifEmpty { primaryKey }.joinToString { "${quote(it)} = EXCLUDED.${quote(it)}" }}
+            """.trimIndent()
+            // xmin is a 32 bit transaction id while watermarks are 64 bit txids, so rows are selected by comparing
+            // the ages of their xmin and of the watermark truncated to 32 bits, which wraps around the same way
+            val changedRowsSql = """
+                SELECT ${names.joinToString { "${quote(it)}::text" }}
+                FROM $sourceTable
+                WHERE age(xmin) <= age((? % 4294967296)::text::xid)
+            """.trimIndent()
+            val deleteSql = """
+                DELETE FROM $replicaTable r WHERE NOT EXISTS (
+                    SELECT 1 FROM ${quote(foreignSchema)}.${quote(foreignTableName)} f
+                    WHERE ${primaryKey.joinToString(" AND ") { "f.${quote(it)} = r.${quote(it)}" }}
+                )
+            """.trimIndent()
+
+            var upserted = 0
+
+            hds.connection.use { conn ->
+                conn.autoCommit = false
+                val watermark = getReplicaState(conn, replicaSchema, replicaTableName).watermark
+
+                val (nextWatermark, sourceCount) = sourceHds.connection.use { sourceConn ->
+                    sourceConn.autoCommit = false
+                    sourceConn.transactionIsolation = Connection.TRANSACTION_REPEATABLE_READ
+                    val nextWatermark = queryLong(sourceConn, "SELECT txid_snapshot_xmin(txid_current_snapshot())")
+                    sourceConn.prepareStatement(changedRowsSql).use { changed ->
+                        changed.fetchSize = REPLICA_BATCH_SIZE
+                        changed.setLong(1, watermark)
+                        conn.prepareStatement(upsertSql).use { upsert ->
+                            changed.executeQuery().use { rs ->
+                                while (rs.next()) {
+                                    names.indices.forEach { upsert.setString(it + 1, rs.getString(it + 1)) }
+                                    upsert.addBatch()
+                                    if (++upserted % REPLICA_BATCH_SIZE == 0) {
+                                        upsert.executeBatch()
+                                    }
+                                }
+                            }
+                            upsert.executeBatch()
+                        }
+                    }
+                    val sourceCount = queryLong(sourceConn, "SELECT count(*) FROM $sourceTable")
+                    sourceConn.commit()
+                    nextWatermark to sourceCount
+                }
+
+                if (queryLong(conn, "SELECT count(*) FROM $replicaTable") > sourceCount) {
+                    val deleted = conn.createStatement().use { it.executeUpdate(deleteSql) }
+                    logger.debug("Deleted {} rows from replica table {}", deleted, replicaTable)
+                }
+                setReplicaState(conn, replicaSchema, replicaTableName, ReplicaState(nextWatermark, modifications))
+                conn.commit()
+                conn.autoCommit = true
+            }
+
+            return upserted
+        }
+
+        /**
+         * @return The state of the replica table as of its last sync.
+         */
+        fun getReplicaState(hds: HikariDataSource, replicaSchema: String, replicaTableName: String): ReplicaState {
+            return hds.connection.use { getReplicaState(it, replicaSchema, replicaTableName) }
+        }
+
+        private fun queryLong(conn: Connection, sql: String): Long {
+            conn.createStatement().use { stmt ->
+                stmt.executeQuery(sql).use { rs ->
+                    rs.next()
+                    return rs.getLong(1)
+                }
+            }
+        }
+
+        private fun getReplicaState(conn: Connection, replicaSchema: String, replicaTableName: String): ReplicaState {
+            conn.prepareStatement(
+                    "SELECT watermark, modifications FROM ${quote(replicaSchema)}.$REPLICA_WATERMARKS_TABLE " +
+                            "WHERE table_name = ?"
+            ).use { ps ->
+                ps.setString(1, replicaTableName)
+                ps.executeQuery().use { rs ->
+                    check(rs.next()) { "No watermark recorded for replica table $replicaTableName" }
+                    return ReplicaState(rs.getLong(1), rs.getObject(2) as Long?)
+                }
+            }
+        }
+
+        private fun setReplicaState(
+                conn: Connection,
+                replicaSchema: String,
+                replicaTableName: String,
+                state: ReplicaState
+        ) {
+            conn.prepareStatement("""
+                INSERT INTO ${quote(replicaSchema)}.$REPLICA_WATERMARKS_TABLE (table_name, watermark, modifications)
+                VALUES (?, ?, ?)
+                ON CONFLICT (table_name) DO UPDATE
+                SET watermark = EXCLUDED.watermark, modifications = EXCLUDED.modifications
+            """.trimIndent()).use { ps ->
+                ps.setString(1, replicaTableName)
+                ps.setLong(2, state.watermark)
+                ps.setObject(3, state.modifications)
+                ps.executeUpdate()
+            }
+        }
     }
 
 }
\ No newline at end of file
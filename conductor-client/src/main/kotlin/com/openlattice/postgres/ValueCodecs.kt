@@ -0,0 +1,298 @@
+package com.openlattice.postgres
+
+import com.google.common.base.Preconditions
+import com.google.common.hash.Hashing
+import com.openlattice.data.storage.BinaryObjectWithMetadata
+import com.openlattice.data.util.PostgresDataHasher
+import com.openlattice.edm.type.PropertyType
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.geo.Geospatial
+import org.apache.olingo.commons.api.edm.geo.Point
+import java.sql.PreparedStatement
+import java.time.Duration
+import java.time.LocalDate
+import java.time.LocalTime
+import java.time.OffsetDateTime
+import java.util.*
+import java.util.regex.Pattern
+
+private val hf = Hashing.murmur3_128()
+
+private val geographyPointRegex = Pattern.compile("(-?[0-9]+\\.[0-9]+), *(-?[0-9]+\\.[0-9]+)")
+
+/**
+ * Validates, normalizes, hashes and binds the values of a single datatype.
+ *
+ * Ingest resolves the codec of every property type once per batch, instead of switching on the datatype of every
+ * value once for each of these steps. Hashes are bit for bit identical to those of [PostgresDataHasher.hashObject].
+ */
+interface ValueCodec {
+    val datatype: EdmPrimitiveTypeKind
+
+    /**
+     * @return The normalized form of [value], as it is stored.
+     * @throws IllegalStateException If [value] isn't in a form accepted for the datatype.
+     */
+    fun normalize(propertyTypeId: UUID, value: Any): Any
+
+    /**
+     * @param value A normalized value.
+     */
+    fun hash(value: Any): ByteArray
+
+    /**
+     * Binds a normalized [value] to the parameter at [index] of [ps].
+     */
+    fun bind(ps: PreparedStatement, index: Int, value: Any) {
+        ps.setObject(index, value)
+    }
+}
+
+/**
+ * A codec for values submitted as strings.
+ */
+private abstract class StringFormCodec(override val datatype: EdmPrimitiveTypeKind) : ValueCodec {
+    protected fun checkString(propertyTypeId: UUID, value: Any): String {
+        Preconditions.checkState(
+                value is String,
+                "Expected string for property type %s with data %s,  received %s",
+                datatype,
+                propertyTypeId,
+                value.javaClass
+        )
+        return value as String
+    }
+
+    /**
+     * Hashes values by their string form, as dates, times and durations are.
+     */
+    override fun hash(value: Any): ByteArray = hf.hashString(value.toString(), Charsets.UTF_8).asBytes()
+}
+
+private object BooleanCodec : ValueCodec {
+    override val datatype = EdmPrimitiveTypeKind.Boolean
+
+    override fun normalize(propertyTypeId: UUID, value: Any): Any {
+        if (value is Boolean) {
+            return value
+        }
+        Preconditions.checkState(
+                value is String,
+                "Expected string for property type %s with property type %s, received %s",
+                datatype,
+                propertyTypeId,
+                value.javaClass
+        )
+        return java.lang.Boolean.valueOf(value as String)
+    }
+
+    override fun hash(value: Any): ByteArray = hf.newHasher().putBoolean(value as Boolean).hash().asBytes()
+
+    override fun bind(ps: PreparedStatement, index: Int, value: Any) = ps.setBoolean(index, value as Boolean)
+}
+
+/**
+ * Binary values are stored as the keys of their blobs, so they are hashed and bound as strings once their blobs are
+ * stored.
+ */
+private object BinaryCodec : ValueCodec {
+    override val datatype = EdmPrimitiveTypeKind.Binary
+
+    @Suppress("UNCHECKED_CAST")
+    override fun normalize(propertyTypeId: UUID, value: Any): Any {
+        Preconditions.checkState(
+                value is Map<*, *>,
+                "Expected map for property type %s with property type %s, received %s",
+                datatype,
+                propertyTypeId,
+                value.javaClass
+        )
+        return BinaryObjectWithMetadata.fromMap(value as Map<String, Any>)
+    }
+
+    override fun hash(value: Any): ByteArray = hf.hashString(value as String, Charsets.UTF_8).asBytes()
+}
+
+private object DateCodec : StringFormCodec(EdmPrimitiveTypeKind.Date) {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = LocalDate.parse(checkString(propertyTypeId, value))
+}
+
+private object DateTimeOffsetCodec : StringFormCodec(EdmPrimitiveTypeKind.DateTimeOffset) {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any {
+        if (value is OffsetDateTime) {
+            return value
+        }
+        return OffsetDateTime.parse(checkString(propertyTypeId, value))
+    }
+
+    /**
+     * Timestamps are "hashed" to the big endian bytes of their epoch millis.
+     */
+    override fun hash(value: Any): ByteArray {
+        val epochMillis = (value as OffsetDateTime).toInstant().toEpochMilli()
+        return ByteArray(java.lang.Long.BYTES) { (epochMillis ushr (8 * (java.lang.Long.BYTES - 1 - it))).toByte() }
+    }
+}
+
+private object DurationCodec : StringFormCodec(EdmPrimitiveTypeKind.Duration) {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any =
+            Duration.parse(checkString(propertyTypeId, value)).toMillis()
+}
+
+private object GuidCodec : StringFormCodec(EdmPrimitiveTypeKind.Guid) {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any {
+        if (value is UUID) {
+            return value
+        }
+        return UUID.fromString(checkString(propertyTypeId, value))
+    }
+
+    override fun hash(value: Any): ByteArray {
+        val id = value as UUID
+        return hf.newHasher()
+                .putLong(id.leastSignificantBits)
+                .putLong(id.mostSignificantBits)
+                .hash()
+                .asBytes()
+    }
+}
+
+private object StringCodec : StringFormCodec(EdmPrimitiveTypeKind.String) {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = checkString(propertyTypeId, value)
+
+    override fun hash(value: Any): ByteArray = hf.hashString(value as String, Charsets.UTF_8).asBytes()
+
+    override fun bind(ps: PreparedStatement, index: Int, value: Any) = ps.setString(index, value as String)
+}
+
+private object TimeOfDayCodec : StringFormCodec(EdmPrimitiveTypeKind.TimeOfDay) {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = LocalTime.parse(checkString(propertyTypeId, value))
+}
+
+private class DoubleCodec(override val datatype: EdmPrimitiveTypeKind) : ValueCodec {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = value as? Double ?: value.toString().toDouble()
+
+    override fun hash(value: Any): ByteArray =
+            hf.hashLong(java.lang.Double.doubleToRawLongBits(value as Double)).asBytes()
+
+    override fun bind(ps: PreparedStatement, index: Int, value: Any) = ps.setDouble(index, value as Double)
+}
+
+private class ByteCodec(override val datatype: EdmPrimitiveTypeKind) : ValueCodec {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = value as? Byte ?: value.toString().toByte()
+
+    override fun hash(value: Any): ByteArray = hf.newHasher().putByte(value as Byte).hash().asBytes()
+}
+
+private object Int16Codec : ValueCodec {
+    override val datatype = EdmPrimitiveTypeKind.Int16
+
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = value as? Short ?: value.toString().toShort()
+
+    override fun hash(value: Any): ByteArray = hf.newHasher().putShort(value as Short).hash().asBytes()
+
+    override fun bind(ps: PreparedStatement, index: Int, value: Any) = ps.setShort(index, value as Short)
+}
+
+private object Int32Codec : ValueCodec {
+    override val datatype = EdmPrimitiveTypeKind.Int32
+
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = value as? Int ?: value.toString().toInt()
+
+    override fun hash(value: Any): ByteArray = hf.hashInt(value as Int).asBytes()
+
+    override fun bind(ps: PreparedStatement, index: Int, value: Any) = ps.setInt(index, value as Int)
+}
+
+private object Int64Codec : ValueCodec {
+    override val datatype = EdmPrimitiveTypeKind.Int64
+
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = value as? Long ?: value.toString().toLong()
+
+    override fun hash(value: Any): ByteArray = hf.hashLong(value as Long).asBytes()
+
+    override fun bind(ps: PreparedStatement, index: Int, value: Any) = ps.setLong(index, value as Long)
+}
+
+/**
+ * Geography points are stored as "lat,lon", the format elasticsearch expects.
+ */
+private object GeographyPointCodec : ValueCodec {
+    override val datatype = EdmPrimitiveTypeKind.GeographyPoint
+
+    @Suppress("UNCHECKED_CAST")
+    override fun normalize(propertyTypeId: UUID, value: Any): Any {
+        if (value is LinkedHashMap<*, *>) {
+            // Raw data binding deserializes a pojo into linked hashmap :/
+            val point = value as LinkedHashMap<String, Any>
+            if ("POINT" == point["geoType"] && "GEOGRAPHY" == point["dimension"]) {
+                // https://www.elastic.co/guide/en/elasticsearch/reference/current/geo-point.html
+                return point["y"].toString() + "," + point["x"]
+            }
+        } else if (value is Point) {
+            if (value.geoType == Geospatial.Type.POINT && value.dimension == Geospatial.Dimension.GEOGRAPHY) {
+                return value.y.toString() + "," + value.x
+            }
+        } else if (value is String) {
+            val m = geographyPointRegex.matcher(value)
+            if (m.matches()) {
+                return m.group(1) + "," + m.group(2)
+            }
+        }
+        throw IllegalArgumentException()
+    }
+
+    override fun hash(value: Any): ByteArray = hf.hashString(value as String, Charsets.UTF_8).asBytes()
+
+    override fun bind(ps: PreparedStatement, index: Int, value: Any) = ps.setString(index, value as String)
+}
+
+/**
+ * Stores the values of the datatypes without a specialized codec as they are submitted.
+ */
+private class PassthroughCodec(override val datatype: EdmPrimitiveTypeKind) : ValueCodec {
+    override fun normalize(propertyTypeId: UUID, value: Any): Any = value
+
+    override fun hash(value: Any): ByteArray = PostgresDataHasher.hashObject(value, datatype)
+}
+
+/**
+ * The codecs of all datatypes.
+ */
+object ValueCodecs {
+    private val codecs = EnumMap<EdmPrimitiveTypeKind, ValueCodec>(EdmPrimitiveTypeKind::class.java)
+
+    init {
+        EdmPrimitiveTypeKind.values().forEach { codecs[it] = PassthroughCodec(it) }
+        listOf(
+                BooleanCodec,
+                BinaryCodec,
+                DateCodec,
+                DateTimeOffsetCodec,
+                DurationCodec,
+                GuidCodec,
+                StringCodec,
+                TimeOfDayCodec,
+                DoubleCodec(EdmPrimitiveTypeKind.Decimal),
+                DoubleCodec(EdmPrimitiveTypeKind.Double),
+                DoubleCodec(EdmPrimitiveTypeKind.Single),
+                ByteCodec(EdmPrimitiveTypeKind.Byte),
+                ByteCodec(EdmPrimitiveTypeKind.SByte),
+                Int16Codec,
+                Int32Codec,
+                Int64Codec,
+                GeographyPointCodec
+        ).forEach { codecs[it.datatype] = it }
+    }
+
+    @JvmStatic
+    fun of(datatype: EdmPrimitiveTypeKind): ValueCodec = codecs.getValue(datatype)
+
+    /**
+     * @return The codec of each property type, by property type id.
+     */
+    @JvmStatic
+    fun forPropertyTypes(propertyTypes: Map<UUID, PropertyType>): Map<UUID, ValueCodec> {
+        return propertyTypes.mapValues { of(it.value.datatype) }
+    }
+}
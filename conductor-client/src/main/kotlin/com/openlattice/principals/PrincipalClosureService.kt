@@ -0,0 +1,254 @@
+package com.openlattice.principals
+
+import com.hazelcast.core.HazelcastInstance
+import com.openlattice.authorization.AclKey
+import com.openlattice.authorization.AclKeySet
+import com.openlattice.hazelcast.HazelcastMap
+import org.slf4j.LoggerFactory
+
+private const val PRINCIPAL_CLOSURES_LOCK = "PRINCIPAL_CLOSURES_LOCK"
+
+/**
+ * How long reads trust that the closures were built, before checking the cluster again.
+ */
+private const val INITIALIZATION_CHECK_INTERVAL_MILLIS = 60_000L
+
+/**
+ * Maintains the transitive closure of [HazelcastMap.PRINCIPAL_TREES], so that resolving every principal inherited by a
+ * principal, or every principal that inherits a role, is a single lookup instead of a walk over the trees.
+ *
+ * [HazelcastMap.PRINCIPAL_CLOSURES] maps each principal to every principal it transitively inherits and
+ * [HazelcastMap.PRINCIPAL_MEMBERS] maps each principal to every principal that transitively inherits it. Neither
+ * includes the principal itself. Both are built from the principal trees the first time they are found empty and are
+ * then kept up to date by propagating each change to the trees, which has to be reported here after it is applied.
+ *
+ * Updates are serialized across the cluster with a lock, since concurrent propagations touch overlapping entries. Reads
+ * only check whether the closures have been built once every [INITIALIZATION_CHECK_INTERVAL_MILLIS], and only take the
+ * lock if they haven't.
+ */
+class PrincipalClosureService(private val hazelcastInstance: HazelcastInstance) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(PrincipalClosureService::class.java)
+    }
+
+    private val principalTrees = HazelcastMap.PRINCIPAL_TREES.getMap(hazelcastInstance)
+    private val closures = HazelcastMap.PRINCIPAL_CLOSURES.getMap(hazelcastInstance)
+    private val members = HazelcastMap.PRINCIPAL_MEMBERS.getMap(hazelcastInstance)
+
+    @Volatile
+    private var initializedAtMillis = 0L
+
+    /**
+     * @return Every principal transitively inherited by [aclKey], not including [aclKey].
+     */
+    fun getClosure(aclKey: AclKey): Set<AclKey> {
+        return getClosures(setOf(aclKey)).getValue(aclKey)
+    }
+
+    /**
+     * @return Every principal transitively inherited by each of [aclKeys], not including the principal itself.
+     */
+    fun getClosures(aclKeys: Set<AclKey>): Map<AclKey, Set<AclKey>> {
+        ensureInitialized()
+        val found = closures.getAll(aclKeys)
+        return aclKeys.associateWith { found[it] ?: setOf<AclKey>() }
+    }
+
+    /**
+     * @return Every principal that transitively inherits [aclKey], not including [aclKey].
+     */
+    fun getMembers(aclKey: AclKey): Set<AclKey> {
+        ensureInitialized()
+        return members[aclKey] ?: setOf()
+    }
+
+    /**
+     * Propagates [source] having been added to the principal trees of [targets].
+     *
+     * @return The principals whose closure changed.
+     */
+    fun principalAdded(source: AclKey, targets: Set<AclKey>): Set<AclKey> {
+        return withLock { built ->
+            val inherited = (closures[source] ?: AclKeySet()) + source
+            val inheriting = targets + targets.flatMap { members[it] ?: AclKeySet() }
+
+            val updatedClosures = closures.getAll(inheriting)
+            val affected = inheriting.filter { aclKey ->
+                updatedClosures.getOrPut(aclKey) { AclKeySet() }.addAll(inherited)
+            }.toSet()
+
+            if (affected.isNotEmpty()) {
+                closures.putAll(updatedClosures.filterKeys(affected::contains))
+
+                val updatedMembers = members.getAll(inherited)
+                inherited.forEach { updatedMembers.getOrPut(it) { AclKeySet() }.addAll(affected) }
+                members.putAll(updatedMembers)
+            }
+
+            if (built) inheriting else affected
+        }
+    }
+
+    /**
+     * Propagates [principalsToRemove] having been removed from the principal trees of [fromPrincipals].
+     *
+     * @return The principals whose closure changed.
+     */
+    fun principalsRemoved(fromPrincipals: Set<AclKey>): Set<AclKey> {
+        return withLock { built ->
+            val inheriting = fromPrincipals + fromPrincipals.flatMap { members[it] ?: AclKeySet() }
+            val affected = recompute(inheriting)
+            if (built) inheriting else affected
+        }
+    }
+
+    /**
+     * Propagates the deletion of [aclKey], which must already have been removed from the principal trees.
+     *
+     * @param formerMembers The principals that inherited [aclKey] before it was removed from the principal trees.
+     *
+     * @return The principals whose closure changed.
+     */
+    fun principalDeleted(aclKey: AclKey, formerMembers: Set<AclKey>): Set<AclKey> {
+        return withLock { built ->
+            val affected = recompute(formerMembers)
+            val inherited = closures.remove(aclKey) ?: AclKeySet()
+            members.delete(aclKey)
+
+            val updatedMembers = members.getAll(inherited)
+            updatedMembers.values.forEach { it.remove(aclKey) }
+            members.putAll(updatedMembers)
+
+            if (built) formerMembers else affected
+        }
+    }
+
+    /**
+     * Recomputes the closures of [aclKeys] from the principal trees. Closures of principals that aren't being
+     * recomputed are used as is, so only the part of the trees below [aclKeys] is walked.
+     */
+    private fun recompute(aclKeys: Set<AclKey>): Set<AclKey> {
+        val trees = principalTrees.getAll(aclKeys)
+        val current = closures.getAll(aclKeys)
+        val recomputed = mutableMapOf<AclKey, AclKeySet>()
+        val unchanged = mutableMapOf<AclKey, Set<AclKey>>()
+
+        fun closureOf(aclKey: AclKey, visiting: MutableSet<AclKey>): Set<AclKey> {
+            if (!aclKeys.contains(aclKey)) {
+                return unchanged.getOrPut(aclKey) { closures[aclKey] ?: AclKeySet() }
+            }
+            recomputed[aclKey]?.let { return it }
+            if (!visiting.add(aclKey)) {
+                logger.warn("Principal {} is part of a cycle in the principal trees.", aclKey)
+                return setOf()
+            }
+
+            val closure = AclKeySet()
+            trees[aclKey]?.forEach { child ->
+                closure.add(child)
+                closure.addAll(closureOf(child, visiting))
+            }
+            closure.remove(aclKey)
+
+            visiting.remove(aclKey)
+            recomputed[aclKey] = closure
+            return closure
+        }
+
+        aclKeys.forEach { closureOf(it, mutableSetOf()) }
+
+        val affected = aclKeys.filter { recomputed[it] != (current[it] ?: AclKeySet()) }.toSet()
+        if (affected.isEmpty()) {
+            return affected
+        }
+
+        val lostBy = affected.associateWith { (current[it] ?: AclKeySet()) - recomputed.getValue(it) }
+        val gainedBy = affected.associateWith { recomputed.getValue(it) - (current[it] ?: AclKeySet()) }
+        val touched = (lostBy.values.flatten() + gainedBy.values.flatten()).toSet()
+
+        val updatedMembers = members.getAll(touched)
+        lostBy.forEach { (aclKey, lost) -> lost.forEach { updatedMembers[it]?.remove(aclKey) } }
+        gainedBy.forEach { (aclKey, gained) ->
+            gained.forEach { updatedMembers.getOrPut(it) { AclKeySet() }.add(aclKey) }
+        }
+
+        closures.putAll(affected.associateWith { recomputed.getValue(it) })
+        members.putAll(updatedMembers)
+
+        return affected
+    }
+
+    private fun ensureInitialized() {
+        val now = System.currentTimeMillis()
+        if (now - initializedAtMillis < INITIALIZATION_CHECK_INTERVAL_MILLIS) {
+            return
+        }
+
+        if (closures.isEmpty) {
+            withLock { }
+        }
+        initializedAtMillis = now
+    }
+
+    /**
+     * Runs [update] while holding the lock, after building the closures if they are empty. Closures built here already
+     * include the change being propagated, since it was applied to the principal trees first, so [update] is told to
+     * report every principal the change could have affected.
+     */
+    private fun <T> withLock(update: (built: Boolean) -> T): T {
+        val lock = hazelcastInstance.cpSubsystem.getLock(PRINCIPAL_CLOSURES_LOCK)
+        lock.lock()
+        try {
+            val built = closures.isEmpty && build()
+            return update(built)
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    /**
+     * Builds the closures and members of every principal from the principal trees.
+     *
+     * @return Whether there were any principal trees to build from.
+     */
+    private fun build(): Boolean {
+        val trees = principalTrees.toMap()
+        if (trees.isEmpty()) {
+            return false
+        }
+
+        logger.info("Building principal closures for {} principals.", trees.size)
+
+        val built = mutableMapOf<AclKey, AclKeySet>()
+
+        fun closureOf(aclKey: AclKey, visiting: MutableSet<AclKey>): Set<AclKey> {
+            built[aclKey]?.let { return it }
+            if (!visiting.add(aclKey)) {
+                logger.warn("Principal {} is part of a cycle in the principal trees.", aclKey)
+                return setOf()
+            }
+
+            val closure = AclKeySet()
+            trees[aclKey]?.forEach { child ->
+                closure.add(child)
+                closure.addAll(closureOf(child, visiting))
+            }
+            closure.remove(aclKey)
+
+            visiting.remove(aclKey)
+            built[aclKey] = closure
+            return closure
+        }
+
+        trees.keys.forEach { closureOf(it, mutableSetOf()) }
+
+        val builtMembers = mutableMapOf<AclKey, AclKeySet>()
+        built.forEach { (aclKey, closure) ->
+            closure.forEach { builtMembers.getOrPut(it) { AclKeySet() }.add(aclKey) }
+        }
+
+        members.putAll(builtMembers)
+        closures.putAll(built)
+        return true
+    }
+}
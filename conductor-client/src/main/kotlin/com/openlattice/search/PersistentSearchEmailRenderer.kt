@@ -18,17 +18,22 @@ class PersistentSearchEmailRenderer {
 
     companion object {
 
+        /**
+         * @param includeAttachments Whether to load the images attached to the email. Emails that are only rendered
+         * to be listed in a digest leave them out, since the digest does not carry them.
+         */
         fun renderEmail(
                 persistentSearch: PersistentSearch,
                 entity: Map<FullQualifiedName, Set<Any>>,
                 userEmail: String,
                 neighbors: List<NeighborEntityDetails>,
-                dependencies: PersistentSearchMessengerTaskDependencies
+                dependencies: PersistentSearchMessengerTaskDependencies,
+                includeAttachments: Boolean = true
         ): RenderableEmailRequest? {
 
             return when (persistentSearch.type) {
-                PersistentSearchNotificationType.ALPR_ALERT -> AlprAlertEmailRenderer.renderEmail(persistentSearch, entity, userEmail, neighbors, dependencies.mapboxToken)
-                PersistentSearchNotificationType.ALPR_HOTLIST_ALERT -> AlprHotlistEmailRenderer.renderEmail(persistentSearch, entity, userEmail, dependencies.mapboxToken)
+                PersistentSearchNotificationType.ALPR_ALERT -> AlprAlertEmailRenderer.renderEmail(persistentSearch, entity, userEmail, neighbors, dependencies.mapboxToken, includeAttachments)
+                PersistentSearchNotificationType.ALPR_HOTLIST_ALERT -> AlprHotlistEmailRenderer.renderEmail(persistentSearch, entity, userEmail, dependencies.mapboxToken, includeAttachments)
                 PersistentSearchNotificationType.BHR_ALERT -> BHRAlertEmailRenderer.renderEmail(persistentSearch, entity, userEmail, neighbors)
                 PersistentSearchNotificationType.CODEX_ALERT -> CodexAlertEmailRenderer.renderEmail(persistentSearch, entity, userEmail, neighbors)
                 PersistentSearchNotificationType.CARE_ISSUE_ALERT -> CAREIssueAlertEmailRenderer.renderEmail(persistentSearch, entity, userEmail, neighbors)
@@ -1,5 +1,8 @@
 package com.openlattice.search
 
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.hazelcast.query.Predicates
 import com.openlattice.authorization.*
 import com.openlattice.authorization.securable.SecurableObjectType
@@ -8,14 +11,14 @@ import com.openlattice.data.requests.NeighborEntityDetails
 import com.openlattice.edm.EdmConstants
 import com.openlattice.edm.EntitySet
 import com.openlattice.edm.set.EntitySetFlag
-import com.openlattice.graph.PagedNeighborRequest
+import com.openlattice.mail.RenderableEmailRequest
 import com.openlattice.postgres.PostgresColumn.*
 import com.openlattice.postgres.PostgresTable.PERSISTENT_SEARCHES
 import com.openlattice.postgres.ResultSetAdapters
 import com.openlattice.postgres.mapstores.EntitySetMapstore
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import com.geekbeast.postgres.streams.StatementHolderSupplier
-import com.openlattice.search.requests.DataSearchResult
+import com.openlattice.search.renderers.AlertDigestEmailRenderer
 import com.openlattice.search.requests.EntityNeighborsFilter
 import com.openlattice.search.requests.PersistentSearch
 import com.openlattice.search.requests.SearchConstraints
@@ -26,18 +29,121 @@ import org.apache.olingo.commons.api.edm.FullQualifiedName
 import org.slf4j.LoggerFactory
 import java.time.OffsetDateTime
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import kotlin.streams.asSequence
 
 private val logger = LoggerFactory.getLogger(PersistentSearchMessengerTask::class.java)
 
 const val ALERT_MESSENGER_INTERVAL_MILLIS = 60000L
+const val ALERT_SEARCH_BATCH_SIZE = 100
+
+/**
+ * Recipients with more new alert hits than this in one run get a single digest email instead of one email per hit.
+ */
+const val ALERT_DIGEST_THRESHOLD = 10
+
+/**
+ * The most hits rendered into a single digest email. Hits beyond this are left for the next run.
+ */
+const val ALERT_DIGEST_MAX_HITS = 50
+
+/**
+ * How many authorization groups have their alerts evaluated at the same time.
+ */
+const val ALERT_EVALUATION_THREADS = 4
+
+private const val USER_EMAIL_CACHE_MINUTES = 10L
 
 private val LOAD_ACTIVE_ALERTS_SQL = "SELECT * FROM ${PERSISTENT_SEARCHES.name} WHERE ${EXPIRATION_DATE.name} > now()"
 
+internal data class AlertSubscriber(
+        val securablePrincipal: SecurablePrincipal,
+        val principals: Set<Principal>,
+        val persistentSearches: Set<PersistentSearch>
+)
+
+private data class AlertHits(
+        val subscriber: AlertSubscriber,
+        val persistentSearch: PersistentSearch,
+        val hits: List<Map<FullQualifiedName, Set<Any>>>
+)
+
+private data class AlertDeliveries(
+        val emails: List<RenderableEmailRequest>,
+        val updatedReadDateTimes: Map<UUID, OffsetDateTime>
+)
+
 class PersistentSearchMessengerTask : HazelcastFixedRateTask<PersistentSearchMessengerTaskDependencies>,
                                       HazelcastTaskDependencies {
 
+    companion object {
+        private val userEmails: Cache<String, String> = CacheBuilder.newBuilder()
+                .expireAfterWrite(USER_EMAIL_CACHE_MINUTES, TimeUnit.MINUTES)
+                .build()
+
+        private val evaluationExecutor = Executors.newFixedThreadPool(
+                ALERT_EVALUATION_THREADS,
+                ThreadFactoryBuilder().setDaemon(true).setNameFormat("alert-evaluation-%d").build()
+        )
+
+        /**
+         * Groups subscribers by the subset of their principals in [principalsWithPermissions]. Subscribers in the same
+         * group are authorized to search exactly the same data, and searching with the group's principals finds only
+         * what every one of them is authorized to read.
+         */
+        @JvmStatic
+        internal fun groupByEffectivePrincipals(
+                subscribers: List<AlertSubscriber>,
+                principalsWithPermissions: Set<Principal>
+        ): Map<Set<Principal>, List<AlertSubscriber>> {
+            return subscribers.groupBy { it.principals.intersect(principalsWithPermissions) }
+        }
+
+        /**
+         * Picks the alerts of [subscribers] that only search entity sets in [authorizedEntitySetIds].
+         */
+        @JvmStatic
+        internal fun getAuthorizedAlerts(
+                subscribers: List<AlertSubscriber>,
+                authorizedEntitySetIds: Set<UUID>
+        ): List<Pair<AlertSubscriber, PersistentSearch>> {
+            return subscribers.flatMap { subscriber ->
+                subscriber.persistentSearches
+                        .filter { authorizedEntitySetIds.containsAll(it.searchConstraints.entitySetIds.toSet()) }
+                        .map { subscriber to it }
+            }
+        }
+
+        /**
+         * Picks the oldest [maxHits] of [hits], along with any later hits written at the same time as the last of
+         * them. Last read can then be advanced to the latest picked hit without skipping any hit that was left out.
+         */
+        @JvmStatic
+        internal fun <T> getOldestHits(
+                hits: List<Pair<T, Map<FullQualifiedName, Set<Any>>>>,
+                maxHits: Int
+        ): List<Pair<T, Map<FullQualifiedName, Set<Any>>>> {
+            val sortedHits = hits.sortedWith(compareBy(nullsFirst()) { (_, hit) -> getLatestRead(listOf(hit)) })
+            if (sortedHits.size <= maxHits) {
+                return sortedHits
+            }
+
+            val lastIncluded = getLatestRead(listOf(sortedHits[maxHits - 1].second))
+            return sortedHits.take(maxHits) + sortedHits.drop(maxHits).takeWhile { (_, hit) ->
+                lastIncluded != null && getLatestRead(listOf(hit))?.isEqual(lastIncluded) == true
+            }
+        }
+
+        @JvmStatic
+        internal fun getLatestRead(vehicleReads: List<Map<FullQualifiedName, Set<Any>>>): OffsetDateTime? {
+            return vehicleReads
+                    .flatMap { it[EdmConstants.LAST_WRITE_FQN] ?: emptySet() }
+                    .map { it as OffsetDateTime }.maxOrNull()
+        }
+    }
+
     override fun getInitialDelay(): Long {
         return ALERT_MESSENGER_INTERVAL_MILLIS
     }
@@ -71,110 +177,235 @@ class PersistentSearchMessengerTask : HazelcastFixedRateTask<PersistentSearchMes
         return constraints
     }
 
-    private fun sendAlertsForNewWrites(
-            userSecurablePrincipal: SecurablePrincipal,
+    private fun renderAlertsForNewWrites(
+            userEmail: String,
             persistentSearch: PersistentSearch,
-            newResults: DataSearchResult,
-            neighborsById: Map<UUID, List<NeighborEntityDetails>>
-    ) {
+            hits: List<Map<FullQualifiedName, Set<Any>>>,
+            neighborsById: Map<UUID, List<NeighborEntityDetails>>,
+            includeAttachments: Boolean = true
+    ): List<RenderableEmailRequest> {
         val dependencies = getDependency()
 
-        val userEmail = dependencies.principalsManager.getUser(userSecurablePrincipal.principal.id).email
-        newResults.hits.forEach {
-            val entityKeyId = UUID.fromString(it.getValue(EdmConstants.ID_FQN).first().toString())
-            val renderableEmail = PersistentSearchEmailRenderer.renderEmail(
-                    persistentSearch, it, userEmail, neighborsById.getOrDefault(
-                    entityKeyId, listOf()
-            ), dependencies
+        return hits.mapNotNull {
+            PersistentSearchEmailRenderer.renderEmail(
+                    persistentSearch, it, userEmail, neighborsById.getOrDefault(getHitEntityKeyId(it), listOf()),
+                    dependencies, includeAttachments
             )
-            dependencies.mailServiceClient.spool(renderableEmail)
         }
     }
 
-    private fun getLatestRead(vehicleReads: List<Map<FullQualifiedName, Set<Any>>>): OffsetDateTime? {
-        return vehicleReads
-                .flatMap { it[EdmConstants.LAST_WRITE_FQN] ?: emptySet() }
-                .map { it as OffsetDateTime }.maxOrNull()
+    /**
+     * Renders the new hits for one set of recipients, either as one email per hit or, if there are more than
+     * [ALERT_DIGEST_THRESHOLD] of them, as a single digest of the oldest [ALERT_DIGEST_MAX_HITS].
+     *
+     * @return The rendered emails, and the hits they include. Hits left out of a digest are not included, so that last
+     * read is only advanced past them once they are sent.
+     */
+    private fun renderAlertsForRecipients(
+            userEmail: String,
+            recipients: Array<String>,
+            alertHits: List<AlertHits>,
+            neighborsById: Map<UUID, List<NeighborEntityDetails>>
+    ): Pair<List<RenderableEmailRequest>, List<AlertHits>> {
+        val hitCount = alertHits.sumBy { it.hits.size }
+        if (hitCount <= ALERT_DIGEST_THRESHOLD) {
+            val emails = alertHits.flatMap {
+                renderAlertsForNewWrites(userEmail, it.persistentSearch, it.hits, neighborsById)
+            }
+            return emails to alertHits
+        }
+
+        val alertHitsBySearch = alertHits.associateBy { it.persistentSearch }
+        val includedHits = getOldestHits(
+                alertHits.flatMap { alert -> alert.hits.map { alert.persistentSearch to it } },
+                ALERT_DIGEST_MAX_HITS
+        )
+        val rendered = includedHits.flatMap { (persistentSearch, hit) ->
+            renderAlertsForNewWrites(userEmail, persistentSearch, listOf(hit), neighborsById, false)
+        }
+        val included = includedHits.groupBy({ it.first }, { it.second }).map { (persistentSearch, hits) ->
+            alertHitsBySearch.getValue(persistentSearch).copy(hits = hits)
+        }
+        if (rendered.isEmpty()) {
+            return listOf<RenderableEmailRequest>() to included
+        }
+
+        val digest = AlertDigestEmailRenderer.renderDigest(
+                userEmail,
+                recipients,
+                rendered,
+                hitCount - includedHits.size
+        )
+        return listOf(digest) to included
     }
 
-    private fun getHitEntityKeyIds(hits: List<Map<FullQualifiedName, Set<Any>>>): Set<UUID> {
-        return hits.map { UUID.fromString((it[EdmConstants.ID_FQN] ?: emptySet()).first().toString()) }.toSet()
+    private fun getHitEntityKeyId(hit: Map<FullQualifiedName, Set<Any>>): UUID {
+        return UUID.fromString((hit[EdmConstants.ID_FQN] ?: emptySet()).first().toString())
     }
 
-    private fun findNewWritesForAlerts(userAclKey: AclKey, persistentSearches: Set<PersistentSearch>): Map<UUID, OffsetDateTime> {
+    private fun getSubscribers(persistentSearchesByAclKey: Map<AclKey, Set<PersistentSearch>>): List<AlertSubscriber> {
         val dependencies = getDependency()
 
-        val userSecurablePrincipal = dependencies.principalsManager.getSecurablePrincipal(userAclKey)
-        val allUserPrincipals = dependencies.principalsManager.getAllPrincipals(
-                userSecurablePrincipal
-        ).map { it.principal }.toSet().plus(userSecurablePrincipal.principal)
+        val securablePrincipals = dependencies.principalsManager.getSecurablePrincipals(persistentSearchesByAclKey.keys)
+        val principalsBySecurablePrincipal = dependencies.principalsManager
+                .bulkGetUnderlyingPrincipals(securablePrincipals.values.toSet())
 
-        if (userSecurablePrincipal.principal == null || userSecurablePrincipal.principal.id == null) {
-            logger.error(
-                    "Failed to send persistent search for unrecognized principal {} with aclKey {}",
-                    userSecurablePrincipal, userAclKey
+        return persistentSearchesByAclKey.mapNotNull { (aclKey, persistentSearches) ->
+            val userSecurablePrincipal = securablePrincipals[aclKey]
+
+            if (userSecurablePrincipal?.principal?.id == null) {
+                logger.error(
+                        "Failed to send persistent search for unrecognized principal {} with aclKey {}",
+                        userSecurablePrincipal, aclKey
+                )
+                return@mapNotNull null
+            }
+
+            AlertSubscriber(
+                    userSecurablePrincipal,
+                    principalsBySecurablePrincipal.getValue(userSecurablePrincipal),
+                    persistentSearches
             )
-            return mapOf()
         }
+    }
 
-        val allEntitySetIds = persistentSearches.flatMap { it.searchConstraints.entitySetIds.toSet() }.toSet()
+    /**
+     * Groups subscribers by the subset of their principals that hold any permission on the entity sets and property
+     * types searched by active alerts. Subscribers in the same group are authorized to search exactly the same data.
+     */
+    private fun groupByEffectivePrincipals(subscribers: List<AlertSubscriber>): Map<Set<Principal>, List<AlertSubscriber>> {
+        val dependencies = getDependency()
+
+        val entitySetIds = subscribers
+                .flatMap { it.persistentSearches }
+                .flatMap { it.searchConstraints.entitySetIds.toList() }
+                .toSet()
+        val entitySets = dependencies.entitySets.getAll(entitySetIds).values
+        val linkedEntitySets = dependencies.entitySets.getAll(entitySets.flatMap { it.linkedEntitySets }.toSet()).values
+        val allEntitySets = entitySets + linkedEntitySets
+        val entityTypes = dependencies.entityTypes.getAll(allEntitySets.map { it.entityTypeId }.toSet())
+
+        val aclKeys = allEntitySets.flatMap { entitySet ->
+            entityTypes[entitySet.entityTypeId]?.properties.orEmpty().map { AclKey(entitySet.id, it) } +
+                    AclKey(entitySet.id)
+        }.toSet()
+
+        val principalsWithPermissions = dependencies.authorizationManager
+                .getAllSecurableObjectPermissions(aclKeys)
+                .flatMap { acl -> acl.aces.map { it.principal } }
+                .toSet()
+
+        return groupByEffectivePrincipals(subscribers, principalsWithPermissions)
+    }
+
+    private fun findNewWritesForAlerts(
+            effectivePrincipals: Set<Principal>,
+            subscribers: List<AlertSubscriber>
+    ): List<AlertHits> {
+        val dependencies = getDependency()
+
+        val allEntitySetIds = subscribers
+                .flatMap { it.persistentSearches }
+                .flatMap { it.searchConstraints.entitySetIds.toList() }
+                .toSet()
 
         val authorizedEntitySetIds = dependencies.authorizationHelper
                 .getAuthorizedEntitySetsForPrincipals(
-                        allEntitySetIds, EdmAuthorizationHelper.READ_PERMISSION, allUserPrincipals
+                        allEntitySetIds, EdmAuthorizationHelper.READ_PERMISSION, effectivePrincipals
                 )
 
-        val authorizedPropertyTypesByEntitySet = dependencies.authorizationHelper.getAuthorizedPropertiesOnEntitySets(
-                authorizedEntitySetIds, EdmAuthorizationHelper.READ_PERMISSION, allUserPrincipals
-        )
+        val alerts = getAuthorizedAlerts(subscribers, authorizedEntitySetIds)
 
-        val updatedReadDateTimes = mutableMapOf<UUID, OffsetDateTime>()
+        if (alerts.isEmpty()) {
+            return listOf()
+        }
 
-        persistentSearches.forEach { persistentSearch ->
+        val authorizedPropertyTypesByEntitySet = dependencies.authorizationHelper.getAuthorizedPropertiesOnEntitySets(
+                authorizedEntitySetIds, EdmAuthorizationHelper.READ_PERMISSION, effectivePrincipals
+        )
 
-            val entitySetIds = persistentSearch.searchConstraints.entitySetIds.toSet()
+        val results = alerts.chunked(ALERT_SEARCH_BATCH_SIZE).flatMap { batch ->
+            dependencies.searchService.executeSearches(
+                    batch.map { (_, persistentSearch) -> getUpdatedConstraints(persistentSearch) },
+                    authorizedPropertyTypesByEntitySet
+            )
+        }
 
-            val constraints = getUpdatedConstraints(persistentSearch)
+        return alerts.zip(results)
+                .filter { (_, newResults) -> newResults.hits.isNotEmpty() }
+                .map { (alert, newResults) -> AlertHits(alert.first, alert.second, newResults.hits) }
+    }
 
-            if (!authorizedEntitySetIds.containsAll(entitySetIds)) {
-                return@forEach
-            }
+    private fun deliverAlerts(
+            subscriber: AlertSubscriber,
+            subscriberAlertHits: List<AlertHits>,
+            neighborsById: Map<UUID, List<NeighborEntityDetails>>
+    ): AlertDeliveries {
+        val dependencies = getDependency()
 
-            val results = dependencies.searchService.executeSearch(constraints, authorizedPropertyTypesByEntitySet.filterKeys { entitySetIds.contains(it) })
+        val updatedReadDateTimes = mutableMapOf<UUID, OffsetDateTime>()
+        val emails = mutableListOf<RenderableEmailRequest>()
 
-            if (results.hits.isEmpty()) {
-                return@forEach
+        try {
+            val userEmail = userEmails.get(subscriber.securablePrincipal.principal.id) {
+                dependencies.principalsManager.getUser(subscriber.securablePrincipal.principal.id).email
             }
 
-            val entitySets = dependencies.entitySets.getAll(entitySetIds).values.groupBy { it.isLinking }
-            val neighborsById = dependencies.searchService.executeEntityNeighborSearch(
-                    entitySets.getOrDefault(false, listOf()).map { it.id }.toSet(),
-                    PagedNeighborRequest(
-                            EntityNeighborsFilter(
-                                    getHitEntityKeyIds(results.hits),
-                                    Optional.empty(),
-                                    Optional.empty(),
-                                    Optional.of(getAuthorizedAssociationEntitySets(allUserPrincipals))
-                            )
-                    ),
-                    allUserPrincipals
-            ).neighbors
-
-            try {
-                sendAlertsForNewWrites(userSecurablePrincipal, persistentSearch, results, neighborsById)
-                val lastReadDateTime = getLatestRead(results.hits)
+            val includedAlertHits = subscriberAlertHits
+                    .groupBy { it.persistentSearch.additionalEmailAddresses.toSortedSet() }
+                    .flatMap { (additionalEmailAddresses, recipientAlertHits) ->
+                        val recipients = arrayOf(userEmail) + additionalEmailAddresses
+                        val (rendered, included) = renderAlertsForRecipients(
+                                userEmail, recipients, recipientAlertHits, neighborsById
+                        )
+                        emails.addAll(rendered)
+                        included
+                    }
+
+            includedAlertHits.forEach { (_, persistentSearch, hits) ->
+                val lastReadDateTime = getLatestRead(hits)
                 logger.info(
                         "Last read date time {} for alert {} with {} hits", lastReadDateTime, persistentSearch.id,
-                        results.numHits
+                        hits.size
                 )
                 lastReadDateTime?.let { updatedReadDateTimes[persistentSearch.id] = it }
-
-            } catch (e: Exception) {
-                logger.error("An error occurred while trying to send alerts for user {} for search {}", userSecurablePrincipal.aclKey, persistentSearch.id)
             }
+        } catch (e: Exception) {
+            logger.error(
+                    "An error occurred while trying to send alerts for user {} for searches {}",
+                    subscriber.securablePrincipal.aclKey,
+                    subscriberAlertHits.map { it.persistentSearch.id },
+                    e
+            )
+            return AlertDeliveries(listOf(), mapOf())
         }
 
-        return updatedReadDateTimes
+        return AlertDeliveries(emails, updatedReadDateTimes)
+    }
+
+    /**
+     * Reads the neighbors of the hits of all [alertHits] in the run with one batched search, which reads each edge and
+     * neighbor once no matter how many subscribers are alerted about it.
+     *
+     * @return The neighbors of each hit, by the principals of the subscribers they were read for.
+     */
+    private fun getNeighbors(alertHits: List<AlertHits>): Map<Set<Principal>, Map<UUID, List<NeighborEntityDetails>>> {
+        val dependencies = getDependency()
+
+        val entitySetIds = alertHits.flatMap { it.persistentSearch.searchConstraints.entitySetIds.toList() }.toSet()
+        val entitySets = dependencies.entitySets.getAll(entitySetIds).values.groupBy { it.isLinking }
+
+        return dependencies.searchService.executeEntityNeighborSearches(
+                entitySets.getOrDefault(false, listOf()).map { it.id }.toSet(),
+                alertHits.groupBy { it.subscriber.principals }.mapValues { (principals, principalsAlertHits) ->
+                    EntityNeighborsFilter(
+                            principalsAlertHits.flatMap { it.hits }.map { getHitEntityKeyId(it) }.toSet(),
+                            Optional.empty(),
+                            Optional.empty(),
+                            Optional.of(getAuthorizedAssociationEntitySets(principals))
+                    )
+                }
+        )
     }
 
     private fun getAuthorizedAssociationEntitySets(principals: Set<Principal>): Set<UUID> {
@@ -207,12 +438,52 @@ class PersistentSearchMessengerTask : HazelcastFixedRateTask<PersistentSearchMes
 
         logger.info("Loaded {} active persistent searches.", persistentSearchesById.size)
 
-        val lastWritesForMessagesSent = mutableMapOf<UUID, OffsetDateTime>()
-        persistentSearchesById.map { (aclKey, searches) ->
-            lastWritesForMessagesSent.putAll(findNewWritesForAlerts(aclKey, searches))
+        val subscribersByEffectivePrincipals = groupByEffectivePrincipals(getSubscribers(persistentSearchesById))
+
+        logger.info(
+                "Evaluating alerts of {} users in {} authorization groups.",
+                persistentSearchesById.size,
+                subscribersByEffectivePrincipals.size
+        )
+
+        val alertHits = subscribersByEffectivePrincipals
+                .map { (effectivePrincipals, subscribers) ->
+                    evaluationExecutor.submit(Callable { findNewWritesForAlerts(effectivePrincipals, subscribers) })
+                }
+                .flatMap { it.get() }
+
+        val neighborsByPrincipals = try {
+            getNeighbors(alertHits)
+        } catch (e: Exception) {
+            logger.error("Unable to load neighbors of the hits of {} alerts.", alertHits.size, e)
+            return
+        }
+
+        val deliveries = alertHits.groupBy { it.subscriber }.map { (subscriber, subscriberAlertHits) ->
+            deliverAlerts(
+                    subscriber,
+                    subscriberAlertHits,
+                    neighborsByPrincipals[subscriber.principals] ?: mapOf()
+            )
+        }
+        val emails = deliveries.flatMap { it.emails }
+        val lastWritesForMessagesSent = deliveries.fold(mutableMapOf<UUID, OffsetDateTime>()) { acc, delivery ->
+            acc.putAll(delivery.updatedReadDateTimes)
+            acc
         }
 
-        logger.info("Sent {} notifications for persistent searches.", lastWritesForMessagesSent.size)
+        try {
+            dependencies.mailServiceClient.spoolAll(emails)
+        } catch (e: Exception) {
+            logger.error("Unable to spool {} alert emails for {} alerts.", emails.size, lastWritesForMessagesSent.size, e)
+            return
+        }
+
+        logger.info(
+                "Sent {} emails for {} persistent searches with new writes.",
+                emails.size,
+                lastWritesForMessagesSent.size
+        )
 
         val totalSearchesUpdated = dependencies.hds.connection.use { connection ->
 
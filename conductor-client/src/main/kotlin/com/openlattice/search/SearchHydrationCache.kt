@@ -0,0 +1,143 @@
+package com.openlattice.search
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.openlattice.edm.EdmConstants.Companion.ID_FQN
+import com.openlattice.edm.EdmConstants.Companion.LAST_WRITE_FQN
+import com.openlattice.edm.type.PropertyType
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import java.time.OffsetDateTime
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+const val MAX_HYDRATION_CACHE_WEIGHT = 2_000_000L
+const val HYDRATION_CACHE_TTL_MINUTES = 10L
+
+/**
+ * Caches the property projections of entities read while hydrating search results, so that paging through the same
+ * search doesn't read the same entities from postgres again.
+ *
+ * Entries are versioned by the last write of the entity they were read from, and are only served while it is still the
+ * last write of the entity. Before serving any entry, [getAll] looks up the current last writes of the entities it has
+ * entries for, which is a lookup by primary key on the ids table rather than a read of their properties. Writes made
+ * on other nodes or in bulk, which don't post events, are therefore never served stale. Writes and deletes observed
+ * through [invalidate] only free their entries early, leaving a tombstone carrying the time of the write that keeps a
+ * read that raced the write from putting its stale projection back into the cache. Entries also expire a fixed time
+ * after they are written, to bound the memory held by entities that aren't read again.
+ *
+ * An entry can serve any request whose authorized property types are a subset of the ones it was read with. Binary
+ * properties are read as presigned urls that expire, so projections including them are never cached.
+ */
+class SearchHydrationCache(metricRegistry: MetricRegistry) {
+    private data class HydratedEntity(
+            val entitySetId: UUID,
+            val lastWrite: OffsetDateTime,
+            val propertyTypeIds: Set<UUID>,
+            val entity: Map<FullQualifiedName, Set<Any>>?
+    ) {
+        val weight: Int
+            get() = 1 + (entity?.values?.sumBy { it.size } ?: 0)
+    }
+
+    private val cache: Cache<UUID, HydratedEntity> = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_HYDRATION_CACHE_WEIGHT)
+            .weigher<UUID, HydratedEntity> { _, entry -> entry.weight }
+            .expireAfterWrite(HYDRATION_CACHE_TTL_MINUTES, TimeUnit.MINUTES)
+            .recordStats()
+            .build()
+
+    private val readsAvoided = metricRegistry.counter(
+            MetricRegistry.name(SearchHydrationCache::class.java, "readsAvoided")
+    )
+
+    init {
+        metricRegistry.register(
+                MetricRegistry.name(SearchHydrationCache::class.java, "hitRatio"),
+                Gauge<Double> { cache.stats().hitRate() }
+        )
+    }
+
+    /**
+     * @param getLastWrites Looks up the current last writes of entities of [entitySetId], by entity key id. It is only
+     * called for the entities that have entries.
+     * @return The cached projections onto [propertyTypes] of the requested entities, keyed by entity key id. Entities
+     * missing from the result have to be read from postgres.
+     */
+    fun getAll(
+            entitySetId: UUID,
+            entityKeyIds: Set<UUID>,
+            propertyTypes: Map<UUID, PropertyType>,
+            getLastWrites: (Set<UUID>) -> Map<UUID, OffsetDateTime>
+    ): Map<UUID, Map<FullQualifiedName, Set<Any>>> {
+        if (!isCacheable(propertyTypes)) {
+            return mapOf()
+        }
+
+        val candidates = entityKeyIds.mapNotNull { entityKeyId ->
+            cache.getIfPresent(entityKeyId)
+                    ?.takeIf {
+                        it.entity != null && it.entitySetId == entitySetId &&
+                                it.propertyTypeIds.containsAll(propertyTypes.keys)
+                    }
+                    ?.let { entityKeyId to it }
+        }.toMap()
+
+        if (candidates.isEmpty()) {
+            return mapOf()
+        }
+
+        val lastWrites = getLastWrites(candidates.keys)
+        val fqns = propertyTypes.values.mapTo(mutableSetOf(ID_FQN, LAST_WRITE_FQN)) { it.type }
+
+        val hits = candidates
+                .filter { (entityKeyId, entry) -> lastWrites[entityKeyId]?.isEqual(entry.lastWrite) == true }
+                .mapValues { (_, entry) -> entry.entity!!.filterKeys(fqns::contains) }
+
+        readsAvoided.inc(hits.size.toLong())
+        return hits
+    }
+
+    /**
+     * Caches entities read from postgres with the property types in [propertyTypes] and last write metadata.
+     */
+    fun putAll(
+            entitySetId: UUID,
+            propertyTypes: Map<UUID, PropertyType>,
+            entities: Collection<Map<FullQualifiedName, Set<Any>>>
+    ) {
+        if (!isCacheable(propertyTypes)) {
+            return
+        }
+
+        entities.forEach { entity ->
+            val entityKeyId = SearchService.getEntityKeyId(entity)
+            val lastWrite = entity[LAST_WRITE_FQN]?.firstOrNull() as? OffsetDateTime ?: return@forEach
+            val entry = HydratedEntity(entitySetId, lastWrite, propertyTypes.keys, entity)
+
+            cache.asMap().merge(entityKeyId, entry) { current, new ->
+                if (current.lastWrite.isAfter(new.lastWrite)) current else new
+            }
+        }
+    }
+
+    /**
+     * Drops the cached projections of [entityKeyIds], remembering that they were written at [lastWrite].
+     */
+    fun invalidate(entitySetId: UUID, entityKeyIds: Collection<UUID>, lastWrite: OffsetDateTime) {
+        entityKeyIds.forEach { cache.put(it, HydratedEntity(entitySetId, lastWrite, setOf(), null)) }
+    }
+
+    /**
+     * Drops the cached projections of every entity of [entitySetId].
+     */
+    fun invalidateEntitySet(entitySetId: UUID) {
+        cache.asMap().values.removeIf { it.entitySetId == entitySetId }
+    }
+
+    private fun isCacheable(propertyTypes: Map<UUID, PropertyType>): Boolean {
+        return propertyTypes.values.none { it.datatype == EdmPrimitiveTypeKind.Binary }
+    }
+}
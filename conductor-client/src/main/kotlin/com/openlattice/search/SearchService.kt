@@ -21,6 +21,7 @@ import com.openlattice.data.requests.NeighborEntityIds
 import com.openlattice.data.storage.EntityDatastore
 import com.openlattice.data.storage.IndexingMetadataManager
 import com.openlattice.data.storage.MetadataOption
+import com.openlattice.data.storage.ReadConsistency
 import com.openlattice.datasets.DataSetService
 import com.openlattice.datastore.services.EdmManager
 import com.openlattice.datastore.services.EntitySetManager
@@ -40,6 +41,7 @@ import com.openlattice.organizations.events.OrganizationDeletedEvent
 import com.openlattice.organizations.events.OrganizationUpdatedEvent
 import com.geekbeast.hazelcast.DelegatedUUIDSet
 import com.openlattice.search.requests.*
+import com.openlattice.tracing.RequestTracing
 import org.apache.olingo.commons.api.edm.FullQualifiedName
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
@@ -95,6 +97,8 @@ class SearchService(
             MetricRegistry.name(SearchService::class.java, "markAsIndexed")
     )
 
+    private val hydrationCache = SearchHydrationCache(metricRegistry)
+
 
     @Timed
     fun executeEntitySetKeywordSearchQuery(
@@ -208,8 +212,25 @@ class SearchService(
             searchConstraints: SearchConstraints,
             authorizedPropertyTypesByEntitySet: Map<UUID, Map<UUID, PropertyType>>
     ): DataSearchResult {
+        return executeSearches(listOf(searchConstraints), authorizedPropertyTypesByEntitySet).first()
+    }
+
+    /**
+     * Executes several searches sharing the same authorizations as a single elasticsearch multi search and hydrates
+     * the hits of all of them together, reading each entity set once.
+     *
+     * @return The results of the searches, in the same order as [searchConstraints].
+     */
+    @Timed
+    fun executeSearches(
+            searchConstraints: List<SearchConstraints>,
+            authorizedPropertyTypesByEntitySet: Map<UUID, Map<UUID, PropertyType>>
+    ): List<DataSearchResult> {
+        if (searchConstraints.isEmpty()) {
+            return listOf()
+        }
 
-        val entitySetIds = searchConstraints.entitySetIds.toSet()
+        val entitySetIds = searchConstraints.flatMap { it.entitySetIds.toList() }.toSet()
         val entitySetsById = entitySetService.getEntitySetsAsMap(entitySetIds)
         val linkingEntitySets = entitySetsById.values
                 .filter { it.isLinking }
@@ -220,14 +241,12 @@ class SearchService(
                 .associate { it.key to DelegatedUUIDSet.wrap(it.value.keys) }
 
         if (authorizedPropertiesByEntitySet.isEmpty()) {
-            return DataSearchResult(0, Lists.newArrayList())
+            return searchConstraints.map { DataSearchResult(0, Lists.newArrayList()) }
         }
 
-        val entityTypesByEntitySet = entitySetService
-                .getEntitySetsAsMap(searchConstraints.entitySetIds.toSet())
-                .mapValues { it.value.entityTypeId }
+        val entityTypesByEntitySet = entitySetsById.mapValues { it.value.entityTypeId }
 
-        val result = elasticsearchApi.executeSearch(
+        val results = elasticsearchApi.executeSearches(
                 searchConstraints,
                 entityTypesByEntitySet,
                 authorizedPropertiesByEntitySet,
@@ -235,28 +254,35 @@ class SearchService(
         )
 
         val entityKeyIdsByEntitySetId = HashMultimap.create<UUID, UUID>()
-        result.entityDataKeys
+        results
+                .flatMap { it.entityDataKeys }
                 .forEach { edk -> entityKeyIdsByEntitySetId.put(edk.entitySetId, edk.entityKeyId) }
 
         //TODO: Properly parallelize this at some point
+        val readContext = ReadConsistency.capture()
+        val traceContext = RequestTracing.capture()
         val entitiesById = entityKeyIdsByEntitySetId.keySet()
                 .parallelStream()
                 .map { entitySetId ->
                     val es = entitySetsById.getValue(entitySetId)
-                    getResults(
-                            es,
-                            entityKeyIdsByEntitySetId.get(entitySetId),
-                            authorizedPropertyTypesByEntitySet,
-                            es.isLinking
-                    )
+                    traceContext.run {
+                        readContext.run {
+                            getResults(
+                                    es,
+                                    entityKeyIdsByEntitySetId.get(entitySetId),
+                                    authorizedPropertyTypesByEntitySet,
+                                    es.isLinking
+                            )
+                        }
+                    }
                 }
                 .flatMap { it.map { entity -> getEntityKeyId(entity) to entity }.stream() }
                 .toList()
                 .toMap()
 
-        val results = result.entityDataKeys.mapNotNull { entitiesById[it.entityKeyId] }
-
-        return DataSearchResult(result.numHits, results)
+        return results.map { result ->
+            DataSearchResult(result.numHits, result.entityDataKeys.mapNotNull { entitiesById[it.entityKeyId] })
+        }
     }
 
     @Timed
@@ -269,11 +295,13 @@ class SearchService(
     @Timed
     @Subscribe
     fun deleteEntitySet(event: EntitySetDeletedEvent) {
+        hydrationCache.invalidateEntitySet(event.entitySetId)
         elasticsearchApi.deleteEntitySet(event.entitySetId, event.entityTypeId)
     }
 
     @Subscribe
     fun deleteEntities(event: EntitiesDeletedEvent) {
+        hydrationCache.invalidate(event.entitySetId, event.entityKeyIds, OffsetDateTime.now())
         val deleteEntitiesContext = deleteEntitiesTimer.time()
         val entityTypeId = entitySetService.getEntityTypeByEntitySetId(event.entitySetId).id
         val entitiesDeleted = elasticsearchApi.deleteEntityDataBulk(entityTypeId, event.entityKeyIds)
@@ -294,6 +322,7 @@ class SearchService(
 
     @Subscribe
     fun entitySetDataCleared(event: EntitySetDataDeletedEvent) {
+        hydrationCache.invalidateEntitySet(event.entitySetId)
         val deleteEntitySetDataContext = deleteEntitySetDataTimer.time()
         val entityTypeId = entitySetService.getEntityTypeByEntitySetId(event.entitySetId).id
         val entitySetDataDeleted = elasticsearchApi.clearEntitySetData(event.entitySetId, entityTypeId)
@@ -359,6 +388,13 @@ class SearchService(
      */
     @Subscribe
     fun indexEntities(event: EntitiesUpsertedEvent) {
+        val lastWrites = event.entities.mapValues {
+            it.value.getValue(IdConstants.LAST_WRITE_ID.id).first() as OffsetDateTime
+        }
+        lastWrites.forEach { (entityKeyId, lastWrite) ->
+            hydrationCache.invalidate(event.entitySetId, listOf(entityKeyId), lastWrite)
+        }
+
         val indexEntitiesContext = indexEntitiesTimer.time()
         val entityTypeId = entitySetService.getEntityTypeByEntitySetId(event.entitySetId).id
         val entitiesIndexed = elasticsearchApi
@@ -367,9 +403,6 @@ class SearchService(
 
         if (entitiesIndexed) {
             val markAsIndexedContext = markAsIndexedTimer.time()
-            val lastWrites = event.entities.mapValues {
-                it.value.getValue(IdConstants.LAST_WRITE_ID.id).first() as OffsetDateTime
-            }
             // mark them as indexed
 
             indexingMetadataManager.markAsIndexed(mapOf(event.entitySetId to lastWrites))
@@ -686,14 +719,17 @@ class SearchService(
 
         /* Load authorized edges and their corresponding neighbor data */
 
-        val edges = graphService.getEdgesAndNeighborsForVertices(allBaseEntitySetIds, authorizedPagedNeighborRequest).toList()
+        val edges = ReadConsistency.replicaEligible {
+            graphService.getEdgesAndNeighborsForVertices(allBaseEntitySetIds, authorizedPagedNeighborRequest).toList()
+        }
 
         val entitySetIdToEntityKeyId = getNeighborEntitySetIdToEntityKeyIdForEdges(edges, entityKeyIds)
 
         val entitySetsIdsToAuthorizedProps = getAuthorizedPropertyTypesOfEntitySets(entitySetIdToEntityKeyId.keySet(), principals)
 
-        val entitiesByEntitySetId = dataManager
-                .getEntitiesAcrossEntitySets(entitySetIdToEntityKeyId, entitySetsIdsToAuthorizedProps)
+        val entitiesByEntitySetId = ReadConsistency.replicaEligible {
+            dataManager.getEntitiesAcrossEntitySets(entitySetIdToEntityKeyId, entitySetsIdsToAuthorizedProps)
+        }
 
         val entities = Maps.newHashMap<UUID, Map<FullQualifiedName, Set<Any>>>()
         entitiesByEntitySetId.values.forEach { entries ->
@@ -746,6 +782,124 @@ class SearchService(
         return NeighborPage(entityNeighbors, edges.lastOrNull()?.key)
     }
 
+    /**
+     * Loads the neighbors of entities of the normal entity sets [entitySetIds] for several sets of principals at once,
+     * as [executeEntityNeighborSearch] would for each of them. Edges and neighbor data are read once, for everything
+     * any of the sets of principals is authorized to read, and then narrowed down to what each of them is authorized
+     * to read.
+     *
+     * @param filtersByPrincipals The entities to load the neighbors of, and which neighbors to load, by the principals
+     * to load them for.
+     * @return The neighbors of each requested entity, by the principals they were loaded for.
+     */
+    @Timed
+    fun executeEntityNeighborSearches(
+            entitySetIds: Set<UUID>,
+            filtersByPrincipals: Map<Set<Principal>, EntityNeighborsFilter>
+    ): Map<Set<Principal>, Map<UUID, List<NeighborEntityDetails>>> {
+        val filters = filtersByPrincipals
+                .mapValues { (principals, filter) ->
+                    entitySetService.getAuthorizedNeighborEntitySets(principals, entitySetIds, filter)
+                }
+                .filterValues { !it.associationEntitySetIds.isPresent || it.associationEntitySetIds.get().isNotEmpty() }
+
+        if (filters.isEmpty()) {
+            return filtersByPrincipals.mapValues { mapOf<UUID, List<NeighborEntityDetails>>() }
+        }
+
+        val filter = EntityNeighborsFilter(
+                filters.values.flatMap { it.entityKeyIds }.toSet(),
+                Optional.of(filters.values.flatMap { it.srcEntitySetIds.get() }.toSet()),
+                Optional.of(filters.values.flatMap { it.dstEntitySetIds.get() }.toSet()),
+                Optional.of(filters.values.flatMap { it.associationEntitySetIds.get() }.toSet())
+        )
+        val entitySetsById = entitySetService.getEntitySetsAsMap(
+                filter.srcEntitySetIds.get() + filter.dstEntitySetIds.get() + filter.associationEntitySetIds.get()
+        )
+
+        val edges = ReadConsistency.replicaEligible {
+            graphService.getEdgesAndNeighborsForVertices(entitySetIds, PagedNeighborRequest(filter)).toList()
+        }
+
+        val entitySetIdToEntityKeyId = getNeighborEntitySetIdToEntityKeyIdForEdges(edges, filter.entityKeyIds)
+        val authorizedPropertyTypesByPrincipals = filters.mapValues { (principals, _) ->
+            getAuthorizedPropertyTypesOfEntitySets(entitySetIdToEntityKeyId.keySet(), principals)
+        }
+        val authorizedPropertyTypes = authorizedPropertyTypesByPrincipals.values
+                .flatMap { it.entries }
+                .groupBy({ it.key }, { it.value })
+                .mapValues { (_, propertyTypes) -> propertyTypes.reduce { acc, it -> acc + it } }
+
+        val entities = Maps.newHashMap<UUID, Map<FullQualifiedName, Set<Any>>>()
+        ReadConsistency.replicaEligible {
+            dataManager.getEntitiesAcrossEntitySets(entitySetIdToEntityKeyId, authorizedPropertyTypes)
+        }.values.forEach { entries ->
+            entries.forEach { entry -> entities[getEntityKeyId(entry)] = entry }
+        }
+
+        return filtersByPrincipals.mapValues { (principals, _) ->
+            val principalsFilter = filters[principals] ?: return@mapValues mapOf<UUID, List<NeighborEntityDetails>>()
+            val authorizedEntitySets = authorizedPropertyTypesByPrincipals.getValue(principals)
+
+            // leave out the property types that were only read for other principals
+            val unauthorizedFqns = authorizedPropertyTypes.mapValues { (entitySetId, propertyTypes) ->
+                val authorized = authorizedEntitySets[entitySetId]?.keys ?: setOf()
+                propertyTypes.filterKeys { it !in authorized }.values.map { it.type }.toSet()
+            }
+            val entityNeighbors = Maps.newLinkedHashMap<UUID, MutableList<NeighborEntityDetails>>()
+
+            edges
+                    .filter { principalsFilter.associationEntitySetIds.get().contains(it.edge.entitySetId) }
+                    .forEach { edge ->
+                        listOf(
+                                Triple(edge.key, true, principalsFilter.dstEntitySetIds.get()),
+                                Triple(DataEdgeKey(edge.key.dst, edge.key.src, edge.key.edge), false, principalsFilter.srcEntitySetIds.get())
+                        ).forEach { (directedEdge, vertexIsSrc, neighborEntitySetIds) ->
+
+                            val vertexEntityKeyId = directedEdge.src.entityKeyId
+                            if (!principalsFilter.entityKeyIds.contains(vertexEntityKeyId)
+                                    || !neighborEntitySetIds.contains(directedEdge.dst.entitySetId)) {
+                                return@forEach
+                            }
+
+                            val neighborDetails = getNeighborEntityDetails(
+                                    directedEdge.edge,
+                                    directedEdge.dst,
+                                    vertexIsSrc,
+                                    entitySetsById,
+                                    entities
+                            ) ?: return@forEach
+
+                            entityNeighbors.getOrPut(vertexEntityKeyId) { mutableListOf() }.add(
+                                    NeighborEntityDetails(
+                                            neighborDetails.associationEntitySet,
+                                            withoutFqns(
+                                                    neighborDetails.associationDetails,
+                                                    unauthorizedFqns[directedEdge.edge.entitySetId]
+                                            ),
+                                            neighborDetails.neighborEntitySet.get(),
+                                            neighborDetails.neighborId.get(),
+                                            withoutFqns(
+                                                    neighborDetails.neighborDetails.get(),
+                                                    unauthorizedFqns[directedEdge.dst.entitySetId]
+                                            ),
+                                            vertexIsSrc
+                                    )
+                            )
+                        }
+                    }
+
+            entityNeighbors
+        }
+    }
+
+    private fun withoutFqns(
+            entity: Map<FullQualifiedName, Set<Any>>,
+            fqns: Set<FullQualifiedName>?
+    ): Map<FullQualifiedName, Set<Any>> {
+        return if (fqns.isNullOrEmpty()) entity else entity.filterKeys { it !in fqns }
+    }
+
     private fun getNeighborEntityDetails(
             associationEDK: EntityDataKey,
             neighborEDK: EntityDataKey,
@@ -879,20 +1033,37 @@ class SearchService(
                     .linkedEntitySets
                     .associateWith { authorizedPropertyTypes.getValue(entitySet.id) }
 
-            return dataManager.getLinkingEntitiesWithMetadata(
-                    linkingIdsByEntitySetIds,
-                    authorizedPropertiesOfNormalEntitySets,
-                    EnumSet.of(MetadataOption.LAST_WRITE)
-            )
+            return ReadConsistency.replicaEligible {
+                dataManager.getLinkingEntitiesWithMetadata(
+                        linkingIdsByEntitySetIds,
+                        authorizedPropertiesOfNormalEntitySets,
+                        EnumSet.of(MetadataOption.LAST_WRITE)
+                )
+            }
         } else {
-            return dataManager
-                    .getEntitiesWithMetadata(
-                            entitySet.id,
-                            ImmutableSet.copyOf(entityKeyIds),
-                            authorizedPropertyTypes,
-                            EnumSet.of(MetadataOption.LAST_WRITE)
-                    )
-                    .toList()
+            val propertyTypes = authorizedPropertyTypes.getValue(entitySet.id)
+            val cached = hydrationCache.getAll(entitySet.id, entityKeyIds, propertyTypes) { candidates ->
+                ReadConsistency.replicaEligible { dataManager.getLastWrites(entitySet.id, candidates) }
+            }
+            val misses = entityKeyIds - cached.keys
+
+            if (misses.isEmpty()) {
+                return cached.values
+            }
+
+            val loaded = ReadConsistency.replicaEligible {
+                dataManager
+                        .getEntitiesWithMetadata(
+                                entitySet.id,
+                                ImmutableSet.copyOf(misses),
+                                authorizedPropertyTypes,
+                                EnumSet.of(MetadataOption.LAST_WRITE)
+                        )
+                        .toList()
+            }
+            hydrationCache.putAll(entitySet.id, propertyTypes, loaded)
+
+            return cached.values + loaded
         }
     }
 
@@ -0,0 +1,65 @@
+package com.openlattice.search.renderers
+
+import com.openlattice.mail.RenderableEmailRequest
+import java.util.*
+
+private const val FROM_EMAIL = "courier@openlattice.com"
+private const val TEMPLATE_PATH = "mail/templates/shared/AlertDigestTemplate.mustache"
+
+private const val SUBSCRIBER_FIELD = "subscriber"
+
+/**
+ * Combines the alert emails for a set of recipients into a single digest email. Each alert is listed with its subject
+ * and the plain values it would have been rendered with. Attachments are left out, since a digest of many alerts would
+ * otherwise carry every image of every alert.
+ */
+class AlertDigestEmailRenderer {
+
+    companion object {
+
+        private fun getDetails(alert: RenderableEmailRequest): List<Map<String, String>> {
+            val templateObjects = alert.templateObjs.orElse(null) as? Map<*, *> ?: return listOf()
+            return templateObjects
+                    .filter { (key, value) -> key != SUBSCRIBER_FIELD && (value is String || value is Number) }
+                    .map { (key, value) -> mapOf("name" to key.toString(), "value" to value.toString()) }
+        }
+
+        /**
+         * @param recipients The recipients shared by every alert in [alerts].
+         * @param alerts The alerts to include, at least one.
+         * @param omittedCount How many more alerts the recipients have, which are left for the next digest.
+         */
+        fun renderDigest(
+                subscriber: String,
+                recipients: Array<String>,
+                alerts: List<RenderableEmailRequest>,
+                omittedCount: Int
+        ): RenderableEmailRequest {
+            val total = alerts.size + omittedCount
+            val templateObjects = mapOf(
+                    SUBSCRIBER_FIELD to subscriber,
+                    "count" to total,
+                    "omittedCount" to omittedCount,
+                    "hasOmitted" to (omittedCount > 0),
+                    "alerts" to alerts.map { alert ->
+                        mapOf(
+                                "subject" to alert.subject.orElse("New alert"),
+                                "details" to getDetails(alert)
+                        )
+                    }
+            )
+
+            return RenderableEmailRequest(
+                    Optional.of(FROM_EMAIL),
+                    recipients,
+                    Optional.empty(),
+                    Optional.empty(),
+                    TEMPLATE_PATH,
+                    Optional.of("$total new alerts"),
+                    Optional.of(templateObjects),
+                    Optional.empty(),
+                    Optional.empty()
+            )
+        }
+    }
+}
@@ -206,7 +206,8 @@ class AlprAlertEmailRenderer {
                 vehicle: Map<FullQualifiedName, Set<Any>>,
                 userEmail: String,
                 neighbors: List<NeighborEntityDetails>,
-                mapboxToken: String
+                mapboxToken: String,
+                includeAttachments: Boolean = true
         ): RenderableEmailRequest {
 
             val caseNum = persistentSearch.alertMetadata["caseNum"]
@@ -219,7 +220,11 @@ class AlprAlertEmailRenderer {
             templateObjects.putAll(extractVehicleInfo(vehicle, neighbors))
             templateObjects["expiration"] = persistentSearch.expiration.format(dateTimeFormatter)
 
-            val attachments = extractVehicleImages(vehicle, mapboxToken).toTypedArray()
+            val attachments = if (includeAttachments) {
+                extractVehicleImages(vehicle, mapboxToken).toTypedArray()
+            } else {
+                arrayOf<EmailAttachment<*>>()
+            }
 
             templateObjects["subscriber"] = userEmail
 
@@ -187,7 +187,8 @@ class AlprHotlistEmailRenderer {
                 persistentSearch: PersistentSearch,
                 vehicle: Map<FullQualifiedName, Set<Any>>,
                 userEmail: String,
-                mapboxToken: String
+                mapboxToken: String,
+                includeAttachments: Boolean = true
         ): RenderableEmailRequest {
 
             val licensePlate = getFirstValue(vehicle, LICENSE_PLATE_FQN) ?: "[Unknown License Plate]"
@@ -200,7 +201,11 @@ class AlprHotlistEmailRenderer {
             templateObjects["licensePlate"] = licensePlate
             templateObjects["expiration"] = persistentSearch.expiration.format(dateTimeFormatter)
 
-            val attachments = extractVehicleImages(vehicle, mapboxToken).toTypedArray()
+            val attachments = if (includeAttachments) {
+                extractVehicleImages(vehicle, mapboxToken).toTypedArray()
+            } else {
+                arrayOf<EmailAttachment<*>>()
+            }
 
             templateObjects["subscriber"] = userEmail
 
@@ -1,6 +1,7 @@
 package com.openlattice.subscriptions
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.hazelcast.collection.IQueue
 import com.openlattice.authorization.Principal
 import com.openlattice.authorization.PrincipalType
 import com.geekbeast.postgres.PostgresArrays
@@ -10,15 +11,25 @@ import com.openlattice.postgres.ResultSetAdapters
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
 import com.zaxxer.hikari.HikariDataSource
+import org.slf4j.LoggerFactory
 import java.sql.Connection
 import java.sql.PreparedStatement
 import java.sql.ResultSet
 import java.util.*
 
+/**
+ * @param subscriptionChanges Receives the ids of the entities whose subscriptions changed, so that the subscription
+ * index of [SubscriptionNotificationTask] can be updated without reading every subscription.
+ */
 class PostgresSubscriptionService(
         private val hds: HikariDataSource,
-        private val mapper: ObjectMapper
+        private val mapper: ObjectMapper,
+        private val subscriptionChanges: IQueue<UUID>
 ) : SubscriptionService {
+    companion object {
+        private val logger = LoggerFactory.getLogger(PostgresSubscriptionService::class.java)
+    }
+
     // v code v
     override fun createOrUpdateSubscription(subscription: Subscription, user: Principal) {
         hds.connection.use { conn ->
@@ -36,19 +47,26 @@ class PostgresSubscriptionService(
 
                 print(ps.toString())
                 ps.executeUpdate()
+                subscriptionChanged(id)
             }
         }
 
     }
 
     override fun markLastNotified(ekIds: Set<UUID>, user: Principal) {
+        markLastNotified(ekIds.map { user to it })
+    }
+
+    override fun markLastNotified(notified: Collection<Pair<Principal, UUID>>) {
+        if (notified.isEmpty()) {
+            return
+        }
+
         hds.connection.use { conn ->
-            ekIds.forEach { id ->
-                conn.prepareStatement(markLastNotifiedSQL).use { ps ->
-                    ps.setObject(1, id)
-                    ps.setObject(2, user.id)
-                    ps.executeUpdate()
-                }
+            conn.prepareStatement(markLastNotifiedSQL).use { ps ->
+                ps.setArray(1, PostgresArrays.createTextArray(conn, notified.map { it.first.id }))
+                ps.setArray(2, PostgresArrays.createUuidArray(conn, notified.map { it.second }))
+                ps.executeUpdate()
             }
         }
     }
@@ -60,9 +78,31 @@ class PostgresSubscriptionService(
             ps.setObject(2, ekId)
             print(ps.toString())
             ps.executeUpdate()
+            subscriptionChanged(ekId)
         }
     }
 
+    private fun subscriptionChanged(ekId: UUID) {
+        if (!subscriptionChanges.offer(ekId)) {
+            logger.warn("Subscription change queue is full. Subscriptions to {} are picked up by the next rebuild.", ekId)
+        }
+    }
+
+    override fun getSubscriptionsOfEntities(ekIds: Set<UUID>): Iterable<Pair<Principal, Subscription>> {
+        return execSqlSelectReturningIterable(getSubscriptionsOfEntitiesSQL,
+                                              { rs: ResultSet ->
+                                                  Principal(
+                                                          PrincipalType.USER,
+                                                          rs.getString(PRINCIPAL_ID.name)
+                                                  ) to ResultSetAdapters.subscriptionContact(rs)
+                                              },
+                                              { ps: PreparedStatement, conn: Connection ->
+                                                  ps.setArray(1, PostgresArrays.createUuidArray(conn, ekIds))
+                                                  ps
+                                              }
+        )
+    }
+
     override fun getAllSubscriptions(): Iterable<Pair<Principal, Subscription>> {
         return execSqlSelectReturningIterable(getAllSubscriptionsUnfilteredSQL,
                                               { rs: ResultSet ->
@@ -122,9 +162,12 @@ private val createOrUpdateSubscriptionSQL = "INSERT INTO ${SUBSCRIPTIONS.name} "
 
 private val markLastNotifiedSQL = "UPDATE ${SUBSCRIPTIONS.name}" +
         " SET ${LAST_NOTIFIED.name} = now()" +
-        " WHERE ${ID.name} = ? AND ${PRINCIPAL_ID.name} = ?"
+        " FROM (SELECT unnest(?::text[]) AS principal_id, unnest(?::uuid[]) AS id) AS notified" +
+        " WHERE ${SUBSCRIPTIONS.name}.${ID.name} = notified.id" +
+        " AND ${SUBSCRIPTIONS.name}.${PRINCIPAL_ID.name} = notified.principal_id"
 
 private val deleteSubscriptionSQL = "DELETE FROM ${SUBSCRIPTIONS.name} WHERE ${PRINCIPAL_ID.name} = ? AND ${ID.name} = ?"
 private val getSubscriptionSQL = "SELECT * FROM ${SUBSCRIPTIONS.name} WHERE ${PRINCIPAL_ID.name} = ? AND ${ID.name} = ANY(?)"
 private val getAllSubscriptionsSQL = "SELECT * FROM ${SUBSCRIPTIONS.name} WHERE ${PRINCIPAL_ID.name} = ?"
 private val getAllSubscriptionsUnfilteredSQL = "SELECT * FROM ${SUBSCRIPTIONS.name} "
+private val getSubscriptionsOfEntitiesSQL = "SELECT * FROM ${SUBSCRIPTIONS.name} WHERE ${ID.name} = ANY(?)"
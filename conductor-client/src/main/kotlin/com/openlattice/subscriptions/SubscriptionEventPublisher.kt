@@ -0,0 +1,74 @@
+package com.openlattice.subscriptions
+
+import com.google.common.base.Suppliers
+import com.hazelcast.core.HazelcastInstance
+import com.openlattice.data.DataEdgeKey
+import com.openlattice.data.EntityDataKey
+import com.openlattice.hazelcast.HazelcastMap
+import com.openlattice.hazelcast.HazelcastQueue
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Entity set id under which [HazelcastMap.SUBSCRIBED_ENTITY_SETS] records that some subscription watches neighbors in
+ * every entity set.
+ */
+@JvmField
+val ALL_ENTITY_SETS = UUID(0, 0)
+
+/**
+ * How long the watched entity sets are cached for. New subscriptions are notified of writes once it has passed.
+ */
+private const val WATCHED_ENTITY_SETS_TTL_MILLIS = 30_000L
+
+/**
+ * Publishes writes to the entities and edges of entity sets watched by at least one subscription, for
+ * [SubscriptionNotificationTask] to match against subscriptions. Writes to entity sets that no subscription watches
+ * are dropped here, so that they never reach the shared queues.
+ */
+class SubscriptionEventPublisher(hazelcastInstance: HazelcastInstance) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(SubscriptionEventPublisher::class.java)
+    }
+
+    private val subscribedEntitySets = HazelcastMap.SUBSCRIBED_ENTITY_SETS.getMap(hazelcastInstance)
+    private val subscriptionEvents = HazelcastQueue.SUBSCRIPTION_EVENTS.getQueue(hazelcastInstance)
+    private val subscriptionEdgeEvents = HazelcastQueue.SUBSCRIPTION_EDGE_EVENTS.getQueue(hazelcastInstance)
+
+    /**
+     * The watched entity sets are few and change rarely, so they are read once per [WATCHED_ENTITY_SETS_TTL_MILLIS]
+     * instead of on every write.
+     */
+    private val watchedEntitySets = Suppliers.memoizeWithExpiration(
+            { subscribedEntitySets.keys.toSet() },
+            WATCHED_ENTITY_SETS_TTL_MILLIS,
+            TimeUnit.MILLISECONDS
+    )
+
+    fun entitiesWritten(entitySetId: UUID, entityKeyIds: Collection<UUID>) {
+        if (entityKeyIds.isNotEmpty() && isWatched(entitySetId)) {
+            publish(subscriptionEvents, entityKeyIds.map { EntityDataKey(entitySetId, it) })
+        }
+    }
+
+    /**
+     * Publishes the edges themselves, so that edges that were deleted can still be matched.
+     */
+    fun edgesChanged(edges: Collection<DataEdgeKey>) {
+        publish(subscriptionEdgeEvents, edges.filter { edge ->
+            isWatched(edge.src.entitySetId) || isWatched(edge.dst.entitySetId) || isWatched(edge.edge.entitySetId)
+        })
+    }
+
+    private fun isWatched(entitySetId: UUID): Boolean {
+        val watched = watchedEntitySets.get()
+        return watched.contains(ALL_ENTITY_SETS) || watched.contains(entitySetId)
+    }
+
+    private fun <T> publish(queue: Queue<T>, events: List<T>) {
+        if (events.isNotEmpty() && !queue.addAll(events)) {
+            logger.warn("Subscription event queue is full. Dropped {} write events.", events.size)
+        }
+    }
+}
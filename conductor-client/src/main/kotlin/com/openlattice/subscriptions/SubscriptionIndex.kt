@@ -0,0 +1,175 @@
+package com.openlattice.subscriptions
+
+import com.openlattice.authorization.Principal
+import com.openlattice.data.DataEdgeKey
+import com.openlattice.data.EntityDataKey
+import com.openlattice.graph.GraphQueryService
+import com.openlattice.graph.NeighborhoodSelection
+import java.util.*
+
+/**
+ * A subscription of [principal] to the entity [watched], which is notified when [watched] or one of its neighbors in
+ * [neighborEntitySetIds] is written.
+ */
+data class WatchedEntity(
+        val principal: Principal,
+        val subscription: Subscription,
+        val watched: EntityDataKey,
+        val neighborEntitySetIds: Set<UUID>
+) {
+    fun watchesNeighborsIn(entitySetId: UUID): Boolean {
+        return neighborEntitySetIds.contains(ALL_ENTITY_SETS) || neighborEntitySetIds.contains(entitySetId)
+    }
+}
+
+/**
+ * Indexes subscriptions by the entity they watch and by the entity sets whose writes can affect them, so that a batch
+ * of writes only has to be checked against the subscriptions it could affect.
+ *
+ * The index is kept up to date by [update] as subscriptions change. Neighbor entity sets selected by entity type are
+ * resolved when a subscription is indexed, so entity sets created later are only picked up by [rebuild].
+ */
+class SubscriptionIndex(private val graphQueryService: GraphQueryService) {
+    private val byEntityKeyId = mutableMapOf<UUID, MutableList<WatchedEntity>>()
+    private val byNeighborEntitySetId = mutableMapOf<UUID, MutableList<WatchedEntity>>()
+
+    /**
+     * When the index was last rebuilt from every subscription, or 0 if it never was.
+     */
+    var rebuiltAtMillis = 0L
+        private set
+
+    /**
+     * Every entity set whose writes can affect a subscription, including [ALL_ENTITY_SETS] if some subscription
+     * watches neighbors in every entity set.
+     */
+    val watchedEntitySetIds: Set<UUID>
+        get() = byEntityKeyId.values.flatten().mapTo(mutableSetOf()) { it.watched.entitySetId } +
+                byNeighborEntitySetId.keys
+
+    /**
+     * Replaces the contents of the index with [subscriptions].
+     */
+    fun rebuild(subscriptions: Iterable<Pair<Principal, Subscription>>) {
+        byEntityKeyId.clear()
+        byNeighborEntitySetId.clear()
+        subscriptions.forEach { (principal, subscription) -> add(principal, subscription) }
+        rebuiltAtMillis = System.currentTimeMillis()
+    }
+
+    /**
+     * Replaces the subscriptions to the entities [entityKeyIds] with [subscriptions], which are all the subscriptions
+     * to those entities that still exist.
+     */
+    fun update(entityKeyIds: Set<UUID>, subscriptions: Iterable<Pair<Principal, Subscription>>) {
+        entityKeyIds.forEach { byEntityKeyId.remove(it) }
+        byNeighborEntitySetId.values.forEach { watchedEntities ->
+            watchedEntities.removeIf { entityKeyIds.contains(it.watched.entityKeyId) }
+        }
+        byNeighborEntitySetId.values.removeIf { it.isEmpty() }
+        subscriptions.forEach { (principal, subscription) -> add(principal, subscription) }
+    }
+
+    private fun add(principal: Principal, subscription: Subscription) {
+        val query = subscription.query
+        val neighborEntitySetIds = (query.srcSelections + query.dstSelections)
+                .flatMapTo(mutableSetOf()) { getEntitySetIds(it) }
+                .ifEmpty { setOf(ALL_ENTITY_SETS) }
+
+        query.ids.forEach { (entitySetId, entityKeyIds) ->
+            entityKeyIds.orElse(setOf()).forEach { entityKeyId ->
+                val watchedEntity = WatchedEntity(
+                        principal,
+                        subscription,
+                        EntityDataKey(entitySetId, entityKeyId),
+                        neighborEntitySetIds
+                )
+                byEntityKeyId.getOrPut(entityKeyId) { mutableListOf() }.add(watchedEntity)
+                neighborEntitySetIds.forEach {
+                    byNeighborEntitySetId.getOrPut(it) { mutableListOf() }.add(watchedEntity)
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches a batch of written entities and of created or deleted edges against the index.
+     *
+     * Subscriptions to a written entity match directly. Subscriptions whose neighbor entity sets include the entity
+     * set of a written entity are candidates, and match if the written entity is connected to their watched entity.
+     * The edges of all candidates are read with one query per entity set of the watched entities.
+     *
+     * Changed edges are matched as they were published, since a deleted edge can no longer be read. They match the
+     * subscriptions to their association entity, and the subscriptions to either end that watch neighbors in the
+     * entity set of the other end or of the association.
+     *
+     * @param getEdges Reads the edges connected to entities of an entity set.
+     *
+     * @return The matched subscriptions, with the entity set ids of the written entities each of them matched on.
+     */
+    fun match(
+            written: Collection<EntityDataKey>,
+            changedEdges: Collection<DataEdgeKey>,
+            getEdges: (UUID, Set<UUID>) -> Iterable<DataEdgeKey>
+    ): Map<WatchedEntity, Set<UUID>> {
+        val matched = mutableMapOf<WatchedEntity, MutableSet<UUID>>()
+        val writtenKeys = written.toSet()
+
+        (writtenKeys + changedEdges.map { it.edge }).forEach { key ->
+            getWatchers(key).forEach { matched.getOrPut(it) { mutableSetOf() }.add(key.entitySetId) }
+        }
+
+        changedEdges.forEach { edge ->
+            matchEdge(edge, matched) { true }
+        }
+
+        val candidates = writtenKeys
+                .flatMapTo(mutableSetOf()) {
+                    (byNeighborEntitySetId[it.entitySetId] ?: listOf<WatchedEntity>()) +
+                            (byNeighborEntitySetId[ALL_ENTITY_SETS] ?: listOf())
+                }
+                .filter { !matched.containsKey(it) }
+                .mapTo(mutableSetOf()) { it.watched }
+
+        if (candidates.isEmpty()) {
+            return matched
+        }
+
+        candidates.groupBy({ it.entitySetId }, { it.entityKeyId }).forEach { (entitySetId, entityKeyIds) ->
+            getEdges(entitySetId, entityKeyIds.toSet()).forEach { edge ->
+                matchEdge(edge, matched) { writtenKeys.contains(it) }
+            }
+        }
+
+        return matched
+    }
+
+    /**
+     * Matches the subscriptions to either end of [edge] that watch neighbors in the entity set of the other end or of
+     * the association, if that entity was [written].
+     */
+    private fun matchEdge(
+            edge: DataEdgeKey,
+            matched: MutableMap<WatchedEntity, MutableSet<UUID>>,
+            written: (EntityDataKey) -> Boolean
+    ) {
+        listOf(edge.src to edge.dst, edge.dst to edge.src).forEach { (watched, neighbor) ->
+            getWatchers(watched).forEach { watchedEntity ->
+                listOf(neighbor, edge.edge)
+                        .filter { written(it) && watchedEntity.watchesNeighborsIn(it.entitySetId) }
+                        .forEach { matched.getOrPut(watchedEntity) { mutableSetOf() }.add(it.entitySetId) }
+            }
+        }
+    }
+
+    private fun getWatchers(key: EntityDataKey): List<WatchedEntity> {
+        return byEntityKeyId[key.entityKeyId]?.filter { it.watched == key } ?: listOf()
+    }
+
+    private fun getEntitySetIds(selection: NeighborhoodSelection): Set<UUID> {
+        return selection.entitySetIds.orElse(setOf()) +
+                selection.associationEntitySetIds.orElse(setOf()) +
+                graphQueryService.getEntitySets(selection.entityTypeIds) +
+                graphQueryService.getEntitySets(selection.associationTypeIds)
+    }
+}
@@ -1,14 +1,19 @@
 package com.openlattice.subscriptions
 
 import com.hazelcast.collection.IQueue
+import com.hazelcast.map.IMap
 import com.openlattice.authorization.AuthorizationManager
 import com.openlattice.authorization.EdmAuthorizationHelper
+import com.openlattice.data.DataEdgeKey
+import com.openlattice.data.EntityDataKey
 import com.openlattice.graph.GraphQueryService
+import com.openlattice.graph.core.GraphService
 import com.openlattice.mail.MailServiceClient
 import com.openlattice.notifications.sms.SubscriptionNotification
 import com.openlattice.organizations.roles.SecurePrincipalsManager
 import com.geekbeast.tasks.HazelcastTaskDependencies
 import com.zaxxer.hikari.HikariDataSource
+import java.util.*
 
 /**
  *
@@ -22,9 +27,19 @@ class SubscriptionNotificationDependencies(
         val mailServiceClient: MailServiceClient,
         val subscriptionService: SubscriptionService,
         val graphQueryService: GraphQueryService,
-        val twilioFeedQueue: IQueue<SubscriptionNotification>
+        val twilioFeedQueue: IQueue<SubscriptionNotification>,
+        val graphService: GraphService,
+        val subscriptionEvents: IQueue<EntityDataKey>,
+        val subscriptionEdgeEvents: IQueue<DataEdgeKey>,
+        val subscriptionChanges: IQueue<UUID>,
+        val subscribedEntitySets: IMap<UUID, Boolean>
 
 ) : HazelcastTaskDependencies {
+    /**
+     * Kept on each member across runs of [SubscriptionNotificationTask] and updated as subscriptions change.
+     */
+    val subscriptionIndex = SubscriptionIndex(graphQueryService)
+
     constructor(
             hds: HikariDataSource,
             principalsManager: SecurePrincipalsManager,
@@ -33,7 +48,12 @@ class SubscriptionNotificationDependencies(
             graphQueryService: GraphQueryService,
             authorizationHelper: EdmAuthorizationHelper,
             mailServiceClient: MailServiceClient,
-            twilioFeedQueue: IQueue<SubscriptionNotification>
+            twilioFeedQueue: IQueue<SubscriptionNotification>,
+            graphService: GraphService,
+            subscriptionEvents: IQueue<EntityDataKey>,
+            subscriptionEdgeEvents: IQueue<DataEdgeKey>,
+            subscriptionChanges: IQueue<UUID>,
+            subscribedEntitySets: IMap<UUID, Boolean>
     ) : this(
             hds,
             principalsManager,
@@ -42,5 +62,10 @@ class SubscriptionNotificationDependencies(
             mailServiceClient,
             subscriptionService,
             graphQueryService,
-            twilioFeedQueue)
+            twilioFeedQueue,
+            graphService,
+            subscriptionEvents,
+            subscriptionEdgeEvents,
+            subscriptionChanges,
+            subscribedEntitySets)
 }
\ No newline at end of file
@@ -1,12 +1,16 @@
 package com.openlattice.subscriptions
 
+import com.openlattice.authorization.AclKey
 import com.openlattice.authorization.Permission
+import com.openlattice.authorization.Principal
 import com.openlattice.authorization.Principals
-import com.openlattice.graph.NeighborhoodQuery
+import com.openlattice.data.DataEdgeKey
+import com.openlattice.data.EntityDataKey
 import com.openlattice.mail.RenderableEmailRequest
 import com.openlattice.notifications.sms.SubscriptionNotification
 import com.geekbeast.tasks.HazelcastFixedRateTask
 import com.geekbeast.tasks.HazelcastTaskDependencies
+import org.slf4j.LoggerFactory
 import java.util.*
 import java.util.concurrent.TimeUnit
 
@@ -19,7 +23,16 @@ class SubscriptionNotificationTask : HazelcastFixedRateTask<SubscriptionNotifica
                                      HazelcastTaskDependencies {
 
     companion object {
+        private val logger = LoggerFactory.getLogger(SubscriptionNotificationTask::class.java)
+
         const val DEFAULT_MESSAGE = "One of your subscriptions was involved in an event."
+        const val MAX_EVENTS_PER_RUN = 100_000
+
+        /**
+         * How often the subscription index is rebuilt from every subscription, to pick up entity sets created since
+         * and any changes that were missed.
+         */
+        const val INDEX_REBUILD_PERIOD_MILLIS = 60 * 60_000L
     }
 
     override fun getInitialDelay(): Long {
@@ -34,74 +47,111 @@ class SubscriptionNotificationTask : HazelcastFixedRateTask<SubscriptionNotifica
         return TimeUnit.MILLISECONDS
     }
 
+    /**
+     * Matches the entity and edge writes published since the last run against an index of all subscriptions, and
+     * notifies each matched subscription once, whatever the number of writes it matched.
+     */
     override fun runTask() {
+        val dependencies = getDependency()
+        val index = dependencies.subscriptionIndex
+        updateIndex(index)
+
+        val written = mutableListOf<EntityDataKey>()
+        dependencies.subscriptionEvents.drainTo(written, MAX_EVENTS_PER_RUN)
+        val changedEdges = mutableListOf<DataEdgeKey>()
+        dependencies.subscriptionEdgeEvents.drainTo(changedEdges, MAX_EVENTS_PER_RUN)
+        if (written.isEmpty() && changedEdges.isEmpty()) {
+            return
+        }
+
+        val matched = index.match(written.distinct(), changedEdges.distinct()) { entitySetId, entityKeyIds ->
+            dependencies.graphService.getEdgeKeysContainingEntities(entitySetId, entityKeyIds, false)
+        }
+
+        val readable = mutableMapOf<Pair<Principal, UUID>, Boolean>()
+        val notified = matched.filter { (watchedEntity, entitySetIds) ->
+            entitySetIds.any { entitySetId ->
+                readable.getOrPut(watchedEntity.principal to entitySetId) {
+                    dependencies.authorizationManager.checkIfHasPermissions(
+                            AclKey(entitySetId),
+                            Principals.getUserPrincipals(watchedEntity.principal.id),
+                            EnumSet.of(Permission.READ)
+                    )
+                }
+            }
+        }.keys
+
+        notified.forEach { notify(it.subscription) }
+        dependencies.subscriptionService.markLastNotified(notified.map { it.principal to it.watched.entityKeyId })
+
+        logger.info(
+                "Matched {} entity writes and {} edge writes against subscriptions and sent {} notifications.",
+                written.size,
+                changedEdges.size,
+                notified.size
+        )
     }
 
-    private fun doTask() {
+    /**
+     * Applies the subscription changes published since the last run to [index], or rebuilds it from every subscription
+     * once it is [INDEX_REBUILD_PERIOD_MILLIS] old, and publishes the watched entity sets if they changed.
+     */
+    private fun updateIndex(index: SubscriptionIndex) {
         val dependencies = getDependency()
-        dependencies.subscriptionService.getAllSubscriptions().forEach { (principal, subscriptionContact) ->
-            val allEntitySetIds = getAllEntitySetIds(subscriptionContact.query)
-            val authorizedPropertyTypes = dependencies.authorizationHelper.getAuthorizedPropertiesOnEntitySets(
-                    allEntitySetIds,
-                    EnumSet.of(Permission.READ),
-                    Principals.getUserPrincipals(principal.id)
-            )
-            val propertyTypes = authorizedPropertyTypes.values.flatMap { it.values }.associateBy { it.id }
-            val neighborhood = dependencies.graphQueryService.submitQuery(
-                    subscriptionContact.query,
-                    propertyTypes,
-                    authorizedPropertyTypes,
-                    Optional.of(LastWriteRangeFilter(subscriptionContact.lastNotify))
-            )
-
-            //If there are notifications fire the notifications.
-            if (neighborhood.entities.isNotEmpty()) {
-                subscriptionContact.contact.forEach { (contactType, contact) ->
-                    when (contactType) {
-                        SubscriptionContactType.PHONE -> {
-                            dependencies.twilioFeedQueue.put(
-                                    SubscriptionNotification(
-                                            DEFAULT_MESSAGE, // TODO more specific message once this feature is ready
-                                            contact
-                                    )
+        val changed = mutableSetOf<UUID>()
+        dependencies.subscriptionChanges.drainTo(changed)
+
+        if (System.currentTimeMillis() - index.rebuiltAtMillis >= INDEX_REBUILD_PERIOD_MILLIS) {
+            index.rebuild(dependencies.subscriptionService.getAllSubscriptions())
+        } else if (changed.isNotEmpty()) {
+            index.update(changed, dependencies.subscriptionService.getSubscriptionsOfEntities(changed))
+        } else {
+            return
+        }
+
+        updateSubscribedEntitySets(index.watchedEntitySetIds)
+    }
+
+    private fun notify(subscription: Subscription) {
+        val dependencies = getDependency()
+        subscription.contact.forEach { (contactType, contact) ->
+            when (contactType) {
+                SubscriptionContactType.PHONE -> {
+                    dependencies.twilioFeedQueue.put(
+                            SubscriptionNotification(
+                                    DEFAULT_MESSAGE, // TODO more specific message once this feature is ready
+                                    contact
                             )
-                        }
-                        SubscriptionContactType.EMAIL -> {
-                            val data = mutableMapOf<String, Any>()
-
-                            dependencies.mailServiceClient.spool(
-                                    RenderableEmailRequest(
-                                            Optional.of("notifications@openlattice.com"),
-                                            arrayOf(contact),
-                                            Optional.empty(),
-                                            Optional.empty(),
-                                            "mail/templates/shared/CodexAlertTemplate.mustache",
-                                            Optional.of(DEFAULT_MESSAGE),
-                                            Optional.of(data),
-                                            Optional.empty(),
-                                            Optional.empty()
-                                    )
+                    )
+                }
+                SubscriptionContactType.EMAIL -> {
+                    val data = mutableMapOf<String, Any>()
+
+                    dependencies.mailServiceClient.spool(
+                            RenderableEmailRequest(
+                                    Optional.of("notifications@openlattice.com"),
+                                    arrayOf(contact),
+                                    Optional.empty(),
+                                    Optional.empty(),
+                                    "mail/templates/shared/CodexAlertTemplate.mustache",
+                                    Optional.of(DEFAULT_MESSAGE),
+                                    Optional.of(data),
+                                    Optional.empty(),
+                                    Optional.empty()
                             )
-                        }
-                    }
+                    )
                 }
-                dependencies.subscriptionService.markLastNotified(
-                        neighborhood.entities.values.flatMap { it.keys }.toSet(), principal
-                )
             }
         }
     }
 
-    private fun getAllEntitySetIds(query: NeighborhoodQuery): Set<UUID> {
-        val dependencies = getDependency()
-        return dependencies.graphQueryService
-                .getEntitySetForIds(query.ids.flatMap { it.value.orElse(emptySet()) }.toSet())
-                .values.toSet() +
-                (query.srcSelections + query.dstSelections).flatMap { selection ->
-                    dependencies.graphQueryService.getEntitySets(selection.entityTypeIds) +
-                            dependencies.graphQueryService.getEntitySets(selection.associationTypeIds)
-                }
-
+    /**
+     * Publishes the entity sets watched by subscriptions, so that writers only publish writes that could match.
+     */
+    private fun updateSubscribedEntitySets(watchedEntitySetIds: Set<UUID>) {
+        val subscribedEntitySets = getDependency().subscribedEntitySets
+        (subscribedEntitySets.keys - watchedEntitySetIds).forEach { subscribedEntitySets.delete(it) }
+        subscribedEntitySets.putAll(watchedEntitySetIds.associateWith { true })
     }
 
     override fun getName(): String {
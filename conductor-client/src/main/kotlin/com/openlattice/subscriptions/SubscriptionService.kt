@@ -18,6 +18,16 @@ interface SubscriptionService {
 
     fun getAllSubscriptions(): Iterable<Pair<Principal, Subscription>>
 
+    /**
+     * Returns every principal's subscriptions to the entities [ekIds].
+     */
+    fun getSubscriptionsOfEntities(ekIds: Set<UUID>): Iterable<Pair<Principal, Subscription>>
+
     fun markLastNotified(ekIds: Set<UUID>, user: Principal)
 
+    /**
+     * Marks the subscription of each principal to the paired entity key id as notified, in a single update.
+     */
+    fun markLastNotified(notified: Collection<Pair<Principal, UUID>>)
+
 }
\ No newline at end of file
@@ -40,7 +40,8 @@ enum class Task {
     PERSISTENT_SEARCH_MESSENGER_TASK,
     POST_INITIALIZER,
     POSTGRES_ENTITY_SET_SIZES_INITIALIZATION,
-    POSTGRES_ENTITY_SET_SIZES_REFRESH_TASK,
+    POSTGRES_ENTITY_SET_SIZES_COMPACTION_TASK,
+    POSTGRES_ENTITY_SET_SIZES_RECONCILIATION_TASK,
     POSTGRES_META_DATA_PROPERTIES_INITIALIZATION,
     USERS_AND_ROLES_INITIALIZATON,
     USER_CREDENTIAL_SYNC_TASK,
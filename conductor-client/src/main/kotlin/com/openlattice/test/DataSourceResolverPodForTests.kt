@@ -25,7 +25,10 @@ class DataSourceResolverPodForTests {
         dataSourceManager.registerTablesWithAllDatasources(PostgresTable.E)
         dataSourceManager.registerTablesWithAllDatasources(PostgresTable.DATA)
         dataSourceManager.registerTablesWithAllDatasources(PostgresTable.IDS)
+        dataSourceManager.registerTablesWithAllDatasources(PostgresTable.DATA_EXPIRATIONS)
+        dataSourceManager.registerTablesWithAllDatasources(PostgresTable.DATA_EXPIRATION_POLICIES)
         dataSourceManager.registerTablesWithAllDatasources(PostgresTable.SYNC_IDS)
+        dataSourceManager.registerTablesWithAllDatasources(PostgresTable.ENTITY_SET_SIZES)
         return DataSourceResolver(hazelcastInstance, dataSourceManager, true)
     }
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package com.openlattice.tracing
+
+import io.prometheus.client.Histogram
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Proxy
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * How many of the slowest spans of a request are kept for its summary.
+ */
+private const val SLOWEST_SPANS = 5
+
+/**
+ * Where the time of a request goes.
+ */
+enum class TraceCategory {
+    POSTGRES,
+    ROW_DECODING,
+    HAZELCAST,
+    ELASTICSEARCH,
+    AUTHORIZATION
+}
+
+/**
+ * A single timed operation of a request, with the time spent in it excluding the spans nested inside it.
+ */
+class Span(val category: TraceCategory, val name: String, val selfNanos: Long)
+
+/**
+ * The costs accumulated by a request. Spans may be recorded from several threads working on the request at once.
+ */
+class RequestTrace(val name: String) {
+    private val startNanos = System.nanoTime()
+    private val endNanos = AtomicLong()
+    private val nanos = AtomicLongArray(TraceCategory.values().size)
+    private val counts = AtomicLongArray(TraceCategory.values().size)
+    private val slowestSpans = PriorityQueue<Span>(SLOWEST_SPANS + 1, compareBy { it.selfNanos })
+
+    /**
+     * The fastest of the slowest spans once enough spans have been recorded, so that the many fast spans of a request,
+     * such as decoding rows, don't contend on the lock of [slowestSpans].
+     */
+    @Volatile
+    private var slowSpanThreshold = -1L
+
+    internal fun record(span: Span) {
+        nanos.addAndGet(span.category.ordinal, span.selfNanos)
+        counts.incrementAndGet(span.category.ordinal)
+        if (span.selfNanos <= slowSpanThreshold) {
+            return
+        }
+        synchronized(slowestSpans) {
+            slowestSpans.add(span)
+            if (slowestSpans.size > SLOWEST_SPANS) {
+                slowestSpans.poll()
+            }
+            if (slowestSpans.size == SLOWEST_SPANS) {
+                slowSpanThreshold = slowestSpans.peek().selfNanos
+            }
+        }
+    }
+
+    internal fun finish() {
+        endNanos.compareAndSet(0, System.nanoTime())
+    }
+
+    fun getElapsedNanos(): Long = (endNanos.get().takeIf { it != 0L } ?: System.nanoTime()) - startNanos
+
+    fun getNanos(category: TraceCategory): Long = nanos.get(category.ordinal)
+
+    fun getCount(category: TraceCategory): Long = counts.get(category.ordinal)
+
+    fun getSlowestSpans(): List<Span> = synchronized(slowestSpans) { slowestSpans.sortedByDescending { it.selfNanos } }
+
+    /**
+     * @return A one line breakdown of the request, with the time of each category and of its slowest spans.
+     */
+    fun summarize(): String {
+        val costs = TraceCategory.values()
+                .filter { getCount(it) > 0 }
+                .joinToString(", ") { "${it.name.toLowerCase()}=${millis(getNanos(it))}ms/${getCount(it)}" }
+        val spans = getSlowestSpans().joinToString(", ") { "${it.name}=${millis(it.selfNanos)}ms" }
+        return "$name took ${millis(getElapsedNanos())}ms [$costs] slowest spans [$spans]"
+    }
+
+    private fun millis(nanos: Long) = TimeUnit.NANOSECONDS.toMillis(nanos)
+}
+
+/**
+ * In-process tracing of the time requests spend in postgres, hazelcast, elasticsearch and authorization.
+ *
+ * A trace is started for a request by [start] and held by the thread serving it. Work done on other threads on behalf
+ * of the request carries the trace along with [capture]. Spans record the time spent in them excluding the spans nested
+ * inside them, so that the time of a request is attributed to the innermost operation it was spent in. Outside of a
+ * trace, spans cost no more than a thread local lookup.
+ *
+ * Calls through proxies returned by [traced] cost a reflective call even outside of a trace, so proxies are only
+ * created in processes that turn on [enabled] before creating their services.
+ */
+object RequestTracing {
+    private class Frame(val startNanos: Long) {
+        var childNanos = 0L
+    }
+
+    private val requestCost: Histogram = Histogram.build()
+            .name("request_cost_seconds")
+            .help("Time spent by a request in each category of operations")
+            .labelNames("request", "category")
+            .register()
+
+    /**
+     * Whether [traced] wraps its targets.
+     */
+    @JvmStatic
+    @Volatile
+    var enabled = false
+
+    private val currentTrace = ThreadLocal<RequestTrace>()
+    private val frames = ThreadLocal.withInitial { ArrayDeque<Frame>() }
+
+    @JvmStatic
+    fun start(name: String): RequestTrace {
+        val trace = RequestTrace(name)
+        currentTrace.set(trace)
+        return trace
+    }
+
+    /**
+     * Ends the trace of the current thread and exports its costs.
+     *
+     * @return The finished trace, or null if no trace was started.
+     */
+    @JvmStatic
+    fun finish(): RequestTrace? {
+        val trace = currentTrace.get() ?: return null
+        currentTrace.remove()
+        frames.remove()
+        trace.finish()
+        TraceCategory.values().forEach { category ->
+            if (trace.getCount(category) > 0) {
+                requestCost.labels(trace.name, category.name.toLowerCase())
+                        .observe(trace.getNanos(category) / 1e9)
+            }
+        }
+        requestCost.labels(trace.name, "total").observe(trace.getElapsedNanos() / 1e9)
+        return trace
+    }
+
+    @JvmStatic
+    fun current(): RequestTrace? = currentTrace.get()
+
+    /**
+     * Records the time spent in [work] as a span of [category].
+     */
+    @JvmStatic
+    fun <T> span(category: TraceCategory, name: String, work: () -> T): T {
+        val trace = currentTrace.get() ?: return work()
+
+        val stack = frames.get()
+        val frame = Frame(System.nanoTime())
+        stack.push(frame)
+        try {
+            return work()
+        } finally {
+            val elapsed = System.nanoTime() - frame.startNanos
+            stack.pop()
+            stack.peek()?.let { it.childNanos += elapsed }
+            trace.record(Span(category, name, elapsed - frame.childNanos))
+        }
+    }
+
+    /**
+     * Captures the trace of the current thread, for work performed on other threads on behalf of the request.
+     */
+    @JvmStatic
+    fun capture(): TraceContext = TraceContext(currentTrace.get())
+
+    /**
+     * Wraps [target] so that every call made through [type] is recorded as a span of [category], named after the
+     * method called. Returns [target] itself unless tracing is [enabled].
+     *
+     * @param name Names the spans together with the method called, such as the name of a map.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun <T : Any> traced(type: Class<T>, target: T, category: TraceCategory, name: String = type.simpleName): T {
+        if (!enabled) {
+            return target
+        }
+
+        val handler = InvocationHandler { _, method, args ->
+            span(category, "$name.${method.name}") {
+                try {
+                    method.invoke(target, *(args ?: arrayOf()))
+                } catch (e: InvocationTargetException) {
+                    throw e.targetException
+                }
+            }
+        }
+        return type.cast(Proxy.newProxyInstance(type.classLoader, arrayOf(type), handler))
+    }
+
+    internal fun restore(trace: RequestTrace?) {
+        if (trace == null) currentTrace.remove() else currentTrace.set(trace)
+    }
+}
+
+/**
+ * The trace of a thread, captured by [RequestTracing.capture].
+ */
+class TraceContext internal constructor(private val trace: RequestTrace?) {
+    /**
+     * Performs [work] as part of the captured trace, restoring the trace of the calling thread afterwards.
+     */
+    fun <T> run(work: () -> T): T {
+        val previous = RequestTracing.current()
+        RequestTracing.restore(trace)
+        try {
+            return work()
+        } finally {
+            RequestTracing.restore(previous)
+        }
+    }
+}
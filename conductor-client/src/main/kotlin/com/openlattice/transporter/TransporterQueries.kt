@@ -34,11 +34,26 @@ const val transporterNamespace = "transporter_data"
 
 private val transportTimestampColumn: PostgresColumnDefinition = LAST_TRANSPORT
 
-private const val BATCH_LIMIT = 10_000
+const val BATCH_LIMIT = 10_000
+
+/**
+ * Entities written within this long of a transport are transported again by later transports, so that writes whose
+ * transaction commits after a transport has moved past their version are still picked up.
+ */
+const val TRANSPORT_SAFETY_WINDOW_MILLIS = 5L * 60 * 1000
+
+/**
+ * Lowest id in postgres uuid order. A transport watermark at this id includes every entity written at its version.
+ */
+@JvmField
+val MIN_ID = UUID(0, 0)
 
 val MAT_EDGES_TABLE = edgesTableDefinition()
 const val MAT_EDGES_TABLE_NAME = "et_edges"
 
+val TRANSPORT_WATERMARKS_TABLE = transportWatermarksTableDefinition()
+const val TRANSPORT_WATERMARKS_TABLE_NAME = "transport_watermarks"
+
 fun entityTypeTableName(entityTypeId: UUID): String {
     return "et_$entityTypeId"
 }
@@ -72,6 +87,21 @@ fun edgesTableDefinition(): PostgresTableDefinition {
     return definition
 }
 
+/**
+ * Tracks, for each transported entity set, the version and id of the last entity transported, so that transport
+ * progress is kept in one small row per entity set instead of in the rows of the source tables.
+ */
+fun transportWatermarksTableDefinition(): PostgresTableDefinition {
+    val definition = PostgresTableDefinition("${Schemas.PUBLIC_SCHEMA}.$TRANSPORT_WATERMARKS_TABLE_NAME")
+    definition.addColumns(
+            ENTITY_SET_ID,
+            VERSION,
+            ID_VALUE
+    )
+    definition.primaryKey(ENTITY_SET_ID)
+    return definition
+}
+
 fun tableDefinition(entityTypeId: UUID, propertyColumns: Collection<PostgresColumnDefinition>): PostgresTableDefinition {
     val definition = PostgresTableDefinition(tableNameWithSchema(Schemas.PUBLIC_SCHEMA, entityTypeId))
     val indexPrefix = entityTypeTableName(entityTypeId) + "_"
@@ -165,6 +195,177 @@ fun updateRowsForPropertyType(
             modifyDestination
 }
 
+/**
+ * Reads the transport watermarks of a set of entity sets.
+ *
+ * column bindings are
+ * 1 - entity set ids array
+ */
+fun selectTransportWatermarks(): String {
+    return "SELECT ${ENTITY_SET_ID.name}, ${VERSION.name}, ${ID_VALUE.name} " +
+            "FROM ${TRANSPORT_WATERMARKS_TABLE.name} " +
+            "WHERE ${ENTITY_SET_ID.name} = ANY(?)"
+}
+
+/**
+ * Selects the next batch of entities written after the transport watermark of their entity set, in the order they
+ * were written. The lowest watermark of the requested entity sets is bound separately so that the version filter can
+ * be pushed down to the foreign ids table.
+ *
+ * column bindings are
+ * 1 - partitions array
+ * 2 - entity set ids array
+ * 3 - lowest watermark version of the entity sets
+ */
+fun selectTransportBatch(): String {
+    return "SELECT i.${ENTITY_SET_ID.name}, i.${ID_VALUE.name}, i.${LINKING_ID.name}, i.${VERSION.name} " +
+            "FROM ${PostgresTable.IDS.name} i " +
+            "LEFT JOIN ${TRANSPORT_WATERMARKS_TABLE.name} w USING (${ENTITY_SET_ID.name}) " +
+            "WHERE i.${PARTITION.name} = ANY(?) " +
+            " AND i.${ENTITY_SET_ID.name} = ANY(?) " +
+            " AND abs(i.${VERSION.name}) >= ? " +
+            " AND (abs(i.${VERSION.name}), i.${ID_VALUE.name}) > " +
+            "  (coalesce(w.${VERSION.name}, 0), coalesce(w.${ID_VALUE.name}, '$MIN_ID')) " +
+            "ORDER BY abs(i.${VERSION.name}), i.${ID_VALUE.name} " +
+            "LIMIT $BATCH_LIMIT"
+}
+
+/**
+ * Transports a batch of entities into [destTable] with a single statement. Every property of each live entity is
+ * pivoted from the data table into one row, which is upserted once, and only if it differs from what was transported
+ * before. Rows of deleted entities are removed and rows for linked entities are created.
+ *
+ * column bindings are
+ * 1 - entity set ids array, one per entity in the batch
+ * 2 - entity key ids array, one per entity in the batch
+ * 3 - linking ids array, one per entity in the batch
+ * 4 - versions array, one per entity in the batch
+ * 5 - partitions array
+ * 6 - entity set ids array
+ * 7 - entity key ids array
+ */
+fun upsertPivotedRows(destTable: String, columns: Map<UUID, TransporterColumn>): String {
+    val sortedColumns = columns.entries.sortedBy { it.key }
+    val destinationColumns = sortedColumns.map { it.value.transporterTableColumnName }
+
+    // the most recent live value of each property, or null if it has been deleted
+    val pivotedColumns = sortedColumns.joinToString("") { (propertyTypeId, column) ->
+        ", (array_agg(${column.dataTableColumnName} ORDER BY abs(${VERSION.name}) DESC) " +
+                "FILTER (WHERE ${PROPERTY_TYPE_ID.name} = '$propertyTypeId' AND ${VERSION.name} > 0))[1] " +
+                "AS ${column.transporterTableColumnName}"
+    }
+
+    val batch = "SELECT * FROM unnest(?::uuid[], ?::uuid[], ?::uuid[], ?::bigint[]) " +
+            "AS b(${ENTITY_SET_ID.name}, ${ID_VALUE.name}, ${LINKING_ID.name}, ${VERSION.name})"
+    val pivoted = "SELECT ${ENTITY_SET_ID.name}, ${ID_VALUE.name}$pivotedColumns " +
+            "FROM ${PostgresTable.DATA.name} " +
+            "WHERE ${PARTITION.name} = ANY(?) " +
+            " AND ${ENTITY_SET_ID.name} = ANY(?) " +
+            " AND ${ID_VALUE.name} = ANY(?) " +
+            "GROUP BY ${ENTITY_SET_ID.name}, ${ID_VALUE.name}"
+    val deleteRows = "DELETE FROM $destTable t " +
+            "USING batch " +
+            "WHERE batch.${VERSION.name} <= 0 " +
+            " AND t.${ENTITY_SET_ID.name} = batch.${ENTITY_SET_ID.name} " +
+            " AND t.${ID_VALUE.name} in (batch.${ID_VALUE.name},batch.${LINKING_ID.name}) "
+    val createMissingLinkedRows = "INSERT INTO $destTable ($pk,${ORIGIN_ID.name}) " +
+            "SELECT ${ENTITY_SET_ID.name}, " +
+            " ${LINKING_ID.name} AS ${ID_VALUE.name}, " +
+            " ${ID_VALUE.name} AS ${ORIGIN_ID.name} " +
+            "FROM batch " +
+            "WHERE ${VERSION.name} > 0 " +
+            " AND ${LINKING_ID.name} IS NOT NULL " +
+            "ON CONFLICT ($pk) DO NOTHING"
+
+    val onConflict = if (destinationColumns.isEmpty()) {
+        "DO NOTHING"
+    } else {
+        val excluded = destinationColumns.joinToString(",") { "EXCLUDED.$it" }
+        val current = destinationColumns.joinToString(",") { "t.$it" }
+        "DO UPDATE SET (${destinationColumns.joinToString(",")}) = ROW($excluded) " +
+                "WHERE ROW($current) IS DISTINCT FROM ROW($excluded)"
+    }
+    val upsertRows = "INSERT INTO $destTable AS t ($pk${destinationColumns.joinToString("") { ",$it" }}) " +
+            "SELECT batch.${ENTITY_SET_ID.name}, batch.${ID_VALUE.name}" +
+            destinationColumns.joinToString("") { ",pivoted.$it" } + " " +
+            "FROM batch " +
+            "LEFT JOIN pivoted USING (${ENTITY_SET_ID.name}, ${ID_VALUE.name}) " +
+            "WHERE batch.${VERSION.name} > 0 " +
+            "ON CONFLICT ($pk) $onConflict"
+
+    return "WITH batch as ($batch), " +
+            "pivoted as ($pivoted), " +
+            "deletes as ($deleteRows), " +
+            "insertLinks as ($createMissingLinkedRows) " +
+            upsertRows
+}
+
+/**
+ * Transports the edges of a batch of entities without writing to the edges table of the source.
+ *
+ * column bindings are
+ * 1 - partitions array
+ * 2 - entity set ids array
+ * 3 - entity key ids array
+ * 4 - entity set ids array
+ * 5 - entity key ids array
+ * 6 - entity set ids array
+ * 7 - entity key ids array
+ */
+fun transportEdgesOfEntities(): String {
+    val pk = listOf(
+            SRC_ENTITY_SET_ID,
+            SRC_ENTITY_KEY_ID,
+            DST_ENTITY_SET_ID,
+            DST_ENTITY_KEY_ID,
+            EDGE_ENTITY_SET_ID,
+            EDGE_ENTITY_KEY_ID
+    ).map { it.name }
+    val pkString = pk.joinToString(",")
+
+    val selectFromE = "SELECT $pkString,${VERSION.name} " +
+            "FROM ${PostgresTable.E.name} " +
+            "WHERE (" +
+            "    ${PARTITION.name} = ANY(?) " +
+            "    AND ${SRC_ENTITY_SET_ID.name} = ANY(?) " +
+            "    AND ${SRC_ENTITY_KEY_ID.name} = ANY(?) " +
+            "  ) OR (" +
+            "    ${DST_ENTITY_SET_ID.name} = ANY(?) " +
+            "    AND ${DST_ENTITY_KEY_ID.name} = ANY(?) " +
+            "  ) OR (" +
+            "    ${EDGE_ENTITY_SET_ID.name} = ANY(?) " +
+            "    AND ${EDGE_ENTITY_KEY_ID.name} = ANY(?) " +
+            "  ) "
+    val createMissingRows = "INSERT INTO ${MAT_EDGES_TABLE.name} ($pkString) " +
+            "SELECT $pkString " +
+            "FROM src " +
+            "WHERE ${VERSION.name} > 0 " +
+            "ON CONFLICT ($pkString) DO NOTHING"
+    val deleteRow = "DELETE FROM ${MAT_EDGES_TABLE.name} t " +
+            "USING src " +
+            "WHERE src.${VERSION.name} = 0 " +
+            " AND ${pk.joinToString(" AND ") { "t.${it} = src.${it}" }} "
+    return "WITH src as ($selectFromE), " +
+            "inserts as ($createMissingRows) " +
+            deleteRow
+}
+
+/**
+ * Advances transport watermarks. A watermark is never moved backwards.
+ *
+ * column bindings are
+ * 1 - entity set ids array
+ * 2 - versions array
+ * 3 - entity key ids array
+ */
+fun advanceTransportWatermarks(): String {
+    return "INSERT INTO ${TRANSPORT_WATERMARKS_TABLE.name} AS w (${ENTITY_SET_ID.name},${VERSION.name},${ID_VALUE.name}) " +
+            "SELECT * FROM unnest(?::uuid[], ?::bigint[], ?::uuid[]) " +
+            "ON CONFLICT (${ENTITY_SET_ID.name}) DO UPDATE " +
+            "SET ${VERSION.name} = EXCLUDED.${VERSION.name}, ${ID_VALUE.name} = EXCLUDED.${ID_VALUE.name} " +
+            "WHERE (w.${VERSION.name}, w.${ID_VALUE.name}) < (EXCLUDED.${VERSION.name}, EXCLUDED.${ID_VALUE.name})"
+}
+
 /**
  * Update transported [destTable] entity type table
  *
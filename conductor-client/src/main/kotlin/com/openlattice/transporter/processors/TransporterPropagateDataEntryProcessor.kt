@@ -15,7 +15,7 @@ data class TransporterPropagateDataEntryProcessor(
 class TransporterPropagateDataEntryProcessor(
         val entitySets: Set<EntitySet>,
         val entitySetPartitions: Collection<Int>
-): AbstractReadOnlyRhizomeEntryProcessor<UUID, TransporterColumnSet, Void?>(),
+): AbstractReadOnlyRhizomeEntryProcessor<UUID, TransporterColumnSet, TransportOutcome>(),
         Offloadable,
         TransporterDependent<TransporterPropagateDataEntryProcessor>
 {
@@ -43,16 +43,20 @@ class TransporterPropagateDataEntryProcessor(
                 .register()
     }
 
+    private data class TransportedEntity(val entitySetId: UUID, val id: UUID, val linkingId: UUID?, val version: Long)
+
     @Transient
     private lateinit var data: TransporterDatastore
 
-    override fun process(entry: Map.Entry<UUID, TransporterColumnSet>): Void? {
+    /**
+     * @return Whether the transport moved any watermarks and whether more changes are waiting.
+     */
+    override fun process(entry: Map.Entry<UUID, TransporterColumnSet>): TransportOutcome {
         check(::data.isInitialized) { TransporterDependent.NOT_INITIALIZED }
-        transport(entry)
-        return null
+        return transport(entry)
     }
 
-    private fun transport(entry: Map.Entry<UUID, TransporterColumnSet>) {
+    private fun transport(entry: Map.Entry<UUID, TransporterColumnSet>): TransportOutcome {
         val tableName = quotedEtTableName(entry.key)
         entitySets.filter { it.isLinking }.forEach {
             // should be a noop because it's always filtered out but just in case...
@@ -63,67 +67,99 @@ class TransporterPropagateDataEntryProcessor(
                 .map { it.id }
                 .toSet()
         if (entitySets.isEmpty() || entitySetPartitions.isEmpty()) {
-            return
+            return TransportOutcome.IDLE
         }
         val transporter = data.datastore()
-        if (!hasModifiedData(transporter, entitySetPartitions, entitySetIds)) {
-            return
-        }
 
-        transporter.connection.use { conn ->
+        return transporter.connection.use { conn ->
             var lastSql = ""
             try {
                 val partitions = PostgresArrays.createIntArray(conn, entitySetPartitions)
                 val entitySetArray = PostgresArrays.createUuidArray(conn, entitySetIds)
 
-                lastSql = updateEntityTypeTableEntries(tableName)
-                val idsToVersions = BasePostgresIterable(PreparedStatementHolderSupplier(transporter, lastSql ) {
+                lastSql = selectTransportWatermarks()
+                val watermarks = BasePostgresIterable(PreparedStatementHolderSupplier(transporter, lastSql) {
+                    it.setArray(1, entitySetArray)
+                }) {
+                    ResultSetAdapters.entitySetId(it) to ResultSetAdapters.version(it)
+                }.toMap()
+                val lowestWatermark = entitySetIds.map { watermarks[it] ?: 0L }.min() ?: 0L
+
+                lastSql = selectTransportBatch()
+                val batch = BasePostgresIterable(PreparedStatementHolderSupplier(transporter, lastSql) {
                     it.setArray(1, partitions)
                     it.setArray(2, entitySetArray)
+                    it.setLong(3, lowestWatermark)
                 }) {
-                    ResultSetAdapters.id(it) to ResultSetAdapters.version(it)
-                }.toMap()
+                    TransportedEntity(
+                            ResultSetAdapters.entitySetId(it),
+                            ResultSetAdapters.id(it),
+                            ResultSetAdapters.linkingId(it),
+                            ResultSetAdapters.version(it)
+                    )
+                }.toList()
+                if (batch.isEmpty()) {
+                    return TransportOutcome.IDLE
+                }
 
-                val ekidsArray = PostgresArrays.createUuidArray(conn, idsToVersions.keys)
+                val ekidsArray = PostgresArrays.createUuidArray(conn, batch.map { it.id })
+                conn.autoCommit = false
 
-                entry.value.forEach { (ptId, col) ->
-                    logger.info("transporting data rows")
-                    lastSql = updateRowsForPropertyType(tableName, ptId, col)
-                    val pts = conn.prepareStatement(lastSql)
-                    pts.setArray(1, partitions)
-                    pts.setArray(2, entitySetArray)
-                    pts.setArray(3, ekidsArray)
-                    valueCounter.inc(pts.executeUpdate().toDouble())
+                logger.info("transporting data rows")
+                lastSql = upsertPivotedRows(tableName, entry.value.columns)
+                conn.prepareStatement(lastSql).use { ps ->
+                    ps.setArray(1, PostgresArrays.createUuidArray(conn, batch.map { it.entitySetId }))
+                    ps.setArray(2, ekidsArray)
+                    ps.setArray(3, PostgresArrays.createUuidArray(conn, batch.map { it.linkingId }))
+                    ps.setArray(4, PostgresArrays.createLongArray(conn, batch.map { it.version }))
+                    ps.setArray(5, partitions)
+                    ps.setArray(6, entitySetArray)
+                    ps.setArray(7, ekidsArray)
+                    valueCounter.inc(ps.executeUpdate().toDouble())
                 }
 
                 logger.info("transporting edge rows")
-                lastSql = updateRowsForEdges()
-                val edges = conn.prepareStatement( lastSql )
-                edges.setArray(1, partitions)
-                edges.setArray(2, entitySetArray)
-                edges.setArray(3, ekidsArray)
-                edges.setArray(4, entitySetArray)
-                edges.setArray(5, ekidsArray)
-                edges.setArray(6, entitySetArray)
-                edges.setArray(7, ekidsArray)
-                edgesCounter.inc( edges.executeUpdate().toDouble())
-
-                logger.info("updating last transport timestamps")
-                lastSql = updateLastWriteForId()
-                val idsCommit = conn.prepareStatement( lastSql )
-                idsToVersions.forEach { ( ekid, version ) ->
-                    idsCommit.setLong(1, version)
-                    idsCommit.setArray(2, partitions)
-                    idsCommit.setArray(3, entitySetArray)
-                    idsCommit.setObject(4, ekid)
-                    idsCommit.addBatch()
+                lastSql = transportEdgesOfEntities()
+                conn.prepareStatement(lastSql).use { edges ->
+                    edges.setArray(1, partitions)
+                    edges.setArray(2, entitySetArray)
+                    edges.setArray(3, ekidsArray)
+                    edges.setArray(4, entitySetArray)
+                    edges.setArray(5, ekidsArray)
+                    edges.setArray(6, entitySetArray)
+                    edges.setArray(7, ekidsArray)
+                    edgesCounter.inc(edges.executeUpdate().toDouble())
+                }
+
+                logger.info("advancing transport watermarks")
+                // Only entities older than the safety window are passed exactly, so that writes from transactions
+                // that commit late are picked up. The batch is ordered by version, so an entity set with nothing
+                // older than the window in it has no untransported entities left below the window either.
+                val safeVersion = System.currentTimeMillis() - TRANSPORT_SAFETY_WINDOW_MILLIS
+                val advanced = batch.groupBy { it.entitySetId }.map { (entitySetId, entities) ->
+                    val lastSafe = entities.lastOrNull { Math.abs(it.version) < safeVersion }
+                    when (lastSafe) {
+                        null -> entitySetId to (safeVersion to MIN_ID)
+                        else -> entitySetId to (Math.abs(lastSafe.version) to lastSafe.id)
+                    }
+                }
+                lastSql = advanceTransportWatermarks()
+                // only watermarks that move forward are written
+                val watermarksAdvanced = conn.prepareStatement(lastSql).use { ps ->
+                    ps.setArray(1, PostgresArrays.createUuidArray(conn, advanced.map { it.first }))
+                    ps.setArray(2, PostgresArrays.createLongArray(conn, advanced.map { it.second.first }))
+                    ps.setArray(3, PostgresArrays.createUuidArray(conn, advanced.map { it.second.second }))
+                    ps.executeUpdate() > 0
                 }
-                idCounter.inc( idsCommit.executeBatch().sum().toDouble())
+                conn.commit()
+                idCounter.inc(batch.size.toDouble())
 
                 logger.info("Updated {} data rows in entity type table {}", valueCounter.get(), tableName)
                 logger.info("Updated {} edge rows for entity type table {}", edgesCounter.get(), tableName)
-                logger.info("Updated {} ids for entity type table {}", idCounter.get(), tableName)
+                logger.info("Transported {} ids for entity type table {}", idCounter.get(), tableName)
+                TransportOutcome.of(batch.size, BATCH_LIMIT, watermarksAdvanced)
             } catch (ex: Exception) {
+                conn.rollback()
                 errorCounter.inc()
                 logger.error("Unable to update transporter: SQL: {}", lastSql, ex)
                 throw ex
@@ -0,0 +1,270 @@
+package com.openlattice.transporter.services
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.openlattice.transporter.transporterNamespace
+import io.prometheus.client.Counter
+import io.prometheus.client.Histogram
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.DelayQueue
+import java.util.concurrent.Delayed
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * What a single transport of an entity type found.
+ */
+enum class TransportOutcome {
+    /**
+     * No transport watermark moved. Either nothing had changed, or only entities still within the safety window were
+     * transported again.
+     */
+    IDLE,
+
+    /**
+     * Everything that had changed was transported.
+     */
+    CAUGHT_UP,
+
+    /**
+     * A full batch was transported and more changes are waiting.
+     */
+    BACKLOGGED;
+
+    companion object {
+        /**
+         * Entities written within the safety window are transported again by every transport until they leave it, so
+         * a transport only counts as progress if it moved a watermark.
+         *
+         * @param batchSize The number of entities transported.
+         * @param watermarksAdvanced Whether any transport watermark moved forward.
+         */
+        @JvmStatic
+        fun of(batchSize: Int, batchLimit: Int, watermarksAdvanced: Boolean): TransportOutcome {
+            return when {
+                !watermarksAdvanced -> IDLE
+                batchSize >= batchLimit -> BACKLOGGED
+                else -> CAUGHT_UP
+            }
+        }
+    }
+}
+
+/**
+ * Runs transports of each entity type in its own loop, so that a slow entity type never holds up the others.
+ *
+ * An entity type is transported again as soon as it is known to have more changes waiting, [minIntervalMillis] after
+ * it was woken by a write, and otherwise after an interval that doubles every time a transport finds nothing to do, up
+ * to [maxIntervalMillis]. At most [maxConcurrentTransports] entity types are transported at the same time.
+ *
+ * @param transport Transports the changes of an entity type.
+ */
+class TransporterScheduler(
+        maxConcurrentTransports: Int,
+        private val minIntervalMillis: Long,
+        private val maxIntervalMillis: Long,
+        private val transport: (UUID) -> TransportOutcome
+) : Closeable {
+    companion object {
+        private val logger = LoggerFactory.getLogger(TransporterScheduler::class.java)
+        private val durationTimer: Histogram = Histogram.build()
+                .namespace(transporterNamespace)
+                .name("entity_type_transport_duration_seconds")
+                .labelNames("entity_type_id")
+                .help("Time to do one transport of an entity type")
+                .register()
+        private val latencyTimer: Histogram = Histogram.build()
+                .namespace(transporterNamespace)
+                .name("entity_type_transport_latency_seconds")
+                .labelNames("entity_type_id")
+                .help("Time from a write to an entity type until the transport that caught up with it finished")
+                .register()
+        private val errorCount: Counter = Counter.build()
+                .namespace(transporterNamespace)
+                .name("entity_type_transport_errors")
+                .labelNames("entity_type_id")
+                .help("Count of failed transports of an entity type")
+                .register()
+
+        /**
+         * Decides when an entity type is transported next after a transport finished with [outcome], or failed if it
+         * is null.
+         *
+         * @param isWoken Whether the entity type was written to while the transport was running.
+         * @param intervalMillis The current backoff interval of the entity type.
+         * @return The delay until the next transport and the backoff interval to continue from.
+         */
+        internal fun getNextDelay(
+                outcome: TransportOutcome?,
+                isWoken: Boolean,
+                intervalMillis: Long,
+                minIntervalMillis: Long,
+                maxIntervalMillis: Long
+        ): Pair<Long, Long> {
+            return when {
+                outcome == TransportOutcome.BACKLOGGED -> 0L to intervalMillis
+                outcome == TransportOutcome.CAUGHT_UP -> minIntervalMillis to minIntervalMillis
+                isWoken -> minIntervalMillis to intervalMillis
+                else -> intervalMillis to Math.min(intervalMillis * 2, maxIntervalMillis)
+            }
+        }
+    }
+
+    private class Lane(val entityTypeId: UUID, var intervalMillis: Long) : Delayed {
+        var isRegistered = true
+        var isRunning = false
+        var isWoken = false
+
+        /**
+         * When the oldest write that has not been transported yet was seen, or 0 if there is none.
+         */
+        var changedSinceMillis = 0L
+
+        /**
+         * When the lane was first woken while a transport was running, if [isWoken].
+         */
+        var wokenAtMillis = 0L
+
+        @Volatile
+        var readyAtMillis = 0L
+
+        override fun getDelay(unit: TimeUnit): Long {
+            return unit.convert(readyAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS)
+        }
+
+        override fun compareTo(other: Delayed): Int {
+            return readyAtMillis.compareTo((other as Lane).readyAtMillis)
+        }
+    }
+
+    private val lanes = ConcurrentHashMap<UUID, Lane>()
+    private val ready = DelayQueue<Lane>()
+    private val executor = Executors.newFixedThreadPool(
+            maxConcurrentTransports,
+            ThreadFactoryBuilder().setDaemon(true).setNameFormat("transporter-%d").build()
+    )
+
+    init {
+        check(maxConcurrentTransports > 0) { "At least one transport must be allowed to run." }
+        check(minIntervalMillis in 0..maxIntervalMillis) { "Intervals must satisfy 0 <= min <= max." }
+        repeat(maxConcurrentTransports) { executor.execute(::work) }
+    }
+
+    /**
+     * Starts transporting [entityTypeId], right away. Does nothing if it is already being transported.
+     */
+    fun register(entityTypeId: UUID) {
+        lanes.computeIfAbsent(entityTypeId) {
+            val lane = Lane(it, minIntervalMillis)
+            lane.readyAtMillis = System.currentTimeMillis()
+            ready.put(lane)
+            lane
+        }
+    }
+
+    /**
+     * Stops transporting [entityTypeId]. A transport that is already running is allowed to finish.
+     */
+    fun unregister(entityTypeId: UUID) {
+        val lane = lanes.remove(entityTypeId) ?: return
+        synchronized(lane) {
+            lane.isRegistered = false
+            ready.remove(lane)
+        }
+    }
+
+    /**
+     * Signals that [entityTypeId] was written to, so that it is transported within [minIntervalMillis] instead of
+     * waiting out its backoff.
+     */
+    fun wake(entityTypeId: UUID) {
+        val lane = lanes[entityTypeId] ?: return
+        synchronized(lane) {
+            val now = System.currentTimeMillis()
+            if (lane.changedSinceMillis == 0L) {
+                lane.changedSinceMillis = now
+            }
+            lane.intervalMillis = minIntervalMillis
+
+            if (lane.isRunning) {
+                if (!lane.isWoken) {
+                    lane.isWoken = true
+                    lane.wokenAtMillis = now
+                }
+            } else if (lane.isRegistered && lane.readyAtMillis > now + minIntervalMillis && ready.remove(lane)) {
+                lane.readyAtMillis = now + minIntervalMillis
+                ready.put(lane)
+            }
+        }
+    }
+
+    /**
+     * @return The entity types being transported.
+     */
+    fun getEntityTypeIds(): Set<UUID> {
+        return lanes.keys.toSet()
+    }
+
+    private fun work() {
+        while (!Thread.currentThread().isInterrupted) {
+            val lane = try {
+                ready.take()
+            } catch (e: InterruptedException) {
+                return
+            }
+
+            val changedSince = synchronized(lane) {
+                if (!lane.isRegistered) {
+                    return@synchronized null
+                }
+                lane.isRunning = true
+                lane.isWoken = false
+                lane.changedSinceMillis
+            } ?: continue
+
+            val entityTypeId = lane.entityTypeId.toString()
+            val timer = durationTimer.labels(entityTypeId).startTimer()
+            val outcome = try {
+                transport(lane.entityTypeId)
+            } catch (e: Exception) {
+                errorCount.labels(entityTypeId).inc()
+                logger.error("Unable to transport entity type {}", lane.entityTypeId, e)
+                null
+            } finally {
+                timer.observeDuration()
+            }
+
+            synchronized(lane) {
+                lane.isRunning = false
+                val now = System.currentTimeMillis()
+                if (outcome != null && outcome != TransportOutcome.BACKLOGGED) {
+                    if (changedSince != 0L) {
+                        latencyTimer.labels(entityTypeId).observe((now - changedSince) / 1000.0)
+                    }
+                    // writes seen while the transport was running may not have been committed in time to be included
+                    lane.changedSinceMillis = if (lane.isWoken) lane.wokenAtMillis else 0L
+                }
+
+                val (delay, interval) = getNextDelay(
+                        outcome,
+                        lane.isWoken,
+                        lane.intervalMillis,
+                        minIntervalMillis,
+                        maxIntervalMillis
+                )
+                lane.readyAtMillis = now + delay
+                lane.intervalMillis = interval
+
+                if (lane.isRegistered) {
+                    ready.put(lane)
+                }
+            }
+        }
+    }
+
+    override fun close() {
+        executor.shutdownNow()
+    }
+}
@@ -21,6 +21,9 @@ final class TransporterService(
     /*
     companion object {
         val logger: Logger = LoggerFactory.getLogger(TransporterService::class.java)
+        private const val MAX_CONCURRENT_TRANSPORTS = 4
+        private const val MIN_TRANSPORT_INTERVAL_MILLIS = 1_000L
+        private const val MAX_TRANSPORT_INTERVAL_MILLIS = 60_000L
         val pollTimer: Histogram = Histogram.build()
                 .namespace(transporterNamespace)
                 .name("poll_duration_seconds")
@@ -44,6 +47,13 @@ final class TransporterService(
 
     private val transporterState = HazelcastMap.TRANSPORTER_DB_COLUMNS.getMap(hazelcastInstance)
 
+    private val scheduler = TransporterScheduler(
+            MAX_CONCURRENT_TRANSPORTS,
+            MIN_TRANSPORT_INTERVAL_MILLIS,
+            MAX_TRANSPORT_INTERVAL_MILLIS,
+            ::transportEntityType
+    )
+
     /**
      * Initialization called by [TransporterInitializeServiceTask]
      */
@@ -54,9 +64,10 @@ final class TransporterService(
         val tableFutures = entityTypes
                 .map { et -> this.syncTable(et) }
                 .filter { it.isPresent }
-        logger.info("Creating edges table")
+        logger.info("Creating edges and transport watermarks tables")
         transporter.datastore().connection.use { connection ->
             transportTable(MAT_EDGES_TABLE, connection, logger)
+            transportTable(TRANSPORT_WATERMARKS_TABLE, connection, logger)
         }
         val tablesCreated = tableFutures.map {
             it.get().get()
@@ -88,37 +99,29 @@ final class TransporterService(
     }
 
     /**
-     * Regular poll executed by [TransporterRunSyncTask]
+     * Regular reconciliation executed by [TransporterRunSyncTask]. Entity types are transported by [scheduler] on the
+     * member that owns them, so this only starts and stops transports as ownership changes.
      */
     fun pollOnce() {
-        initializeTransporterDatastore()
-
-        val timer = pollTimer.startTimer()
-        val futures = this.transporterState.keys.map { entityTypeId ->
-            val relevantEntitySets = validEntitySets(entityTypeId)
-            val partitions = partitions(relevantEntitySets.map { it.id }.toSet())
-            val ft = transporterState.submitToKey(
-                    entityTypeId,
-                    TransporterPropagateDataEntryProcessor(relevantEntitySets, partitions).init(transporter)
-            )
-
-            relevantEntitySets.size to ft
-        }
-        val setsPolled = futures.map { it.first }.sum()
-        // wait for all futures to complete.
-        val exception = MultiException()
-        futures.forEach { (_, f) ->
-            try {
-                f.toCompletableFuture().get()
-            } catch (e: Exception) {
-                errorCount.inc()
-                exception.add(e)
-            }
+        val owned = transporterState.localKeySet()
+        val scheduled = scheduler.getEntityTypeIds()
+        (scheduled - owned).forEach { scheduler.unregister(it) }
+        (owned - scheduled).forEach { scheduler.register(it) }
+    }
+
+    /**
+     * Transports the next batch of changes to the entity sets of [entityTypeId]. Called by [scheduler].
+     */
+    private fun transportEntityType(entityTypeId: UUID): TransportOutcome {
+        val relevantEntitySets = validEntitySets(entityTypeId)
+        if (relevantEntitySets.isEmpty()) {
+            return TransportOutcome.IDLE
         }
-        val duration = timer.observeDuration()
-        logger.info("Total poll duration time for {} entity sets in {} entity types: {} sec", setsPolled, futures.size, duration)
-        timer.close()
-        exception.ifExceptionThrow()
+        val partitions = partitions(relevantEntitySets.map { it.id }.toSet())
+        return transporterState.executeOnKey(
+                entityTypeId,
+                TransporterPropagateDataEntryProcessor(relevantEntitySets, partitions).init(transporter)
+        ) as TransportOutcome
     }
 
     private fun validEntitySets(entityTypeId: UUID): Set<EntitySet> {
@@ -150,6 +153,17 @@ final class TransporterService(
         )
     }
 
+    /**
+     * Wakes the transport of the written entity type, if this member owns it. Entity types owned by other members are
+     * picked up by their next transport after backing off.
+     *
+     * Unlike [EntitiesUpsertedEvent], which is skipped for large writes, this is posted for every write and delete.
+     */
+    @Subscribe
+    fun handleEntitySetDataChanged(e: MaterializedEntitySetDataChangeEvent) {
+        scheduler.wake(entitySetService.getEntityTypeByEntitySetId(e.entitySetId).id)
+    }
+
     @Subscribe
     fun handleEntityTypeCreated(e: EntityTypeCreatedEvent) {
         this.syncTable(e.entityType)
@@ -166,6 +180,7 @@ final class TransporterService(
     @Subscribe
     fun handleEntityTypeDeleted(e: EntityTypeDeletedEvent) {
         this.transporterState.remove(e.entityTypeId) ?: return
+        scheduler.unregister(e.entityTypeId)
         executor.submit {
             transporter.datastore().connection.use { conn ->
                 val st = conn.createStatement()
@@ -4,8 +4,6 @@ import com.auth0.json.mgmt.users.User
 import com.hazelcast.core.HazelcastInstance
 import com.hazelcast.query.Predicates
 import com.openlattice.IdConstants
-import com.openlattice.authorization.AclKey
-import com.openlattice.authorization.AclKeySet
 import com.openlattice.authorization.Principal
 import com.openlattice.authorization.PrincipalType
 import com.openlattice.authorization.SecurablePrincipal
@@ -34,7 +32,6 @@ class Auth0SyncService(
     private val principals = HazelcastMap.PRINCIPALS.getMap(hazelcastInstance)
     private val authnPrincipalCache = HazelcastMap.SECURABLE_PRINCIPALS.getMap(hazelcastInstance)
     private val authnRolesCache = HazelcastMap.RESOLVED_PRINCIPAL_TREES.getMap(hazelcastInstance)
-    private val principalTrees = HazelcastMap.PRINCIPAL_TREES.getMap(hazelcastInstance)
 
     /**
      * Returns true, if the user initialization task has ran at and
@@ -160,7 +157,7 @@ class Auth0SyncService(
                 )
         ).firstOrNull() ?: return
         authnPrincipalCache.set(principalId, sp)
-        val securablePrincipals = getAllPrincipals(sp)
+        val securablePrincipals = spm.getAllPrincipals(sp)
 
         val currentPrincipals: NavigableSet<Principal> = TreeSet()
         currentPrincipals.add(sp.principal)
@@ -172,61 +169,10 @@ class Auth0SyncService(
         authnRolesCache.set(principalId, SortedPrincipalSet(currentPrincipals))
     }
 
-    private fun getLayer(aclKeys: Set<AclKey>): AclKeySet {
-        return AclKeySet(principalTrees.getAll(aclKeys).values.flatMap { it.value })
-    }
-
     private fun getPrincipalTreesByPrincipalId(sps: Set<SecurablePrincipal>): Map<String, SortedPrincipalSet> {
-        val aclKeyPrincipals = mutableMapOf<AclKey,AclKeySet>()
-
-        // Bulk load all relevant principal trees from hazelcast
-        var nextLayer = sps.mapTo(mutableSetOf()) { it.aclKey }
-        while (nextLayer.isNotEmpty()) {
-            //Don't load what's already been loaded.
-            val nextLayerMap = principalTrees.getAll(nextLayer - aclKeyPrincipals.keys)
-            nextLayer = nextLayerMap.values.flatMapTo(mutableSetOf()) { it.value }
-            aclKeyPrincipals.putAll(nextLayerMap)
+        return spm.bulkGetUnderlyingPrincipals(sps).entries.associate { (sp, principals) ->
+            sp.principal.id to SortedPrincipalSet(TreeSet(principals))
         }
-
-        // Map all loaded principals to SecurablePrincipals
-        val aclKeysToPrincipals = principals.getAll(aclKeyPrincipals.keys + aclKeyPrincipals.values.flatten())
-
-        // Map each SecurablePrincipal to all its aclKey children from the in-memory map, and from there a SortedPrincipalSet
-        return sps.associate { sp ->
-            val childAclKeys = mutableSetOf<AclKey>(sp.aclKey) //Need to include self.
-            aclKeyPrincipals.getOrDefault(sp.aclKey, AclKeySet()).forEach { childAclKeys.add(it) }
-
-            var nextAclKeyLayer : Set<AclKey> = childAclKeys
-
-            while (nextAclKeyLayer.isNotEmpty()) {
-                nextAclKeyLayer = (nextAclKeyLayer.flatMapTo(mutableSetOf<AclKey>()) {
-                    aclKeyPrincipals[it] ?: setOf()
-                }) - childAclKeys
-                childAclKeys += nextAclKeyLayer
-            }
-
-            val sortedPrincipals = SortedPrincipalSet(TreeSet(childAclKeys.mapNotNull { aclKey ->
-                aclKeysToPrincipals[aclKey]?.principal
-            }))
-
-            if (childAclKeys.size != sortedPrincipals.size) {
-                logger.warn("Unable to retrieve principals for acl keys: ${childAclKeys - aclKeysToPrincipals.keys}")
-            }
-
-            sp.principal.id to sortedPrincipals
-        }
-    }
-
-    private fun getAllPrincipals(sp: SecurablePrincipal): Collection<SecurablePrincipal> {
-        val roles = getLayer(setOf(sp.aclKey))
-        var nextLayer: Set<AclKey> = roles
-
-        while (nextLayer.isNotEmpty()) {
-            nextLayer = getLayer(nextLayer) - roles
-            roles.addAll(nextLayer)
-        }
-
-        return principals.getAll(roles).values
     }
 
     private fun processGlobalEnrollments(principalMap: Map<Principal, User>) {
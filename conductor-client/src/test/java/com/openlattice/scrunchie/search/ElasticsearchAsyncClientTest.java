@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.scrunchie.search;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class ElasticsearchAsyncClientTest {
+    private static final String INDEX = "entity_data";
+    private static final String TYPE  = "entity_data_type";
+
+    private static BulkItemResponse indexed( int position, String id ) {
+        return new BulkItemResponse( position,
+                DocWriteRequest.OpType.INDEX,
+                new IndexResponse( new ShardId( INDEX, "uuid", 0 ), TYPE, id, 1, 1, 1, true ) );
+    }
+
+    private static BulkItemResponse failed( int position, String id, Exception cause ) {
+        return new BulkItemResponse( position,
+                DocWriteRequest.OpType.INDEX,
+                new BulkItemResponse.Failure( INDEX, TYPE, id, cause ) );
+    }
+
+    @Test
+    public void testRetriedItemsKeepTheirPositionInTheResponse() {
+        final var items = new BulkItemResponse[ 3 ];
+        final var attempt = new BulkItemResponse[] {
+                indexed( 0, "a" ),
+                failed( 1, "b", new EsRejectedExecutionException( "queue is full" ) ),
+                failed( 2, "c", new IllegalArgumentException( "unable to parse document" ) )
+        };
+        ElasticsearchAsyncClient.mergeItems( items, new int[] { 0, 1, 2 }, attempt );
+
+        // only the rejected item is worth retrying
+        final var rejected = ElasticsearchAsyncClient.getRejectedItems( attempt );
+        Assert.assertArrayEquals( new int[] { 1 }, rejected );
+
+        ElasticsearchAsyncClient.mergeItems( items, rejected, new BulkItemResponse[] { indexed( 0, "b" ) } );
+        Assert.assertEquals( "a", items[ 0 ].getId() );
+        Assert.assertFalse( items[ 0 ].isFailed() );
+        Assert.assertEquals( "b", items[ 1 ].getId() );
+        Assert.assertFalse( items[ 1 ].isFailed() );
+        Assert.assertEquals( "c", items[ 2 ].getId() );
+        Assert.assertTrue( items[ 2 ].isFailed() );
+        Assert.assertEquals( 0, ElasticsearchAsyncClient.getRejectedItems( items ).length );
+    }
+
+    @Test
+    public void testQueuedWritesAreCompletedWithTheirOwnItems() {
+        final var first = new IndexRequest( INDEX, TYPE, "a" );
+        final var second = new IndexRequest( INDEX, TYPE, "b" );
+        final var unanswered = new IndexRequest( INDEX, TYPE, "c" );
+        final List<DocWriteRequest<?>> requests = List.of( first, second, unanswered );
+
+        final Map<DocWriteRequest<?>, CompletableFuture<BulkItemResponse>> queued = new HashMap<>();
+        requests.forEach( request -> queued.put( request, new CompletableFuture<>() ) );
+        final var results = new HashMap<>( queued );
+
+        // retries made by the bulk processor reorder the items of the response
+        ElasticsearchAsyncClient.completeQueued(
+                requests,
+                new BulkItemResponse[] {
+                        failed( 0, "b", new IllegalArgumentException( "unable to parse document" ) ),
+                        indexed( 1, "a" )
+                },
+                queued );
+
+        Assert.assertTrue( queued.isEmpty() );
+        Assert.assertFalse( results.get( first ).join().isFailed() );
+        Assert.assertEquals( "a", results.get( first ).join().getId() );
+        Assert.assertTrue( results.get( second ).join().isFailed() );
+        Assert.assertTrue( results.get( unanswered ).isCompletedExceptionally() );
+    }
+
+    @Test
+    public void testFailuresAreRethrownAsElasticsearchExceptions() {
+        final var failure = new ElasticsearchException( "index is closed" );
+        try {
+            ElasticsearchAsyncClient.await( CompletableFuture.failedFuture( failure ) );
+            Assert.fail();
+        } catch ( ElasticsearchException e ) {
+            Assert.assertSame( failure, e );
+        }
+
+        final var ioFailure = new IOException( "connection reset" );
+        try {
+            ElasticsearchAsyncClient.await( CompletableFuture.failedFuture( ioFailure ) );
+            Assert.fail();
+        } catch ( ElasticsearchException e ) {
+            Assert.assertSame( ioFailure, e.getCause() );
+        }
+    }
+}
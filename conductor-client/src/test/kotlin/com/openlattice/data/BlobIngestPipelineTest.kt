@@ -0,0 +1,147 @@
+package com.openlattice.data
+
+import com.amazonaws.HttpMethod
+import com.google.common.util.concurrent.MoreExecutors
+import com.openlattice.data.storage.BinaryObjectWithMetadata
+import com.openlattice.data.storage.BlobIngestPipeline
+import com.openlattice.data.storage.ByteBlobDataManager
+import org.junit.Assert
+import org.junit.Test
+import java.net.URL
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class BlobIngestPipelineTest {
+
+    private class InMemoryBlobDataService(private val failingKeys: Set<String> = setOf()) : ByteBlobDataManager {
+        val objects = ConcurrentHashMap<String, ByteArray>()
+        val puts = AtomicInteger()
+
+        override fun putObject(s3Key: String, binaryObjectWithMetadata: BinaryObjectWithMetadata) {
+            puts.incrementAndGet()
+            check(!failingKeys.contains(s3Key)) { "Unable to upload $s3Key" }
+            objects[s3Key] = binaryObjectWithMetadata.data
+        }
+
+        override fun deleteObject(s3Key: String) {
+            objects.remove(s3Key)
+        }
+
+        override fun getObjects(keys: Collection<Any>): List<Any> {
+            return keys.mapNotNull { objects[it] }
+        }
+
+        override fun getPresignedUrl(
+                key: Any, expiration: Date, httpMethod: HttpMethod, contentType: String?, contentDisposition: String?
+        ): URL {
+            throw UnsupportedOperationException()
+        }
+
+        override fun getPresignedUrls(keys: Collection<Any>): List<URL> {
+            throw UnsupportedOperationException()
+        }
+
+        override fun getPresignedUrlsWithDispositions(keysToDispositions: Map<String, String?>): Map<String, URL> {
+            throw UnsupportedOperationException()
+        }
+
+        override fun deleteObjects(s3Keys: List<String>) {
+            s3Keys.forEach { objects.remove(it) }
+        }
+
+        override fun getDefaultExpirationDateTime(): Date {
+            throw UnsupportedOperationException()
+        }
+    }
+
+    private val executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2))
+
+    private fun randomBlob(): BinaryObjectWithMetadata {
+        val data = ByteArray(16)
+        Random().nextBytes(data)
+        return BinaryObjectWithMetadata("image/png", data)
+    }
+
+    @Test
+    fun testStagedEntitiesReferenceDurableBlobs() {
+        val blobs = InMemoryBlobDataService()
+        val pipeline = BlobIngestPipeline(blobs, executor)
+        val entitySetId = UUID.randomUUID()
+        val binaryPropertyTypeId = UUID.randomUUID()
+        val stringPropertyTypeId = UUID.randomUUID()
+        val entities = (1..10).associate {
+            UUID.randomUUID() to mapOf(
+                    binaryPropertyTypeId to setOf<Any>(randomBlob(), randomBlob()),
+                    stringPropertyTypeId to setOf<Any>("value")
+            )
+        }
+
+        val staged = pipeline.stage(entitySetId, entities, setOf(binaryPropertyTypeId))
+        staged.awaitDurable()
+
+        Assert.assertEquals(20, blobs.puts.get())
+        staged.entities.forEach { (entityKeyId, entity) ->
+            Assert.assertEquals(entities.getValue(entityKeyId).getValue(stringPropertyTypeId), entity[stringPropertyTypeId])
+            entity.getValue(binaryPropertyTypeId).forEach { key ->
+                Assert.assertTrue((key as String).startsWith("$entitySetId/$entityKeyId/$binaryPropertyTypeId/"))
+                Assert.assertTrue(blobs.objects.containsKey(key))
+            }
+        }
+    }
+
+    @Test
+    fun testIdenticalPayloadsAreUploadedOnce() {
+        val blobs = InMemoryBlobDataService()
+        val pipeline = BlobIngestPipeline(blobs, executor)
+        val entitySetId = UUID.randomUUID()
+        val entityKeyId = UUID.randomUUID()
+        val propertyTypeId = UUID.randomUUID()
+        val blob = randomBlob()
+        val entities = mapOf(
+                entityKeyId to mapOf<UUID, Set<Any>>(
+                        propertyTypeId to setOf(blob, BinaryObjectWithMetadata(blob.contentType, blob.data.copyOf()))
+                )
+        )
+
+        val first = pipeline.stage(entitySetId, entities, setOf(propertyTypeId))
+        first.awaitDurable()
+        Assert.assertEquals(1, blobs.puts.get())
+        Assert.assertEquals(1, first.entities.getValue(entityKeyId).getValue(propertyTypeId).size)
+
+        // once written, the key is reported as durable and is not uploaded again
+        val writtenKeys = first.entities.getValue(entityKeyId).getValue(propertyTypeId).map { it as String }.toSet()
+        val second = pipeline.stage(entitySetId, entities, setOf(propertyTypeId)) { keys ->
+            keys.values.flatten().filter { writtenKeys.contains(it) }.toSet()
+        }
+        second.awaitDurable()
+        Assert.assertEquals(1, blobs.puts.get())
+        Assert.assertEquals(first.entities, second.entities)
+    }
+
+    @Test
+    fun testFailedUploadsAreSurfaced() {
+        val entitySetId = UUID.randomUUID()
+        val entityKeyId = UUID.randomUUID()
+        val propertyTypeId = UUID.randomUUID()
+        val blob = randomBlob()
+        val failingKey = BlobIngestPipeline(InMemoryBlobDataService(), executor)
+                .stage(entitySetId, mapOf(entityKeyId to mapOf(propertyTypeId to setOf<Any>(blob))), setOf(propertyTypeId))
+                .entities.getValue(entityKeyId).getValue(propertyTypeId).first() as String
+
+        val blobs = InMemoryBlobDataService(setOf(failingKey))
+        val staged = BlobIngestPipeline(blobs, executor).stage(
+                entitySetId,
+                mapOf(entityKeyId to mapOf(propertyTypeId to setOf<Any>(blob, randomBlob()))),
+                setOf(propertyTypeId)
+        )
+
+        try {
+            staged.awaitDurable()
+            Assert.fail("Failed upload was not surfaced.")
+        } catch (e: IllegalStateException) {
+            Assert.assertFalse(blobs.objects.containsKey(failingKey))
+        }
+    }
+}
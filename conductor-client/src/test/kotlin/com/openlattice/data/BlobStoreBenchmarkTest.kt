@@ -0,0 +1,86 @@
+package com.openlattice.data
+
+import com.geekbeast.rhizome.configuration.RhizomeConfiguration
+import com.geekbeast.rhizome.configuration.service.ConfigurationService
+import com.google.common.base.Stopwatch
+import com.openlattice.data.storage.BinaryObjectWithMetadata
+import com.openlattice.data.storage.ByteBlobDataManager
+import com.openlattice.data.storage.FilesystemBlobDataService
+import com.openlattice.data.storage.LocalBlobDataService
+import com.zaxxer.hikari.HikariConfig
+import com.zaxxer.hikari.HikariDataSource
+import org.junit.Ignore
+import org.junit.Test
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.nio.file.Files
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the throughput of the filesystem blob store with the table backed one it replaces for on-prem deployments.
+ */
+class BlobStoreBenchmarkTest {
+    private val logger: Logger = LoggerFactory.getLogger(BlobStoreBenchmarkTest::class.java)
+
+    private val r = Random()
+
+    @Test
+    @Ignore
+    fun benchmarkBlobStores() {
+        val objects = generateTestData()
+
+        val root = Files.createTempDirectory("blobs")
+        val filesystem = FilesystemBlobDataService(root, "http://localhost:8080/datastore/blobs", "secret", 60_000)
+        benchmark("filesystem", filesystem, objects) { keys -> filesystem.readObjects(keys).size }
+        root.toFile().deleteRecursively()
+
+        val rhizomeConfiguration = ConfigurationService.StaticLoader.loadConfiguration(RhizomeConfiguration::class.java)
+        HikariDataSource(HikariConfig(rhizomeConfiguration?.postgresConfiguration?.get()?.hikariConfiguration)).use { hds ->
+            hds.connection.use {
+                it.createStatement().execute("CREATE TABLE IF NOT EXISTS mock_s3_bucket (key text, object bytea)")
+            }
+            val table = LocalBlobDataService(hds)
+            benchmark("table", table, objects) { keys -> table.getObjects(keys).size }
+            hds.connection.use { it.createStatement().execute("DROP TABLE mock_s3_bucket") }
+        }
+    }
+
+    private fun generateTestData(): Map<String, BinaryObjectWithMetadata> {
+        return (1..NUM_OBJECTS).associate {
+            val data = ByteArray(NUM_BYTES)
+            r.nextBytes(data)
+            "${UUID.randomUUID()}/${UUID.randomUUID()}/${UUID.randomUUID()}/${data.contentHashCode()}" to
+                    BinaryObjectWithMetadata("image/png", data)
+        }
+    }
+
+    private fun benchmark(
+            name: String,
+            blobs: ByteBlobDataManager,
+            objects: Map<String, BinaryObjectWithMetadata>,
+            read: (Collection<String>) -> Int
+    ) {
+        var stopwatch = Stopwatch.createStarted()
+        objects.forEach { (key, blob) -> blobs.putObject(key, blob) }
+        logRate(name, "single puts", stopwatch)
+        blobs.deleteObjects(objects.keys.toList())
+
+        stopwatch = Stopwatch.createStarted()
+        objects.keys.chunked(LOG_STEP).forEach { keys -> blobs.putObjects(keys.associateWith(objects::getValue)) }
+        logRate(name, "batched puts", stopwatch)
+
+        stopwatch = Stopwatch.createStarted()
+        objects.keys.chunked(LOG_STEP).forEach { keys -> check(read(keys) == keys.size) }
+        logRate(name, "batched gets", stopwatch)
+
+        stopwatch = Stopwatch.createStarted()
+        objects.keys.chunked(LOG_STEP).forEach(blobs::deleteObjects)
+        logRate(name, "batched deletes", stopwatch)
+    }
+
+    private fun logRate(name: String, operation: String, stopwatch: Stopwatch) {
+        val millis = stopwatch.elapsed(TimeUnit.MILLISECONDS).coerceAtLeast(1)
+        logger.info("{} {}: {} objects of {} bytes/sec", name, operation, NUM_OBJECTS * 1000L / millis, NUM_BYTES)
+    }
+}
@@ -0,0 +1,182 @@
+package com.openlattice.data
+
+import com.amazonaws.HttpMethod
+import com.openlattice.data.storage.BinaryObjectWithMetadata
+import com.openlattice.data.storage.CorruptedBlobException
+import com.openlattice.data.storage.FilesystemBlobDataService
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.net.URL
+import java.net.URLDecoder
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+
+class FilesystemBlobDataServiceTest {
+    private val r = Random()
+
+    private lateinit var root: Path
+    private lateinit var blobs: FilesystemBlobDataService
+
+    @Before
+    fun setUp() {
+        root = Files.createTempDirectory("blobs")
+        blobs = FilesystemBlobDataService(root, "http://localhost:8080/datastore/blobs", "secret", 60_000)
+    }
+
+    @After
+    fun tearDown() {
+        root.toFile().deleteRecursively()
+    }
+
+    private fun randomBlob(): BinaryObjectWithMetadata {
+        val data = ByteArray(1_000)
+        r.nextBytes(data)
+        return BinaryObjectWithMetadata("image/png", data, "inline")
+    }
+
+    private fun blobFiles(): List<File> {
+        return root.toFile().walk().filter { it.isFile }.toList()
+    }
+
+    private fun parameters(url: URL): Map<String, String> {
+        return url.query.split("&").associate {
+            it.substringBefore("=") to URLDecoder.decode(it.substringAfter("="), Charsets.UTF_8.name())
+        }
+    }
+
+    @Test
+    fun testPutGetAndDeleteObjects() {
+        val objects = (1..100).associate { UUID.randomUUID().toString() + "/" + UUID.randomUUID() to randomBlob() }
+
+        blobs.putObjects(objects)
+        val read = blobs.readObjects(objects.keys)
+
+        Assert.assertEquals(objects.keys, read.keys)
+        objects.forEach { (key, blob) ->
+            Assert.assertArrayEquals(blob.data, read.getValue(key).data)
+            Assert.assertEquals(blob.contentType, read.getValue(key).contentType)
+            Assert.assertEquals(blob.contentDisposition, read.getValue(key).contentDisposition)
+        }
+        Assert.assertEquals(objects.size, blobFiles().size)
+
+        blobs.deleteObjects(objects.keys.toList())
+        Assert.assertTrue(blobs.readObjects(objects.keys).isEmpty())
+        Assert.assertTrue(blobFiles().isEmpty())
+    }
+
+    @Test
+    fun testOverwriteReplacesWholeBlob() {
+        val key = UUID.randomUUID().toString()
+        blobs.putObject(key, randomBlob())
+        val replacement = randomBlob()
+        blobs.putObject(key, replacement)
+
+        Assert.assertArrayEquals(replacement.data, blobs.readObject(key)!!.data)
+        // no temporary files are left behind
+        Assert.assertEquals(1, blobFiles().size)
+    }
+
+    @Test
+    fun testCorruptedBlobsAreDetected() {
+        val key = UUID.randomUUID().toString()
+        blobs.putObject(key, randomBlob())
+
+        RandomAccessFile(blobFiles().single(), "rw").use {
+            it.seek(it.length() - 1)
+            val last = it.read()
+            it.seek(it.length() - 1)
+            it.write(last xor 0xff)
+        }
+
+        try {
+            blobs.readObject(key)
+            Assert.fail("Corrupted blob was read.")
+        } catch (e: IllegalStateException) {
+            Assert.assertTrue(e.message!!.contains("corrupted"))
+        }
+    }
+
+    @Test
+    fun testOpenObjectStreamsAndVerifiesData() {
+        val key = UUID.randomUUID().toString()
+        val blob = randomBlob()
+        blobs.putObject(key, blob)
+
+        blobs.openObject(key)!!.use {
+            Assert.assertEquals(blob.contentType, it.contentType)
+            Assert.assertEquals(blob.contentDisposition, it.contentDisposition)
+            Assert.assertArrayEquals(blob.data, it.data.readBytes())
+        }
+        Assert.assertNull(blobs.openObject(UUID.randomUUID().toString()))
+
+        RandomAccessFile(blobFiles().single(), "rw").use {
+            it.seek(it.length() - 1)
+            val last = it.read()
+            it.seek(it.length() - 1)
+            it.write(last xor 0xff)
+        }
+
+        blobs.openObject(key)!!.use {
+            try {
+                it.data.readBytes()
+                Assert.fail("Corrupted blob was streamed without failing.")
+            } catch (e: CorruptedBlobException) {
+                Assert.assertTrue(e.message!!.contains("corrupted"))
+            }
+        }
+    }
+
+    @Test
+    fun testSignedUrls() {
+        val key = UUID.randomUUID().toString() + "/a b+c"
+        val url = blobs.getPresignedUrlsWithDispositions(mapOf(key to "attachment; filename=\"x.png\"")).getValue(key)
+        val parameters = parameters(url)
+
+        Assert.assertEquals(key, parameters.getValue("key"))
+        Assert.assertTrue(
+                blobs.verifySignature(
+                        key,
+                        parameters.getValue("expires").toLong(),
+                        parameters.getValue("disposition"),
+                        parameters.getValue("signature")
+                )
+        )
+
+        // tampering with any parameter invalidates the signature
+        Assert.assertFalse(
+                blobs.verifySignature(
+                        "$key.other",
+                        parameters.getValue("expires").toLong(),
+                        parameters.getValue("disposition"),
+                        parameters.getValue("signature")
+                )
+        )
+        Assert.assertFalse(
+                blobs.verifySignature(
+                        key,
+                        parameters.getValue("expires").toLong() + 60,
+                        parameters.getValue("disposition"),
+                        parameters.getValue("signature")
+                )
+        )
+        Assert.assertFalse(
+                blobs.verifySignature(
+                        key,
+                        parameters.getValue("expires").toLong(),
+                        null,
+                        parameters.getValue("signature")
+                )
+        )
+
+        // expired urls are rejected
+        val expired = parameters(blobs.getPresignedUrl(key, Date(System.currentTimeMillis() - 60_000), HttpMethod.GET))
+        Assert.assertFalse(
+                blobs.verifySignature(key, expired.getValue("expires").toLong(), null, expired.getValue("signature"))
+        )
+    }
+}
@@ -0,0 +1,99 @@
+package com.openlattice.data
+
+import com.openlattice.IdConstants.LAST_WRITE_ID
+import com.openlattice.data.storage.postgres.PostgresEntityDatastore
+import com.openlattice.mapstores.TestDataFactory
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.junit.Assert
+import org.junit.Test
+import java.time.OffsetDateTime
+import java.util.*
+
+class PostgresEntityDatastoreTest {
+    private val name = TestDataFactory.propertyType(EdmPrimitiveTypeKind.String)
+    private val birthDate = TestDataFactory.propertyType(EdmPrimitiveTypeKind.DateTimeOffset)
+    private val nickname = TestDataFactory.propertyType(EdmPrimitiveTypeKind.String)
+    private val propertyTypesToIndex = listOf(name, birthDate, nickname).associateBy { it.id }
+    private val lastWrite = OffsetDateTime.now()
+
+    @Test
+    fun testReplacedPropertiesTakeTheWrittenValues() {
+        val entityKeyId = UUID.randomUUID()
+        val written = mapOf<UUID, Set<Any>>(name.id to setOf("Master Chief"))
+        val kept = mapOf<UUID, Set<Any>>(
+                name.id to setOf("John"),
+                birthDate.id to setOf(lastWrite.minusYears(30)),
+                nickname.id to setOf("Spartan")
+        )
+
+        // a partial replace only replaces the written properties
+        Assert.assertEquals(
+                mapOf(entityKeyId to kept + written + (LAST_WRITE_ID.id to setOf(lastWrite))),
+                PostgresEntityDatastore.buildReplacedDocuments(
+                        mapOf(entityKeyId to written),
+                        mapOf(entityKeyId to written.keys),
+                        mapOf(entityKeyId to kept),
+                        mapOf(entityKeyId to lastWrite),
+                        propertyTypesToIndex
+                )
+        )
+
+        // a full replace clears the authorized properties that weren't written
+        Assert.assertEquals(
+                mapOf(entityKeyId to mapOf(
+                        name.id to setOf("Master Chief"),
+                        nickname.id to setOf("Spartan"),
+                        LAST_WRITE_ID.id to setOf(lastWrite)
+                )),
+                PostgresEntityDatastore.buildReplacedDocuments(
+                        mapOf(entityKeyId to written),
+                        mapOf(entityKeyId to setOf(name.id, birthDate.id)),
+                        mapOf(entityKeyId to kept),
+                        mapOf(entityKeyId to lastWrite),
+                        propertyTypesToIndex
+                )
+        )
+    }
+
+    @Test
+    fun testWrittenValuesArePassedThrough() {
+        val entityKeyId = UUID.randomUUID()
+        val birthDateValue = lastWrite.minusYears(30)
+        val binary = TestDataFactory.propertyType(EdmPrimitiveTypeKind.Binary)
+        val written = mapOf<UUID, Set<Any>>(
+                birthDate.id to setOf(birthDateValue),
+                nickname.id to setOf(),
+                binary.id to setOf("s3/key")
+        )
+
+        val document = PostgresEntityDatastore.buildReplacedDocuments(
+                mapOf(entityKeyId to written),
+                mapOf(entityKeyId to written.keys),
+                mapOf(),
+                mapOf(entityKeyId to lastWrite),
+                propertyTypesToIndex
+        ).getValue(entityKeyId)
+
+        // empty and unindexed properties are left out
+        Assert.assertEquals(setOf(birthDate.id, LAST_WRITE_ID.id), document.keys)
+        Assert.assertSame(birthDateValue, document.getValue(birthDate.id).first())
+    }
+
+    @Test
+    fun testEntitiesWithoutALastWriteAreLeftOut() {
+        val written = mapOf<UUID, Set<Any>>(name.id to setOf("Master Chief"))
+        val entityKeyId = UUID.randomUUID()
+        val deletedEntityKeyId = UUID.randomUUID()
+
+        Assert.assertEquals(
+                setOf(entityKeyId),
+                PostgresEntityDatastore.buildReplacedDocuments(
+                        mapOf(entityKeyId to written, deletedEntityKeyId to written),
+                        mapOf(entityKeyId to written.keys, deletedEntityKeyId to written.keys),
+                        mapOf(),
+                        mapOf(entityKeyId to lastWrite),
+                        propertyTypesToIndex
+                ).keys
+        )
+    }
+}
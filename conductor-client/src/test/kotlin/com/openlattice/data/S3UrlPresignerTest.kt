@@ -0,0 +1,83 @@
+package com.openlattice.data
+
+import com.amazonaws.HttpMethod
+import com.amazonaws.auth.AWSCredentials
+import com.amazonaws.auth.AWSStaticCredentialsProvider
+import com.amazonaws.auth.BasicAWSCredentials
+import com.amazonaws.auth.BasicSessionCredentials
+import com.amazonaws.services.s3.AmazonS3
+import com.amazonaws.services.s3.AmazonS3ClientBuilder
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest
+import com.amazonaws.services.s3.model.ResponseHeaderOverrides
+import com.openlattice.data.storage.ByteBlobDataManager
+import com.openlattice.data.storage.aws.S3UrlPresigner
+import org.junit.Assert
+import org.junit.Test
+import java.time.LocalDateTime
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.util.*
+
+class S3UrlPresignerTest {
+    companion object {
+        private val TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+
+        private const val ACCESS_KEY_ID = "AKIDEXAMPLE"
+        private const val SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"
+    }
+
+    private fun newS3Client(credentials: AWSCredentials, region: String): AmazonS3 {
+        return AmazonS3ClientBuilder.standard()
+                .withRegion(region)
+                .withCredentials(AWSStaticCredentialsProvider(credentials))
+                .build()
+    }
+
+    private fun randomKey(): String {
+        return ByteBlobDataManager.generateS3Key(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "0123abcd")
+    }
+
+    @Test
+    fun testUrlsMatchSdk() {
+        val credentials = listOf(
+                BasicAWSCredentials(ACCESS_KEY_ID, SECRET_KEY),
+                BasicSessionCredentials(ACCESS_KEY_ID, SECRET_KEY, "session/token+=")
+        )
+        val keys = listOf(randomKey(), "a b/c+d/é~*'()!//x.png", "x///y", "/leading")
+        val dispositions = listOf(null, "attachment; filename=\"x y.png\"")
+
+        credentials.forEach { credential ->
+            listOf("us-east-1", "us-west-2").forEach { region ->
+                val s3 = newS3Client(credential, region)
+                listOf("openlattice-media", "openlattice.media").forEach { bucket ->
+                    val presigner = S3UrlPresigner(credential, region, s3.getUrl(bucket, ""))
+                    keys.forEach { key ->
+                        dispositions.forEach { disposition ->
+                            val request = GeneratePresignedUrlRequest(bucket, key)
+                                    .withMethod(HttpMethod.GET)
+                                    .withExpiration(Date(System.currentTimeMillis() + 3_600_000))
+                            disposition?.let {
+                                request.responseHeaders = ResponseHeaderOverrides().withContentDisposition(it)
+                            }
+                            val expected = s3.generatePresignedUrl(request).toString()
+
+                            // sign at the same time as the sdk did
+                            val parameters = expected.substringAfter("?").split("&")
+                                    .associate { it.substringBefore("=") to it.substringAfter("=") }
+                            val signingTime = LocalDateTime
+                                    .parse(parameters.getValue("X-Amz-Date"), TIMESTAMP_FORMATTER)
+                                    .toInstant(ZoneOffset.UTC)
+                            val actual = presigner.presignAll(
+                                    mapOf(key to disposition),
+                                    signingTime,
+                                    parameters.getValue("X-Amz-Expires").toLong()
+                            ).getValue(key).toString()
+
+                            Assert.assertEquals(expected, actual)
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.openlattice.data.jobs
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class DataDeletionJobTest {
+
+    @Test
+    fun testIdRangesAreContiguous() {
+        val idRanges = DataDeletionJob.getIdRanges(7)
+
+        Assert.assertEquals(7, idRanges.size)
+        Assert.assertNull(idRanges.first().first)
+        Assert.assertNull(idRanges.last().second)
+
+        idRanges.zipWithNext().forEach { (range, nextRange) ->
+            Assert.assertNotNull(range.second)
+            Assert.assertEquals(range.second, nextRange.first)
+        }
+    }
+
+    @Test
+    fun testIdRangesAreOrderedLikePostgres() {
+        // Postgres orders uuids by their unsigned bytes, so bounds must increase when compared as unsigned values.
+        val bounds = DataDeletionJob.getIdRanges(32).mapNotNull { it.second }
+
+        bounds.zipWithNext().forEach { (bound, nextBound) ->
+            Assert.assertTrue(
+                    java.lang.Long.compareUnsigned(bound.mostSignificantBits, nextBound.mostSignificantBits) < 0
+            )
+        }
+        Assert.assertTrue(bounds.any { it.mostSignificantBits < 0 })
+    }
+
+    @Test
+    fun testSingleShardIsUnbounded() {
+        Assert.assertEquals(listOf<Pair<UUID?, UUID?>>(null to null), DataDeletionJob.getIdRanges(1))
+    }
+}
@@ -0,0 +1,60 @@
+package com.openlattice.data.storage
+
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.Mockito
+
+class BatchedBlobDeleterTest {
+
+    private class RecordingBlobDataManager(
+            var failing: Boolean = false
+    ) : ByteBlobDataManager by Mockito.mock(ByteBlobDataManager::class.java) {
+        val deleted = mutableListOf<List<String>>()
+
+        override fun deleteObjects(s3Keys: List<String>) {
+            if (failing) {
+                throw IllegalStateException("Blob storage is unavailable.")
+            }
+            deleted.add(s3Keys)
+        }
+    }
+
+    private fun keys(range: IntRange) = range.map { "key-$it" }
+
+    @Test
+    fun testKeysAreDeletedInFullBatches() {
+        val blobs = RecordingBlobDataManager()
+        val deleter = BatchedBlobDeleter(blobs, 3)
+
+        deleter.enqueue(keys(0 until 7))
+        deleter.flushFullBatches()
+        Assert.assertEquals(listOf(keys(0 until 3), keys(3 until 6)), blobs.deleted)
+        Assert.assertEquals(1, deleter.numPending)
+
+        deleter.flush()
+        Assert.assertEquals(keys(6 until 7), blobs.deleted.last())
+        Assert.assertEquals(7L, deleter.numDeleted)
+        Assert.assertEquals(0, deleter.numPending)
+    }
+
+    @Test
+    fun testFailedBatchesAreSurfacedAndRetried() {
+        val blobs = RecordingBlobDataManager(failing = true)
+        val deleter = BatchedBlobDeleter(blobs, 3)
+        deleter.enqueue(keys(0 until 4))
+
+        try {
+            deleter.flush()
+            Assert.fail()
+        } catch (e: IllegalStateException) {
+            // expected
+        }
+        Assert.assertEquals(4, deleter.numPending)
+        Assert.assertEquals(0L, deleter.numDeleted)
+
+        blobs.failing = false
+        deleter.flush()
+        Assert.assertEquals(listOf(keys(0 until 3), keys(3 until 4)), blobs.deleted)
+        Assert.assertEquals(4L, deleter.numDeleted)
+    }
+}
@@ -0,0 +1,32 @@
+package com.openlattice.data.storage
+
+import com.openlattice.TestServer
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class ClusterPoolPressureTest : TestServer() {
+
+    @Test
+    fun testWaitersOnEveryMemberAreCounted() {
+        val dataSourceName = "test-${UUID.randomUUID()}"
+        val datastore = ClusterPoolPressure(hazelcastInstance, "datastore-${UUID.randomUUID()}")
+        val indexer = ClusterPoolPressure(hazelcastInstance, "indexer-${UUID.randomUUID()}")
+
+        indexer.publish(dataSourceName, 0)
+        Assert.assertEquals(0, indexer.getThreadsAwaitingConnection(dataSourceName))
+
+        // interactive requests waiting on the datastore hold back background work on the indexer
+        datastore.publish(dataSourceName, 3)
+        indexer.publish(dataSourceName, 1)
+        Assert.assertEquals(4, indexer.getThreadsAwaitingConnection(dataSourceName))
+
+        // waiters on other data sources don't count
+        datastore.publish("other-$dataSourceName", 5)
+        Assert.assertEquals(4, datastore.getThreadsAwaitingConnection(dataSourceName))
+
+        // only the latest sample of each member counts
+        datastore.publish(dataSourceName, 0)
+        Assert.assertEquals(1, indexer.getThreadsAwaitingConnection(dataSourceName))
+    }
+}
@@ -0,0 +1,61 @@
+package com.openlattice.data.storage
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class PoolAdmissionTest {
+
+    @Test
+    fun testLimitsFollowPoolShares() {
+        val admission = PoolAdmission(10)
+        Assert.assertEquals(5, admission.maxIngest)
+        Assert.assertEquals(3, admission.maxBackground)
+        Assert.assertEquals(3, admission.backgroundLimit)
+
+        // interactive work is never held back
+        repeat(20) { admission.acquire(Workload.INTERACTIVE) }
+        Assert.assertEquals(20, admission.getRunning(Workload.INTERACTIVE))
+    }
+
+    @Test
+    fun testBackgroundIsShedUnderPressure() {
+        val admission = PoolAdmission(16)
+        Assert.assertEquals(4, admission.backgroundLimit)
+
+        admission.onPressureSample(3)
+        Assert.assertEquals(2, admission.backgroundLimit)
+        admission.onPressureSample(1)
+        admission.onPressureSample(1)
+        admission.onPressureSample(1)
+        Assert.assertEquals(MIN_BACKGROUND_LIMIT, admission.backgroundLimit)
+
+        admission.onPressureSample(0)
+        Assert.assertEquals(MIN_BACKGROUND_LIMIT + 1, admission.backgroundLimit)
+        repeat(10) { admission.onPressureSample(0) }
+        Assert.assertEquals(4, admission.backgroundLimit)
+    }
+
+    @Test
+    fun testWaitingWorkIsAdmittedOnRelease() {
+        val admission = PoolAdmission(4)
+        admission.acquire(Workload.BACKGROUND)
+
+        val admitted = CountDownLatch(1)
+        val waiter = thread {
+            admission.acquire(Workload.BACKGROUND)
+            admitted.countDown()
+        }
+
+        Assert.assertFalse(admitted.await(100, TimeUnit.MILLISECONDS))
+        Assert.assertEquals(1, admission.getWaiting(Workload.BACKGROUND))
+
+        admission.release(Workload.BACKGROUND)
+        Assert.assertTrue(admitted.await(1, TimeUnit.SECONDS))
+        waiter.join()
+        Assert.assertEquals(0, admission.getWaiting(Workload.BACKGROUND))
+        Assert.assertEquals(1, admission.getRunning(Workload.BACKGROUND))
+    }
+}
@@ -0,0 +1,209 @@
+package com.openlattice.data.storage
+
+import com.geekbeast.postgres.PostgresArrays
+import com.openlattice.TestServer
+import com.openlattice.data.storage.postgres.updateEntitySql
+import com.openlattice.postgres.PostgresColumn.ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.ID
+import com.openlattice.postgres.PostgresColumn.PARTITION
+import com.openlattice.postgres.PostgresTable.ENTITY_SET_SIZES
+import com.openlattice.postgres.PostgresTable.IDS
+import org.junit.Assert
+import org.junit.Test
+import java.sql.Connection
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * Checks that the entity set size counters agree with the live entities in [IDS] through writes, compaction and
+ * reconciliation.
+ */
+class PostgresEntitySetSizesQueriesTest : TestServer() {
+
+    private fun createEntities(entitySetId: UUID, count: Int): List<UUID> {
+        val entityKeyIds = (1..count).map { UUID.randomUUID() }
+        hds.connection.use { connection ->
+            connection.prepareStatement(
+                    "INSERT INTO ${IDS.name} (${ENTITY_SET_ID.name}, ${ID.name}) VALUES (?, ?)"
+            ).use { ps ->
+                entityKeyIds.forEach {
+                    ps.setObject(1, entitySetId)
+                    ps.setObject(2, it)
+                    ps.addBatch()
+                }
+                ps.executeBatch()
+            }
+        }
+        return entityKeyIds
+    }
+
+    /**
+     * Writes [version] to the entities and records the change in size the same way upserts and deletes do.
+     */
+    private fun write(entitySetId: UUID, entityKeyIds: Collection<UUID>, version: Long) {
+        hds.connection.use { connection ->
+            connection.autoCommit = false
+            try {
+                val previousVersions = lockEntityVersions(connection, entitySetId, entityKeyIds)
+                connection.prepareStatement(updateEntitySql).use { ps ->
+                    entityKeyIds.sorted().forEach {
+                        ps.setArray(1, PostgresArrays.createLongArray(connection, version))
+                        ps.setObject(2, version)
+                        ps.setObject(3, version)
+                        ps.setObject(4, entitySetId)
+                        ps.setObject(5, it)
+                        ps.addBatch()
+                    }
+                    ps.executeBatch()
+                }
+                addEntitySetSizeDeltas(
+                        connection,
+                        mapOf(entitySetId to getLiveEntityDelta(previousVersions.values, version))
+                )
+                connection.commit()
+            } catch (e: Exception) {
+                connection.rollback()
+                throw e
+            }
+        }
+    }
+
+    private fun getSize(connection: Connection, entitySetId: UUID): Long {
+        return connection.prepareStatement(selectEntitySetSizeSql).use { ps ->
+            ps.setObject(1, entitySetId)
+            ps.executeQuery().use { rs ->
+                rs.next()
+                rs.getLong(1)
+            }
+        }
+    }
+
+    private fun getSize(entitySetId: UUID): Long {
+        return hds.connection.use { getSize(it, entitySetId) }
+    }
+
+    private fun getDrift(entitySetId: UUID): Long {
+        return hds.connection.use { connection ->
+            connection.createStatement().use { stmt ->
+                stmt.executeQuery(selectEntitySetSizeDriftsSql).use { rs ->
+                    var drift = 0L
+                    while (rs.next()) {
+                        if (rs.getObject(ENTITY_SET_ID.name, UUID::class.java) == entitySetId) {
+                            drift = rs.getLong(2)
+                        }
+                    }
+                    drift
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testVersionsAreOnlyLockedWithinATransaction() {
+        hds.connection.use { lockEntityVersions(it, UUID.randomUUID(), listOf(UUID.randomUUID())) }
+    }
+
+    @Test
+    fun testLockedVersionsOfExistingEntitiesAreRead() {
+        val entitySetId = UUID.randomUUID()
+        val entityKeyIds = createEntities(entitySetId, 3)
+
+        hds.connection.use { connection ->
+            connection.autoCommit = false
+            val versions = lockEntityVersions(connection, entitySetId, entityKeyIds + UUID.randomUUID())
+            connection.rollback()
+
+            Assert.assertEquals(entityKeyIds.associateWith { -1L }, versions)
+        }
+    }
+
+    @Test
+    fun testWritesAndClearsAreCounted() {
+        val entitySetId = UUID.randomUUID()
+        val entityKeyIds = createEntities(entitySetId, 10)
+        Assert.assertEquals(0L, getSize(entitySetId))
+
+        write(entitySetId, entityKeyIds, 10)
+        Assert.assertEquals(10L, getSize(entitySetId))
+
+        // rewritten entities are already counted
+        write(entitySetId, entityKeyIds.take(5), 20)
+        Assert.assertEquals(10L, getSize(entitySetId))
+
+        write(entitySetId, entityKeyIds.take(3), -30)
+        Assert.assertEquals(7L, getSize(entitySetId))
+
+        // an older write doesn't bring back cleared entities
+        write(entitySetId, entityKeyIds.take(3), 25)
+        Assert.assertEquals(7L, getSize(entitySetId))
+        Assert.assertEquals(0L, getDrift(entitySetId))
+    }
+
+    @Test
+    fun testConcurrentWritesOfTheSameEntitiesAreCountedOnce() {
+        val entitySetId = UUID.randomUUID()
+        val entityKeyIds = createEntities(entitySetId, 100)
+        val executor = Executors.newFixedThreadPool(8)
+
+        try {
+            executor.invokeAll((1..8).map { writer ->
+                Callable { write(entitySetId, entityKeyIds.shuffled(), writer.toLong()) }
+            }).forEach { it.get() }
+        } finally {
+            executor.shutdown()
+        }
+
+        Assert.assertEquals(100L, getSize(entitySetId))
+        Assert.assertEquals(0L, getDrift(entitySetId))
+    }
+
+    @Test
+    fun testCompactionKeepsSizes() {
+        val entitySetId = UUID.randomUUID()
+        val entityKeyIds = createEntities(entitySetId, 20)
+        entityKeyIds.chunked(2).forEach { write(entitySetId, it, 10) }
+        write(entitySetId, entityKeyIds, -20)
+        Assert.assertEquals(0L, getSize(entitySetId))
+
+        val otherEntitySetId = UUID.randomUUID()
+        createEntities(otherEntitySetId, 5).forEach { write(otherEntitySetId, listOf(it), 10) }
+
+        hds.connection.use { compactEntitySetSizes(it) }
+
+        Assert.assertEquals(0L, getSize(entitySetId))
+        Assert.assertEquals(5L, getSize(otherEntitySetId))
+
+        hds.connection.use { connection ->
+            connection.prepareStatement(
+                    "SELECT ${PARTITION.name} FROM ${ENTITY_SET_SIZES.name} WHERE ${ENTITY_SET_ID.name} = ANY(?)"
+            ).use { ps ->
+                ps.setArray(1, PostgresArrays.createUuidArray(connection, listOf(entitySetId, otherEntitySetId)))
+                ps.executeQuery().use { rs ->
+                    val partitions = mutableListOf<Int>()
+                    while (rs.next()) {
+                        partitions.add(rs.getInt(1))
+                    }
+                    // empty totals are dropped and the rest are folded into partition 0
+                    Assert.assertEquals(listOf(0), partitions)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testReconciliationCorrectsDrift() {
+        val entitySetId = UUID.randomUUID()
+        val entityKeyIds = createEntities(entitySetId, 10)
+        write(entitySetId, entityKeyIds, 10)
+
+        hds.connection.use { addEntitySetSizeDeltas(it, mapOf(entitySetId to 3L)) }
+        Assert.assertEquals(13L, getSize(entitySetId))
+        Assert.assertEquals(-3L, getDrift(entitySetId))
+
+        val drifts = hds.connection.use { reconcileEntitySetSizes(it) }
+        Assert.assertEquals(-3L, drifts[entitySetId])
+        Assert.assertEquals(10L, getSize(entitySetId))
+        Assert.assertEquals(0L, getDrift(entitySetId))
+    }
+}
@@ -0,0 +1,29 @@
+package com.openlattice.data.storage
+
+import org.junit.Assert
+import org.junit.Test
+
+class PostgresEntitySetSizesTest {
+
+    @Test
+    fun testWritesMakeEntitiesLive() {
+        // new, cleared before the write, live, and cleared after the write
+        val previousVersions = listOf(0L, -5L, 5L, -20L)
+
+        Assert.assertEquals(2L, getLiveEntityDelta(previousVersions, 10L))
+    }
+
+    @Test
+    fun testClearsMakeEntitiesNotLive() {
+        // new, live, live after the clear, and already cleared
+        val previousVersions = listOf(0L, 5L, 20L, -5L)
+
+        Assert.assertEquals(-1L, getLiveEntityDelta(previousVersions, -10L))
+    }
+
+    @Test
+    fun testRewritesDoNotChangeSize() {
+        Assert.assertEquals(0L, getLiveEntityDelta(listOf(5L, 10L), 10L))
+        Assert.assertEquals(0L, getLiveEntityDelta(listOf(), 10L))
+    }
+}
@@ -0,0 +1,83 @@
+package com.openlattice.data.storage
+
+import com.zaxxer.hikari.HikariConfig
+import com.zaxxer.hikari.HikariDataSource
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+
+class ReplicaRouterTest {
+
+    @Test
+    fun testLsnRoundTrip() {
+        listOf("0/0", "16/B374D848", "FFFFFFFF/FFFFFFFF").forEach {
+            Assert.assertEquals(it, ReadConsistency.formatLsn(ReadConsistency.parseLsn(it)))
+        }
+        Assert.assertTrue(ReadConsistency.parseLsn("1/0") > ReadConsistency.parseLsn("0/FFFFFFFF"))
+    }
+
+    @Test
+    fun testStalenessIsAgeOfLastReplayedSample() {
+        val tracker = ReplicaLagTracker(2)
+        tracker.recordPrimaryLsn(1_000, 100)
+        tracker.recordPrimaryLsn(2_000, 200)
+        tracker.recordPrimaryLsn(3_000, 300)
+        tracker.recordReplayLsn(0, 250)
+        tracker.recordReplayLsn(1, 50)
+
+        Assert.assertEquals(1_500L, tracker.getStaleness(0, 3_500))
+        // lags further behind than the samples reach
+        Assert.assertNull(tracker.getStaleness(1, 3_500))
+    }
+
+    @Test
+    fun testChoosesReplicasWithinBudget() {
+        val tracker = ReplicaLagTracker(2)
+        tracker.recordPrimaryLsn(1_000, 100)
+        tracker.recordPrimaryLsn(2_000, 200)
+        tracker.recordReplayLsn(0, 200)
+        tracker.recordReplayLsn(1, 100)
+
+        Assert.assertNull(tracker.choose(ReadConsistency.PRIMARY, 2_100))
+        Assert.assertNull(tracker.choose(ReadConsistency(50), 2_100))
+        Assert.assertEquals(0, tracker.choose(ReadConsistency(500), 2_100))
+        Assert.assertEquals(
+                setOf(0, 1),
+                (1..4).mapNotNull { tracker.choose(ReadConsistency(5_000), 2_100) }.toSet()
+        )
+    }
+
+    @Test
+    fun testReadYourWrites() {
+        val tracker = ReplicaLagTracker(1)
+        tracker.recordPrimaryLsn(1_000, 100)
+        tracker.recordReplayLsn(0, 100)
+
+        Assert.assertEquals(0, tracker.choose(ReadConsistency(5_000, 100), 1_100))
+        Assert.assertNull(tracker.choose(ReadConsistency(5_000, 101), 1_100))
+
+        // unavailable replicas never serve reads
+        tracker.recordReplayLsn(0, null)
+        Assert.assertNull(tracker.choose(ReadConsistency(5_000), 1_100))
+    }
+
+    /**
+     * Requires a primary on port 5432 streaming to a replica on port 5433.
+     */
+    @Ignore
+    @Test
+    fun testRoutingWithLocalReplica() {
+        val primary = HikariDataSource(HikariConfig().apply { jdbcUrl = "jdbc:postgresql://localhost:5432/postgres" })
+        val replica = HikariDataSource(HikariConfig().apply { jdbcUrl = "jdbc:postgresql://localhost:5433/postgres" })
+        val router = ReplicaRouter(primary, listOf(replica), 100)
+        Thread.sleep(500)
+
+        Assert.assertSame(primary, router.route(ReadConsistency.PRIMARY))
+        Assert.assertSame(replica, router.route(ReadConsistency(5_000)))
+
+        primary.connection.use { it.createStatement().execute("CREATE TEMP TABLE replica_router_test AS SELECT 1") }
+        val writeLsn = router.getCurrentLsn()
+        Thread.sleep(500)
+        Assert.assertSame(replica, router.route(ReadConsistency(5_000, writeLsn)))
+    }
+}
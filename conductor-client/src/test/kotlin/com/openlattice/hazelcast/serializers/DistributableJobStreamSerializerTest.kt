@@ -51,7 +51,11 @@ class DistributableJobStreamSerializerTest :
                 DataDeletionJobState(
                         UUID.randomUUID(),
                         deleteType = DeleteType.Hard,
-                        mutableSetOf(UUID.randomUUID())
+                        mutableSetOf(UUID.randomUUID()),
+                        lowerBound = UUID.randomUUID(),
+                        upperBound = UUID.randomUUID(),
+                        shardDeletes = mutableMapOf(UUID.randomUUID() to 1L, UUID.randomUUID() to 0L),
+                        adoptedShards = mutableSetOf(UUID.randomUUID())
                 )
         )
 
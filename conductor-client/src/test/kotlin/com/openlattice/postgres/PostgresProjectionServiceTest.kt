@@ -0,0 +1,62 @@
+package com.openlattice.postgres
+
+import org.junit.Assert
+import org.junit.Test
+
+class PostgresProjectionServiceTest {
+
+    @Test
+    fun testReplicaAlterations() {
+        val current = linkedMapOf("id" to "uuid", "name" to "text", "age" to "integer", "removed" to "text")
+        val target = linkedMapOf("id" to "uuid", "name" to "text", "age" to "bigint", "added" to "date")
+
+        val alterations = PostgresProjectionService.getReplicaAlterations(current, target)
+        Assert.assertEquals(setOf("removed"), alterations.dropped)
+        Assert.assertEquals(mapOf("age" to "bigint"), alterations.retyped)
+        Assert.assertEquals(mapOf("added" to "date"), alterations.added)
+        Assert.assertTrue(alterations.requiresReseed())
+        Assert.assertEquals(
+                listOf(
+                        "DROP COLUMN \"removed\"",
+                        "ALTER COLUMN \"age\" TYPE bigint USING \"age\"::text::bigint",
+                        "ADD COLUMN \"added\" date"
+                ),
+                alterations.toSql()
+        )
+
+        // dropping a column leaves the remaining rows intact
+        val dropped = PostgresProjectionService.getReplicaAlterations(current, current - "removed")
+        Assert.assertFalse(dropped.isEmpty())
+        Assert.assertFalse(dropped.requiresReseed())
+
+        Assert.assertTrue(PostgresProjectionService.getReplicaAlterations(current, current).isEmpty())
+    }
+
+    @Test
+    fun testUnmodifiedReplicasAreNotSynced() {
+        val state = ReplicaState(1_000, 42)
+        Assert.assertFalse(PostgresProjectionService.isReplicaStale(state, 42))
+        Assert.assertTrue(PostgresProjectionService.isReplicaStale(state, 43))
+
+        // statistics were reset
+        Assert.assertTrue(PostgresProjectionService.isReplicaStale(state, 0))
+
+        // modifications aren't counted, or weren't when the replica was last synced
+        Assert.assertTrue(PostgresProjectionService.isReplicaStale(state, null))
+        Assert.assertTrue(PostgresProjectionService.isReplicaStale(ReplicaState(1_000, null), 42))
+    }
+
+    @Test
+    fun testReplicasAreReseededWhenRowsCanNotBeUpserted() {
+        val state = ReplicaState(1_000, 42)
+        val primaryKey = listOf("id")
+
+        Assert.assertTrue(PostgresProjectionService.canUpdateReplica(state, primaryKey, 2_000))
+        Assert.assertFalse(PostgresProjectionService.canUpdateReplica(state, listOf(), 2_000))
+
+        // too far behind for the age of an xmin to tell whether it was written after the watermark
+        val horizon = state.watermark + PostgresProjectionService.MAX_REPLICA_WATERMARK_AGE
+        Assert.assertTrue(PostgresProjectionService.canUpdateReplica(state, primaryKey, horizon - 1))
+        Assert.assertFalse(PostgresProjectionService.canUpdateReplica(state, primaryKey, horizon))
+    }
+}
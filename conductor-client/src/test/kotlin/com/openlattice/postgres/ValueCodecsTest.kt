@@ -0,0 +1,71 @@
+package com.openlattice.postgres
+
+import com.openlattice.data.util.PostgresDataHasher
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.junit.Assert
+import org.junit.Test
+import java.time.*
+import java.util.*
+
+class ValueCodecsTest {
+    private val random = Random(0)
+    private val propertyTypeId = UUID.randomUUID()
+
+    @Test
+    fun testHashesMatchPostgresDataHasher() {
+        val generators = mapOf<EdmPrimitiveTypeKind, () -> Any>(
+                EdmPrimitiveTypeKind.Boolean to { random.nextBoolean() },
+                EdmPrimitiveTypeKind.Date to { LocalDate.ofEpochDay(random.nextInt(50_000).toLong()) },
+                EdmPrimitiveTypeKind.DateTimeOffset to {
+                    OffsetDateTime.ofInstant(Instant.ofEpochMilli(random.nextLong() shr 20), ZoneOffset.UTC)
+                },
+                EdmPrimitiveTypeKind.Duration to { random.nextLong() },
+                EdmPrimitiveTypeKind.Guid to { UUID(random.nextLong(), random.nextLong()) },
+                EdmPrimitiveTypeKind.String to { "ünïcödé ${random.nextLong()} ✓" },
+                EdmPrimitiveTypeKind.TimeOfDay to { LocalTime.ofNanoOfDay(random.nextInt(86_400_000) * 1_000_000L) },
+                EdmPrimitiveTypeKind.Double to { random.nextGaussian() * 1e6 },
+                EdmPrimitiveTypeKind.Byte to { random.nextInt().toByte() },
+                EdmPrimitiveTypeKind.Int16 to { random.nextInt().toShort() },
+                EdmPrimitiveTypeKind.Int32 to { random.nextInt() },
+                EdmPrimitiveTypeKind.Int64 to { random.nextLong() },
+                EdmPrimitiveTypeKind.GeographyPoint to { "${random.nextDouble()},${random.nextDouble()}" }
+        )
+
+        generators.forEach { (datatype, generate) ->
+            val codec = ValueCodecs.of(datatype)
+            repeat(1_000) {
+                val value = generate()
+                Assert.assertArrayEquals(
+                        "Hash of $datatype value $value",
+                        PostgresDataHasher.hashObject(value, datatype),
+                        codec.hash(value)
+                )
+            }
+        }
+    }
+
+    @Test
+    fun testNormalize() {
+        Assert.assertEquals(true, ValueCodecs.of(EdmPrimitiveTypeKind.Boolean).normalize(propertyTypeId, "true"))
+        Assert.assertEquals(
+                LocalDate.of(2020, 2, 29),
+                ValueCodecs.of(EdmPrimitiveTypeKind.Date).normalize(propertyTypeId, "2020-02-29")
+        )
+        Assert.assertEquals(
+                90_000L,
+                ValueCodecs.of(EdmPrimitiveTypeKind.Duration).normalize(propertyTypeId, "PT1M30S")
+        )
+        Assert.assertEquals(42L, ValueCodecs.of(EdmPrimitiveTypeKind.Int64).normalize(propertyTypeId, "42"))
+        Assert.assertEquals(42L, ValueCodecs.of(EdmPrimitiveTypeKind.Int64).normalize(propertyTypeId, 42))
+        Assert.assertEquals(1.5, ValueCodecs.of(EdmPrimitiveTypeKind.Double).normalize(propertyTypeId, "1.5"))
+        Assert.assertEquals(
+                "47.6,-122.3",
+                ValueCodecs.of(EdmPrimitiveTypeKind.GeographyPoint).normalize(propertyTypeId, "47.6, -122.3")
+        )
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun testRejectsValuesOfTheWrongForm() {
+        ValueCodecs.of(EdmPrimitiveTypeKind.Date).normalize(propertyTypeId, 20200229)
+    }
+}
@@ -0,0 +1,127 @@
+package com.openlattice.principals
+
+import com.openlattice.TestServer
+import com.openlattice.authorization.AclKey
+import com.openlattice.authorization.AclKeySet
+import com.openlattice.hazelcast.HazelcastMap
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+/**
+ * Checks that propagating each change to the principal trees leaves the same closures and members as computing them
+ * from scratch.
+ */
+class PrincipalClosureServiceTest : TestServer() {
+    private val principalTrees = HazelcastMap.PRINCIPAL_TREES.getMap(hazelcastInstance)
+    private val closures = PrincipalClosureService(hazelcastInstance)
+
+    private fun principals(count: Int): List<AclKey> {
+        return (1..count).map { AclKey(UUID.randomUUID(), UUID.randomUUID()) }
+    }
+
+    private fun add(source: AclKey, vararg targets: AclKey): Set<AclKey> {
+        targets.forEach { target ->
+            val tree = principalTrees[target] ?: AclKeySet()
+            tree.add(source)
+            principalTrees.set(target, tree)
+        }
+        return closures.principalAdded(source, targets.toSet())
+    }
+
+    private fun removeFromTrees(source: AclKey, targets: Collection<AclKey>) {
+        targets.forEach { target ->
+            val tree = principalTrees.getValue(target)
+            tree.remove(source)
+            principalTrees.set(target, tree)
+        }
+    }
+
+    private fun remove(source: AclKey, vararg targets: AclKey): Set<AclKey> {
+        removeFromTrees(source, targets.toList())
+        return closures.principalsRemoved(targets.toSet())
+    }
+
+    private fun delete(aclKey: AclKey, principals: List<AclKey>): Set<AclKey> {
+        val formerMembers = closures.getMembers(aclKey)
+        removeFromTrees(aclKey, principals.filter { principalTrees[it]?.contains(aclKey) ?: false })
+        principalTrees.delete(aclKey)
+        return closures.principalDeleted(aclKey, formerMembers)
+    }
+
+    private fun assertMatchesFullRecompute(principals: List<AclKey>) {
+        val trees = principalTrees.getAll(principals.toSet())
+
+        fun closureOf(aclKey: AclKey): Set<AclKey> {
+            return trees[aclKey].orEmpty().flatMapTo(mutableSetOf()) { closureOf(it) + it }
+        }
+
+        principals.forEach { aclKey ->
+            Assert.assertEquals(closureOf(aclKey), closures.getClosure(aclKey).toSet())
+            Assert.assertEquals(
+                    principals.filter { closureOf(it).contains(aclKey) }.toSet(),
+                    closures.getMembers(aclKey).toSet()
+            )
+        }
+    }
+
+    @Test
+    fun testAddedPrincipalsPropagateToMembers() {
+        val (a, b, c, d) = principals(4)
+
+        Assert.assertEquals(setOf(b), add(c, b))
+        Assert.assertEquals(setOf(a), add(b, a))
+        assertMatchesFullRecompute(listOf(a, b, c, d))
+
+        Assert.assertEquals(setOf(a, b, c), add(d, c))
+        assertMatchesFullRecompute(listOf(a, b, c, d))
+
+        // already inherited through b
+        Assert.assertEquals(setOf<AclKey>(), add(c, a))
+        assertMatchesFullRecompute(listOf(a, b, c, d))
+    }
+
+    @Test
+    fun testRemovedPrincipalsPropagateToMembers() {
+        val (a, b, c, d) = principals(4)
+        add(d, c)
+        add(c, b)
+        add(b, a)
+
+        Assert.assertEquals(setOf(b, a), remove(c, b))
+        assertMatchesFullRecompute(listOf(a, b, c, d))
+        Assert.assertEquals(setOf(d), closures.getClosure(c))
+    }
+
+    @Test
+    fun testPrincipalsInheritedTwiceAreKeptUntilBothAreRemoved() {
+        val (a, b, c, d) = principals(4)
+        add(d, b, c)
+        add(b, a)
+        add(c, a)
+        assertMatchesFullRecompute(listOf(a, b, c, d))
+
+        // a still inherits d through c
+        Assert.assertEquals(setOf(b), remove(d, b))
+        assertMatchesFullRecompute(listOf(a, b, c, d))
+        Assert.assertEquals(setOf(a, c), closures.getMembers(d))
+
+        Assert.assertEquals(setOf(c, a), remove(d, c))
+        assertMatchesFullRecompute(listOf(a, b, c, d))
+        Assert.assertEquals(setOf<AclKey>(), closures.getMembers(d))
+    }
+
+    @Test
+    fun testDeletedPrincipalsAreRemovedFromClosuresAndMembers() {
+        val (a, b, c, d) = principals(4)
+        add(c, b)
+        add(b, a, d)
+        val principals = listOf(a, b, c, d)
+
+        Assert.assertEquals(setOf(a, d), delete(b, principals))
+        assertMatchesFullRecompute(listOf(a, c, d))
+        Assert.assertEquals(setOf<AclKey>(), closures.getClosure(b))
+        Assert.assertEquals(setOf<AclKey>(), closures.getMembers(b))
+        Assert.assertEquals(setOf<AclKey>(), closures.getMembers(c))
+    }
+}
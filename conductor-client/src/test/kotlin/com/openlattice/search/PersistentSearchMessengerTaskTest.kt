@@ -0,0 +1,140 @@
+package com.openlattice.search
+
+import com.openlattice.authorization.Principal
+import com.openlattice.edm.EdmConstants
+import com.openlattice.mapstores.TestDataFactory
+import com.openlattice.search.renderers.AlprAlertEmailRenderer
+import com.openlattice.search.requests.PersistentSearch
+import com.openlattice.search.requests.PersistentSearchNotificationType
+import com.openlattice.search.requests.SearchConstraints
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.junit.Assert
+import org.junit.Test
+import java.awt.image.BufferedImage
+import java.io.File
+import java.time.OffsetDateTime
+import java.util.*
+import javax.imageio.ImageIO
+
+class PersistentSearchMessengerTaskTest {
+    private val now = OffsetDateTime.now()
+
+    private fun hit(secondsAgo: Long): Map<FullQualifiedName, Set<Any>> {
+        return mapOf(EdmConstants.LAST_WRITE_FQN to setOf(now.minusSeconds(secondsAgo)))
+    }
+
+    private fun alert(entitySetId: UUID): PersistentSearch {
+        return PersistentSearch(
+                Optional.empty(),
+                Optional.empty(),
+                now.plusDays(1),
+                PersistentSearchNotificationType.ALPR_ALERT,
+                SearchConstraints.simpleSearchConstraints(arrayOf(entitySetId), 0, 10, "*"),
+                mapOf(),
+                Optional.empty()
+        )
+    }
+
+    private fun subscriber(principals: Set<Principal>, vararg alerts: PersistentSearch): AlertSubscriber {
+        val securablePrincipal = TestDataFactory.securableUserPrincipal()
+        return AlertSubscriber(securablePrincipal, principals + securablePrincipal.principal, alerts.toSet())
+    }
+
+    @Test
+    fun testSubscribersWithTheSamePermissionsShareAGroup() {
+        val role = TestDataFactory.rolePrincipal()
+        val otherRole = TestDataFactory.rolePrincipal()
+        val subscribers = listOf(
+                subscriber(setOf(role)),
+                subscriber(setOf(role, otherRole)),
+                subscriber(setOf(otherRole))
+        )
+
+        // the other role holds no permission on the searched data, so it does not split the group
+        val groups = PersistentSearchMessengerTask.groupByEffectivePrincipals(subscribers, setOf(role))
+        Assert.assertEquals(setOf(setOf(role), setOf()), groups.keys)
+        Assert.assertEquals(subscribers.take(2), groups.getValue(setOf(role)))
+        Assert.assertEquals(subscribers.drop(2), groups.getValue(setOf()))
+    }
+
+    @Test
+    fun testGroupedSubscribersDoNotSeeHitsAuthorizedOnlyForAnotherMember() {
+        val role = TestDataFactory.rolePrincipal()
+        val sharedEntitySetId = UUID.randomUUID()
+        val privateEntitySetId = UUID.randomUUID()
+
+        val owner = subscriber(setOf(role), alert(sharedEntitySetId), alert(privateEntitySetId))
+        val member = subscriber(setOf(role), alert(sharedEntitySetId), alert(privateEntitySetId))
+        val otherMember = subscriber(setOf(role), alert(sharedEntitySetId))
+        val readers = mapOf(
+                sharedEntitySetId to setOf(role),
+                privateEntitySetId to setOf(owner.securablePrincipal.principal)
+        )
+
+        val groups = PersistentSearchMessengerTask.groupByEffectivePrincipals(
+                listOf(owner, member, otherMember),
+                readers.values.flatten().toSet()
+        )
+        Assert.assertEquals(listOf(owner), groups.getValue(setOf(role, owner.securablePrincipal.principal)))
+        Assert.assertEquals(listOf(member, otherMember), groups.getValue(setOf(role)))
+
+        val alertsByGroup = groups.mapValues { (effectivePrincipals, groupSubscribers) ->
+            val authorizedEntitySetIds = readers.filterValues { it.any(effectivePrincipals::contains) }.keys
+            PersistentSearchMessengerTask.getAuthorizedAlerts(groupSubscribers, authorizedEntitySetIds)
+        }
+
+        // every group is searched with principals that each of its subscribers holds
+        groups.forEach { (effectivePrincipals, groupSubscribers) ->
+            groupSubscribers.forEach { Assert.assertTrue(it.principals.containsAll(effectivePrincipals)) }
+        }
+
+        // the private entity set is searched for its reader only
+        val privateAlerts = alertsByGroup.values.flatten().filter { (_, persistentSearch) ->
+            persistentSearch.searchConstraints.entitySetIds.contains(privateEntitySetId)
+        }
+        Assert.assertEquals(listOf(owner), privateAlerts.map { it.first })
+        Assert.assertEquals(listOf(member, otherMember), alertsByGroup.getValue(setOf(role)).map { it.first })
+    }
+
+    @Test
+    fun testDigestsIncludeTheOldestHits() {
+        val hits = listOf("a" to hit(1), "b" to hit(5), "a" to hit(3), "b" to hit(4), "a" to hit(2))
+
+        val included = PersistentSearchMessengerTask.getOldestHits(hits, 3)
+        Assert.assertEquals(listOf(hit(5), hit(4), hit(3)), included.map { it.second })
+
+        // last read stops at the last included hit, so the newer hits are found again by the next run
+        Assert.assertEquals(now.minusSeconds(3), PersistentSearchMessengerTask.getLatestRead(included.map { it.second }))
+
+        Assert.assertEquals(5, PersistentSearchMessengerTask.getOldestHits(hits, 10).size)
+    }
+
+    @Test
+    fun testDigestsIncludeHitsWrittenWithTheLastIncludedHit() {
+        val hits = listOf("a" to hit(3), "b" to hit(2), "a" to hit(2), "b" to hit(2), "a" to hit(1))
+
+        // hits written at the same time as the last included one would be skipped by the next run
+        val included = PersistentSearchMessengerTask.getOldestHits(hits, 2)
+        Assert.assertEquals(listOf(hit(3), hit(2), hit(2), hit(2)), included.map { it.second })
+    }
+
+    @Test
+    fun testDigestRowsAreRenderedWithoutAttachments() {
+        val image = File.createTempFile("vehicle", ".jpg")
+        image.deleteOnExit()
+        ImageIO.write(BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), "jpeg", image)
+
+        val persistentSearch = TestDataFactory.persistentSearch()
+        val vehicle = mapOf<FullQualifiedName, Set<Any>>(
+                FullQualifiedName("ol.vehicleimage") to setOf(image.toURI().toString())
+        )
+
+        val email = AlprAlertEmailRenderer.renderEmail(persistentSearch, vehicle, "user@openlattice.com", listOf(), "")
+        Assert.assertEquals(1, email.byteArrayAttachment.get().size)
+
+        val digestRow = AlprAlertEmailRenderer.renderEmail(
+                persistentSearch, vehicle, "user@openlattice.com", listOf(), "", false
+        )
+        Assert.assertEquals(0, digestRow.byteArrayAttachment.get().size)
+    }
+}
@@ -0,0 +1,94 @@
+package com.openlattice.search
+
+import com.codahale.metrics.MetricRegistry
+import com.openlattice.edm.EdmConstants
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.mapstores.TestDataFactory
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.junit.Assert
+import org.junit.Test
+import java.time.OffsetDateTime
+import java.util.*
+
+class SearchHydrationCacheTest {
+    private val entitySetId = UUID.randomUUID()
+    private val propertyType = TestDataFactory.propertyType(EdmPrimitiveTypeKind.String)
+    private val propertyTypes = mapOf(propertyType.id to propertyType)
+
+    private fun entity(id: UUID, lastWrite: OffsetDateTime, value: String): Map<FullQualifiedName, Set<Any>> {
+        return mapOf(
+                EdmConstants.ID_FQN to setOf(id.toString()),
+                EdmConstants.LAST_WRITE_FQN to setOf(lastWrite),
+                propertyType.type to setOf(value)
+        )
+    }
+
+    @Test
+    fun testEntriesAreOnlyServedAtTheirLastWrite() {
+        val cache = SearchHydrationCache(MetricRegistry())
+        val id = UUID.randomUUID()
+        val lastWrite = OffsetDateTime.now()
+        cache.putAll(entitySetId, propertyTypes, listOf(entity(id, lastWrite, "a")))
+
+        val hit = cache.getAll(entitySetId, setOf(id), propertyTypes) { ids -> ids.associateWith { lastWrite } }
+        Assert.assertEquals(setOf("a"), hit.getValue(id)[propertyType.type])
+
+        // written in bulk or on another node, without the cache being told
+        val written = cache.getAll(entitySetId, setOf(id), propertyTypes) { ids ->
+            ids.associateWith { lastWrite.plusSeconds(1) }
+        }
+        Assert.assertTrue(written.isEmpty())
+
+        // hard deleted
+        Assert.assertTrue(cache.getAll(entitySetId, setOf(id), propertyTypes) { mapOf() }.isEmpty())
+    }
+
+    @Test
+    fun testLastWritesAreOnlyLookedUpForCachedEntities() {
+        val cache = SearchHydrationCache(MetricRegistry())
+        val cached = UUID.randomUUID()
+        val lastWrite = OffsetDateTime.now()
+        cache.putAll(entitySetId, propertyTypes, listOf(entity(cached, lastWrite, "a")))
+
+        val lookedUp = mutableListOf<Set<UUID>>()
+        val lookup = { ids: Set<UUID> -> lookedUp.add(ids); ids.associateWith { lastWrite } }
+
+        cache.getAll(entitySetId, setOf(cached, UUID.randomUUID()), propertyTypes, lookup)
+        Assert.assertEquals(listOf(setOf(cached)), lookedUp)
+
+        cache.getAll(entitySetId, setOf(UUID.randomUUID()), propertyTypes, lookup)
+        cache.getAll(UUID.randomUUID(), setOf(cached), propertyTypes, lookup)
+        Assert.assertEquals(1, lookedUp.size)
+    }
+
+    @Test
+    fun testInvalidatedEntriesAreNotReplacedByStaleReads() {
+        val cache = SearchHydrationCache(MetricRegistry())
+        val id = UUID.randomUUID()
+        val lastWrite = OffsetDateTime.now()
+        val current = { ids: Set<UUID> -> ids.associateWith { lastWrite } }
+
+        cache.invalidate(entitySetId, listOf(id), lastWrite.plusSeconds(1))
+        cache.putAll(entitySetId, propertyTypes, listOf(entity(id, lastWrite, "a")))
+        Assert.assertTrue(cache.getAll(entitySetId, setOf(id), propertyTypes, current).isEmpty())
+    }
+
+    @Test
+    fun testEntriesServeSubsetsOfTheirPropertyTypes() {
+        val cache = SearchHydrationCache(MetricRegistry())
+        val id = UUID.randomUUID()
+        val lastWrite = OffsetDateTime.now()
+        val current = { ids: Set<UUID> -> ids.associateWith { lastWrite } }
+        val other = TestDataFactory.propertyType(EdmPrimitiveTypeKind.String)
+        cache.putAll(entitySetId, propertyTypes, listOf(entity(id, lastWrite, "a")))
+
+        Assert.assertEquals(1, cache.getAll(entitySetId, setOf(id), propertyTypes, current).size)
+        Assert.assertTrue(cache.getAll(entitySetId, setOf(id), propertyTypes + (other.id to other), current).isEmpty())
+
+        val binary: PropertyType = TestDataFactory.binaryPropertyType()
+        val withBinary = mapOf(binary.id to binary)
+        cache.putAll(entitySetId, withBinary, listOf(entity(id, lastWrite.plusSeconds(1), "b")))
+        Assert.assertTrue(cache.getAll(entitySetId, setOf(id), withBinary, current).isEmpty())
+    }
+}
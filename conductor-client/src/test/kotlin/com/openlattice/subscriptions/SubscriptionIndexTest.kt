@@ -0,0 +1,122 @@
+package com.openlattice.subscriptions
+
+import com.openlattice.authorization.Principal
+import com.openlattice.authorization.PrincipalType
+import com.openlattice.data.DataEdgeKey
+import com.openlattice.data.EntityDataKey
+import com.openlattice.graph.GraphQueryService
+import com.openlattice.graph.NeighborhoodQuery
+import com.openlattice.graph.NeighborhoodSelection
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.*
+
+class SubscriptionIndexTest {
+    private val principal = Principal(PrincipalType.USER, "subscriber")
+    private val watchedEntitySetId = UUID.randomUUID()
+    private val neighborEntitySetId = UUID.randomUUID()
+    private val associationEntitySetId = UUID.randomUUID()
+    private val watched = EntityDataKey(watchedEntitySetId, UUID.randomUUID())
+
+    private fun key(entitySetId: UUID) = EntityDataKey(entitySetId, UUID.randomUUID())
+
+    private fun subscription(watched: EntityDataKey, vararg neighborEntitySetIds: UUID): Pair<Principal, Subscription> {
+        val selections = neighborEntitySetIds.map { NeighborhoodSelection(entitySetIds = Optional.of(setOf(it))) }
+        return principal to Subscription(
+                NeighborhoodQuery(mapOf(watched.entitySetId to Optional.of(setOf(watched.entityKeyId))), selections, listOf()),
+                mapOf(SubscriptionContactType.EMAIL to "subscriber@openlattice.com"),
+                UUID.randomUUID()
+        )
+    }
+
+    /**
+     * Resolves entity types to no entity sets, so neighbors are only selected by entity set id.
+     */
+    private class NoEntityTypesGraphQueryService : GraphQueryService by Mockito.mock(GraphQueryService::class.java) {
+        override fun getEntitySets(entityTypeIds: Optional<Set<UUID>>): List<UUID> = listOf()
+    }
+
+    private fun index(vararg subscriptions: Pair<Principal, Subscription>): SubscriptionIndex {
+        val index = SubscriptionIndex(NoEntityTypesGraphQueryService())
+        index.rebuild(subscriptions.toList())
+        return index
+    }
+
+    private val noEdges = { _: UUID, _: Set<UUID> -> listOf<DataEdgeKey>() }
+
+    @Test
+    fun testWritesToWatchedEntitiesMatchDirectly() {
+        val index = index(subscription(watched, neighborEntitySetId))
+        Assert.assertEquals(setOf(watchedEntitySetId, neighborEntitySetId), index.watchedEntitySetIds)
+
+        val matched = index.match(listOf(watched), listOf(), noEdges)
+        Assert.assertEquals(setOf(watched), matched.keys.map { it.watched }.toSet())
+        Assert.assertEquals(setOf(watchedEntitySetId), matched.values.single())
+
+        Assert.assertTrue(index.match(listOf(key(watchedEntitySetId)), listOf(), noEdges).isEmpty())
+    }
+
+    @Test
+    fun testWrittenNeighborsMatchOnlyIfConnected() {
+        val index = index(subscription(watched, neighborEntitySetId))
+        val connected = key(neighborEntitySetId)
+        val unconnected = key(neighborEntitySetId)
+        val edge = DataEdgeKey(watched, connected, key(associationEntitySetId))
+        val reads = mutableListOf<Pair<UUID, Set<UUID>>>()
+
+        val matched = index.match(listOf(connected, unconnected), listOf()) { entitySetId, entityKeyIds ->
+            reads.add(entitySetId to entityKeyIds)
+            listOf(edge)
+        }
+
+        Assert.assertEquals(setOf(neighborEntitySetId), matched.values.single())
+        // one read for all candidates in the entity set of the watched entity
+        Assert.assertEquals(listOf(watchedEntitySetId to setOf(watched.entityKeyId)), reads)
+
+        Assert.assertTrue(index.match(listOf(unconnected), listOf(), noEdges).isEmpty())
+    }
+
+    @Test
+    fun testChangedEdgesMatchWithoutReadingEdges() {
+        val index = index(subscription(watched, neighborEntitySetId))
+        val failingGetEdges = { _: UUID, _: Set<UUID> -> throw IllegalStateException("Edge was deleted.") }
+
+        val deleted = DataEdgeKey(key(neighborEntitySetId), watched, key(associationEntitySetId))
+        val matched = index.match(listOf(), listOf(deleted), failingGetEdges)
+        Assert.assertEquals(setOf(neighborEntitySetId), matched.values.single())
+
+        // neither the other end nor the association is in a watched neighbor entity set
+        val unwatched = DataEdgeKey(watched, key(UUID.randomUUID()), key(associationEntitySetId))
+        Assert.assertTrue(index.match(listOf(), listOf(unwatched), failingGetEdges).isEmpty())
+    }
+
+    @Test
+    fun testSubscriptionsWithoutSelectionsWatchEveryEntitySet() {
+        val index = index(subscription(watched))
+        Assert.assertTrue(index.watchedEntitySetIds.contains(ALL_ENTITY_SETS))
+
+        val neighbor = key(UUID.randomUUID())
+        val matched = index.match(listOf(neighbor), listOf()) { _, _ ->
+            listOf(DataEdgeKey(neighbor, watched, key(associationEntitySetId)))
+        }
+        Assert.assertEquals(setOf(neighbor.entitySetId), matched.values.single())
+    }
+
+    @Test
+    fun testUpdatesReplaceSubscriptionsToChangedEntities() {
+        val other = key(watchedEntitySetId)
+        val index = index(subscription(watched, neighborEntitySetId), subscription(other))
+
+        // the subscription to watched now selects another entity set and the one to other was deleted
+        val otherNeighborEntitySetId = UUID.randomUUID()
+        index.update(setOf(watched.entityKeyId, other.entityKeyId), listOf(subscription(watched, otherNeighborEntitySetId)))
+        Assert.assertEquals(setOf(watchedEntitySetId, otherNeighborEntitySetId), index.watchedEntitySetIds)
+
+        Assert.assertTrue(index.match(listOf(other), listOf(), noEdges).isEmpty())
+        Assert.assertEquals(1, index.match(listOf(watched), listOf(), noEdges).size)
+
+        val edge = DataEdgeKey(watched, key(neighborEntitySetId), key(associationEntitySetId))
+        Assert.assertTrue(index.match(listOf(), listOf(edge), noEdges).isEmpty())
+    }
+}
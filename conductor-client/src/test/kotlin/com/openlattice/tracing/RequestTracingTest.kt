@@ -0,0 +1,72 @@
+package com.openlattice.tracing
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class RequestTracingTest {
+
+    @Test
+    fun testNestedSpansRecordSelfTime() {
+        val trace = RequestTracing.start("testNestedSpansRecordSelfTime")
+        try {
+            RequestTracing.span(TraceCategory.POSTGRES, "outer") {
+                Thread.sleep(20)
+                RequestTracing.span(TraceCategory.ROW_DECODING, "inner") { Thread.sleep(50) }
+            }
+        } finally {
+            RequestTracing.finish()
+        }
+
+        Assert.assertEquals(1, trace.getCount(TraceCategory.POSTGRES))
+        Assert.assertEquals(1, trace.getCount(TraceCategory.ROW_DECODING))
+        Assert.assertTrue(trace.getNanos(TraceCategory.ROW_DECODING) >= 50_000_000)
+        Assert.assertTrue(trace.getNanos(TraceCategory.POSTGRES) < 50_000_000)
+        Assert.assertEquals("inner", trace.getSlowestSpans().first().name)
+        Assert.assertNull(RequestTracing.current())
+    }
+
+    @Test
+    fun testCapturedTraceFollowsWork() {
+        val trace = RequestTracing.start("testCapturedTraceFollowsWork")
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val traceContext = RequestTracing.capture()
+            executor.submit(Callable {
+                traceContext.run { RequestTracing.span(TraceCategory.HAZELCAST, "get") {} }
+                RequestTracing.current()
+            }).get().let { Assert.assertNull(it) }
+        } finally {
+            executor.shutdown()
+            RequestTracing.finish()
+        }
+
+        Assert.assertEquals(1, trace.getCount(TraceCategory.HAZELCAST))
+    }
+
+    @Test
+    fun testTracedProxyRethrowsExceptions() {
+        val target = Callable<Any> { throw IllegalStateException() }
+        Assert.assertSame(target, RequestTracing.traced(Callable::class.java, target, TraceCategory.ELASTICSEARCH))
+
+        RequestTracing.enabled = true
+        val failing = try {
+            RequestTracing.traced(Callable::class.java, target, TraceCategory.ELASTICSEARCH)
+        } finally {
+            RequestTracing.enabled = false
+        }
+        val trace = RequestTracing.start("testTracedProxyRethrowsExceptions")
+        try {
+            failing.call()
+            Assert.fail()
+        } catch (e: IllegalStateException) {
+            // expected
+        } finally {
+            RequestTracing.finish()
+        }
+
+        Assert.assertEquals(1, trace.getCount(TraceCategory.ELASTICSEARCH))
+        Assert.assertEquals("Callable.call", trace.getSlowestSpans().single().name)
+    }
+}
@@ -134,5 +134,55 @@ class TransporterQueriesTest {
             }
         }
     }
+
+    @Test
+    fun testPivotedTransportQueries() {
+        val props = listOf(
+                TestDataFactory.propertyType(IndexType.NONE, false),
+                TestDataFactory.propertyType(IndexType.NONE, false)
+        )
+        val entityType = TestDataFactory.entityType(*props.toTypedArray())
+        val entitySetId = TestDataFactory.entitySetWithType(entityType.id).id
+        val table = quotedEtTableName(entityType.id)
+        sync(entityType.id, props)
+        val columns = props.associate { it.id to TransporterColumn(it) }
+        val ids = listOf(UUID.randomUUID(), UUID.randomUUID())
+
+        transporter.connection.use { conn ->
+            val partitions = PostgresArrays.createIntArray(conn, listOf(1))
+            val entitySets = PostgresArrays.createUuidArray(conn, listOf(entitySetId))
+            val ekids = PostgresArrays.createUuidArray(conn, ids)
+            listOf(
+                    selectTransportBatch() to { ps: PreparedStatement ->
+                        ps.setArray(1, partitions)
+                        ps.setArray(2, entitySets)
+                        ps.setLong(3, 0L)
+                    },
+                    upsertPivotedRows(table, columns) to { ps: PreparedStatement ->
+                        ps.setArray(1, PostgresArrays.createUuidArray(conn, ids.map { entitySetId }))
+                        ps.setArray(2, ekids)
+                        ps.setArray(3, PostgresArrays.createUuidArray(conn, listOf(null, UUID.randomUUID())))
+                        ps.setArray(4, PostgresArrays.createLongArray(conn, listOf(1L, -1L)))
+                        ps.setArray(5, partitions)
+                        ps.setArray(6, entitySets)
+                        ps.setArray(7, ekids)
+                    },
+                    advanceTransportWatermarks() to { ps: PreparedStatement ->
+                        ps.setArray(1, entitySets)
+                        ps.setArray(2, PostgresArrays.createLongArray(conn, listOf(1L)))
+                        ps.setArray(3, PostgresArrays.createUuidArray(conn, listOf(MIN_ID)))
+                    }
+            ).forEach { (query, bind) ->
+                conn.prepareStatement(query).use { ps ->
+                    bind(ps)
+                    try {
+                        ps.execute()
+                    } catch (e: PSQLException) {
+                        fail(pretty(query, e))
+                    }
+                }
+            }
+        }
+    }
     */
 }
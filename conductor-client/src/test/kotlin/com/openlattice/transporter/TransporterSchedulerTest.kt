@@ -0,0 +1,92 @@
+package com.openlattice.transporter
+
+import com.openlattice.transporter.services.TransportOutcome
+import com.openlattice.transporter.services.TransporterScheduler
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class TransporterSchedulerTest {
+
+    @Test
+    fun testSlowEntityTypeDoesNotHoldUpOthers() {
+        val slow = UUID.randomUUID()
+        val fast = UUID.randomUUID()
+        val slowRuns = AtomicInteger()
+        val releaseSlow = CountDownLatch(1)
+        val fastRuns = CountDownLatch(10)
+
+        TransporterScheduler(2, 1, 1) { entityTypeId ->
+            if (entityTypeId == slow) {
+                slowRuns.incrementAndGet()
+                releaseSlow.await()
+            } else {
+                fastRuns.countDown()
+            }
+            TransportOutcome.CAUGHT_UP
+        }.use { scheduler ->
+            scheduler.register(slow)
+            scheduler.register(fast)
+            try {
+                Assert.assertTrue("Fast entity type waited on the slow one.", fastRuns.await(10, TimeUnit.SECONDS))
+                Assert.assertEquals(1, slowRuns.get())
+            } finally {
+                releaseSlow.countDown()
+            }
+        }
+    }
+
+    @Test
+    fun testBackloggedEntityTypesRunAgainRightAway() {
+        val backlogged = UUID.randomUUID()
+        val runs = AtomicInteger()
+        val caughtUp = CountDownLatch(1)
+
+        TransporterScheduler(1, 60_000, 60_000) {
+            if (runs.incrementAndGet() < 5) {
+                TransportOutcome.BACKLOGGED
+            } else {
+                caughtUp.countDown()
+                TransportOutcome.CAUGHT_UP
+            }
+        }.use { scheduler ->
+            scheduler.register(backlogged)
+            Assert.assertTrue("Backlogged entity type waited out its interval.", caughtUp.await(10, TimeUnit.SECONDS))
+        }
+
+        Assert.assertEquals(5, runs.get())
+    }
+
+    @Test
+    fun testIdleEntityTypesBackOffUntilWoken() {
+        var interval = 10L
+        val delays = (1..6).map {
+            val (delay, next) = TransporterScheduler.getNextDelay(TransportOutcome.IDLE, false, interval, 10, 200)
+            interval = next
+            delay
+        }
+        Assert.assertEquals(listOf(10L, 20L, 40L, 80L, 160L, 200L), delays)
+
+        // a failed transport backs off like one that found nothing to do
+        Assert.assertEquals(200L to 200L, TransporterScheduler.getNextDelay(null, false, interval, 10, 200))
+
+        // a write seen during the transport is picked up within the minimum interval, without resetting the backoff
+        Assert.assertEquals(10L to 200L, TransporterScheduler.getNextDelay(TransportOutcome.IDLE, true, interval, 10, 200))
+
+        Assert.assertEquals(10L to 10L, TransporterScheduler.getNextDelay(TransportOutcome.CAUGHT_UP, false, interval, 10, 200))
+        Assert.assertEquals(0L to 200L, TransporterScheduler.getNextDelay(TransportOutcome.BACKLOGGED, false, interval, 10, 200))
+    }
+
+    @Test
+    fun testOutcomeFollowsWatermarkProgress() {
+        // only entities within the safety window were transported again
+        Assert.assertEquals(TransportOutcome.IDLE, TransportOutcome.of(42, BATCH_LIMIT, false))
+        Assert.assertEquals(TransportOutcome.IDLE, TransportOutcome.of(BATCH_LIMIT, BATCH_LIMIT, false))
+
+        Assert.assertEquals(TransportOutcome.CAUGHT_UP, TransportOutcome.of(42, BATCH_LIMIT, true))
+        Assert.assertEquals(TransportOutcome.BACKLOGGED, TransportOutcome.of(BATCH_LIMIT, BATCH_LIMIT, true))
+    }
+}
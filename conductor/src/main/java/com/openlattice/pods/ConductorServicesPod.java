@@ -556,7 +556,7 @@ public class ConductorServicesPod {
 
     @Bean
     public DataGraphManager dataGraphService() {
-        return new DataGraphService( graphService(), idService(), entityDatastore(), jobService() );
+        return new DataGraphService( graphService(), idService(), entityDatastore(), jobService(), null );
     }
 
     @Bean
@@ -622,7 +622,7 @@ public class ConductorServicesPod {
 
     @Bean
     public PostgresEntitySetSizesTaskDependency postgresEntitySetSizesTaskDependency() {
-        return new PostgresEntitySetSizesTaskDependency( hikariDataSource );
+        return new PostgresEntitySetSizesTaskDependency( dataSourceResolver() );
     }
 
     @Bean
@@ -669,7 +669,11 @@ public class ConductorServicesPod {
 
     @Bean
     public SubscriptionService subscriptionService() {
-        return new PostgresSubscriptionService( hikariDataSource, defaultObjectMapper() );
+        return new PostgresSubscriptionService(
+                hikariDataSource,
+                defaultObjectMapper(),
+                HazelcastQueue.SUBSCRIPTION_CHANGES.getQueue( hazelcastInstance )
+        );
     }
 
     @Bean
@@ -681,7 +685,12 @@ public class ConductorServicesPod {
                 mailServiceClient(),
                 subscriptionService(),
                 gqs(),
-                HazelcastQueue.TWILIO_FEED.getQueue( hazelcastInstance )
+                HazelcastQueue.TWILIO_FEED.getQueue( hazelcastInstance ),
+                graphService(),
+                HazelcastQueue.SUBSCRIPTION_EVENTS.getQueue( hazelcastInstance ),
+                HazelcastQueue.SUBSCRIPTION_EDGE_EVENTS.getQueue( hazelcastInstance ),
+                HazelcastQueue.SUBSCRIPTION_CHANGES.getQueue( hazelcastInstance ),
+                HazelcastMap.SUBSCRIBED_ENTITY_SETS.getMap( hazelcastInstance )
         );
     }
 
@@ -744,7 +753,10 @@ public class ConductorServicesPod {
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.E );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.IDS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATIONS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATION_POLICIES );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.SYNC_IDS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.ENTITY_SET_SIZES );
         return new DataSourceResolver( hazelcastInstance, dataSourceManager );
     }
 
@@ -28,6 +28,8 @@ import com.geekbeast.rhizome.configuration.ConfigurationKey;
 import com.geekbeast.rhizome.configuration.SimpleConfigurationKey;
 import com.geekbeast.rhizome.configuration.configuration.annotation.ReloadableConfiguration;
 
+import java.util.Optional;
+
 @ReloadableConfiguration( uri = "mail-service-config.yaml" )
 public final class MailServiceConfig implements Configuration {
     private static final long serialVersionUID = -6047689414585379842L;
@@ -39,17 +41,46 @@ public final class MailServiceConfig implements Configuration {
     protected static final String USERNAME_PROPERTY  = "username";
     protected static final String PASSWORD_PROPERTY  = "password";
 
-    protected final String smtpHost;
-    protected final int    smtpPort;
-    protected final String username;
-    protected final String password;
+    protected static final String RENDER_THREADS_PROPERTY          = "render-threads";
+    protected static final String SMTP_SESSIONS_PROPERTY           = "smtp-sessions";
+    protected static final String MAX_SESSIONS_PER_DOMAIN_PROPERTY = "max-sessions-per-domain";
+    protected static final String FAKE_SMTP_SINK_PROPERTY          = "fake-smtp-sink";
+
+    public static final int DEFAULT_SMTP_SESSIONS           = 4;
+    public static final int DEFAULT_MAX_SESSIONS_PER_DOMAIN = 2;
+
+    protected final String  smtpHost;
+    protected final int     smtpPort;
+    protected final String  username;
+    protected final String  password;
+    protected final int     renderThreads;
+    protected final int     smtpSessions;
+    protected final int     maxSessionsPerDomain;
+    protected final boolean fakeSmtpSink;
+
+    public MailServiceConfig( String smtpHost, int smtpPort, String username, String password ) {
+        this( smtpHost, smtpPort, username, password, Optional.empty(), Optional.empty(), Optional.empty(),
+                Optional.empty() );
+    }
 
+    /**
+     * @param renderThreads The number of threads rendering e-mails in parallel. Defaults to the number of processors.
+     * @param smtpSessions The number of SMTP sessions kept open for sending rendered e-mails.
+     * @param maxSessionsPerDomain The maximum number of sessions concurrently sending to the same recipient domain,
+     * which keeps large fan-outs to a single domain from tripping its rate limits.
+     * @param fakeSmtpSink Whether to discard e-mails in process instead of sending them, for measuring throughput
+     * without an SMTP server.
+     */
     @JsonCreator
     public MailServiceConfig(
             @JsonProperty( SMTP_HOST_PROPERTY ) String smtpHost,
             @JsonProperty( SMTP_PORT_PROPERTY ) int smtpPort,
             @JsonProperty( USERNAME_PROPERTY ) String username,
-            @JsonProperty( PASSWORD_PROPERTY ) String password ) {
+            @JsonProperty( PASSWORD_PROPERTY ) String password,
+            @JsonProperty( RENDER_THREADS_PROPERTY ) Optional<Integer> renderThreads,
+            @JsonProperty( SMTP_SESSIONS_PROPERTY ) Optional<Integer> smtpSessions,
+            @JsonProperty( MAX_SESSIONS_PER_DOMAIN_PROPERTY ) Optional<Integer> maxSessionsPerDomain,
+            @JsonProperty( FAKE_SMTP_SINK_PROPERTY ) Optional<Boolean> fakeSmtpSink ) {
 
         /*
          * TODO: copy of MailServiceConfiguration.java from StandaloneRhizomeServer; need to think about how configuration will work
@@ -59,6 +90,10 @@ public final class MailServiceConfig implements Configuration {
         this.smtpPort = smtpPort;
         this.username = username;
         this.password = password;
+        this.renderThreads = renderThreads.orElse( Runtime.getRuntime().availableProcessors() );
+        this.smtpSessions = smtpSessions.orElse( DEFAULT_SMTP_SESSIONS );
+        this.maxSessionsPerDomain = maxSessionsPerDomain.orElse( DEFAULT_MAX_SESSIONS_PER_DOMAIN );
+        this.fakeSmtpSink = fakeSmtpSink.orElse( false );
     }
 
     @JsonProperty( SMTP_HOST_PROPERTY )
@@ -81,6 +116,26 @@ public final class MailServiceConfig implements Configuration {
         return password;
     }
 
+    @JsonProperty( RENDER_THREADS_PROPERTY )
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    @JsonProperty( SMTP_SESSIONS_PROPERTY )
+    public int getSmtpSessions() {
+        return smtpSessions;
+    }
+
+    @JsonProperty( MAX_SESSIONS_PER_DOMAIN_PROPERTY )
+    public int getMaxSessionsPerDomain() {
+        return maxSessionsPerDomain;
+    }
+
+    @JsonProperty( FAKE_SMTP_SINK_PROPERTY )
+    public boolean isFakeSmtpSink() {
+        return fakeSmtpSink;
+    }
+
     public static ConfigurationKey key() {
         return key;
     }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.mail.services;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Bounds the number of concurrent sends to each recipient domain, so that a large fan-out to one domain can't hold
+ * every SMTP session or trip the rate limits of its mail servers.
+ * <p>
+ * Sends to a domain that is at its limit wait in a queue for that domain instead of blocking a send thread, and are
+ * started as earlier sends to the domain finish. A busy domain thus never holds up sends to other domains.
+ */
+public class DomainConcurrencyLimiter {
+    private final int                                maxPerDomain;
+    private final Executor                           executor;
+    private final ConcurrentMap<String, DomainSends> domainSends = new ConcurrentHashMap<>();
+
+    public DomainConcurrencyLimiter( int maxPerDomain, Executor executor ) {
+        this.maxPerDomain = maxPerDomain;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the send on the executor once fewer than the maximum number of sends to the domain of the address are
+     * running.
+     */
+    public void execute( String address, Runnable send ) {
+        DomainSends sends = domainSends.computeIfAbsent( getDomain( address ), domain -> new DomainSends() );
+        synchronized ( sends ) {
+            if ( sends.running >= maxPerDomain ) {
+                sends.waiting.add( send );
+                return;
+            }
+            sends.running++;
+        }
+        run( sends, send );
+    }
+
+    private void run( DomainSends sends, Runnable send ) {
+        executor.execute( () -> {
+            try {
+                send.run();
+            } finally {
+                Runnable next;
+                synchronized ( sends ) {
+                    next = sends.waiting.poll();
+                    if ( next == null ) {
+                        sends.running--;
+                    }
+                }
+                if ( next != null ) {
+                    run( sends, next );
+                }
+            }
+        } );
+    }
+
+    public static String getDomain( String address ) {
+        int at = address.lastIndexOf( '@' );
+        String domain = at < 0 ? address : address.substring( at + 1 );
+        // Strip the closing bracket of addresses in the "Name <user@domain>" form.
+        if ( domain.endsWith( ">" ) ) {
+            domain = domain.substring( 0, domain.length() - 1 );
+        }
+        return domain.trim().toLowerCase( Locale.ROOT );
+    }
+
+    private static class DomainSends {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private       int             running = 0;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.mail.services;
+
+import jodd.mail.Email;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for an SMTP server that accepts and discards every e-mail, for measuring the throughput of
+ * the mail pipeline without sending anything.
+ * <p>
+ * An optional per-message latency simulates the round trips of a real SMTP session, so that the effect of the number
+ * of sessions and of the per-domain limits can be measured too.
+ */
+public class FakeSmtpSink implements MailSender {
+    private final long       latencyMillis;
+    private final AtomicLong delivered  = new AtomicLong();
+    private final AtomicLong firstNanos = new AtomicLong();
+    private final AtomicLong lastNanos  = new AtomicLong();
+
+    public FakeSmtpSink() {
+        this( 0 );
+    }
+
+    public FakeSmtpSink( long latencyMillis ) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public void send( Email email ) {
+        firstNanos.compareAndSet( 0, System.nanoTime() );
+
+        if ( latencyMillis > 0 ) {
+            try {
+                Thread.sleep( latencyMillis );
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException( "Interrupted while delivering to fake SMTP sink.", e );
+            }
+        }
+
+        delivered.incrementAndGet();
+        lastNanos.accumulateAndGet( System.nanoTime(), Math::max );
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return The number of messages delivered per second between the start of the first delivery and the end of the
+     * last one.
+     */
+    public double getMessagesPerSecond() {
+        long elapsedNanos = lastNanos.get() - firstNanos.get();
+        if ( elapsedNanos <= 0 ) {
+            return 0;
+        }
+        return delivered.get() * (double) TimeUnit.SECONDS.toNanos( 1 ) / elapsedNanos;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -28,6 +28,7 @@ import com.openlattice.mail.RenderableEmailRequest;
 import com.openlattice.mail.exceptions.InvalidTemplateException;
 import com.openlattice.mail.templates.EmailTemplate;
 import com.openlattice.mail.utils.TemplateUtils;
+import com.samskivert.mustache.Template;
 import jodd.mail.Email;
 import jodd.mail.EmailAttachment;
 import org.slf4j.Logger;
@@ -58,17 +59,15 @@ public class MailRenderer {
             logger.error( "Must include at least one valid e-mail address.");
             return ImmutableSet.of();
         }
-        String template;
+        Template template;
         try {
-            template = TemplateUtils.loadTemplate( emailRequest.getTemplatePath() );
+            template = TemplateUtils.getCompiledTemplate( emailRequest.getTemplatePath() );
         } catch ( IOException e ) {
             throw new InvalidTemplateException(
                     "Invalid Email Template: " + emailRequest.getTemplatePath(),
                     e );
         }
-        String templateHtml = TemplateUtils.DEFAULT_TEMPLATE_COMPILER
-                .compile( template )
-                .execute( emailRequest.getTemplateObjs().orElse( new Object() ) );
+        String templateHtml = template.execute( emailRequest.getTemplateObjs().orElse( new Object() ) );
 
         /*
          * when someone invites multiple people, we want to spool an individual invite for each person. as such, we need
@@ -21,42 +21,82 @@
 package com.openlattice.mail.services;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hazelcast.collection.IQueue;
 import com.openlattice.mail.RenderableEmailRequest;
 import com.openlattice.mail.config.MailServiceConfig;
 import jodd.mail.Email;
-import jodd.mail.MailException;
-import jodd.mail.SendMailSession;
 import jodd.mail.SmtpServer;
 import jodd.mail.SmtpSslServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Drains the e-mail request queue through two stages. Requests are rendered in parallel on a pool of render threads,
+ * and each rendered e-mail is then handed to a pool of send threads which deliver through a {@link MailSender}. The
+ * number of requests taken off the queue but not yet sent is bounded, so a large backlog stays in the queue instead of
+ * piling up in memory.
+ */
 public class MailService {
+    private static final int MAX_PENDING_REQUESTS_PER_RENDER_THREAD = 16;
+
     private final MailRenderer                   mailRenderer;
     private final IQueue<RenderableEmailRequest> emailRequests;
+    private final MailSender                     mailSender;
+    private final DomainConcurrencyLimiter       domainLimiter;
+    private final ExecutorService                renderExecutor;
+    private final ExecutorService                sendExecutor;
+    private final Semaphore                      pendingRequests;
+    private final int                            maxPendingRequests;
     private       Logger                         logger = LoggerFactory
             .getLogger( MailService.class );
-    @SuppressWarnings( "rawtypes" )
-    private       SmtpServer                     smtpServer;
 
     public MailService(
             MailServiceConfig config,
             MailRenderer mailRenderer,
             IQueue<RenderableEmailRequest> emailRequests ) {
+        this( config, mailRenderer, emailRequests, createMailSender( config ) );
+    }
+
+    public MailService(
+            MailServiceConfig config,
+            MailRenderer mailRenderer,
+            IQueue<RenderableEmailRequest> emailRequests,
+            MailSender mailSender ) {
+        Preconditions.checkNotNull( config, "Mail Service configuration cannot be null." );
         this.emailRequests = emailRequests;
-        configureSmtpServer( config );
         this.mailRenderer = mailRenderer;
+        this.mailSender = mailSender;
+        this.renderExecutor = Executors.newFixedThreadPool(
+                config.getRenderThreads(),
+                new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "mail-render-%d" ).build() );
+        this.sendExecutor = Executors.newFixedThreadPool(
+                config.getSmtpSessions(),
+                new ThreadFactoryBuilder().setDaemon( true ).setNameFormat( "mail-send-%d" ).build() );
+        this.domainLimiter = new DomainConcurrencyLimiter( config.getMaxSessionsPerDomain(), sendExecutor );
+        this.maxPendingRequests = config.getRenderThreads() * MAX_PENDING_REQUESTS_PER_RENDER_THREAD;
+        this.pendingRequests = new Semaphore( maxPendingRequests );
         logger.info( "Mail Service successfully configured and initialized!" );
     }
 
-    public void configureSmtpServer( MailServiceConfig config ) {
+    private static MailSender createMailSender( MailServiceConfig config ) {
+        if ( config.isFakeSmtpSink() ) {
+            return new FakeSmtpSink();
+        }
+        return new SmtpSessionPool( configureSmtpServer( config ), config.getSmtpSessions() );
+    }
+
+    @SuppressWarnings( "rawtypes" )
+    public static SmtpServer configureSmtpServer( MailServiceConfig config ) {
         Preconditions.checkNotNull( config, "Mail Service configuration cannot be null." );
-        smtpServer = SmtpSslServer
+        return SmtpSslServer
                 .create()
                 .host( config.getSmtpHost() )
                 .port( config.getSmtpPort() )
@@ -73,39 +113,68 @@ public class MailService {
         return mailRenderer.renderEmail( emailRequest );
     }
 
-    @Async
-    void sendEmailAfterRendering( RenderableEmailRequest emailRequest, SendMailSession session ) {
-        Set<Email> emailSet = renderEmail( emailRequest );
-        Preconditions.checkNotNull( emailSet, "Email cannot be null." );
+    private void send( Email email ) {
+        try {
+            mailSender.send( email );
+        } catch ( RuntimeException e ) {
+            logger.error(
+                    "Unable to send e-mail to domain {}.",
+                    DomainConcurrencyLimiter.getDomain( email.to()[ 0 ].getEmail() ),
+                    e );
+        }
+    }
+
+    private void renderAndSend( RenderableEmailRequest emailRequest ) {
+        final Set<Email> emailSet;
+        try {
+            emailSet = renderEmail( emailRequest );
+        } catch ( RuntimeException e ) {
+            logger.error( "Unable to render e-mail.", e );
+            pendingRequests.release();
+            return;
+        }
+
+        if ( emailSet.isEmpty() ) {
+            pendingRequests.release();
+            return;
+        }
+
+        /*
+         * Release the request once its last e-mail is sent, so that the bound on pending requests also bounds the
+         * number of rendered e-mails waiting for a session.
+         */
+        final var remaining = new AtomicInteger( emailSet.size() );
         for ( Email email : emailSet ) {
-            session.sendMail( email );
+            domainLimiter.execute( email.to()[ 0 ].getEmail(), () -> {
+                try {
+                    send( email );
+                } finally {
+                    if ( remaining.decrementAndGet() == 0 ) {
+                        pendingRequests.release();
+                    }
+                }
+            } );
         }
     }
 
     /**
-     * By design under heavy load (not all emails rendered within 15 seconds) this will start dedicating more and more
-     * threads to rendering outgoing e-mails queue.
+     * Drains the e-mail request queue, returning once every request taken off the queue has been rendered and sent.
      */
     @Scheduled( fixedRate = 30000 )
     public void processEmailRequestsQueue() {
-        SendMailSession session = smtpServer.createSession();
         try {
-            session.open();
-        } catch ( MailException ex ) {
-            logger.error( "Failure opening email session: {}", ex.getMessage());
-        }
-
-        while ( !emailRequests.isEmpty() ) {
-            RenderableEmailRequest emailRequest = null;
-            try {
-                emailRequest = emailRequests.take();
-                sendEmailAfterRendering( emailRequest, session );
-            } catch ( InterruptedException e ) {
-                logger.error( "Interrupted while waiting on e-mails to render." );
+            while ( !emailRequests.isEmpty() ) {
+                pendingRequests.acquire();
+                RenderableEmailRequest emailRequest = emailRequests.take();
+                renderExecutor.execute( () -> renderAndSend( emailRequest ) );
             }
-        }
 
-        session.close();
+            // Wait for everything in flight to be sent.
+            pendingRequests.acquire( maxPendingRequests );
+            pendingRequests.release( maxPendingRequests );
+        } catch ( InterruptedException e ) {
+            logger.error( "Interrupted while waiting on e-mails to render." );
+        }
     }
 
-}
\ No newline at end of file
+}
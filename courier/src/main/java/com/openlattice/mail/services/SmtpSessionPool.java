@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.mail.services;
+
+import com.google.common.base.Throwables;
+import jodd.mail.Email;
+import jodd.mail.MailException;
+import jodd.mail.SendMailSession;
+import jodd.mail.SmtpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.SendFailedException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sends e-mails over a bounded pool of SMTP sessions that are opened on demand and kept open between sends.
+ * <p>
+ * An idle session that fails to send is assumed to have been closed by the server while it was idle. It is discarded
+ * and the e-mail is retried once over a newly opened session. Failures the server reported for recipients of the
+ * e-mail are not retried, since the e-mail may already have been delivered to the other recipients.
+ */
+public class SmtpSessionPool implements MailSender {
+    private static final Logger logger = LoggerFactory.getLogger( SmtpSessionPool.class );
+
+    @SuppressWarnings( "rawtypes" )
+    private final SmtpServer                              smtpServer;
+    private final Semaphore                               permits;
+    private final ConcurrentLinkedQueue<SendMailSession> idleSessions = new ConcurrentLinkedQueue<>();
+
+    @SuppressWarnings( "rawtypes" )
+    public SmtpSessionPool( SmtpServer smtpServer, int maxSessions ) {
+        this.smtpServer = smtpServer;
+        this.permits = new Semaphore( maxSessions );
+    }
+
+    @Override
+    public void send( Email email ) {
+        try {
+            permits.acquire();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while waiting for an SMTP session.", e );
+        }
+
+        try {
+            SendMailSession idleSession = idleSessions.poll();
+            if ( idleSession != null ) {
+                try {
+                    sendOnce( idleSession, email );
+                    return;
+                } catch ( MailException e ) {
+                    if ( isRecipientFailure( e ) ) {
+                        throw e;
+                    }
+                    logger.warn( "Unable to send e-mail on an idle session, retrying on a new session: {}",
+                            e.getMessage() );
+                }
+            }
+
+            SendMailSession session = smtpServer.createSession();
+            session.open();
+            sendOnce( session, email );
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void sendOnce( SendMailSession session, Email email ) {
+        try {
+            session.sendMail( email );
+        } catch ( MailException e ) {
+            closeQuietly( session );
+            throw e;
+        }
+
+        idleSessions.offer( session );
+    }
+
+    /**
+     * A server that rejected recipients of the e-mail was still connected, and may have accepted the e-mail for the
+     * others.
+     */
+    static boolean isRecipientFailure( Throwable e ) {
+        return Throwables.getCausalChain( e ).stream().anyMatch( cause -> cause instanceof SendFailedException );
+    }
+
+    private static void closeQuietly( SendMailSession session ) {
+        try {
+            session.close();
+        } catch ( MailException e ) {
+            logger.debug( "Unable to close SMTP session.", e );
+        }
+    }
+
+    @Override
+    public void close() {
+        SendMailSession session;
+        while ( ( session = idleSessions.poll() ) != null ) {
+            closeQuietly( session );
+        }
+    }
+}
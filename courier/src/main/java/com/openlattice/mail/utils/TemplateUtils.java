@@ -23,16 +23,37 @@ package com.openlattice.mail.utils;
 import java.io.IOException;
 import java.io.StringReader;
 import java.net.URL;
+import java.util.concurrent.ExecutionException;
 
 import com.google.common.base.Charsets;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
 
 public final class TemplateUtils {
 
     public static final Mustache.Compiler DEFAULT_TEMPLATE_COMPILER = Mustache.compiler()
             .withLoader( templateResourcePath -> new StringReader( loadTemplate( templateResourcePath ) ) );
 
+    public static final int MAX_COMPILED_TEMPLATES = 256;
+
+    /*
+     * Compiled templates are immutable and safe to execute concurrently, so a single compiled instance per template
+     * path is shared by every render.
+     */
+    private static final LoadingCache<String, Template> COMPILED_TEMPLATES = CacheBuilder.newBuilder()
+            .maximumSize( MAX_COMPILED_TEMPLATES )
+            .build( new CacheLoader<>() {
+                @Override
+                public Template load( String templatePath ) throws IOException {
+                    return DEFAULT_TEMPLATE_COMPILER.compile( loadTemplate( templatePath ) );
+                }
+            } );
+
     private TemplateUtils() {}
 
     public static String loadTemplate( String templatePath ) throws IOException {
@@ -40,4 +61,18 @@ public final class TemplateUtils {
         return Resources.toString( templateResource, Charsets.UTF_8 );
     }
 
+    /**
+     * Loads and compiles the template at {@code templatePath} with the {@link #DEFAULT_TEMPLATE_COMPILER}, reusing
+     * the compiled template of earlier calls for the same path.
+     */
+    public static Template getCompiledTemplate( String templatePath ) throws IOException {
+        try {
+            return COMPILED_TEMPLATES.get( templatePath );
+        } catch ( ExecutionException e ) {
+            throw new IOException( "Unable to load template " + templatePath, e.getCause() );
+        } catch ( UncheckedExecutionException e ) {
+            throw new IOException( "Unable to compile template " + templatePath, e.getCause() );
+        }
+    }
+
 }
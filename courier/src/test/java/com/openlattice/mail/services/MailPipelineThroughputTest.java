@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.mail.services;
+
+import com.google.common.collect.ImmutableMap;
+import com.hazelcast.collection.IQueue;
+import com.openlattice.mail.RenderableEmailRequest;
+import com.openlattice.mail.config.MailServiceConfig;
+import com.openlattice.mail.templates.EmailTemplate;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Measures the throughput of the render and send pipeline against an in-process SMTP sink.
+ */
+public class MailPipelineThroughputTest {
+    private static final Logger logger = LoggerFactory.getLogger( MailPipelineThroughputTest.class );
+
+    private static final int  REQUESTS            = 2_000;
+    private static final int  DOMAINS             = 8;
+    private static final long SMTP_LATENCY_MILLIS = 2;
+
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void testThroughputIntoFakeSmtpSink() {
+        BlockingQueue<RenderableEmailRequest> backingQueue = new LinkedBlockingQueue<>();
+        IQueue<RenderableEmailRequest> emailRequests = Mockito.mock( IQueue.class );
+        Mockito.when( emailRequests.isEmpty() ).then( invocation -> backingQueue.isEmpty() );
+        Mockito.when( emailRequests.take() ).then( invocation -> backingQueue.take() );
+
+        for ( int i = 0; i < REQUESTS; ++i ) {
+            backingQueue.add( new RenderableEmailRequest(
+                    Optional.of( EmailTemplate.getCourierEmailAddress() ),
+                    new String[] { "user" + i + "@domain" + ( i % DOMAINS ) + ".com" },
+                    Optional.empty(),
+                    Optional.empty(),
+                    EmailTemplate.SERVICE_OUTAGE.getPath(),
+                    Optional.of( EmailTemplate.SERVICE_OUTAGE.getSubject() ),
+                    Optional.of( ImmutableMap
+                            .of( "name", "User " + i, "avatar-path", "the path", "registration-url", "test" ) ),
+                    Optional.empty(),
+                    Optional.empty() ) );
+        }
+
+        FakeSmtpSink sink = new FakeSmtpSink( SMTP_LATENCY_MILLIS );
+        MailServiceConfig config = new MailServiceConfig(
+                "localhost",
+                0,
+                "username",
+                "password",
+                Optional.of( 4 ),
+                Optional.of( 8 ),
+                Optional.of( 2 ),
+                Optional.of( true ) );
+        MailService mailService = new MailService( config, new MailRenderer(), emailRequests, sink );
+
+        mailService.processEmailRequestsQueue();
+
+        Assert.assertEquals( REQUESTS, sink.getDelivered() );
+        logger.info( "Delivered {} e-mails at {} messages/sec", sink.getDelivered(), sink.getMessagesPerSecond() );
+    }
+}
@@ -21,14 +21,21 @@
 package com.openlattice.mail.services;
 
 import com.openlattice.mail.templates.EmailTemplate;
-import java.io.IOException;
+import com.openlattice.mail.config.MailServiceConfig;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import jodd.mail.Email;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 
@@ -39,6 +46,7 @@ import org.mockito.Mockito;
 
 import com.openlattice.mail.RenderableEmailRequest;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.hazelcast.collection.IQueue;
 
 public class MailServiceTest extends GreenMailTest {
@@ -110,10 +118,104 @@ public class MailServiceTest extends GreenMailTest {
 
     }
 
-    @Test(
-        expected = NullPointerException.class )
-    public void testBadRequest_NullEmailRequest() throws IOException {
-        mailService.sendEmailAfterRendering( null, null );
+    private static RenderableEmailRequest request( String... toAddresses ) {
+        return requestWithTemplate( EmailTemplate.SERVICE_OUTAGE.getPath(), toAddresses );
+    }
+
+    private static RenderableEmailRequest requestWithTemplate( String templatePath, String... toAddresses ) {
+        return new RenderableEmailRequest(
+                Optional.of( EmailTemplate.getCourierEmailAddress() ),
+                toAddresses,
+                Optional.empty(),
+                Optional.empty(),
+                templatePath,
+                Optional.of( EmailTemplate.SERVICE_OUTAGE.getSubject() ),
+                Optional.of( ImmutableMap
+                        .of( "name", "Master Chief", "avatar-path", "the path", "registration-url", "test" ) ),
+                Optional.empty(),
+                Optional.empty() );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static IQueue<RenderableEmailRequest> queueOf( RenderableEmailRequest... requests ) {
+        BlockingQueue<RenderableEmailRequest> backingQueue = new LinkedBlockingQueue<>();
+        IQueue<RenderableEmailRequest> queue = Mockito.mock( IQueue.class );
+        Mockito.when( queue.isEmpty() ).then( invocation -> backingQueue.isEmpty() );
+        Mockito.when( queue.take() ).then( invocation -> backingQueue.take() );
+        Collections.addAll( backingQueue, requests );
+        return queue;
+    }
+
+    private static MailServiceConfig config( int smtpSessions, int maxSessionsPerDomain ) {
+        return new MailServiceConfig(
+                HOST,
+                PORT,
+                USERNAME,
+                PASSWORD,
+                Optional.of( 1 ),
+                Optional.of( smtpSessions ),
+                Optional.of( maxSessionsPerDomain ),
+                Optional.of( true ) );
+    }
+
+    @Test
+    public void testUnrenderableRequestsAreSkipped() {
+        FakeSmtpSink sink = new FakeSmtpSink();
+        IQueue<RenderableEmailRequest> queue = queueOf(
+                requestWithTemplate( "mail/templates/shared/missing.mustache", "jira@openlattice.com" ),
+                requestWithTemplate(
+                        EmailTemplate.SERVICE_OUTAGE.getPath(),
+                        "jira@openlattice.com",
+                        "mc@openlattice.com" ) );
+
+        new MailService( config( 2, 2 ), renderer, queue, sink ).processEmailRequestsQueue();
+
+        Assert.assertEquals( 2, sink.getDelivered() );
+    }
+
+    @Test
+    public void testBusyDomainsDoNotHoldUpOthers() throws InterruptedException {
+        CountDownLatch releaseSlow = new CountDownLatch( 1 );
+        CountDownLatch fastSent = new CountDownLatch( 1 );
+        Set<String> sent = ConcurrentHashMap.newKeySet();
+        MailSender sender = new MailSender() {
+            @Override
+            public void send( Email email ) {
+                String to = email.to()[ 0 ].getEmail();
+                if ( DomainConcurrencyLimiter.getDomain( to ).equals( "slow.com" ) ) {
+                    try {
+                        releaseSlow.await();
+                    } catch ( InterruptedException e ) {
+                        throw new IllegalStateException( e );
+                    }
+                } else {
+                    fastSent.countDown();
+                }
+                sent.add( to );
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        // both send threads are free, but only one of them may send to slow.com at a time
+        MailService service = new MailService(
+                config( 2, 1 ),
+                renderer,
+                queueOf( request( "a@slow.com", "b@slow.com", "c@slow.com", "d@fast.com" ) ),
+                sender );
+        Thread drain = new Thread( service::processEmailRequestsQueue );
+        drain.start();
+
+        try {
+            Assert.assertTrue( "E-mail to fast.com waited on slow.com.", fastSent.await( 10, TimeUnit.SECONDS ) );
+        } finally {
+            releaseSlow.countDown();
+        }
+        drain.join( TimeUnit.SECONDS.toMillis( 10 ) );
+
+        Assert.assertEquals( ImmutableSet.of( "a@slow.com", "b@slow.com", "c@slow.com", "d@fast.com" ), sent );
     }
 
     @Test
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.mail.services;
+
+import jodd.mail.Email;
+import jodd.mail.MailException;
+import jodd.mail.SendMailSession;
+import jodd.mail.SmtpServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+
+public class SmtpSessionPoolTest {
+    private static final Email email = Email.create()
+            .from( "courier@openlattice.com" )
+            .to( "mc@openlattice.com" )
+            .subject( "Test" )
+            .textMessage( "Test" );
+
+    @Test
+    @SuppressWarnings( "rawtypes" )
+    public void testClosedIdleSessionsAreReplaced() {
+        SendMailSession idleSession = Mockito.mock( SendMailSession.class );
+        SendMailSession newSession = Mockito.mock( SendMailSession.class );
+        SmtpServer smtpServer = Mockito.mock( SmtpServer.class );
+        Mockito.when( smtpServer.createSession() ).thenReturn( idleSession, newSession );
+
+        SmtpSessionPool pool = new SmtpSessionPool( smtpServer, 1 );
+        pool.send( email );
+
+        Mockito.doThrow( new MailException( "Failed to send email", new MessagingException( "Connection closed" ) ) )
+                .when( idleSession ).sendMail( email );
+        pool.send( email );
+
+        Mockito.verify( idleSession ).close();
+        Mockito.verify( newSession ).sendMail( email );
+    }
+
+    @Test
+    @SuppressWarnings( "rawtypes" )
+    public void testRejectedRecipientsAreNotRetried() {
+        SendMailSession idleSession = Mockito.mock( SendMailSession.class );
+        SmtpServer smtpServer = Mockito.mock( SmtpServer.class );
+        Mockito.when( smtpServer.createSession() ).thenReturn( idleSession );
+
+        SmtpSessionPool pool = new SmtpSessionPool( smtpServer, 1 );
+        pool.send( email );
+
+        Mockito.doThrow( new MailException( "Failed to send email", new SendFailedException( "Invalid Addresses" ) ) )
+                .when( idleSession ).sendMail( email );
+        try {
+            pool.send( email );
+            Assert.fail( "Expected the rejected e-mail to fail." );
+        } catch ( MailException e ) {
+            // the e-mail may have been delivered to other recipients, so sending it again could duplicate it
+            Mockito.verify( smtpServer, Mockito.times( 1 ) ).createSession();
+        }
+    }
+}
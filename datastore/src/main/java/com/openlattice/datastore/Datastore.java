@@ -40,6 +40,7 @@ import com.openlattice.ioc.providers.LateInitProvidersPod;
 import com.geekbeast.jdbc.JdbcPod;
 import com.geekbeast.postgres.PostgresPod;
 import com.openlattice.postgres.pods.ExternalDatabaseConnectionManagerPod;
+import com.openlattice.tracing.RequestTracing;
 import com.geekbeast.pods.TaskSchedulerPod;
 
 public class Datastore extends BaseRhizomeServer {
@@ -68,6 +69,8 @@ public class Datastore extends BaseRhizomeServer {
 
     static {
         ObjectMappers.foreach( FullQualifiedNameJacksonSerializer::registerWithMapper );
+        // requests are only traced by the datastore, so only its maps and clients are wrapped for tracing
+        RequestTracing.setEnabled( true );
     }
 
     public Datastore( Class<?>... pods ) {
@@ -73,8 +73,12 @@ import com.openlattice.data.requests.EntitySetSelection;
 import com.openlattice.data.requests.FileType;
 import com.openlattice.data.storage.ByteBlobDataManager;
 import com.openlattice.data.storage.DataDeletionService;
+import com.openlattice.data.storage.DataSourceResolver;
+import com.openlattice.data.storage.ReadConsistency;
+import com.openlattice.data.storage.Workload;
 import com.openlattice.datastore.services.EdmService;
 import com.openlattice.datastore.services.EntitySetManager;
+import com.openlattice.datastore.util.ReturnsWriteLsn;
 import com.openlattice.edm.EntitySet;
 import com.openlattice.edm.set.EntitySetFlag;
 import com.openlattice.edm.type.PropertyType;
@@ -167,6 +171,8 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     private              HazelcastJobService     jobService;
     @Inject
     private              ByteBlobDataManager     byteBlobDataManager;
+    @Inject
+    private              DataSourceResolver      dataSourceResolver;
 
     @RequestMapping(
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH },
@@ -279,11 +285,11 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
                 .map( pt -> pt.getType().getFullQualifiedNameAsString() )
                 .forEach( orderedPropertyNames::add );
 
-        return dgm.getEntitySetData(
+        return ReadConsistency.replicaEligible( () -> dgm.getEntitySetData(
                 entityKeyIdsOfEntitySets,
                 orderedPropertyNames,
                 authorizedPropertyTypesOfEntitySets,
-                entitySet.isLinking() );
+                entitySet.isLinking() ) );
     }
 
     private Set<UUID> getSelectedProperties( UUID entitySetId, EntitySetSelection selection ) {
@@ -324,6 +330,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
             value = "/" + ENTITY_SET + "/" + SET_ID_PATH,
             consumes = MediaType.APPLICATION_JSON_VALUE )
     @Timed
+    @ReturnsWriteLsn
     public Integer updateEntitiesInEntitySet(
             @PathVariable( ENTITY_SET_ID ) UUID entitySetId,
             @RequestBody Map<UUID, Map<UUID, Set<Object>>> entities,
@@ -390,6 +397,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
             consumes = MediaType.APPLICATION_JSON_VALUE )
     @Override
     @Timed
+    @ReturnsWriteLsn
     public Integer replaceEntityProperties(
             @PathVariable( ENTITY_SET_ID ) UUID entitySetId,
             @RequestBody Map<UUID, Map<UUID, Set<Map<ByteBuffer, Object>>>> entities,
@@ -430,6 +438,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
 
     @Override
     @Timed
+    @ReturnsWriteLsn
     @PutMapping( value = "/" + ASSOCIATION, consumes = MediaType.APPLICATION_JSON_VALUE )
     public Integer createEdges( @RequestBody Set<DataEdgeKey> associations ) {
 
@@ -476,6 +485,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @RequestMapping(
             value = "/" + ENTITY_SET + "/",
@@ -513,6 +523,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @PutMapping(
             value = "/" + ENTITY_SET + "/" + SET_ID_PATH + "/" + ENTITY_KEY_ID_PATH,
@@ -533,6 +544,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @RequestMapping(
             path = { "/" + ASSOCIATION },
@@ -634,6 +646,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @PatchMapping( value = "/" + ASSOCIATION )
     public Integer replaceAssociationData(
@@ -674,9 +687,14 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @PostMapping( value = { "/", "" } )
     public DataGraphIds createEntityAndAssociationData( @RequestBody DataGraph data ) {
+        return dataSourceResolver.admitToDefaultDataSource( Workload.INGEST, () -> integrateDataGraph( data ) );
+    }
+
+    private DataGraphIds integrateDataGraph( DataGraph data ) {
         final ListMultimap<UUID, UUID> entityKeyIds = ArrayListMultimap.create();
         final ListMultimap<UUID, UUID> associationEntityKeyIds;
 
@@ -722,6 +740,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @RequestMapping(
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH + "/" + ALL },
@@ -753,6 +772,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @DeleteMapping( path = { "/" + ENTITY_SET + "/" + SET_ID_PATH + "/" + ENTITY_KEY_ID_PATH } )
     public Integer deleteEntity(
@@ -764,6 +784,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @DeleteMapping( path = { "/" + ENTITY_SET + "/" + SET_ID_PATH } )
     public Integer deleteEntities(
@@ -855,6 +876,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @DeleteMapping(
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH + "/" + ENTITY_KEY_ID_PATH + "/" + PROPERTIES } )
@@ -905,6 +927,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @DeleteMapping(
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH + "/" + NEIGHBORS } )
@@ -955,6 +978,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @RequestMapping(
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH + "/" + ENTITY_KEY_ID_PATH },
@@ -998,6 +1022,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     }
 
     @Timed
+    @ReturnsWriteLsn
     @Override
     @RequestMapping(
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH + "/" + ENTITY_KEY_ID_PATH },
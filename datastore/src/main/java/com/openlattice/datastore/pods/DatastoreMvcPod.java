@@ -30,6 +30,7 @@ import com.openlattice.datasets.DataSetMetadataController;
 import com.openlattice.datastore.analysis.controllers.AnalysisController;
 import com.openlattice.datastore.apps.controllers.AppController;
 import com.openlattice.datastore.authorization.controllers.AuthorizationsController;
+import com.openlattice.datastore.configuration.DatastoreConfiguration;
 import com.openlattice.datastore.data.controllers.DataController;
 import com.openlattice.datastore.data.controllers.DataIntegrationController;
 import com.openlattice.datastore.directory.controllers.PrincipalDirectoryController;
@@ -39,6 +40,9 @@ import com.openlattice.datastore.requests.controllers.RequestsController;
 import com.openlattice.datastore.search.controllers.PersistentSearchController;
 import com.openlattice.datastore.search.controllers.SearchController;
 import com.openlattice.datastore.util.DataStoreExceptionHandler;
+import com.openlattice.datastore.util.ReadConsistencyInterceptor;
+import com.openlattice.datastore.util.RequestTracingInterceptor;
+import com.openlattice.datastore.util.WriteLsnResponseAdvice;
 import com.openlattice.entitysets.controllers.EntitySetsController;
 import com.openlattice.graph.controllers.GraphController;
 import com.openlattice.organizations.controllers.DatasetController;
@@ -61,6 +65,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.web.servlet.config.annotation.ContentNegotiationConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurationSupport;
 
 import javax.inject.Inject;
@@ -94,6 +99,12 @@ public class DatastoreMvcPod extends WebMvcConfigurationSupport {
     @Inject
     private DatastoreSecurityPod datastoreSecurityPod;
 
+    @Inject
+    private DatastoreConfiguration datastoreConfiguration;
+
+    @Inject
+    private WriteLsnResponseAdvice writeLsnResponseAdvice;
+
     @Override
     protected void configureMessageConverters( List<HttpMessageConverter<?>> converters ) {
         super.addDefaultHttpMessageConverters( converters );
@@ -122,6 +133,13 @@ public class DatastoreMvcPod extends WebMvcConfigurationSupport {
         super.addCorsMappings( registry );
     }
 
+    @Override
+    protected void addInterceptors( InterceptorRegistry registry ) {
+        registry.addInterceptor( new ReadConsistencyInterceptor( datastoreConfiguration.getReadReplicaMaxStaleness() ) );
+        registry.addInterceptor( new RequestTracingInterceptor( datastoreConfiguration.getSlowRequestThreshold() ) );
+        registry.addInterceptor( writeLsnResponseAdvice );
+    }
+
     @Override
     protected void configureContentNegotiation( ContentNegotiationConfigurer configurer ) {
         configurer.parameterName( DataApi.FILE_TYPE )
@@ -50,6 +50,7 @@ public class DatastoreSecurityPod extends Auth0SecurityPod {
                 .antMatchers( "/datastore/data/entitydata/*" ).permitAll()
                 .antMatchers( "/datastore/codex/incoming/**" ).permitAll()
                 .antMatchers( "/datastore/codex/media/*" ).permitAll()
+                .antMatchers( HttpMethod.GET, "/datastore/blobs" ).permitAll()
                 .antMatchers( "/datastore/**" ).authenticated();
     }
 
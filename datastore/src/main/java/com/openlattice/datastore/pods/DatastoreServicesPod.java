@@ -70,6 +70,7 @@ import com.openlattice.data.storage.DataDeletionService;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
 import com.openlattice.data.storage.IndexingMetadataManager;
+import com.openlattice.data.storage.ReplicaRouter;
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService;
 import com.openlattice.data.storage.postgres.PostgresEntityDatastore;
 import com.openlattice.data.storage.PostgresEntitySetSizesTaskDependency;
@@ -94,6 +95,7 @@ import com.openlattice.graph.Graph;
 import com.openlattice.graph.GraphQueryService;
 import com.openlattice.graph.PostgresGraphQueryService;
 import com.openlattice.graph.core.GraphService;
+import com.openlattice.hazelcast.HazelcastQueue;
 import com.openlattice.ids.HazelcastIdGenerationService;
 import com.openlattice.ids.HazelcastLongIdService;
 import com.geekbeast.jdbc.DataSourceManager;
@@ -120,9 +122,12 @@ import com.openlattice.requests.RequestQueryService;
 import com.openlattice.search.PersistentSearchService;
 import com.openlattice.search.SearchService;
 import com.openlattice.subscriptions.PostgresSubscriptionService;
+import com.openlattice.subscriptions.SubscriptionEventPublisher;
 import com.openlattice.subscriptions.SubscriptionService;
 import com.geekbeast.tasks.PostConstructInitializerTaskDependencies;
 import com.geekbeast.tasks.PostConstructInitializerTaskDependencies.PostConstructInitializerTask;
+import com.openlattice.tracing.RequestTracing;
+import com.openlattice.tracing.TraceCategory;
 import com.openlattice.twilio.TwilioConfiguration;
 import com.openlattice.twilio.pods.TwilioConfigurationPod;
 import com.openlattice.users.Auth0SyncService;
@@ -142,6 +147,8 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Profile;
 
+import java.util.List;
+
 @Configuration
 @Import( {
         Auth0Pod.class,
@@ -268,7 +275,8 @@ public class DatastoreServicesPod {
     public SubscriptionService subscriptionService() {
         return new PostgresSubscriptionService(
                 hikariDataSource,
-                defaultObjectMapper()
+                defaultObjectMapper(),
+                HazelcastQueue.SUBSCRIPTION_CHANGES.getQueue( hazelcastInstance )
         );
     }
 
@@ -301,7 +309,7 @@ public class DatastoreServicesPod {
 
     @Bean
     DataSetService dataSetService() {
-        return new DataSetService( hazelcastInstance, elasticsearchApi() );
+        return new DataSetService( hazelcastInstance, tracedElasticsearchApi() );
     }
 
     @Bean
@@ -495,8 +503,19 @@ public class DatastoreServicesPod {
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.E );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.IDS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATIONS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATION_POLICIES );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.SYNC_IDS );
-        return new DataSourceResolver( hazelcastInstance, dataSourceManager );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.ENTITY_SET_SIZES );
+        return new DataSourceResolver( hazelcastInstance, dataSourceManager, false, replicaRouter() );
+    }
+
+    @Bean
+    public ReplicaRouter replicaRouter() {
+        if ( datastoreConfiguration.getReadOnlyReplica().isEmpty() ) {
+            return null;
+        }
+        return new ReplicaRouter( dataSourceManager.getDefaultDataSource(), List.of( rds().getReadOnlyReplica() ) );
     }
 
     @Bean
@@ -514,7 +533,13 @@ public class DatastoreServicesPod {
 
     @Bean
     public DataGraphManager dataGraphService() {
-        return new DataGraphService( graphApi(), idService(), entityDatastore(), jobService() );
+        return new DataGraphService(
+                graphApi(),
+                idService(),
+                entityDatastore(),
+                jobService(),
+                new SubscriptionEventPublisher( hazelcastInstance )
+        );
     }
 
     @Bean
@@ -557,13 +582,20 @@ public class DatastoreServicesPod {
         return new DatastoreKotlinElasticsearchImpl( datastoreConfiguration.getSearchConfiguration() );
     }
 
+    /**
+     * Only the services are handed a traced client, since the bean itself has to keep its scheduled methods.
+     */
+    private ConductorElasticsearchApi tracedElasticsearchApi() {
+        return RequestTracing.traced( ConductorElasticsearchApi.class, elasticsearchApi(), TraceCategory.ELASTICSEARCH );
+    }
+
     @Bean
     public SearchService searchService() {
         return new SearchService(
                 eventBus,
                 metricRegistry,
                 authorizationManager(),
-                elasticsearchApi(),
+                tracedElasticsearchApi(),
                 dataModelService(),
                 entitySetManager(),
                 graphApi(),
@@ -633,7 +665,7 @@ public class DatastoreServicesPod {
 
     @Bean
     public PostgresEntitySetSizesTaskDependency postgresEntitySetSizesTaskDependency() {
-        return new PostgresEntitySetSizesTaskDependency( hikariDataSource );
+        return new PostgresEntitySetSizesTaskDependency( dataSourceResolver() );
     }
 
     @Bean
@@ -33,6 +33,7 @@ import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest
 import org.elasticsearch.action.bulk.BulkItemResponse
+import org.elasticsearch.action.get.MultiGetRequest
 import org.elasticsearch.action.search.MultiSearchRequest
 import org.elasticsearch.action.search.MultiSearchResponse
 import org.elasticsearch.action.update.UpdateRequest
@@ -53,11 +54,13 @@ import org.elasticsearch.index.reindex.DeleteByQueryAction
 import org.elasticsearch.index.reindex.DeleteByQueryRequestBuilder
 import org.elasticsearch.search.SearchHit
 import org.elasticsearch.search.builder.SearchSourceBuilder
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext
 import org.elasticsearch.search.sort.*
 import org.slf4j.LoggerFactory
 import org.springframework.scheduling.annotation.Scheduled
 import java.io.IOException
 import java.net.UnknownHostException
+import java.time.OffsetDateTime
 import java.util.*
 import java.util.function.Consumer
 import java.util.function.Function
@@ -688,6 +691,39 @@ class DatastoreKotlinElasticsearchImpl(
         return true
     }
 
+    override fun getIndexedLastWrites(entityTypeId: UUID, entityKeyIds: Set<UUID>): Map<UUID, OffsetDateTime> {
+        check(verifyElasticsearchConnection()) { "Unable to connect to elasticsearch." }
+
+        if (entityKeyIds.isEmpty()) {
+            return mapOf()
+        }
+
+        val index = getIndexName(entityTypeId)
+        val type = getTypeName(entityTypeId)
+        val lastWriteId = IdConstants.LAST_WRITE_ID.id.toString()
+        val lastWriteOnly = FetchSourceContext(true, arrayOf(getFieldName(IdConstants.LAST_WRITE_ID.id)), null)
+
+        val request = client.prepareMultiGet()
+        entityKeyIds.forEach {
+            request.add(MultiGetRequest.Item(index, type, it.toString()).fetchSourceContext(lastWriteOnly))
+        }
+
+        return request.execute().actionGet().responses
+                .filter { item ->
+                    check(!item.isFailed) {
+                        "Unable to read document ${item.id} of entity type $entityTypeId: ${item.failure.message}"
+                    }
+                    item.response.isExists
+                }
+                .associate { item ->
+                    val entity = item.response.sourceAsMap[ConductorElasticsearchApi.ENTITY] as? Map<*, *>
+                    val lastWrite = (entity?.get(lastWriteId) as? List<*>)?.firstOrNull()
+                            ?.let { OffsetDateTime.parse(it.toString()) }
+                    // documents indexed without a last write are older than any write that can be compared against them
+                    UUID.fromString(item.id) to (lastWrite ?: OffsetDateTime.MIN)
+                }
+    }
+
     override fun clearEntitySetData(entitySetId: UUID, entityTypeId: UUID?): Boolean {
         if (!verifyElasticsearchConnection()) {
             return false
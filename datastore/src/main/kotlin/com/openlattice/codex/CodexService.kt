@@ -12,6 +12,12 @@ import com.openlattice.apps.AppTypeSetting
 import com.openlattice.authorization.HazelcastAclKeyReservationService
 import com.openlattice.client.serialization.SerializationConstants
 import com.openlattice.codex.controllers.CodexConstants
+import com.openlattice.codex.outbound.LocalMessageProvider
+import com.openlattice.codex.outbound.OutboundMessage
+import com.openlattice.codex.outbound.OutboundMessageEngine
+import com.openlattice.codex.outbound.OutboundMessageProvider
+import com.openlattice.codex.outbound.SendRateLimiter
+import com.openlattice.codex.outbound.TwilioMessageProvider
 import com.openlattice.collections.CollectionsManager
 import com.geekbeast.controllers.exceptions.BadRequestException
 import com.openlattice.data.*
@@ -39,7 +45,6 @@ import com.openlattice.twilio.TwilioConfiguration
 import com.twilio.Twilio
 import com.twilio.rest.api.v2010.account.Message
 import com.twilio.rest.api.v2010.account.message.Media
-import com.twilio.type.PhoneNumber
 import com.zaxxer.hikari.HikariDataSource
 import org.joda.time.DateTime
 import org.slf4j.LoggerFactory
@@ -52,7 +57,10 @@ import java.time.OffsetDateTime
 import java.time.ZoneOffset.UTC
 import java.util.*
 import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
 import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
 import java.util.stream.Stream
 import javax.servlet.http.HttpServletRequest
@@ -60,6 +68,9 @@ import javax.servlet.http.HttpServletRequest
 private const val SYNC_INTERVAL_MILLIS = 1_000L * 60 * 30 // 30 minutes
 private const val MESSAGE_PAGE_SIZE = 200
 private const val JSON_EXT = ".json"
+private const val MAX_PENDING_REQUESTS = 1_000
+private const val MAX_WRITE_BACK_BATCH_SIZE = 500
+private const val LEGACY_QUEUE_DRAIN_INTERVAL_MILLIS = 60_000L
 
 @Service
 class CodexService(
@@ -113,11 +124,41 @@ class CodexService(
     val propertyTypesByFqn = propertyTypesByAppType.values.flatMap { it.values }.associate { it.type to it.id }
 
 
+    val outgoingMessages: IMap<UUID, MessageRequest> = HazelcastMap.CODEX_OUTGOING_MESSAGES.getMap(hazelcast)
+    val twilioQueue = HazelcastQueue.TWILIO_OUTGOING.getQueue(hazelcast)
+    private val legacyTwilioQueue = HazelcastQueue.TWILIO.getQueue(hazelcast)
+    val feedsQueue = HazelcastQueue.TWILIO_FEED.getQueue(hazelcast)
+
+    private val outboundMessageProvider: OutboundMessageProvider = if (twilioConfiguration.isLocalOutboundProvider) {
+        LocalMessageProvider()
+    } else {
+        TwilioMessageProvider()
+    }
+    private val outboundMessages = OutboundMessageEngine(
+            outboundMessageProvider,
+            twilioConfiguration.outboundWorkers,
+            SendRateLimiter(
+                    HazelcastMap.CODEX_SEND_SLOTS.getMap(hazelcast),
+                    { number ->
+                        if (number == twilioConfiguration.shortCode) {
+                            twilioConfiguration.shortCodeMessagesPerSecond
+                        } else {
+                            twilioConfiguration.messagesPerSecondPerNumber
+                        }
+                    },
+                    { hazelcast.cluster.clusterTime }
+            )
+    )
+
+    /* Bounds how many outgoing messages this node takes off the shared queues before they have been sent */
+    private val pendingRequests = Semaphore(MAX_PENDING_REQUESTS)
+    private val sentMessages = LinkedBlockingQueue<SentMessage>()
+
+    private data class SentMessage(val organizationId: UUID, val senderId: String, val message: Message)
+
     val textingExecutor = Executors.newSingleThreadExecutor()
     val feedsExecutor = Executors.newSingleThreadExecutor()
-
-    val twilioQueue = HazelcastQueue.TWILIO.getQueue(hazelcast)
-    val feedsQueue = HazelcastQueue.TWILIO_FEED.getQueue(hazelcast)
+    val writeBackExecutor = Executors.newSingleThreadExecutor()
 
     val textingExecutorWorker = textingExecutor.execute {
 
@@ -125,59 +166,104 @@ class CodexService(
             return@execute
         }
 
-        Stream.generate { twilioQueue.take() }.forEach { (organizationId, messageEntitySetId, messageContents, toPhoneNumbers, senderId, attachment) ->
-
-            try {
-                //Not very efficient.
-                val phone = organizations.getOrganization(organizationId)!!.smsEntitySetInfo
-                        .flatMap { (phoneNumber, _, entitySetIds, _) -> entitySetIds.map { it to phoneNumber } }
-                        .toMap()
-                        .getValue(messageEntitySetId)
-
-                if (phone == "") {
-                    throw BadRequestException("No source phone number set for organization!")
-                }
-
-                val callbackPath = "${twilioConfiguration.callbackBaseUrl}${CodexApi.BASE}${CodexApi.INCOMING}/$organizationId${CodexApi.STATUS}"
-
-                toPhoneNumbers.forEach { toPhoneNumber ->
-                    val messageCreator = Message
-                            .creator(PhoneNumber(toPhoneNumber), PhoneNumber(phone), messageContents)
-                            .setStatusCallback(URI.create(callbackPath))
-
-                    if (attachment != null) {
-                        messageCreator.setMediaUrl(writeMediaAndGetPath(attachment))
-                    }
-
-                    val message = messageCreator.create()
-                    processOutgoingMessage(message, organizationId, senderId, attachment)
-                }
+        Stream.generate {
+            pendingRequests.acquire()
+            twilioQueue.take()
+        }.forEach { id ->
+            val request = outgoingMessages[id]
+            if (request == null) {
+                logger.warn("Outgoing message {} expired before it could be sent, so its task will queue it again.", id)
+                pendingRequests.release()
+                return@forEach
+            }
 
+            val sent = try {
+                submitOutgoingMessage(request)
             } catch (e: Exception) {
                 logger.error(
-                        "Unable to send outgoing message to phone numbers $toPhoneNumbers in entity set $messageEntitySetId for organization $organizationId",
+                        "Unable to send outgoing message to phone numbers ${request.phoneNumbers} in entity set ${request.messageEntitySetId} for organization ${request.organizationId}",
                         e
                 )
+                listOf<CompletableFuture<Message>>()
+            }
+
+            CompletableFuture.allOf(*sent.toTypedArray()).whenComplete { _, _ ->
+                pendingRequests.release()
+                outgoingMessages.delete(id)
             }
         }
     }
 
-    val fromPhone = PhoneNumber(twilioConfiguration.shortCode)
     val feedsExecutorWorker = feedsExecutor.execute {
 
         if (!twilioConfiguration.isCodexEnabled) {
             return@execute
         }
 
-        Stream.generate { feedsQueue.take() }.forEach { (messageContents, toPhoneNumber) ->
-            try {
-                Message.creator(PhoneNumber(toPhoneNumber), fromPhone, messageContents).create()
-            } catch (e: Exception) {
-                logger.error("Unable to send outgoing feed update message to phone number $toPhoneNumber", e)
+        Stream.generate {
+            pendingRequests.acquire()
+            feedsQueue.take()
+        }.forEach { (messageContents, toPhoneNumber) ->
+            outboundMessages.submit(OutboundMessage(twilioConfiguration.shortCode, toPhoneNumber, messageContents))
+                    .whenComplete { _, e ->
+                        pendingRequests.release()
+                        if (e != null) {
+                            logger.error("Unable to send outgoing feed update message to phone number $toPhoneNumber", e)
+                        }
+                    }
+        }
+    }
+
+    val writeBackExecutorWorker = writeBackExecutor.execute {
+
+        if (!twilioConfiguration.isCodexEnabled) {
+            return@execute
+        }
+
+        Stream.generate {
+            val batch = mutableListOf(sentMessages.take())
+            sentMessages.drainTo(batch, MAX_WRITE_BACK_BATCH_SIZE - 1)
+            batch
+        }.forEach { batch ->
+            batch.groupBy({ it.organizationId }, { it.senderId to it.message }).forEach { (organizationId, messages) ->
+                try {
+                    processOutgoingMessages(organizationId, messages)
+                } catch (e: Exception) {
+                    logger.error(
+                            "Unable to write ${messages.size} outgoing messages for organization $organizationId",
+                            e
+                    )
+                }
             }
         }
     }
 
+    /**
+     * Moves the outgoing messages that earlier releases queued whole on [HazelcastQueue.TWILIO] onto [twilioQueue].
+     * Nodes still running an earlier release can queue more of them until they are replaced.
+     */
+    @Scheduled(fixedRate = LEGACY_QUEUE_DRAIN_INTERVAL_MILLIS)
+    fun drainLegacyTwilioQueue() {
+
+        if (!twilioConfiguration.isCodexEnabled) {
+            return
+        }
+
+        val requests = mutableListOf<MessageRequest>()
+        legacyTwilioQueue.drainTo(requests)
+        if (requests.isEmpty()) {
+            return
+        }
+
+        // no task waits on these to keep them alive, so they are kept until they have been sent
+        requests.forEach { request ->
+            val id = UUID.randomUUID()
+            outgoingMessages.set(id, request)
+            twilioQueue.put(id)
+        }
+        logger.info("Moved {} outgoing messages queued by an earlier release.", requests.size)
+    }
+
     @Scheduled(fixedRate = SYNC_INTERVAL_MILLIS)
     fun syncCodexMessagesWithTwilio() {
 
@@ -290,50 +376,99 @@ class CodexService(
         return latestMessage
     }
 
-    fun processOutgoingMessage(message: Message, organizationId: UUID, senderId: String, attatchment: Base64Media?) {
+    /**
+     * Queues a message to each recipient of [request] on the outbound message engine. Sent messages are written to
+     * the organization's Codex entity sets in batches.
+     *
+     * @return A future for each recipient, completed once the message to that recipient has been sent.
+     */
+    private fun submitOutgoingMessage(request: MessageRequest): List<CompletableFuture<Message>> {
+        val (organizationId, messageEntitySetId, messageContents, toPhoneNumbers, senderId, attachment) = request
+
+        //Not very efficient.
+        val phone = organizations.getOrganization(organizationId)!!.smsEntitySetInfo
+                .flatMap { (phoneNumber, _, entitySetIds, _) -> entitySetIds.map { it to phoneNumber } }
+                .toMap()
+                .getValue(messageEntitySetId)
+
+        if (phone == "") {
+            throw BadRequestException("No source phone number set for organization!")
+        }
+
+        val callbackPath = "${twilioConfiguration.callbackBaseUrl}${CodexApi.BASE}${CodexApi.INCOMING}/$organizationId${CodexApi.STATUS}"
+
+        return toPhoneNumbers.map { toPhoneNumber ->
+            val mediaUrl = attachment?.let { writeMediaAndGetPath(it) }
+
+            outboundMessages
+                    .submit(OutboundMessage(phone, toPhoneNumber, messageContents, mediaUrl, URI.create(callbackPath)))
+                    .whenComplete { message, e ->
+                        if (e == null) {
+                            sentMessages.add(SentMessage(organizationId, senderId, message))
+                        } else {
+                            logger.error(
+                                    "Unable to send outgoing message to phone number $toPhoneNumber in entity set $messageEntitySetId for organization $organizationId",
+                                    e
+                            )
+                        }
+                    }
+        }
+    }
+
+    /**
+     * Writes messages sent on behalf of users of [organizationId], along with their senders, to the organization's
+     * Codex entity sets.
+     *
+     * @param messages The id of the user who sent each message, paired with the message.
+     */
+    fun processOutgoingMessages(organizationId: UUID, messages: List<Pair<String, Message>>) {
         val senderEntitySetId = getEntitySetId(organizationId, CodexConstants.CollectionTemplateType.PEOPLE)
         val sentFromEntitySetId = getEntitySetId(organizationId, CodexConstants.CollectionTemplateType.SENT_FROM)
         val messageEntitySetId = getEntitySetId(organizationId, CodexConstants.CollectionTemplateType.MESSAGES)
 
-        val sender = principalsManager.getUser(senderId)
+        val senders = messages.map { it.first }.toSet().associateWith { principalsManager.getUser(it) }
 
-        val senderEntityKey = EntityKey(senderEntitySetId, sender.id)
-        val messageEntityKey = EntityKey(messageEntitySetId, message.sid)
-        val sentFromEntityKey = EntityKey(sentFromEntitySetId, message.sid)
+        val senderEntityKeys = senders.mapValues { EntityKey(senderEntitySetId, it.value.id) }
+        val messageEntityKeys = messages.map { EntityKey(messageEntitySetId, it.second.sid) }
+        val sentFromEntityKeys = messages.map { EntityKey(sentFromEntitySetId, it.second.sid) }
 
         val idsByEntityKey = entityKeyIdService.getEntityKeyIds(
-                setOf(senderEntityKey, messageEntityKey, sentFromEntityKey)
+                (senderEntityKeys.values + messageEntityKeys + sentFromEntityKeys).toSet()
         )
 
-        val senderEntityKeyId = idsByEntityKey.getValue(senderEntityKey)
-        val messageEntityKeyId = idsByEntityKey.getValue(messageEntityKey)
-        val sentFromEntityKeyId = idsByEntityKey.getValue(sentFromEntityKey)
-
         dataGraphManager.mergeEntities(
                 senderEntitySetId,
-                mapOf(senderEntityKeyId to getSenderEntity(sender)),
+                senders.entries.associate { (senderId, sender) ->
+                    idsByEntityKey.getValue(senderEntityKeys.getValue(senderId)) to getSenderEntity(sender)
+                },
                 getPropertyTypes(CodexConstants.CollectionTemplateType.PEOPLE),
                 PropertyUpdateType.Versioned
         )
 
         dataGraphManager.mergeEntities(
                 sentFromEntitySetId,
-                mapOf(sentFromEntityKeyId to getAssociationEntity(formatDateTime(message.dateCreated))),
+                messages.indices.associate { i ->
+                    idsByEntityKey.getValue(sentFromEntityKeys[i]) to
+                            getAssociationEntity(formatDateTime(messages[i].second.dateCreated))
+                },
                 getPropertyTypes(CodexConstants.CollectionTemplateType.SENT_FROM),
                 PropertyUpdateType.Versioned
         )
 
         dataGraphManager.createAssociations(
-                setOf(
-                        DataEdgeKey(
-                                EntityDataKey(messageEntitySetId, messageEntityKeyId),
-                                EntityDataKey(senderEntitySetId, senderEntityKeyId),
-                                EntityDataKey(sentFromEntitySetId, sentFromEntityKeyId)
-                        )
-                )
+                messages.indices.map { i ->
+                    DataEdgeKey(
+                            EntityDataKey(messageEntitySetId, idsByEntityKey.getValue(messageEntityKeys[i])),
+                            EntityDataKey(
+                                    senderEntitySetId,
+                                    idsByEntityKey.getValue(senderEntityKeys.getValue(messages[i].first))
+                            ),
+                            EntityDataKey(sentFromEntitySetId, idsByEntityKey.getValue(sentFromEntityKeys[i]))
+                    )
+                }.toSet()
         )
 
-        integrateMissingMessages(organizationId, listOf(message), isOutgoing = true)
+        integrateMissingMessages(organizationId, messages.map { it.second }, isOutgoing = true)
     }
 
     private fun filterToMissingMessages(messageEntitySetId: UUID, messages: List<Message>): List<Message> {
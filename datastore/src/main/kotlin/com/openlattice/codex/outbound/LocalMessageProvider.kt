@@ -0,0 +1,68 @@
+package com.openlattice.codex.outbound
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.twilio.rest.api.v2010.account.Message
+import org.joda.time.DateTime
+import org.joda.time.format.DateTimeFormat
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Records outgoing messages instead of sending them, so that the rate limiting, throughput and fairness of
+ * [OutboundMessageEngine] can be exercised without a twilio account.
+ *
+ * @param latencyMillis How long each send blocks, to stand in for the round trip to the provider.
+ */
+class LocalMessageProvider(private val latencyMillis: Long = 0) : OutboundMessageProvider {
+    companion object {
+        private val mapper = ObjectMapper()
+        private val rfc2822 = DateTimeFormat.forPattern("EEE, dd MMM yyyy HH:mm:ss Z").withLocale(Locale.US)
+    }
+
+    /**
+     * @param sentAtNanos When the message was handed to this provider.
+     */
+    data class SentMessage(val message: OutboundMessage, val sentAtNanos: Long)
+
+    private val sent = ConcurrentLinkedQueue<SentMessage>()
+
+    override fun send(message: OutboundMessage): Message {
+        sent.add(SentMessage(message, System.nanoTime()))
+
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis)
+        }
+
+        val now = rfc2822.print(DateTime.now())
+        return Message.fromJson(
+                mapper.writeValueAsString(
+                        mapOf(
+                                "sid" to "SM${UUID.randomUUID().toString().replace("-", "")}",
+                                "from" to message.from,
+                                "to" to message.to,
+                                "body" to message.body,
+                                "num_media" to "0",
+                                "status" to "sent",
+                                "direction" to "outbound-api",
+                                "date_created" to now,
+                                "date_sent" to now
+                        )
+                ),
+                mapper
+        )
+    }
+
+    /**
+     * @return Every message sent so far, in the order they were sent.
+     */
+    fun getSent(): List<SentMessage> {
+        return sent.toList()
+    }
+
+    /**
+     * @return The times at which each sender number sent its messages, in the order they were sent.
+     */
+    fun getSendTimesBySender(): Map<String, List<Long>> {
+        return sent.groupBy({ it.message.from }, { it.sentAtNanos })
+    }
+}
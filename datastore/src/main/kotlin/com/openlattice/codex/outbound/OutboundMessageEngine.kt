@@ -0,0 +1,143 @@
+package com.openlattice.codex.outbound
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.twilio.rest.api.v2010.account.Message
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.DelayQueue
+import java.util.concurrent.Delayed
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sends outgoing messages through [provider] on [workers] threads, limiting each sender number with [rateLimiter].
+ *
+ * Messages are queued per sender. A sender is only handed back to the workers once [rateLimiter] expects it to have a
+ * slot, so workers never sleep on a rate limited sender while messages from other senders are waiting, and senders
+ * that are ready at the same time are served in turn, one message each, so a large batch from one number doesn't hold
+ * up the others.
+ */
+class OutboundMessageEngine(
+        private val provider: OutboundMessageProvider,
+        workers: Int,
+        private val rateLimiter: SendRateLimiter
+) : Closeable {
+    companion object {
+        private val logger = LoggerFactory.getLogger(OutboundMessageEngine::class.java)
+        private val RATE_LIMIT_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1)
+    }
+
+    private class PendingMessage(val message: OutboundMessage, val result: CompletableFuture<Message>)
+
+    private class Sender(val number: String) : Delayed {
+        val pending = ArrayDeque<PendingMessage>()
+        var isScheduled = false
+
+        @Volatile
+        var readyAtNanos = 0L
+
+        override fun getDelay(unit: TimeUnit): Long {
+            return unit.convert(readyAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS)
+        }
+
+        override fun compareTo(other: Delayed): Int {
+            return readyAtNanos.compareTo((other as Sender).readyAtNanos)
+        }
+    }
+
+    private val senders = ConcurrentHashMap<String, Sender>()
+    private val ready = DelayQueue<Sender>()
+    private val executor = Executors.newFixedThreadPool(
+            workers,
+            ThreadFactoryBuilder().setDaemon(true).setNameFormat("outbound-messages-%d").build()
+    )
+
+    init {
+        check(workers > 0) { "There must be at least one worker." }
+        repeat(workers) { executor.execute(::work) }
+    }
+
+    /**
+     * Queues [message] to be sent from its sender number.
+     *
+     * @return A future completed with the message as recorded by the provider once it has been sent.
+     */
+    fun submit(message: OutboundMessage): CompletableFuture<Message> {
+        val result = CompletableFuture<Message>()
+        val sender = senders.computeIfAbsent(message.from) { Sender(it) }
+
+        synchronized(sender) {
+            sender.pending.addLast(PendingMessage(message, result))
+            if (!sender.isScheduled) {
+                sender.isScheduled = true
+                schedule(sender, System.nanoTime())
+            }
+        }
+
+        return result
+    }
+
+    /**
+     * @return The number of messages waiting to be sent.
+     */
+    fun getPendingCount(): Int {
+        return senders.values.sumBy { synchronized(it) { it.pending.size } }
+    }
+
+    private fun work() {
+        while (!Thread.currentThread().isInterrupted) {
+            val sender = try {
+                ready.take()
+            } catch (e: InterruptedException) {
+                return
+            }
+
+            // a sender is only ever held by one worker, since it isn't handed back to the workers until it has been
+            // rescheduled below, so its slot can be taken without holding its lock
+            val waitNanos = try {
+                rateLimiter.tryAcquire(sender.number)
+            } catch (e: Exception) {
+                logger.error("Unable to check the rate limit of sender {}", sender.number, e)
+                RATE_LIMIT_RETRY_NANOS
+            }
+
+            val next = synchronized(sender) {
+                val now = System.nanoTime()
+                if (waitNanos > 0) {
+                    schedule(sender, now + waitNanos)
+                    return@synchronized null
+                }
+
+                val next = sender.pending.pollFirst()
+                if (sender.pending.isEmpty()) {
+                    sender.isScheduled = false
+                } else {
+                    schedule(sender, now)
+                }
+                next
+            } ?: continue
+
+            try {
+                next.result.complete(provider.send(next.message))
+            } catch (e: Exception) {
+                logger.error("Unable to send outgoing message from {} to {}", next.message.from, next.message.to, e)
+                next.result.completeExceptionally(e)
+            }
+        }
+    }
+
+    /**
+     * Hands [sender] to the workers at [readyAtNanos]. Has to be called while holding the lock on [sender].
+     */
+    private fun schedule(sender: Sender, readyAtNanos: Long) {
+        sender.readyAtNanos = readyAtNanos
+        ready.put(sender)
+    }
+
+    override fun close() {
+        executor.shutdownNow()
+    }
+}
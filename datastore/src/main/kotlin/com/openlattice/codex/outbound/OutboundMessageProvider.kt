@@ -0,0 +1,25 @@
+package com.openlattice.codex.outbound
+
+import com.twilio.rest.api.v2010.account.Message
+import java.net.URI
+
+data class OutboundMessage(
+        val from: String,
+        val to: String,
+        val body: String,
+        val mediaUrl: String? = null,
+        val statusCallback: URI? = null
+)
+
+/**
+ * Sends outgoing messages on behalf of [OutboundMessageEngine]. Implementations have to be thread safe, as every
+ * worker of the engine sends through the same provider.
+ */
+interface OutboundMessageProvider {
+    /**
+     * Sends [message], blocking until the provider has accepted it.
+     *
+     * @return The message as recorded by the provider.
+     */
+    fun send(message: OutboundMessage): Message
+}
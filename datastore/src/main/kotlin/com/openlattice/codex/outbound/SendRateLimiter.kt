@@ -0,0 +1,59 @@
+package com.openlattice.codex.outbound
+
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Limits each sender number to the rate returned for it by [ratePerSecond], across every node that shares [slots].
+ *
+ * For each number, [slots] holds the time in microseconds at which its next message is due. A message may be sent
+ * once that time is at most [burst] - 1 intervals away, and sending it moves the time on by one interval. Slots are
+ * taken by compare-and-set, so nodes sharing a Hazelcast map share the limit instead of each sending at the full rate.
+ *
+ * @param clockMillis The clock slots are measured against. Every node sharing [slots] has to use the same clock, e.g.
+ * the Hazelcast cluster time.
+ * @param burst How many messages a sender that has been idle may send back to back.
+ */
+class SendRateLimiter(
+        private val slots: ConcurrentMap<String, Long>,
+        private val ratePerSecond: (String) -> Double,
+        private val clockMillis: () -> Long,
+        private val burst: Int = 1
+) {
+    init {
+        check(burst > 0) { "Burst must be positive." }
+    }
+
+    /**
+     * Takes a slot to send a message from [number] if one is available.
+     *
+     * @return Zero if a slot was taken, otherwise how many nanoseconds until the next slot becomes available.
+     */
+    fun tryAcquire(number: String): Long {
+        val rate = ratePerSecond(number)
+        check(rate > 0) { "Rate must be positive." }
+
+        val intervalMicros = (TimeUnit.SECONDS.toMicros(1) / rate).toLong()
+        val toleranceMicros = intervalMicros * (burst - 1)
+
+        while (true) {
+            val nowMicros = TimeUnit.MILLISECONDS.toMicros(clockMillis())
+            val due = slots[number]
+            val next = maxOf(due ?: nowMicros, nowMicros)
+
+            val waitMicros = next - toleranceMicros - nowMicros
+            if (waitMicros > 0) {
+                return TimeUnit.MICROSECONDS.toNanos(waitMicros)
+            }
+
+            val taken = if (due == null) {
+                slots.putIfAbsent(number, next + intervalMicros) == null
+            } else {
+                slots.replace(number, due, next + intervalMicros)
+            }
+            if (taken) {
+                return 0
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.openlattice.codex.outbound
+
+import com.twilio.rest.api.v2010.account.Message
+import com.twilio.type.PhoneNumber
+
+class TwilioMessageProvider : OutboundMessageProvider {
+    override fun send(message: OutboundMessage): Message {
+        val messageCreator = Message.creator(PhoneNumber(message.to), PhoneNumber(message.from), message.body)
+        message.statusCallback?.let { messageCreator.setStatusCallback(it) }
+        message.mediaUrl?.let { messageCreator.setMediaUrl(it) }
+        return messageCreator.create()
+    }
+}
@@ -19,6 +19,8 @@ import com.openlattice.collaborations.CollaborationsApi.Companion.ORGANIZATIONS_
 import com.openlattice.collaborations.CollaborationsApi.Companion.ORGANIZATION_ID_PARAM
 import com.openlattice.collaborations.CollaborationsApi.Companion.ORGANIZATION_ID_PATH
 import com.openlattice.collaborations.CollaborationsApi.Companion.PROJECT_PATH
+import com.openlattice.collaborations.CollaborationsApi.Companion.PROJECTION_MODE_PARAM
+import com.openlattice.collaborations.ProjectionMode
 import com.openlattice.organizations.OrganizationDatabase
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
 import org.springframework.http.MediaType
@@ -162,12 +164,18 @@ class CollaborationsController : AuthorizingComponent, CollaborationsApi {
     override fun addDataSetToCollaboration(
         @PathVariable(COLLABORATION_ID_PARAM) collaborationId: UUID,
         @PathVariable(ORGANIZATION_ID_PARAM) organizationId: UUID,
-        @PathVariable(DATA_SET_ID_PARAM) dataSetId: UUID
+        @PathVariable(DATA_SET_ID_PARAM) dataSetId: UUID,
+        @RequestParam(value = PROJECTION_MODE_PARAM, required = false) projectionMode: ProjectionMode?
     ) {
         ensureReadAccess(AclKey(collaborationId))
         ensureReadAccess(AclKey(organizationId))
         ensureOwnerAccess(AclKey(dataSetId))
-        collaborationService.projectTableToCollaboration(collaborationId, organizationId, dataSetId)
+        collaborationService.projectTableToCollaboration(
+            collaborationId,
+            organizationId,
+            dataSetId,
+            projectionMode ?: ProjectionMode.FOREIGN_TABLE
+        )
     }
 
     @Timed
@@ -0,0 +1,88 @@
+package com.openlattice.datastore.data.controllers
+
+import com.codahale.metrics.annotation.Timed
+import com.geekbeast.controllers.exceptions.ForbiddenException
+import com.geekbeast.controllers.exceptions.ResourceNotFoundException
+import com.openlattice.data.storage.BLOB_DISPOSITION_PARAMETER
+import com.openlattice.data.storage.BLOB_EXPIRES_PARAMETER
+import com.openlattice.data.storage.BLOB_KEY_PARAMETER
+import com.openlattice.data.storage.BLOB_SIGNATURE_PARAMETER
+import com.openlattice.data.storage.ByteBlobDataManager
+import com.openlattice.data.storage.FilesystemBlobDataService
+import org.springframework.http.HttpHeaders
+import org.springframework.http.MediaType
+import org.springframework.web.bind.annotation.*
+import javax.inject.Inject
+import javax.servlet.http.HttpServletResponse
+
+/**
+ * Content types that browsers won't execute, which are served as they were uploaded.
+ */
+private val SAFE_CONTENT_TYPES = setOf(
+        "application/pdf",
+        "audio/mpeg",
+        "audio/ogg",
+        "audio/wav",
+        "image/bmp",
+        "image/gif",
+        "image/jpeg",
+        "image/png",
+        "image/tiff",
+        "image/webp",
+        "text/csv",
+        "text/plain",
+        "video/mp4",
+        "video/ogg",
+        "video/webm"
+)
+
+/**
+ * Serves blobs stored by [FilesystemBlobDataService] through the signed urls it hands out, the way S3 serves
+ * presigned urls. Requests are authorized by their signature alone.
+ *
+ * Blobs are served from the origin of the api, so their uploader supplied content type is only passed on for types
+ * that browsers don't execute. Any other blob, such as html or svg, is served as an octet stream attachment, and
+ * content sniffing is disabled for all of them.
+ */
+@RestController
+@RequestMapping(BlobController.CONTROLLER)
+class BlobController {
+    companion object {
+        const val CONTROLLER = "/blobs"
+    }
+
+    @Inject
+    private lateinit var byteBlobDataManager: ByteBlobDataManager
+
+    @Timed
+    @GetMapping
+    fun getBlob(
+            @RequestParam(BLOB_KEY_PARAMETER) key: String,
+            @RequestParam(BLOB_EXPIRES_PARAMETER) expires: Long,
+            @RequestParam(BLOB_DISPOSITION_PARAMETER, required = false) contentDisposition: String?,
+            @RequestParam(BLOB_SIGNATURE_PARAMETER) signature: String,
+            response: HttpServletResponse
+    ) {
+        val blobs = byteBlobDataManager as? FilesystemBlobDataService
+                ?: throw ResourceNotFoundException("Blobs are not served by this datastore.")
+
+        if (!blobs.verifySignature(key, expires, contentDisposition, signature)) {
+            throw ForbiddenException("The url is invalid or has expired.")
+        }
+
+        blobs.openObject(key)?.use { blob ->
+            response.setHeader("X-Content-Type-Options", "nosniff")
+            val contentType = blob.contentType.substringBefore(";").trim().toLowerCase()
+            if (SAFE_CONTENT_TYPES.contains(contentType)) {
+                response.contentType = blob.contentType
+                (contentDisposition ?: blob.contentDisposition)?.let {
+                    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, it)
+                }
+            } else {
+                response.contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment")
+            }
+            blob.data.copyTo(response.outputStream)
+        } ?: throw ResourceNotFoundException("Unable to find blob $key.")
+    }
+}
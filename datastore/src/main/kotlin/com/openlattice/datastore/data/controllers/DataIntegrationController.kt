@@ -15,6 +15,8 @@ import com.openlattice.data.DataIntegrationApi.PROPERTY_UPDATE_TYPE
 import com.openlattice.data.EntityKey
 import com.openlattice.data.PropertyUpdateType
 import com.openlattice.data.integration.S3EntityData
+import com.openlattice.data.storage.DataSourceResolver
+import com.openlattice.data.storage.Workload
 import com.openlattice.data.storage.aws.AwsDataSinkService
 import org.springframework.http.MediaType
 import org.springframework.web.bind.annotation.*
@@ -42,6 +44,9 @@ class DataIntegrationController : DataIntegrationApi, AuthorizingComponent {
     @Inject
     private lateinit var authzHelper: EdmAuthorizationHelper
 
+    @Inject
+    private lateinit var dataSourceResolver: DataSourceResolver
+
     override fun getAuthorizationManager(): AuthorizationManager {
         return authz
     }
@@ -103,7 +108,7 @@ class DataIntegrationController : DataIntegrationApi, AuthorizingComponent {
     fun getEntityKeyIds(@RequestBody entityKeys: LinkedHashSet<EntityKey>): Set<UUID> {
         val entitySetIds = entityKeys.map { it.entitySetId }.toSet()
         entitySetIds.forEach { entitySetId: UUID -> ensureWriteAccess(AclKey(entitySetId)) }
-        return dgm.getEntityKeyIds(entityKeys)
+        return dataSourceResolver.admitToDefaultDataSource(Workload.INGEST) { dgm.getEntityKeyIds(entityKeys) }
     }
 
     @Timed
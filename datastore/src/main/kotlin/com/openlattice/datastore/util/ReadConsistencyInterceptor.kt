@@ -0,0 +1,45 @@
+package com.openlattice.datastore.util
+
+import com.geekbeast.controllers.exceptions.BadRequestException
+import com.openlattice.data.storage.MAX_STALENESS_HEADER
+import com.openlattice.data.storage.READ_AFTER_LSN_HEADER
+import com.openlattice.data.storage.ReadConsistency
+import org.springframework.web.servlet.HandlerInterceptor
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+/**
+ * Holds the read consistency requested through [MAX_STALENESS_HEADER] and [READ_AFTER_LSN_HEADER] for the duration of
+ * a request.
+ *
+ * @param defaultMaxStaleness The max staleness of requests that don't specify one, in milliseconds.
+ */
+class ReadConsistencyInterceptor(private val defaultMaxStaleness: Long) : HandlerInterceptor {
+
+    override fun preHandle(request: HttpServletRequest, response: HttpServletResponse, handler: Any): Boolean {
+        val maxStaleness = request.getHeader(MAX_STALENESS_HEADER)?.let {
+            it.toLongOrNull()?.takeIf { maxStaleness -> maxStaleness >= 0 }
+                    ?: throw BadRequestException("$MAX_STALENESS_HEADER must be a non-negative number of milliseconds.")
+        } ?: defaultMaxStaleness
+
+        val minLsn = request.getHeader(READ_AFTER_LSN_HEADER)?.let {
+            try {
+                ReadConsistency.parseLsn(it)
+            } catch (e: IllegalArgumentException) {
+                throw BadRequestException("$READ_AFTER_LSN_HEADER must be a log position returned by a write.")
+            }
+        }
+
+        ReadConsistency.set(ReadConsistency(maxStaleness, minLsn))
+        return true
+    }
+
+    override fun afterCompletion(
+            request: HttpServletRequest,
+            response: HttpServletResponse,
+            handler: Any,
+            ex: Exception?
+    ) {
+        ReadConsistency.clear()
+    }
+}
@@ -0,0 +1,44 @@
+package com.openlattice.datastore.util
+
+import com.openlattice.tracing.RequestTracing
+import org.slf4j.LoggerFactory
+import org.springframework.web.method.HandlerMethod
+import org.springframework.web.servlet.HandlerInterceptor
+import java.util.concurrent.TimeUnit
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+private val logger = LoggerFactory.getLogger(RequestTracingInterceptor::class.java)
+
+/**
+ * Traces the costs of each request, named after the controller method handling it, and logs the breakdown of requests
+ * slower than [slowRequestThreshold].
+ *
+ * @param slowRequestThreshold How long a request may take before its breakdown is logged, in milliseconds.
+ */
+class RequestTracingInterceptor(private val slowRequestThreshold: Long) : HandlerInterceptor {
+
+    override fun preHandle(request: HttpServletRequest, response: HttpServletResponse, handler: Any): Boolean {
+        val name = if (handler is HandlerMethod) {
+            "${handler.beanType.simpleName}.${handler.method.name}"
+        } else {
+            request.method
+        }
+        RequestTracing.start(name)
+        return true
+    }
+
+    override fun afterCompletion(
+            request: HttpServletRequest,
+            response: HttpServletResponse,
+            handler: Any,
+            ex: Exception?
+    ) {
+        val trace = RequestTracing.finish() ?: return
+        if (TimeUnit.NANOSECONDS.toMillis(trace.getElapsedNanos()) >= slowRequestThreshold) {
+            logger.warn("Slow request {}: {}", request.requestURI, trace.summarize())
+        } else if (logger.isDebugEnabled) {
+            logger.debug(trace.summarize())
+        }
+    }
+}
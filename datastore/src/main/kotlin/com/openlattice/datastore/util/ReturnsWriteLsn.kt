@@ -0,0 +1,9 @@
+package com.openlattice.datastore.util
+
+/**
+ * Marks an endpoint that writes to the primary, so that [WriteLsnResponseAdvice] returns the log position of the
+ * primary after the write.
+ */
+@Target(AnnotationTarget.FUNCTION)
+@Retention(AnnotationRetention.RUNTIME)
+annotation class ReturnsWriteLsn
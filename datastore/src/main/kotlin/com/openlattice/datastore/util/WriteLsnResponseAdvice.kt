@@ -0,0 +1,74 @@
+package com.openlattice.datastore.util
+
+import com.openlattice.data.storage.DataSourceResolver
+import com.openlattice.data.storage.ReadConsistency
+import com.openlattice.data.storage.WRITE_LSN_HEADER
+import org.slf4j.LoggerFactory
+import org.springframework.core.MethodParameter
+import org.springframework.http.MediaType
+import org.springframework.http.converter.HttpMessageConverter
+import org.springframework.http.server.ServerHttpRequest
+import org.springframework.http.server.ServerHttpResponse
+import org.springframework.web.bind.annotation.RestControllerAdvice
+import org.springframework.web.method.HandlerMethod
+import org.springframework.web.servlet.HandlerInterceptor
+import org.springframework.web.servlet.ModelAndView
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice
+import javax.inject.Inject
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+private val logger = LoggerFactory.getLogger(WriteLsnResponseAdvice::class.java)
+
+/**
+ * Returns the log position of the primary in [WRITE_LSN_HEADER] after a write, so that a client can read its own
+ * writes by passing it back in [com.openlattice.data.storage.READ_AFTER_LSN_HEADER], even from a replica.
+ *
+ * Only endpoints annotated with [ReturnsWriteLsn] return it, so that reads sent as POST don't query the primary. The
+ * header is added before the body of endpoints that return one is written, and after endpoints that don't return one
+ * are handled, which requires registering this advice as an interceptor as well.
+ */
+@RestControllerAdvice
+class WriteLsnResponseAdvice : ResponseBodyAdvice<Any>, HandlerInterceptor {
+
+    @Inject
+    private lateinit var dataSourceResolver: DataSourceResolver
+
+    override fun supports(returnType: MethodParameter, converterType: Class<out HttpMessageConverter<*>>): Boolean {
+        return dataSourceResolver.replicaRouter != null && returnType.hasMethodAnnotation(ReturnsWriteLsn::class.java)
+    }
+
+    override fun beforeBodyWrite(
+            body: Any?,
+            returnType: MethodParameter,
+            selectedContentType: MediaType,
+            selectedConverterType: Class<out HttpMessageConverter<*>>,
+            request: ServerHttpRequest,
+            response: ServerHttpResponse
+    ): Any? {
+        getWriteLsn()?.let { response.headers.set(WRITE_LSN_HEADER, it) }
+        return body
+    }
+
+    override fun postHandle(
+            request: HttpServletRequest,
+            response: HttpServletResponse,
+            handler: Any,
+            modelAndView: ModelAndView?
+    ) {
+        if (handler is HandlerMethod && handler.hasMethodAnnotation(ReturnsWriteLsn::class.java)
+                && !response.isCommitted && !response.containsHeader(WRITE_LSN_HEADER)) {
+            getWriteLsn()?.let { response.setHeader(WRITE_LSN_HEADER, it) }
+        }
+    }
+
+    private fun getWriteLsn(): String? {
+        val replicaRouter = dataSourceResolver.replicaRouter ?: return null
+        return try {
+            ReadConsistency.formatLsn(replicaRouter.getCurrentLsn())
+        } catch (e: Exception) {
+            logger.warn("Unable to read the log position of the primary after a write.", e)
+            null
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.openlattice.codex.outbound
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+private const val MESSAGES_PER_SECOND = 50.0
+
+class OutboundMessageEngineTest {
+
+    @Test
+    fun testRateLimitAndFairness() {
+        val provider = LocalMessageProvider(latencyMillis = 5)
+        val engine = OutboundMessageEngine(
+                provider,
+                4,
+                SendRateLimiter(ConcurrentHashMap(), { MESSAGES_PER_SECOND }, System::currentTimeMillis)
+        )
+
+        val busy = (0 until 50).map { engine.submit(OutboundMessage("busy", "to-$it", "body")) }
+        val quiet = listOf("quiet-1", "quiet-2").flatMap { sender ->
+            (0 until 10).map { engine.submit(OutboundMessage(sender, "to-$it", "body")) }
+        }
+
+        CompletableFuture.allOf(*(busy + quiet).toTypedArray()).get(10, TimeUnit.SECONDS)
+        engine.close()
+
+        val sendTimes = provider.getSendTimesBySender()
+        Assert.assertEquals(70, provider.getSent().size)
+
+        val minIntervalNanos = (TimeUnit.SECONDS.toNanos(1) / MESSAGES_PER_SECOND * 0.9).toLong()
+        sendTimes.forEach { (sender, times) ->
+            times.zipWithNext().forEach { (previous, next) ->
+                Assert.assertTrue("Sender $sender exceeded its rate limit.", next - previous >= minIntervalNanos)
+            }
+        }
+
+        // Senders are served in turn, so the quiet senders finish long before the busy one.
+        val busyTimes = sendTimes.getValue("busy")
+        listOf("quiet-1", "quiet-2").forEach {
+            Assert.assertTrue(
+                    "Sender $it was starved by a busier sender.",
+                    sendTimes.getValue(it).last() < busyTimes[busyTimes.size / 2]
+            )
+        }
+    }
+}
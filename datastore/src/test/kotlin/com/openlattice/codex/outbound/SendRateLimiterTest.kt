@@ -0,0 +1,53 @@
+package com.openlattice.codex.outbound
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+class SendRateLimiterTest {
+    private var nowMillis = 1_000_000L
+
+    private fun limiter(slots: ConcurrentHashMap<String, Long>, burst: Int = 1): SendRateLimiter {
+        return SendRateLimiter(slots, { 10.0 }, { nowMillis }, burst)
+    }
+
+    @Test
+    fun testNodesSharingSlotsShareTheLimit() {
+        val slots = ConcurrentHashMap<String, Long>()
+        val nodes = listOf(limiter(slots), limiter(slots), limiter(slots))
+
+        var sent = 0
+        repeat(1_000) {
+            sent += nodes.count { it.tryAcquire("+15555550100") == 0L }
+            nowMillis += 1
+        }
+
+        // one second at 10 messages per second, however many nodes are sending
+        Assert.assertEquals(10, sent)
+    }
+
+    @Test
+    fun testWaitIsUntilTheNextSlot() {
+        val slots = ConcurrentHashMap<String, Long>()
+        val first = limiter(slots)
+        val second = limiter(slots)
+
+        Assert.assertEquals(0L, first.tryAcquire("+15555550100"))
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), second.tryAcquire("+15555550100"))
+
+        // other numbers have slots of their own
+        Assert.assertEquals(0L, second.tryAcquire("+15555550101"))
+
+        nowMillis += 100
+        Assert.assertEquals(0L, second.tryAcquire("+15555550100"))
+    }
+
+    @Test
+    fun testIdleSendersMayBurst() {
+        val limiter = limiter(ConcurrentHashMap(), 3)
+
+        Assert.assertEquals(listOf(0L, 0L, 0L), (0 until 3).map { limiter.tryAcquire("+15555550100") })
+        Assert.assertTrue(limiter.tryAcquire("+15555550100") > 0)
+    }
+}
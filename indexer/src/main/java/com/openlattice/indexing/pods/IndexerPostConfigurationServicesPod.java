@@ -26,24 +26,28 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.hazelcast.core.HazelcastInstance;
 import com.openlattice.BackgroundExternalDatabaseSyncingService;
+import com.openlattice.BackgroundProjectionReplicationService;
 import com.openlattice.auditing.AuditRecordEntitySetsManager;
 import com.openlattice.auditing.AuditingManager;
 import com.openlattice.authorization.AuthorizationManager;
 import com.openlattice.authorization.DbCredentialService;
 import com.openlattice.authorization.HazelcastAclKeyReservationService;
 import com.openlattice.authorization.PrincipalsMapManager;
+import com.openlattice.collaborations.CollaborationService;
 import com.openlattice.conductor.rpc.ConductorElasticsearchApi;
 import com.openlattice.data.DataDeletionManager;
 import com.openlattice.data.DataGraphManager;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
 import com.openlattice.data.storage.IndexingMetadataManager;
+import com.openlattice.data.storage.postgres.PostgresDataExpirationIndex;
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService;
 import com.openlattice.datasets.DataSetService;
 import com.openlattice.datastore.services.EdmService;
 import com.openlattice.datastore.services.EntitySetManager;
 import com.openlattice.graph.core.GraphService;
 import com.openlattice.indexing.BackgroundExpiredDataDeletionService;
+import com.openlattice.indexing.BackgroundIndexAuditService;
 import com.openlattice.indexing.BackgroundIndexedEntitiesDeletionService;
 import com.openlattice.indexing.BackgroundIndexingService;
 import com.openlattice.indexing.BackgroundLinkingIndexingService;
@@ -147,6 +151,12 @@ public class IndexerPostConfigurationServicesPod {
     @Inject
     private GraphService graphApi;
 
+    @Inject
+    private PostgresDataExpirationIndex dataExpirationIndex;
+
+    @Inject
+    private CollaborationService collaborationService;
+
     @Bean
     public IndexingMetadataManager indexingMetadataManager() {
         return new IndexingMetadataManager( resolver );
@@ -163,6 +173,16 @@ public class IndexerPostConfigurationServicesPod {
                 indexingMetadataManager() );
     }
 
+    @Bean
+    public BackgroundIndexAuditService backgroundIndexAuditService() {
+        return new BackgroundIndexAuditService(
+                hazelcastInstance,
+                indexerConfiguration,
+                resolver,
+                elasticsearchApi,
+                indexingMetadataManager() );
+    }
+
     @Bean
     public BackgroundLinkingIndexingService backgroundLinkingIndexingService() {
         return new BackgroundLinkingIndexingService(
@@ -194,7 +214,13 @@ public class IndexerPostConfigurationServicesPod {
                 dataGraphService,
                 dataDeletionManager,
                 entitySetManager,
-                jobService );
+                jobService,
+                dataExpirationIndex );
+    }
+
+    @Bean
+    public BackgroundProjectionReplicationService backgroundProjectionReplicationService() {
+        return new BackgroundProjectionReplicationService( collaborationService, indexerConfiguration );
     }
 
     @Bean
@@ -227,7 +253,8 @@ public class IndexerPostConfigurationServicesPod {
                 indexerConfiguration,
                 reservationService,
                 principalsMapManager,
-                dataSetService
+                dataSetService,
+                metricRegistry
         );
     }
 
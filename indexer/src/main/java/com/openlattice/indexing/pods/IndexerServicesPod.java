@@ -53,6 +53,7 @@ import com.openlattice.data.storage.ByteBlobDataManager;
 import com.openlattice.data.storage.DataDeletionService;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
+import com.openlattice.data.storage.postgres.PostgresDataExpirationIndex;
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService;
 import com.openlattice.data.storage.postgres.PostgresEntityDatastore;
 import com.openlattice.datasets.DataSetService;
@@ -351,6 +352,11 @@ public class IndexerServicesPod {
         );
     }
 
+    @Bean
+    public PostgresDataExpirationIndex dataExpirationIndex() {
+        return new PostgresDataExpirationIndex( dataSourceResolver(), dataQueryService() );
+    }
+
     @Bean
     public GraphService graphApi() {
         return new Graph(
@@ -379,7 +385,7 @@ public class IndexerServicesPod {
 
     @Bean
     public DataGraphManager dataGraphService() {
-        return new DataGraphService( graphApi(), idService(), entityDatastore(), jobService() );
+        return new DataGraphService( graphApi(), idService(), entityDatastore(), jobService(), null );
     }
 
     @Bean( name = "auditingManager" )
@@ -421,6 +427,8 @@ public class IndexerServicesPod {
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.E );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.IDS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATIONS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATION_POLICIES );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.SYNC_IDS );
         return new DataSourceResolver( hazelcastInstance, dataSourceManager );
     }
@@ -1,5 +1,6 @@
 package com.openlattice
 
+import com.codahale.metrics.MetricRegistry
 import com.google.common.base.Stopwatch
 import com.google.common.collect.ImmutableMap
 import com.google.common.util.concurrent.ListeningExecutorService
@@ -40,13 +41,47 @@ class BackgroundExternalDatabaseSyncingService(
     private val indexerConfiguration: IndexerConfiguration,
     private val reservationService: HazelcastAclKeyReservationService,
     private val principalsMapManager: PrincipalsMapManager,
-    private val dataSetService: DataSetService
+    private val dataSetService: DataSetService,
+    metricRegistry: MetricRegistry
 ) {
     companion object {
         private val logger = LoggerFactory.getLogger(BackgroundExternalDatabaseSyncingService::class.java)
 
         const val SCAN_RATE = 1_000L * 30
         private val orgsToBeSynced: ConcurrentHashMap.KeySetView<UUID, Boolean> = ConcurrentHashMap.newKeySet()
+
+        /**
+         * Finds the tables of a scan that have to be synced, i.e. tables that weren't synced yet or whose fingerprint
+         * changed since they were last synced.
+         */
+        @JvmStatic
+        internal fun getChangedTables(
+            syncedTables: Map<Long, SyncedTable>,
+            fingerprints: Map<Long, String>
+        ): Map<Long, String> {
+            return fingerprints.filter { (oid, fingerprint) -> syncedTables[oid]?.fingerprint != fingerprint }
+        }
+
+        /**
+         * Replaces the fingerprints of the tables synced by a pass with their fingerprints after the sync, so that the
+         * grants the sync itself applied don't make those tables look changed on the next pass. Tables that were
+         * dropped in the meantime keep the fingerprint they were synced with.
+         */
+        @JvmStatic
+        internal fun withFingerprintsAfterSync(
+            syncedTables: Map<Long, SyncedTable>,
+            tablesSyncedByPass: Set<Long>,
+            fingerprintsAfterSync: Map<Long, String>
+        ): Map<Long, SyncedTable> {
+            return syncedTables.mapValues { (oid, syncedTable) ->
+                val fingerprint = fingerprintsAfterSync[oid]
+                if (oid in tablesSyncedByPass && fingerprint != null) {
+                    syncedTable.copy(fingerprint = fingerprint)
+                } else {
+                    syncedTable
+                }
+            }
+        }
     }
 
     private val organizationExternalDatabaseColumns = EXTERNAL_COLUMNS.getMap(hazelcastInstance)
@@ -54,6 +89,19 @@ class BackgroundExternalDatabaseSyncingService(
     private val organizationDatabases = ORGANIZATION_DATABASES.getMap(hazelcastInstance)
     private val organizations = HazelcastMap.ORGANIZATIONS.getMap(hazelcastInstance)
 
+    /**
+     * The state of every table as of the last time it was synced, keyed by organization id and table oid. Tables
+     * whose catalog fingerprint hasn't changed since are skipped.
+     */
+    private val syncedTables = ConcurrentHashMap<UUID, Map<Long, SyncedTable>>()
+
+    private val tablesScanned = metricRegistry.counter(
+        MetricRegistry.name(BackgroundExternalDatabaseSyncingService::class.java, "tablesScanned")
+    )
+    private val tablesSynced = metricRegistry.counter(
+        MetricRegistry.name(BackgroundExternalDatabaseSyncingService::class.java, "tablesSynced")
+    )
+
     // NOTE: commenting this out in case we want to bring it back in the future
     // private val taskLock = ReentrantLock()
 
@@ -109,12 +157,28 @@ class BackgroundExternalDatabaseSyncingService(
 
                 logger.info("starting to sync organization database - org {} db {}", organizationId, database.name)
 
+                val previouslySyncedTables = syncedTables[organizationId] ?: mapOf()
+                val fingerprints = edms.getTableFingerprintsForOrganization(organizationId)
+                tablesScanned.inc(fingerprints.size.toLong())
+
+                val changedTables = getChangedTables(previouslySyncedTables, fingerprints)
+                val droppedTables = previouslySyncedTables.keys - fingerprints.keys
+
+                if (syncedTables.containsKey(organizationId) && changedTables.isEmpty() && droppedTables.isEmpty()) {
+                    logger.info("organization database is unchanged - org {} db {}", organizationId, database.name)
+                    return@submit
+                }
+
                 val adminRoleAclKey = organizations.getValue(organizationId).adminRoleAclKey
                 val adminRolePrincipal = principalsMapManager.getSecurablePrincipal(adminRoleAclKey)!!.principal
 
-                val tableIds = mutableSetOf<UUID>()
-                val columnIds = mutableSetOf<UUID>()
+                val currentlySyncedTables = previouslySyncedTables
+                    .filterKeys { fingerprints.containsKey(it) && !changedTables.containsKey(it) }
+                    .toMutableMap()
+
                 edms.getTableInfoForOrganization(organizationId).forEach { (oid, tableName, schemaName, _) ->
+                    val fingerprint = changedTables[oid] ?: return@forEach
+
                     try {
                         val table = getOrCreateTable(organizationId, oid, tableName, schemaName)
                         logger.info(
@@ -131,14 +195,23 @@ class BackgroundExternalDatabaseSyncingService(
                             organizationId,
                             table.id
                         )
-                        tableIds.add(table.id)
-                        columnIds.addAll(columns.map { it.id })
+                        currentlySyncedTables[oid] = SyncedTable(fingerprint, table.id, columns.map { it.id }.toSet())
+                        tablesSynced.inc()
                     } catch (e: Exception) {
                         logger.error("error syncing organization table - org {}", organizationId, e)
                     }
                 }
 
-                removeNonexistentTablesAndColumnsForOrg(organizationId, tableIds, columnIds)
+                removeNonexistentTablesAndColumnsForOrg(
+                    organizationId,
+                    currentlySyncedTables.values.map { it.tableId }.toSet(),
+                    currentlySyncedTables.values.flatMap { it.columnIds }.toSet()
+                )
+                syncedTables[organizationId] = withFingerprintsAfterSync(
+                    currentlySyncedTables,
+                    changedTables.keys,
+                    edms.getTableFingerprintsForOrganization(organizationId)
+                )
 
                 logger.info(
                     "syncing organization database took {} ms - org {} db {}",
@@ -343,3 +416,5 @@ class BackgroundExternalDatabaseSyncingService(
         auditingManager.recordEvents(events)
     }
 }
+
+internal data class SyncedTable(val fingerprint: String, val tableId: UUID, val columnIds: Set<UUID>)
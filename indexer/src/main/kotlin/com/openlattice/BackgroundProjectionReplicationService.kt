@@ -0,0 +1,47 @@
+package com.openlattice
+
+import com.openlattice.collaborations.CollaborationService
+import com.openlattice.collaborations.ProjectionMode
+import com.openlattice.indexing.configuration.IndexerConfiguration
+import org.slf4j.LoggerFactory
+import org.springframework.scheduling.annotation.Scheduled
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * Periodically copies the rows written to tables projected into collaborations as [ProjectionMode.LOCAL_REPLICA]
+ * over to their replicas.
+ */
+class BackgroundProjectionReplicationService(
+    private val collaborationService: CollaborationService,
+    private val indexerConfiguration: IndexerConfiguration
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(BackgroundProjectionReplicationService::class.java)
+
+        const val REPLICATION_RATE = 1_000L * 60
+    }
+
+    private val replicationLock = ReentrantLock()
+
+    @Suppress("UNUSED")
+    @Scheduled(fixedDelay = REPLICATION_RATE)
+    fun syncProjectionReplicas() {
+        if (!indexerConfiguration.backgroundProjectionReplicationEnabled) {
+            logger.info("projection replication is not enabled in the config")
+            return
+        }
+
+        if (!replicationLock.tryLock()) {
+            logger.info("syncing projection replicas is already in progress")
+            return
+        }
+
+        try {
+            collaborationService.syncTableReplicas()
+        } catch (e: Exception) {
+            logger.error("error syncing projection replicas", e)
+        } finally {
+            replicationLock.unlock()
+        }
+    }
+}
@@ -12,9 +12,11 @@ import com.openlattice.auditing.AuditingManager
 import com.openlattice.authorization.AclKey
 import com.openlattice.data.DataDeletionManager
 import com.openlattice.data.DataGraphManager
+import com.openlattice.data.storage.postgres.PostgresDataExpirationIndex
 import com.openlattice.datastore.services.EdmManager
 import com.openlattice.datastore.services.EntitySetManager
 import com.openlattice.edm.EntitySet
+import com.openlattice.edm.type.PropertyType
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.indexing.configuration.IndexerConfiguration
 import org.slf4j.LoggerFactory
@@ -28,9 +30,22 @@ import javax.inject.Inject
 /**
  * This is a background task that periodically searches for data that has surpassed its prescribed expiration date
  * and removes expired data from postgres and elasticsearch
+ *
+ * Expiration dates are maintained by [PostgresDataExpirationIndex] as data is written. Each entity set with an
+ * expiration policy is scheduled on a [HierarchicalTimerWheel] at its earliest indexed expiration and is only
+ * processed once that deadline comes due. The schedule is refreshed from the index every [SCHEDULE_REFRESH_RATE] ms
+ * to pick up new or changed expiration policies and expirations earlier than the scheduled ones. The policies the
+ * index was built with are stored alongside it, so only entity sets whose policy changed are rebuilt on startup.
  */
 
 const val DATA_DELETION_RATE = 30_000L
+const val SCHEDULE_REFRESH_RATE = 5 * 60_000L
+
+/**
+ * Minimum delay before an entity set is processed again, so that entity sets whose earliest indexed expiration
+ * turns out not to have expired yet are not processed on every tick.
+ */
+private const val MIN_RESCHEDULE_DELAY = 60_000L
 
 class BackgroundExpiredDataDeletionService(
         hazelcastInstance: HazelcastInstance,
@@ -39,7 +54,8 @@ class BackgroundExpiredDataDeletionService(
         private val dataGraphService: DataGraphManager,
         private val deletionManager: DataDeletionManager,
         private val entitySetManager: EntitySetManager,
-        private val jobService: HazelcastJobService
+        private val jobService: HazelcastJobService,
+        private val expirationIndex: PostgresDataExpirationIndex
 ) {
     companion object {
         private val logger = LoggerFactory.getLogger(BackgroundExpiredDataDeletionService::class.java)!!
@@ -53,6 +69,17 @@ class BackgroundExpiredDataDeletionService(
 
     private val taskLock = ReentrantLock()
 
+    private val timerWheel = HierarchicalTimerWheel<UUID>(DATA_DELETION_RATE, System.currentTimeMillis())
+
+    /**
+     * The deadline each entity set is currently scheduled at. Rescheduling an entity set earlier leaves its previous
+     * timer on the wheel, which is ignored when it fires as it no longer matches. Deadlines are only kept in memory
+     * as they are read back from the index on every refresh.
+     */
+    private val deadlines = mutableMapOf<UUID, Long>()
+
+    private var nextRefresh = 0L
+
     @Suppress("UNUSED")
     @Scheduled(fixedRate = DATA_DELETION_RATE)
     fun deleteExpiredDataFromEntitySets() {
@@ -67,14 +94,28 @@ class BackgroundExpiredDataDeletionService(
             return
         }
 
-        logger.info("Starting background expired data deletion task.")
         try {
+            val now = System.currentTimeMillis()
+            if (now >= nextRefresh) {
+                refreshSchedule()
+                nextRefresh = now + SCHEDULE_REFRESH_RATE
+            }
+
+            val dueEntitySetIds = timerWheel.advance(now)
+                    .filter { entitySetId -> deadlines[entitySetId]?.let { it <= now } ?: false }
+                    .toSet()
+
+            if (dueEntitySetIds.isEmpty()) {
+                return
+            }
+
+            logger.info("Starting deletion of expired data from {} entity sets.", dueEntitySetIds.size)
             val w = Stopwatch.createStarted()
-            //We shuffle entity sets to make sure we have a chance to work share and index everything
-            val totalDeleted = entitySets.values
+
+            val totalDeleted = entitySets.getAll(dueEntitySetIds).values
                     .filter { it.hasExpirationPolicy() && !it.isLinking }
-                    .shuffled()
                     .map {
+                        deadlines.remove(it.id)
                         try {
                             deleteExpiredData(it)
                         } catch (e: Exception) {
@@ -84,6 +125,8 @@ class BackgroundExpiredDataDeletionService(
                     }
                     .sum()
 
+            scheduleNextExpirations(dueEntitySetIds)
+
             logger.info(
                     "Completed deleting {} expired elements in {} ms.",
                     totalDeleted,
@@ -95,10 +138,70 @@ class BackgroundExpiredDataDeletionService(
         }
     }
 
-    private fun getBatchOfExpiringEkids(entitySet: EntitySet): MutableSet<UUID> {
-        return dataGraphService.getExpiringEntitiesFromEntitySet(
+    /**
+     * Brings the expiration index in line with the current expiration policies and schedules every entity set with an
+     * expiration policy at its earliest indexed expiration.
+     */
+    private fun refreshSchedule() {
+        val expiringEntitySets = entitySets.values
+                .filter { it.hasExpirationPolicy() && !it.isLinking }
+                .associateBy { it.id }
+        val indexedPolicies = expirationIndex.getIndexedPolicies().toMutableMap()
+
+        (indexedPolicies.keys - expiringEntitySets.keys).forEach { entitySetId ->
+            logger.info("Removing expiration index of entity set {} as it no longer has an expiration policy.", entitySetId)
+            try {
+                expirationIndex.removeEntitySet(entitySetId)
+            } catch (e: Exception) {
+                logger.error("Unable to remove expiration index of entity set {}", entitySetId, e)
+            }
+            deadlines.remove(entitySetId)
+        }
+
+        expiringEntitySets.values
+                .filter { indexedPolicies[it.id] != it.expiration }
+                .forEach { entitySet ->
+                    try {
+                        expirationIndex.rebuild(
+                                entitySet.id,
+                                entitySet.expiration!!,
+                                getExpirationPropertyType(entitySet)
+                        )
+                        indexedPolicies[entitySet.id] = entitySet.expiration!!
+                        deadlines.remove(entitySet.id)
+                    } catch (e: Exception) {
+                        logger.error("Unable to rebuild expiration index of entity set {}", entitySet.id, e)
+                    }
+                }
+
+        scheduleNextExpirations(expiringEntitySets.keys.intersect(indexedPolicies.keys))
+    }
+
+    private fun scheduleNextExpirations(entitySetIds: Set<UUID>) {
+        if (entitySetIds.isEmpty()) {
+            return
+        }
+
+        val minDeadline = System.currentTimeMillis() + MIN_RESCHEDULE_DELAY
+        expirationIndex.getNextExpirations(entitySetIds).forEach { (entitySetId, nextExpiration) ->
+            val deadline = maxOf(nextExpiration.toInstant().toEpochMilli(), minDeadline)
+            val scheduled = deadlines[entitySetId]
+            if (scheduled == null || deadline < scheduled) {
+                deadlines[entitySetId] = deadline
+                timerWheel.schedule(entitySetId, deadline)
+            }
+        }
+    }
+
+    private fun getExpirationPropertyType(entitySet: EntitySet): PropertyType? {
+        return entitySet.expiration!!.startDateProperty.map { edm.getPropertyType(it) }.orElse(null)
+    }
+
+    private fun getBatchOfExpiringEkids(entitySet: EntitySet, expirationPropertyType: PropertyType?): MutableSet<UUID> {
+        return expirationIndex.getExpiredEntities(
                 entitySet.id,
                 entitySet.expiration!!,
+                expirationPropertyType,
                 OffsetDateTime.now()
         ).toMutableSet()
     }
@@ -110,17 +213,19 @@ class BackgroundExpiredDataDeletionService(
                 entitySet.id
         )
 
+        val expirationPropertyType = getExpirationPropertyType(entitySet)
         var totalDeletedEntitiesCount = 0
-        var idsBatch = getBatchOfExpiringEkids(entitySet)
+        var idsBatch = getBatchOfExpiringEkids(entitySet, expirationPropertyType)
 
         while (idsBatch.isNotEmpty()) {
             val deletionJobId = deletionManager.clearOrDeleteEntities(
                     entitySet.id,
-                    idsBatch,
+                    idsBatch.toMutableSet(),
                     entitySet.expiration!!.deleteType
             )
 
             blockUntilJobFinishedOrCanceled(deletionJobId)
+            expirationIndex.removeEntities(entitySet.id, idsBatch)
 
             logger.info(
                     "Completed deleting {} expired elements from entity set {}.",
@@ -145,7 +250,7 @@ class BackgroundExpiredDataDeletionService(
                     )
             )
 
-            idsBatch = getBatchOfExpiringEkids(entitySet)
+            idsBatch = getBatchOfExpiringEkids(entitySet, expirationPropertyType)
         }
 
         return totalDeletedEntitiesCount
@@ -0,0 +1,245 @@
+package com.openlattice.indexing
+
+import com.geekbeast.postgres.streams.BasePostgresIterable
+import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
+import com.hazelcast.core.HazelcastInstance
+import com.hazelcast.query.Predicates
+import com.openlattice.conductor.rpc.ConductorElasticsearchApi
+import com.openlattice.data.storage.DataSourceResolver
+import com.openlattice.data.storage.IndexingMetadataManager
+import com.openlattice.edm.EntitySet
+import com.openlattice.edm.set.EntitySetFlag
+import com.openlattice.hazelcast.HazelcastMap
+import com.openlattice.indexing.configuration.IndexerConfiguration
+import com.openlattice.postgres.DataTables.LAST_INDEX
+import com.openlattice.postgres.DataTables.LAST_WRITE
+import com.openlattice.postgres.PostgresColumn.ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.ID
+import com.openlattice.postgres.PostgresColumn.VERSION
+import com.openlattice.postgres.PostgresTable.IDS
+import com.openlattice.postgres.ResultSetAdapters
+import com.openlattice.postgres.mapstores.EntitySetMapstore
+import io.prometheus.client.Counter
+import io.prometheus.client.Histogram
+import org.slf4j.LoggerFactory
+import org.springframework.scheduling.annotation.Scheduled
+import java.time.OffsetDateTime
+import java.time.temporal.ChronoUnit
+import java.util.*
+import java.util.concurrent.locks.ReentrantLock
+
+const val INDEX_AUDIT_RATE = 900_000L
+
+/**
+ * How many consecutive entities are sampled from each entity set per audit.
+ */
+const val INDEX_AUDIT_SAMPLE_SIZE = 500
+
+/**
+ * Samples in which at least this fraction of entities drifted are repaired as a whole range, since their neighbors
+ * are likely to have drifted as well.
+ */
+const val INDEX_AUDIT_RANGE_REPAIR_RATIO = 0.1
+
+private const val METRICS_NAMESPACE = "indexer"
+
+/**
+ * Measures how far elasticsearch lags behind and diverges from postgres, and repairs what it finds.
+ *
+ * Each audit reads a range of consecutive entities starting at a random id from every entity set:
+ *
+ * - Entities that postgres has not marked as indexed yet are lagging, by the time since they were written.
+ * - Entities that are marked as indexed but whose document is missing, is older than their last write, or still
+ * exists after they were deleted have drifted.
+ *
+ * Drifted entities are marked as not indexed, so that [BackgroundIndexingService] indexes them again in its usual
+ * small batches. If a large part of a sample drifted, every entity in the sampled range is marked.
+ */
+class BackgroundIndexAuditService(
+        hazelcastInstance: HazelcastInstance,
+        private val indexerConfiguration: IndexerConfiguration,
+        private val resolver: DataSourceResolver,
+        private val elasticsearchApi: ConductorElasticsearchApi,
+        private val dataManager: IndexingMetadataManager
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(BackgroundIndexAuditService::class.java)
+
+        private val lagSeconds: Histogram = Histogram.build()
+                .namespace(METRICS_NAMESPACE)
+                .name("index_lag_seconds")
+                .help("Time since sampled entities that are not indexed yet were written")
+                .exponentialBuckets(1.0, 4.0, 10)
+                .register()
+        private val driftRatio: Histogram = Histogram.build()
+                .namespace(METRICS_NAMESPACE)
+                .name("index_drift_ratio")
+                .help("Fraction of sampled entities marked as indexed whose documents disagree with postgres, per entity set")
+                .linearBuckets(0.0, 0.05, 21)
+                .register()
+        private val driftedEntities: Counter = Counter.build()
+                .namespace(METRICS_NAMESPACE)
+                .name("index_drifted_entities")
+                .labelNames("kind")
+                .help("Sampled entities whose documents disagree with postgres, by kind of disagreement")
+                .register()
+        private val repairedEntities: Counter = Counter.build()
+                .namespace(METRICS_NAMESPACE)
+                .name("index_repaired_entities")
+                .help("Entities marked for indexing again by the index audit")
+                .register()
+
+        /**
+         * @param indexedLastWrite The last write recorded in the document of [entity], or null if it has none.
+         * @return How the document of [entity] disagrees with postgres, or null if it agrees.
+         */
+        @JvmStatic
+        internal fun getDrift(entity: SampledEntity, indexedLastWrite: OffsetDateTime?): Drift? {
+            return when {
+                entity.version <= 0 -> if (indexedLastWrite != null) Drift.ORPHANED else null
+                indexedLastWrite == null -> Drift.MISSING
+                indexedLastWrite.isBefore(entity.lastWrite.truncatedTo(ChronoUnit.MILLIS)) -> Drift.STALE
+                else -> null
+            }
+        }
+
+        /**
+         * @return The drifted entities of [indexed], or all of [indexed] if at least [INDEX_AUDIT_RANGE_REPAIR_RATIO]
+         * of them drifted.
+         */
+        @JvmStatic
+        internal fun getEntitiesToRepair(indexed: List<SampledEntity>, drifted: Set<UUID>): Set<UUID> {
+            if (drifted.isEmpty()) {
+                return setOf()
+            }
+
+            return if (drifted.size.toDouble() / indexed.size >= INDEX_AUDIT_RANGE_REPAIR_RATIO) {
+                indexed.mapTo(mutableSetOf()) { it.id }
+            } else {
+                drifted
+            }
+        }
+    }
+
+    internal enum class Drift { MISSING, STALE, ORPHANED }
+
+    internal data class SampledEntity(
+            val id: UUID,
+            val version: Long,
+            val lastWrite: OffsetDateTime,
+            val lastIndex: OffsetDateTime
+    ) {
+        val isIndexed get() = !lastIndex.isBefore(lastWrite)
+    }
+
+    private val entitySets = HazelcastMap.ENTITY_SETS.getMap(hazelcastInstance)
+    private val taskLock = ReentrantLock()
+
+    /**
+     * Preparable sql statement to select a range of consecutive entities of an entity set.
+     * Bind order is the following:
+     * 1. entity set id
+     * 2. first entity key id of the range
+     */
+    private val sampleSql = "SELECT ${ID.name}, ${VERSION.name}, ${LAST_WRITE.name}, ${LAST_INDEX.name} " +
+            "FROM ${IDS.name} " +
+            "WHERE ${ENTITY_SET_ID.name} = ? AND ${ID.name} >= ? " +
+            "ORDER BY ${ID.name} " +
+            "LIMIT $INDEX_AUDIT_SAMPLE_SIZE"
+
+    @Suppress("UNUSED")
+    @Scheduled(fixedRate = INDEX_AUDIT_RATE, initialDelay = INDEX_AUDIT_RATE)
+    fun auditIndexedEntitySets() {
+        if (!indexerConfiguration.backgroundIndexAuditEnabled) {
+            logger.info("Skipping index audit as it is not enabled.")
+            return
+        }
+        if (!taskLock.tryLock()) {
+            logger.info("Not starting new index audit as an existing one is running.")
+            return
+        }
+
+        try {
+            val repaired = entitySets.values(
+                    Predicates.notEqual<UUID, EntitySet>(EntitySetMapstore.FLAGS_INDEX, EntitySetFlag.LINKING)
+            )
+                    .filter { !it.isAudit }
+                    .sumBy {
+                        try {
+                            auditEntitySet(it)
+                        } catch (e: Exception) {
+                            logger.error("Unable to audit index of entity set {} ({})", it.name, it.id, e)
+                            0
+                        }
+                    }
+
+            logger.info("Index audit marked {} entities for indexing.", repaired)
+        } finally {
+            taskLock.unlock()
+        }
+    }
+
+    /**
+     * @return The number of entities marked for indexing.
+     */
+    private fun auditEntitySet(entitySet: EntitySet): Int {
+        val sample = sampleEntitySet(entitySet.id, UUID.randomUUID())
+                .ifEmpty { sampleEntitySet(entitySet.id, UUID(0, 0)) }
+        if (sample.isEmpty()) {
+            return 0
+        }
+
+        val now = OffsetDateTime.now()
+        val (indexed, lagging) = sample.partition { it.isIndexed }
+        lagging.forEach { lagSeconds.observe(ChronoUnit.MILLIS.between(it.lastWrite, now) / 1000.0) }
+
+        if (indexed.isEmpty()) {
+            return 0
+        }
+
+        val indexedLastWrites = elasticsearchApi.getIndexedLastWrites(
+                entitySet.entityTypeId,
+                indexed.mapTo(mutableSetOf()) { it.id }
+        )
+        val drifted = indexed.mapNotNull { entity ->
+            getDrift(entity, indexedLastWrites[entity.id])?.let { entity.id to it }
+        }.toMap()
+
+        driftRatio.observe(drifted.size.toDouble() / indexed.size)
+        drifted.values.forEach { driftedEntities.labels(it.name.toLowerCase()).inc() }
+
+        val toRepair = getEntitiesToRepair(indexed, drifted.keys)
+        if (toRepair.isEmpty()) {
+            return 0
+        }
+
+        logger.info(
+                "{} of {} sampled entities of entity set {} ({}) drifted from their documents. Marking {} for indexing.",
+                drifted.size,
+                indexed.size,
+                entitySet.name,
+                entitySet.id,
+                toRepair.size
+        )
+
+        val repaired = dataManager.markAsNeedsToBeIndexed(entitySet.id, toRepair)
+        repairedEntities.inc(repaired.toDouble())
+        return repaired
+    }
+
+    private fun sampleEntitySet(entitySetId: UUID, from: UUID): List<SampledEntity> {
+        return BasePostgresIterable(
+                PreparedStatementHolderSupplier(resolver.resolve(entitySetId), sampleSql, INDEX_AUDIT_SAMPLE_SIZE) {
+                    it.setObject(1, entitySetId)
+                    it.setObject(2, from)
+                }
+        ) {
+            SampledEntity(
+                    ResultSetAdapters.id(it),
+                    ResultSetAdapters.version(it),
+                    ResultSetAdapters.lastWriteTyped(it),
+                    it.getObject(LAST_INDEX.name, OffsetDateTime::class.java)
+            )
+        }.toList()
+    }
+}
@@ -29,6 +29,7 @@ import com.openlattice.conductor.rpc.ConductorElasticsearchApi
 import com.openlattice.data.storage.DataSourceResolver
 import com.openlattice.data.storage.IndexingMetadataManager
 import com.openlattice.data.storage.MetadataOption
+import com.openlattice.data.storage.Workload
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService
 import com.openlattice.edm.EntitySet
 import com.openlattice.edm.set.EntitySetFlag
@@ -192,11 +193,13 @@ class BackgroundIndexingService(
      * which are not yet indexed.
      */
     private fun indexEntitySet(entitySet: IndexerEntitySetMetadata, reindexAll: Boolean = false): Int {
+        // the entity data keys are streamed while the entity set is indexed, so it is admitted as a whole
+        return resolver.admit(Workload.BACKGROUND, entitySet.id) {
+            val upsertedEntityCount = indexEntitiesInEntitySet(entitySet, reindexAll, indexTombstoned = false)
+            val tombstonedEntityCount = indexEntitiesInEntitySet(entitySet, reindexAll, indexTombstoned = true)
 
-        val upsertedEntityCount = indexEntitiesInEntitySet(entitySet, reindexAll, indexTombstoned = false)
-        val tombstonedEntityCount = indexEntitiesInEntitySet(entitySet, reindexAll, indexTombstoned = true)
-
-        return upsertedEntityCount + tombstonedEntityCount
+            upsertedEntityCount + tombstonedEntityCount
+        }
     }
 
     /**
@@ -0,0 +1,103 @@
+package com.openlattice.indexing
+
+/**
+ * A hierarchical timer wheel for scheduling items at millisecond deadlines with a resolution of [tickMillis].
+ *
+ * Level 0 has one slot per tick and every higher level has slots that span all of the slots of the level below it.
+ * Scheduling and advancing by a tick are constant time, with items on higher levels cascading down as their slots
+ * come due. Items whose deadline lies beyond the span of the top level are kept aside until they fit.
+ *
+ * This class is not thread safe.
+ */
+class HierarchicalTimerWheel<T>(
+        private val tickMillis: Long,
+        startMillis: Long,
+        private val wheelSize: Int = 64,
+        private val levels: Int = 4
+) {
+    private data class Timer<T>(val item: T, val deadlineTick: Long)
+
+    private val wheels = Array(levels) { Array(wheelSize) { mutableListOf<Timer<T>>() } }
+    private val levelSpans = LongArray(levels + 1).also { spans ->
+        spans[0] = 1
+        (1..levels).forEach { spans[it] = spans[it - 1] * wheelSize }
+    }
+    private val overflow = mutableListOf<Timer<T>>()
+    private val due = mutableListOf<T>()
+    private var currentTick = startMillis / tickMillis
+
+    var size: Int = 0
+        private set
+
+    init {
+        check(tickMillis > 0) { "Tick must be positive." }
+        check(wheelSize > 1) { "Wheel size must be greater than one." }
+        check(levels > 0) { "There must be at least one level." }
+    }
+
+    /**
+     * Schedules [item] to be returned by the first call to [advance] whose time is at or after [deadlineMillis].
+     */
+    fun schedule(item: T, deadlineMillis: Long) {
+        place(Timer(item, deadlineMillis / tickMillis))
+        size++
+    }
+
+    /**
+     * Advances the wheel to [nowMillis].
+     *
+     * @return All items whose deadline is at or before [nowMillis], in no particular order.
+     */
+    fun advance(nowMillis: Long): List<T> {
+        val nowTick = nowMillis / tickMillis
+
+        while (currentTick < nowTick) {
+            currentTick++
+
+            if (currentTick % levelSpans[levels - 1] == 0L) {
+                cascade(overflow)
+            }
+
+            (levels - 1 downTo 1).forEach { level ->
+                if (currentTick % levelSpans[level] == 0L) {
+                    cascade(wheels[level][slotOf(currentTick, level)])
+                }
+            }
+
+            val slot = wheels[0][slotOf(currentTick, 0)]
+            slot.forEach { due.add(it.item) }
+            slot.clear()
+        }
+
+        val expired = due.toList()
+        due.clear()
+        size -= expired.size
+        return expired
+    }
+
+    private fun cascade(timers: MutableList<Timer<T>>) {
+        val cascading = timers.toList()
+        timers.clear()
+        cascading.forEach(::place)
+    }
+
+    private fun place(timer: Timer<T>) {
+        val delta = timer.deadlineTick - currentTick
+
+        if (delta <= 0) {
+            due.add(timer.item)
+            return
+        }
+
+        val level = (0 until levels).firstOrNull { delta < levelSpans[it + 1] }
+        if (level == null) {
+            overflow.add(timer)
+        } else {
+            wheels[level][slotOf(timer.deadlineTick, level)].add(timer)
+        }
+    }
+
+    private fun slotOf(tick: Long, level: Int): Int {
+        return ((tick / levelSpans[level]) % wheelSize).toInt()
+    }
+}
@@ -42,6 +42,8 @@ private const val BACKGROUND_LINKING_INDEXING_ENABLED = "background-linking-inde
 private const val BACKGROUND_EXPIRED_DATA_DELETION_ENABLED = "background-expired-data-deletion-enabled"
 private const val BACKGROUND_EXTERNAL_DATABASE_SYNCING_ENABLED = "background-external-database-syncing-enabled"
 private const val BACKGROUND_DELETION_ENABLED = "background-deletion-enabled"
+private const val BACKGROUND_PROJECTION_REPLICATION_ENABLED = "background-projection-replication-enabled"
+private const val BACKGROUND_INDEX_AUDIT_ENABLED = "background-index-audit-enabled"
 
 @ReloadableConfiguration(uri = "indexer.yaml")
 data class IndexerConfiguration(
@@ -52,6 +54,8 @@ data class IndexerConfiguration(
         @JsonProperty(BACKGROUND_EXPIRED_DATA_DELETION_ENABLED) val backgroundExpiredDataDeletionEnabled: Boolean = true,
         @JsonProperty(BACKGROUND_EXTERNAL_DATABASE_SYNCING_ENABLED) val backgroundExternalDatabaseSyncingEnabled: Boolean = true,
         @JsonProperty(BACKGROUND_DELETION_ENABLED) val backgroundDeletionEnabled: Boolean = true,
+        @JsonProperty(BACKGROUND_PROJECTION_REPLICATION_ENABLED) val backgroundProjectionReplicationEnabled: Boolean = true,
+        @JsonProperty(BACKGROUND_INDEX_AUDIT_ENABLED) val backgroundIndexAuditEnabled: Boolean = true,
         @JsonProperty("parallelism") val parallelism : Int = Runtime.getRuntime().availableProcessors()
 ) : Configuration {
     companion object {
@@ -0,0 +1,63 @@
+package com.openlattice
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class BackgroundExternalDatabaseSyncingServiceTest {
+    private val oid = 16384L
+    private val syncedTable = SyncedTable("before grants", UUID.randomUUID(), setOf(UUID.randomUUID()))
+
+    /**
+     * Runs a pass the way the service does: syncs the changed tables, which re-applies their grants and so changes
+     * their fingerprints, and records the fingerprints after the sync.
+     */
+    private fun pass(
+        syncedTables: Map<Long, SyncedTable>,
+        fingerprints: Map<Long, String>,
+        fingerprintsAfterGrants: Map<Long, String>
+    ): Pair<Set<Long>, Map<Long, SyncedTable>> {
+        val changedTables = BackgroundExternalDatabaseSyncingService.getChangedTables(syncedTables, fingerprints)
+        val currentlySyncedTables = syncedTables.filterKeys { it !in changedTables } +
+                changedTables.mapValues { (_, fingerprint) -> syncedTable.copy(fingerprint = fingerprint) }
+
+        return changedTables.keys to BackgroundExternalDatabaseSyncingService.withFingerprintsAfterSync(
+            currentlySyncedTables,
+            changedTables.keys,
+            fingerprintsAfterGrants
+        )
+    }
+
+    @Test
+    fun testUnchangedTablesAreSkippedOnTheNextPass() {
+        val (firstPass, syncedTables) = pass(mapOf(), mapOf(oid to "before grants"), mapOf(oid to "after grants"))
+        Assert.assertEquals(setOf(oid), firstPass)
+        Assert.assertEquals("after grants", syncedTables.getValue(oid).fingerprint)
+
+        val (secondPass, _) = pass(syncedTables, mapOf(oid to "after grants"), mapOf(oid to "after grants"))
+        Assert.assertEquals(setOf<Long>(), secondPass)
+    }
+
+    @Test
+    fun testTablesChangedAfterTheirSyncAreSyncedAgain() {
+        val (_, syncedTables) = pass(mapOf(), mapOf(oid to "before grants"), mapOf(oid to "after grants"))
+
+        val (nextPass, _) = pass(syncedTables, mapOf(oid to "column added"), mapOf(oid to "column added"))
+        Assert.assertEquals(setOf(oid), nextPass)
+    }
+
+    @Test
+    fun testOnlyTablesSyncedByThePassTakeTheirFingerprintAfterTheSync() {
+        val otherOid = oid + 1
+        val syncedTables = mapOf(oid to syncedTable, otherOid to syncedTable)
+
+        val recorded = BackgroundExternalDatabaseSyncingService.withFingerprintsAfterSync(
+            syncedTables,
+            setOf(oid),
+            mapOf(otherOid to "granted elsewhere")
+        )
+
+        // dropped during the sync, and not synced by the pass
+        Assert.assertEquals(syncedTables, recorded)
+    }
+}
@@ -0,0 +1,57 @@
+package com.openlattice.indexing
+
+import com.openlattice.indexing.BackgroundIndexAuditService.Drift
+import com.openlattice.indexing.BackgroundIndexAuditService.SampledEntity
+import org.junit.Assert
+import org.junit.Test
+import java.time.OffsetDateTime
+import java.util.*
+
+class BackgroundIndexAuditServiceTest {
+    private val lastWrite = OffsetDateTime.parse("2021-03-04T05:06:07.123456Z")
+
+    private fun entity(version: Long = 1): SampledEntity {
+        return SampledEntity(UUID.randomUUID(), version, lastWrite, lastWrite)
+    }
+
+    @Test
+    fun testDocumentsAreComparedWithTheirLastWrite() {
+        val entity = entity()
+
+        Assert.assertNull(BackgroundIndexAuditService.getDrift(entity, lastWrite))
+        Assert.assertNull(BackgroundIndexAuditService.getDrift(entity, lastWrite.plusSeconds(1)))
+        Assert.assertEquals(Drift.MISSING, BackgroundIndexAuditService.getDrift(entity, null))
+        Assert.assertEquals(Drift.STALE, BackgroundIndexAuditService.getDrift(entity, lastWrite.minusSeconds(1)))
+
+        // documents without a last write are read as the oldest possible write
+        Assert.assertEquals(Drift.STALE, BackgroundIndexAuditService.getDrift(entity, OffsetDateTime.MIN))
+    }
+
+    @Test
+    fun testDocumentsOnlyKeepMillisecondsOfTheLastWrite() {
+        val indexedLastWrite = OffsetDateTime.parse("2021-03-04T05:06:07.123Z")
+        Assert.assertNull(BackgroundIndexAuditService.getDrift(entity(), indexedLastWrite))
+    }
+
+    @Test
+    fun testDocumentsOfDeletedEntitiesAreOrphaned() {
+        Assert.assertEquals(Drift.ORPHANED, BackgroundIndexAuditService.getDrift(entity(-2), lastWrite))
+        Assert.assertEquals(Drift.ORPHANED, BackgroundIndexAuditService.getDrift(entity(0), lastWrite))
+        Assert.assertNull(BackgroundIndexAuditService.getDrift(entity(-2), null))
+    }
+
+    @Test
+    fun testLargeDriftsAreRepairedAsAWholeRange() {
+        val indexed = (1..20).map { entity() }
+        val ids = indexed.mapTo(mutableSetOf()) { it.id }
+
+        Assert.assertEquals(setOf<UUID>(), BackgroundIndexAuditService.getEntitiesToRepair(indexed, setOf()))
+
+        val drifted = setOf(indexed[3].id)
+        Assert.assertEquals(drifted, BackgroundIndexAuditService.getEntitiesToRepair(indexed, drifted))
+
+        // 2 of 20 is INDEX_AUDIT_RANGE_REPAIR_RATIO
+        val rangeDrifted = setOf(indexed[3].id, indexed[7].id)
+        Assert.assertEquals(ids, BackgroundIndexAuditService.getEntitiesToRepair(indexed, rangeDrifted))
+    }
+}
@@ -0,0 +1,44 @@
+package com.openlattice.indexing
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class HierarchicalTimerWheelTest {
+
+    @Test
+    fun testItemsExpireAtDeadline() {
+        // A small wheel spans 16 ticks, so later deadlines exercise cascading and overflow.
+        val wheel = HierarchicalTimerWheel<Int>(tickMillis = 1, startMillis = 0, wheelSize = 4, levels = 2)
+        val random = Random(42)
+        val deadlines = mutableMapOf<Int, Long>()
+
+        var now = 0L
+        var item = 0
+        while (now < 1_000) {
+            repeat(random.nextInt(3)) {
+                val deadline = now + random.nextInt(100)
+                deadlines[item] = deadline
+                wheel.schedule(item++, deadline)
+            }
+
+            now += 1 + random.nextInt(5)
+            val expected = deadlines.filterValues { it <= now }.keys
+            val expired = wheel.advance(now)
+
+            Assert.assertEquals(expected, expired.toSet())
+            Assert.assertEquals(expected.size, expired.size)
+            expected.forEach { deadlines.remove(it) }
+            Assert.assertEquals(deadlines.size, wheel.size)
+        }
+    }
+
+    @Test
+    fun testPastDeadlinesExpireImmediately() {
+        val wheel = HierarchicalTimerWheel<String>(tickMillis = 1_000, startMillis = 10_000)
+        wheel.schedule("past", 5_000)
+
+        Assert.assertEquals(listOf("past"), wheel.advance(10_000))
+        Assert.assertEquals(0, wheel.size)
+    }
+}
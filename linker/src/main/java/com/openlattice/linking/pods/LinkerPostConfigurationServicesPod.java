@@ -141,6 +141,8 @@ public class LinkerPostConfigurationServicesPod {
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.E );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.IDS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATIONS );
+        dataSourceManager.registerTablesWithAllDatasources( PostgresTable.DATA_EXPIRATION_POLICIES );
         dataSourceManager.registerTablesWithAllDatasources( PostgresTable.SYNC_IDS );
         return new DataSourceResolver( hazelcastInstance, dataSourceManager );
     }
@@ -203,7 +205,7 @@ public class LinkerPostConfigurationServicesPod {
 
     @Bean
     public DataGraphManager dgm() {
-        return new DataGraphService(graphService(), idService(), entityDatastore(), jobService() );
+        return new DataGraphService(graphService(), idService(), entityDatastore(), jobService(), null );
     }
 
     @Bean
@@ -22,6 +22,8 @@ package com.openlattice.mail;
 
 import com.hazelcast.collection.IQueue;
 
+import java.util.Collection;
+
 public class MailServiceClient {
     private final IQueue<RenderableEmailRequest> emailRequestQueue;
 
@@ -33,4 +35,10 @@ public class MailServiceClient {
         emailRequestQueue.add( emailRequest );
     }
 
+    public void spoolAll( Collection<RenderableEmailRequest> emailRequests ) {
+        if ( !emailRequests.isEmpty() ) {
+            emailRequestQueue.addAll( emailRequests );
+        }
+    }
+
 }
@@ -9,6 +9,7 @@ pluginManagement {
         id("com.github.johnrengelman.shadow")           version "2.0.0" apply false
         id("org.jetbrains.kotlin.plugin.spring")        version "1.6.10" apply false
         id("com.github.jk1.dependency-license-report")  version "1.16" apply false
+        id("me.champeau.jmh")                           version "0.6.6" apply false
     }
     repositories {
         maven(url = "https://plugins.gradle.org/m2/")
@@ -19,6 +20,7 @@ pluginManagement {
 rootProject.name="openlattice"
 
 include("api")
+include("benchmarks")
 include("conductor-client")
 include("conductor")
 include("courier")